@@ -5,7 +5,9 @@ public enum CliOption {
     PASSWORD,
     URL(),
     LOCATIONS,
-    LOG_LEVEL("logLevel");
+    SCHEMAS,
+    LOG_LEVEL("logLevel"),
+    OUTPUT_TYPE("outputType");
 
     private String cliOption;
 
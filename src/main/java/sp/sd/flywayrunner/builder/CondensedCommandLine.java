@@ -0,0 +1,141 @@
+package sp.sd.flywayrunner.builder;
+
+import hudson.Launcher;
+import hudson.model.TaskListener;
+import hudson.util.ArgumentListBuilder;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import jenkins.security.MasterToSlaveCallable;
+import org.apache.commons.io.output.TeeOutputStream;
+import sp.sd.flywayrunner.results.FlywayCommandResult;
+import sp.sd.flywayrunner.results.FlywayJsonOutputParser;
+import sp.sd.flywayrunner.results.FlywayTextOutputParser;
+
+/**
+ * Runs the Flyway command line on the agent in {@link LogMode#CONDENSED} mode.  Its output is condensed, watched for
+ * fatal patterns and parsed on the agent, so only the lines kept for the console and the results reach the
+ * controller.
+ */
+class CondensedCommandLine extends MasterToSlaveCallable<CondensedCommandLine.Outcome, IOException> {
+    private static final long serialVersionUID = 1L;
+
+    private final TaskListener listener;
+    private final ArgumentListBuilder command;
+    private final String javaArgs;
+    private final List<String> fatalPatterns;
+    private final boolean jsonOutput;
+    private final String effectiveCommand;
+    private final CondensedLog log;
+
+    CondensedCommandLine(
+            TaskListener listener,
+            ArgumentListBuilder command,
+            String javaArgs,
+            List<String> fatalPatterns,
+            boolean jsonOutput,
+            String effectiveCommand,
+            CondensedLog log) {
+        this.listener = listener;
+        this.command = command;
+        this.javaArgs = javaArgs;
+        this.fatalPatterns = new ArrayList<>(fatalPatterns);
+        this.jsonOutput = jsonOutput;
+        this.effectiveCommand = effectiveCommand;
+        this.log = log;
+    }
+
+    /**
+     * What the command line did.
+     */
+    static final class Outcome implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final int exitStatus;
+        private final ArrayList<FlywayCommandResult> results;
+        private final ArrayList<FlywayCommandResult> textResults;
+        private final LinkedHashMap<String, Long> phases;
+
+        Outcome(
+                int exitStatus,
+                ArrayList<FlywayCommandResult> results,
+                ArrayList<FlywayCommandResult> textResults,
+                LinkedHashMap<String, Long> phases) {
+            this.exitStatus = exitStatus;
+            this.results = results;
+            this.textResults = textResults;
+            this.phases = phases;
+        }
+
+        int getExitStatus() {
+            return exitStatus;
+        }
+
+        /**
+         * @return the parsed results, with the failure described if the process failed.
+         */
+        ArrayList<FlywayCommandResult> getResults() {
+            return results;
+        }
+
+        /**
+         * @return what the text output told about the commands, empty with JSON output.
+         */
+        ArrayList<FlywayCommandResult> getTextResults() {
+            return textResults;
+        }
+
+        /**
+         * @see FlywayOutputMonitor#phases
+         */
+        LinkedHashMap<String, Long> getPhases() {
+            return phases;
+        }
+    }
+
+    @Override
+    public Outcome call() throws IOException {
+        FlywayOutputMonitor monitor = new FlywayOutputMonitor(fatalPatterns);
+        OutputStream out = new TeeOutputStream(log.open(listener.getLogger()), monitor);
+        FlywayJsonOutputParser parser = null;
+        FlywayTextOutputParser textParser = null;
+        if (jsonOutput) {
+            parser = new FlywayJsonOutputParser();
+            out = new TeeOutputStream(out, parser);
+        } else {
+            textParser = new FlywayTextOutputParser();
+            out = new TeeOutputStream(out, textParser);
+        }
+        Launcher.ProcStarter starter =
+                new Launcher.LocalLauncher(listener).launch().cmds(command).stdout(out);
+        if (javaArgs != null) {
+            starter.envs(FlywayBuilder.JAVA_ARGS + "=" + javaArgs);
+        }
+        long started = System.nanoTime();
+        int exitStatus;
+        try {
+            exitStatus = monitor.join(starter.start(), listener);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw (IOException) new InterruptedIOException("Interrupted while Flyway was running").initCause(e);
+        } finally {
+            out.close();
+        }
+        ArrayList<FlywayCommandResult> results = new ArrayList<>();
+        if (parser != null) {
+            results.addAll(parser.getResults());
+        }
+        ArrayList<FlywayCommandResult> textResults = new ArrayList<>();
+        if (textParser != null) {
+            textResults.addAll(textParser.getResults());
+        }
+        if (exitStatus != 0) {
+            monitor.describeFailure(effectiveCommand, results, listener);
+        }
+        return new Outcome(exitStatus, results, textResults, monitor.phases(started, System.nanoTime()));
+    }
+}
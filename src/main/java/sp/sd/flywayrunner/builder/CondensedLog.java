@@ -0,0 +1,171 @@
+package sp.sd.flywayrunner.builder;
+
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.console.LineTransformationOutputStream;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.slaves.WorkspaceList;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+import jenkins.util.BuildListenerAdapter;
+
+/**
+ * The full output of a Flyway run in {@link LogMode#CONDENSED} mode.  The output is gzipped into a file next to the
+ * workspace by the JVM which runs Flyway, while the console only gets the lines {@link Summary} keeps.  Once Flyway
+ * has finished the file is archived as an artifact of the build and deleted.
+ */
+final class CondensedLog implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private static final String DIRECTORY = "flyway-logs";
+
+    private final String artifactPath;
+    private final String remote;
+    private final long progressMillis;
+
+    private CondensedLog(String artifactPath, String remote, long progressMillis) {
+        this.artifactPath = artifactPath;
+        this.remote = remote;
+        this.progressMillis = progressMillis;
+    }
+
+    /**
+     * Picks the artifact the full output of a target is archived as, which no earlier step of the build used.
+     * @param progressMillis how often the console is told about applied migrations.
+     */
+    static CondensedLog create(Run<?, ?> build, FilePath workspace, String targetName, long progressMillis)
+            throws IOException, InterruptedException {
+        FilePath directory = WorkspaceList.tempDir(workspace);
+        if (directory == null) {
+            throw new IOException("No temporary directory for " + workspace);
+        }
+        directory = directory.child(DIRECTORY);
+        directory.mkdirs();
+        String baseName = "flyway-" + targetName.replaceAll("[^A-Za-z0-9._-]+", "_");
+        String fileName = baseName + ".log.gz";
+        int index = 1;
+        while (build.getArtifactManager().root().child(DIRECTORY + "/" + fileName).exists()
+                || directory.child(fileName).exists()) {
+            fileName = baseName + "-" + ++index + ".log.gz";
+        }
+        return new CondensedLog(
+                DIRECTORY + "/" + fileName, directory.child(fileName).getRemote(), progressMillis);
+    }
+
+    /**
+     * Opens the file in the JVM it is on.
+     * @param console where the condensed output goes.
+     */
+    Summary open(PrintStream console) throws IOException {
+        return new Summary(console, Files.newOutputStream(Paths.get(remote)), progressMillis);
+    }
+
+    /**
+     * Opens the file through the channel of the workspace, for output which streams to the controller anyway.
+     */
+    Summary open(PrintStream console, FilePath workspace) throws IOException, InterruptedException {
+        return new Summary(console, new FilePath(workspace.getChannel(), remote).write(), progressMillis);
+    }
+
+    /**
+     * Archives the file, if Flyway got to write it, and deletes it.
+     */
+    void archive(Run<?, ?> build, FilePath workspace, Launcher launcher, TaskListener listener)
+            throws IOException, InterruptedException {
+        FilePath file = new FilePath(workspace.getChannel(), remote);
+        if (!file.exists()) {
+            return;
+        }
+        build.pickArtifactManager()
+                .archive(
+                        file.getParent(),
+                        launcher,
+                        BuildListenerAdapter.wrap(listener),
+                        Collections.singletonMap(artifactPath, file.getName()));
+        file.delete();
+        listener.getLogger().println("Full Flyway output archived as " + artifactPath);
+    }
+
+    /**
+     * Writes every line to the gzipped file and passes on to the console the Flyway banner, database and result
+     * lines, warnings and the whole error report.  Migrations are counted instead and the count, with the last one
+     * applied, is printed at most every few seconds.
+     */
+    static final class Summary extends LineTransformationOutputStream {
+        private static final String[] SHOWN = {"Flyway ", "Database:", "Schema version:", "Successfully", "WARNING"};
+        private static final String ERROR = "ERROR";
+        private static final String MIGRATING = "Migrating ";
+
+        private final PrintStream console;
+        private final OutputStream full;
+        private final long progressNanos;
+        private long lines;
+        private long shownLines;
+        private int migrations;
+        private int reportedMigrations;
+        private String lastMigration;
+        private long lastProgress = System.nanoTime();
+        private boolean inError;
+
+        private Summary(PrintStream console, OutputStream full, long progressMillis) throws IOException {
+            this.console = console;
+            this.full = new GZIPOutputStream(full);
+            this.progressNanos = TimeUnit.MILLISECONDS.toNanos(progressMillis);
+        }
+
+        @Override
+        protected void eol(byte[] b, int len) throws IOException {
+            full.write(b, 0, len);
+            lines++;
+            String line = new String(b, 0, len, StandardCharsets.UTF_8);
+            String trimmed = line.trim();
+            if (trimmed.startsWith(MIGRATING)) {
+                migrations++;
+                lastMigration = trimmed;
+            } else if (inError || trimmed.startsWith(ERROR)) {
+                inError = true;
+                show(line);
+            } else {
+                for (String prefix : SHOWN) {
+                    if (trimmed.startsWith(prefix)) {
+                        progress();
+                        show(line);
+                        break;
+                    }
+                }
+            }
+            if (System.nanoTime() - lastProgress >= progressNanos) {
+                progress();
+            }
+        }
+
+        private void show(String line) {
+            console.print(line);
+            shownLines++;
+        }
+
+        private void progress() {
+            lastProgress = System.nanoTime();
+            if (migrations > reportedMigrations) {
+                reportedMigrations = migrations;
+                console.println("Flyway progress: " + migrations + " migration(s) started, last: " + lastMigration);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            super.close();
+            progress();
+            full.close();
+            console.println("Flyway printed " + lines + " lines, " + shownLines + " shown in condensed mode");
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package sp.sd.flywayrunner.builder;
+
+import hudson.model.TaskListener;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import sp.sd.flywayrunner.results.FlywayCommandResult;
+
+/**
+ * Runs Flyway commands in the warm {@link FlywayDaemon} session of an installation on the agent.  The commands run
+ * the plugin's bundled Flyway with the installation's drivers; a different installed Flyway version is warned about.
+ */
+class DaemonFlywayCommand extends EmbeddedFlywayCommand {
+    private static final long serialVersionUID = 1L;
+
+    private final String installationName;
+    private final String installationHome;
+    private final long idleTimeoutMillis;
+    private final int maxConcurrentCommands;
+
+    DaemonFlywayCommand(
+            TaskListener listener,
+            List<String> commands,
+            Map<String, String> configuration,
+            String installationName,
+            String installationHome,
+            long idleTimeoutMillis,
+            int maxConcurrentCommands) {
+        super(listener, commands, configuration);
+        this.installationName = installationName;
+        this.installationHome = installationHome;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.maxConcurrentCommands = maxConcurrentCommands;
+    }
+
+    @Override
+    public ArrayList<FlywayCommandResult> call() throws IOException {
+        FlywayDaemon.Session session;
+        try {
+            // a session retired while waiting for a slot is replaced by a new one
+            do {
+                session = FlywayDaemon.session(
+                        installationName, installationHome, idleTimeoutMillis, maxConcurrentCommands);
+            } while (!session.acquire());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the Flyway daemon of " + installationName, e);
+        }
+        try {
+            PrintStream logger = getListener().getLogger();
+            String bundled = FlywayDaemon.bundledVersion();
+            String installed = FlywayDaemon.installedVersion(installationHome);
+            logger.println("Using Flyway daemon for " + installationName + " (" + session.getCommandsServed()
+                    + " commands served so far), running the plugin's Flyway "
+                    + (bundled == null ? "" : bundled + " ") + "with the installation's drivers");
+            if (bundled != null && installed != null && !bundled.equals(installed)) {
+                logger.println("WARNING: " + installationName + " is Flyway " + installed
+                        + ", the daemon runs Flyway " + bundled + " instead");
+            }
+            return run(session.getClassLoader(DaemonFlywayCommand.class.getClassLoader()));
+        } finally {
+            session.release();
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package sp.sd.flywayrunner.builder;
+
+import com.cloudbees.plugins.credentials.CredentialsMatchers;
+import com.cloudbees.plugins.credentials.CredentialsProvider;
+import com.cloudbees.plugins.credentials.common.StandardCredentials;
+import com.cloudbees.plugins.credentials.common.StandardListBoxModel;
+import com.cloudbees.plugins.credentials.common.StandardUsernameCredentials;
+import com.cloudbees.plugins.credentials.common.StandardUsernamePasswordCredentials;
+import com.google.common.base.Strings;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import hudson.AbortException;
+import hudson.Extension;
+import hudson.model.Item;
+import hudson.model.Run;
+import hudson.model.listeners.RunListener;
+import hudson.security.ACL;
+import hudson.util.ListBoxModel;
+import hudson.util.Secret;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.jenkinsci.plugins.plaincredentials.StringCredentials;
+
+/**
+ * The user and password Flyway connects with, resolved from a credentials id.  Credentials are looked up by id once
+ * per build and kept until the build is finalized, so steps with several targets, checks and snapshots do not search
+ * the credentials of the job again for each of them.
+ * <p>
+ * Username with password credentials give both; secret text credentials give a password, such as an access token,
+ * and other username credentials give a user only.
+ */
+final class DatabaseCredentials {
+    private static final Map<String, Map<String, DatabaseCredentials>> RESOLVED = new ConcurrentHashMap<>();
+
+    private final @CheckForNull String username;
+    private final @CheckForNull Secret password;
+
+    private DatabaseCredentials(@CheckForNull String username, @CheckForNull Secret password) {
+        this.username = username;
+        this.password = password;
+    }
+
+    @CheckForNull
+    String getUsername() {
+        return username;
+    }
+
+    @CheckForNull
+    String getPassword() {
+        return password == null ? null : Secret.toString(password);
+    }
+
+    /**
+     * @return the credentials with the id as seen by the build, {@code null} if no id is given.
+     * @throws AbortException if there are no usable credentials with that id.
+     */
+    @CheckForNull
+    static DatabaseCredentials resolve(Run<?, ?> build, @CheckForNull String credentialsId) throws AbortException {
+        if (Strings.isNullOrEmpty(credentialsId)) {
+            return null;
+        }
+        Map<String, DatabaseCredentials> resolved =
+                RESOLVED.computeIfAbsent(build.getExternalizableId(), id -> new ConcurrentHashMap<>());
+        DatabaseCredentials credentials = resolved.get(credentialsId);
+        if (credentials == null) {
+            credentials = lookup(build, credentialsId);
+            resolved.put(credentialsId, credentials);
+        }
+        return credentials;
+    }
+
+    /**
+     * @return the credentials with the id as seen by the build, looked up again.
+     */
+    static DatabaseCredentials lookup(Run<?, ?> build, String credentialsId) throws AbortException {
+        return of(
+                CredentialsProvider.findCredentialById(credentialsId, StandardCredentials.class, build),
+                credentialsId,
+                build.getParent());
+    }
+
+    /**
+     * @return the credentials with the id the item may use, {@code null} if no id is given.
+     * @throws AbortException if there are no usable credentials with that id.
+     */
+    @CheckForNull
+    static DatabaseCredentials lookup(Item item, @CheckForNull String credentialsId) throws AbortException {
+        if (Strings.isNullOrEmpty(credentialsId)) {
+            return null;
+        }
+        return of(find(item, credentialsId, StandardCredentials.class), credentialsId, item);
+    }
+
+    /**
+     * @return the credentials of the type with the id the item may use, {@code null} if there are none.
+     */
+    @CheckForNull
+    static <C extends StandardCredentials> C find(Item item, String credentialsId, Class<C> type) {
+        return CredentialsMatchers.firstOrNull(
+                CredentialsProvider.lookupCredentialsInItem(type, item, ACL.SYSTEM2, Collections.emptyList()),
+                CredentialsMatchers.withId(credentialsId));
+    }
+
+    private static DatabaseCredentials of(
+            @CheckForNull StandardCredentials credentials, String credentialsId, Item owner) throws AbortException {
+        if (credentials == null) {
+            throw new AbortException(
+                    "Could not find the credentials " + credentialsId + " for " + owner.getFullDisplayName());
+        }
+        if (credentials instanceof StandardUsernamePasswordCredentials) {
+            StandardUsernamePasswordCredentials usernamePassword = (StandardUsernamePasswordCredentials) credentials;
+            return new DatabaseCredentials(usernamePassword.getUsername(), usernamePassword.getPassword());
+        }
+        if (credentials instanceof StringCredentials) {
+            return new DatabaseCredentials(null, ((StringCredentials) credentials).getSecret());
+        }
+        if (credentials instanceof StandardUsernameCredentials) {
+            return new DatabaseCredentials(((StandardUsernameCredentials) credentials).getUsername(), null);
+        }
+        throw new AbortException("The credentials " + credentialsId + " are a "
+                + credentials.getDescriptor().getDisplayName()
+                + "; use username with password, secret text or username credentials");
+    }
+
+    /**
+     * @return the credentials a step of the item may connect with.
+     */
+    static ListBoxModel listBoxModel(@CheckForNull Item owner) {
+        if (owner == null || !owner.hasPermission(Item.CONFIGURE)) {
+            return new ListBoxModel();
+        }
+        return new StandardListBoxModel()
+                .includeEmptyValue()
+                .includeAs(ACL.SYSTEM2, owner, StandardUsernamePasswordCredentials.class)
+                .includeAs(ACL.SYSTEM2, owner, StringCredentials.class);
+    }
+
+    /**
+     * Forgets the credentials of builds once they are finalized.
+     */
+    @Extension
+    public static final class Cleanup extends RunListener<Run<?, ?>> {
+        @Override
+        public void onFinalized(Run<?, ?> run) {
+            RESOLVED.remove(run.getExternalizableId());
+        }
+    }
+}
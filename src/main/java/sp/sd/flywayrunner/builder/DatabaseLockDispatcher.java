@@ -0,0 +1,59 @@
+package sp.sd.flywayrunner.builder;
+
+import hudson.EnvVars;
+import hudson.Extension;
+import hudson.model.ParameterValue;
+import hudson.model.ParametersAction;
+import hudson.model.Project;
+import hudson.model.Queue;
+import hudson.model.queue.CauseOfBlockage;
+import hudson.model.queue.QueueTaskDispatcher;
+import java.util.ArrayList;
+import java.util.List;
+import sp.sd.flywayrunner.lock.DatabaseLocks;
+
+/**
+ * Keeps freestyle builds whose Flyway steps lock their database in the queue, before they take an executor, until
+ * {@link DatabaseLocks} reserves the databases for them.  Urls are expanded with the parameters of the queued build;
+ * those still referring to other variables are only known once the build runs, and the step waits for them then.
+ */
+@Extension
+public class DatabaseLockDispatcher extends QueueTaskDispatcher {
+
+    @Override
+    public CauseOfBlockage canRun(Queue.Item item) {
+        if (!(item.task instanceof Project)) {
+            return null;
+        }
+        List<String> urls = urlsOf((Project<?, ?>) item.task, item.getAction(ParametersAction.class));
+        return urls.isEmpty() ? null : DatabaseLocks.get().reserve(urls, item);
+    }
+
+    /**
+     * @return the expanded urls of the targets of the project's steps which lock their database.
+     */
+    static List<String> urlsOf(Project<?, ?> project, ParametersAction parameters) {
+        EnvVars env = new EnvVars();
+        if (parameters != null) {
+            for (ParameterValue parameter : parameters.getAllParameters()) {
+                Object value = parameter.getValue();
+                if (value instanceof String || value instanceof Boolean || value instanceof Number) {
+                    env.put(parameter.getName(), value.toString());
+                }
+            }
+        }
+        List<String> urls = new ArrayList<>();
+        for (FlywayBuilder builder : project.getBuildersList().getAll(FlywayBuilder.class)) {
+            if (!builder.isLockDatabase()) {
+                continue;
+            }
+            for (FlywayTarget target : builder.getEffectiveTargets()) {
+                String url = target.getUrl() == null ? null : env.expand(target.getUrl());
+                if (url != null && !url.contains("$")) {
+                    urls.add(url);
+                }
+            }
+        }
+        return urls;
+    }
+}
@@ -0,0 +1,107 @@
+package sp.sd.flywayrunner.builder;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import jenkins.security.MasterToSlaveCallable;
+import sp.sd.flywayrunner.snapshot.DatabaseSnapshotter;
+
+/**
+ * Restores a snapshot into the database of a target from the agent when the database is empty, or saves the database
+ * into a snapshot, with the drivers of the installation.
+ */
+class DatabaseSnapshotCall extends MasterToSlaveCallable<DatabaseSnapshotCall.Outcome, IOException> {
+    private static final long serialVersionUID = 1L;
+
+    enum Outcome {
+        /**
+         * The database has tables, nothing was restored.
+         */
+        NOT_EMPTY,
+        /**
+         * The database is empty and there was no snapshot to restore.
+         */
+        EMPTY,
+        RESTORED,
+        SAVED
+    }
+
+    private final DatabaseSnapshotter snapshotter;
+    private final String url;
+    private final String user;
+    private final String password;
+    private final String installationHome;
+    private final String file;
+    private final boolean save;
+
+    /**
+     * @param file snapshot on the agent to restore or to write; {@code null} to only check whether the database is
+     *     empty.
+     * @param save whether the database is saved into the file rather than restored from it.
+     */
+    DatabaseSnapshotCall(
+            DatabaseSnapshotter snapshotter,
+            String url,
+            String user,
+            String password,
+            String installationHome,
+            String file,
+            boolean save) {
+        this.snapshotter = snapshotter;
+        this.url = url;
+        this.user = user;
+        this.password = password;
+        this.installationHome = installationHome;
+        this.file = file;
+        this.save = save;
+    }
+
+    @Override
+    public Outcome call() throws IOException {
+        try (URLClassLoader drivers = new URLClassLoader(
+                        installationHome == null ? new URL[0] : FlywayDaemon.driverJars(installationHome),
+                        DatabaseSnapshotCall.class.getClassLoader());
+                Connection connection = PreflightCheck.connect(url, user, password, drivers)) {
+            if (save) {
+                snapshotter.save(connection, new File(file));
+                return Outcome.SAVED;
+            }
+            if (!isEmpty(connection)) {
+                return Outcome.NOT_EMPTY;
+            }
+            if (file == null) {
+                return Outcome.EMPTY;
+            }
+            snapshotter.restore(connection, new File(file));
+            return Outcome.RESTORED;
+        } catch (SQLException e) {
+            throw new IOException(
+                    "Snapshot of " + Util.sanitizeUrl(url) + " failed (SQL state " + e.getSQLState() + "): "
+                            + e.getMessage(),
+                    e);
+        }
+    }
+
+    /**
+     * @return whether the database has no tables outside its system schemas.
+     */
+    private static boolean isEmpty(Connection connection) throws SQLException {
+        String[] types = {"TABLE", "BASE TABLE"};
+        try (ResultSet tables = connection.getMetaData().getTables(null, null, "%", types)) {
+            while (tables.next()) {
+                String schema = tables.getString("TABLE_SCHEM");
+                if (schema == null
+                        || !(schema.equalsIgnoreCase("INFORMATION_SCHEMA")
+                                || schema.equalsIgnoreCase("pg_catalog")
+                                || schema.equalsIgnoreCase("sys"))) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+}
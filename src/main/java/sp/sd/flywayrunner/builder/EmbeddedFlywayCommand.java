@@ -0,0 +1,230 @@
+package sp.sd.flywayrunner.builder;
+
+import com.google.common.base.Strings;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import hudson.model.TaskListener;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import jenkins.security.MasterToSlaveCallable;
+import org.flywaydb.core.Flyway;
+import org.flywaydb.core.api.FlywayException;
+import org.flywaydb.core.api.MigrationInfo;
+import org.flywaydb.core.api.output.CleanResult;
+import org.flywaydb.core.api.output.MigrateOutput;
+import org.flywaydb.core.api.output.MigrateResult;
+import org.flywaydb.core.api.output.ValidateResult;
+import sp.sd.flywayrunner.results.FlywayCommandResult;
+import sp.sd.flywayrunner.results.FlywayMigration;
+
+/**
+ * Runs Flyway commands through the Flyway Java API inside the agent JVM, avoiding the start of a separate
+ * command line process.
+ */
+class EmbeddedFlywayCommand extends MasterToSlaveCallable<ArrayList<FlywayCommandResult>, IOException> {
+    private static final long serialVersionUID = 1L;
+    private static final String CONFIGURATION_PREFIX = "flyway.";
+
+    private final TaskListener listener;
+    private final List<String> commands;
+    private final Map<String, String> configuration;
+    private @CheckForNull CondensedLog condensedLog;
+
+    EmbeddedFlywayCommand(TaskListener listener, List<String> commands, Map<String, String> configuration) {
+        this.listener = listener;
+        this.commands = commands;
+        this.configuration = configuration;
+    }
+
+    /**
+     * Condenses the output of the commands into the console and writes all of it to the log, if one is given.
+     */
+    EmbeddedFlywayCommand condensed(@CheckForNull CondensedLog condensedLog) {
+        this.condensedLog = condensedLog;
+        return this;
+    }
+
+    /**
+     * Translates the builder's settings into Flyway configuration properties.  Command line style options
+     * ({@code -key=value}) are mapped onto their {@code flyway.key} property equivalents.
+     * @param options tokens of the command line arguments and command field which start with a hyphen.
+     */
+    static Map<String, String> toConfiguration(
+            String url, String username, String password, String locations, List<String> options) {
+        Map<String, String> configuration = new HashMap<>();
+        for (String option : options) {
+            String name = option.substring(Util.OPTION_HYPHENS.length());
+            int separator = name.indexOf('=');
+            if (separator > 0) {
+                configuration.put(CONFIGURATION_PREFIX + name.substring(0, separator), name.substring(separator + 1));
+            }
+        }
+        putIfPresent(configuration, CliOption.URL, url);
+        putIfPresent(configuration, CliOption.USERNAME, username);
+        putIfPresent(configuration, CliOption.PASSWORD, password);
+        putIfPresent(configuration, CliOption.LOCATIONS, locations);
+        return configuration;
+    }
+
+    /**
+     * Splits tokens into the Flyway commands and the hyphenated options which accompany them.
+     */
+    static List<String> commandsOf(List<String> tokens) {
+        List<String> result = new ArrayList<>();
+        for (String token : tokens) {
+            if (!token.startsWith(Util.OPTION_HYPHENS)) {
+                result.add(token);
+            }
+        }
+        return result;
+    }
+
+    static List<String> optionsOf(List<String> tokens) {
+        List<String> result = new ArrayList<>();
+        for (String token : tokens) {
+            if (token.startsWith(Util.OPTION_HYPHENS)) {
+                result.add(token);
+            }
+        }
+        return result;
+    }
+
+    private static void putIfPresent(Map<String, String> configuration, CliOption cliOption, String value) {
+        if (!Strings.isNullOrEmpty(value)) {
+            configuration.put(CONFIGURATION_PREFIX + cliOption.getCliOption(), value);
+        }
+    }
+
+    @Override
+    public ArrayList<FlywayCommandResult> call() throws IOException {
+        return run(EmbeddedFlywayCommand.class.getClassLoader());
+    }
+
+    protected TaskListener getListener() {
+        return listener;
+    }
+
+    /**
+     * @return true if every command ran and succeeded.
+     */
+    static boolean succeeded(List<FlywayCommandResult> results, int commandCount) {
+        if (results.size() != commandCount) {
+            return false;
+        }
+        for (FlywayCommandResult result : results) {
+            if (!result.isSuccess()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Executes the commands in sequence, stopping at the first one which fails.
+     * @param classLoader used by Flyway to load JDBC drivers and classpath migrations.
+     * @return the result of each command which ran.
+     */
+    protected ArrayList<FlywayCommandResult> run(ClassLoader classLoader) throws IOException {
+        if (condensedLog == null) {
+            return run(classLoader, listener.getLogger());
+        }
+        try (PrintStream logger =
+                new PrintStream(condensedLog.open(listener.getLogger()), true, StandardCharsets.UTF_8.name())) {
+            return run(classLoader, logger);
+        }
+    }
+
+    private ArrayList<FlywayCommandResult> run(ClassLoader classLoader, PrintStream logger) {
+        ArrayList<FlywayCommandResult> results = new ArrayList<>();
+        Flyway flyway;
+        try {
+            flyway = Flyway.configure(classLoader).configuration(configuration).load();
+        } catch (FlywayException e) {
+            logger.println("ERROR: " + e.getMessage());
+            return results;
+        }
+        for (String command : commands) {
+            FlywayCommandResult result;
+            try {
+                result = execute(flyway, command, logger);
+            } catch (FlywayException e) {
+                logger.println("ERROR: " + e.getMessage());
+                result = new FlywayCommandResult(command, false, e.getMessage(), Collections.emptyList());
+                FlywayOutputMonitor.scan(e.getMessage()).applyTo(result);
+            }
+            results.add(result);
+            if (!result.isSuccess()) {
+                if (results.size() < commands.size()) {
+                    logger.println("Not running " + commands.subList(results.size(), commands.size()) + " after "
+                            + command + " failed");
+                }
+                break;
+            }
+        }
+        return results;
+    }
+
+    private FlywayCommandResult execute(Flyway flyway, String command, PrintStream logger) {
+        String operation = command.toLowerCase(Locale.ENGLISH);
+        List<FlywayMigration> migrations = new ArrayList<>();
+        switch (operation) {
+            case "migrate":
+                MigrateResult migrateResult = flyway.migrate();
+                logger.println("Successfully applied " + migrateResult.migrationsExecuted
+                        + " migration(s), now at version " + Strings.nullToEmpty(migrateResult.targetSchemaVersion));
+                for (MigrateOutput output : migrateResult.migrations) {
+                    migrations.add(new FlywayMigration(
+                            output.category,
+                            output.version,
+                            output.description,
+                            output.type,
+                            null,
+                            output.executionTime));
+                }
+                return new FlywayCommandResult(operation, migrateResult.success, null, migrations);
+            case "info":
+                for (MigrationInfo info : flyway.info().all()) {
+                    String version = info.getVersion() == null ? "" : info.getVersion().getVersion();
+                    logger.println(String.format(
+                            "| %-10s | %-40s | %-10s | %-10s |",
+                            version, info.getDescription(), info.getType(), info.getState().getDisplayName()));
+                    migrations.add(new FlywayMigration(
+                            null,
+                            version,
+                            info.getDescription(),
+                            String.valueOf(info.getType()),
+                            info.getState().getDisplayName(),
+                            info.getExecutionTime()));
+                }
+                return new FlywayCommandResult(operation, true, null, migrations);
+            case "validate":
+                ValidateResult validateResult = flyway.validateWithResult();
+                String errors = null;
+                if (validateResult.validationSuccessful) {
+                    logger.println("Successfully validated migrations");
+                } else {
+                    errors = validateResult.getAllErrorMessages();
+                    logger.println("ERROR: " + errors);
+                }
+                return new FlywayCommandResult(operation, validateResult.validationSuccessful, errors, migrations);
+            case "repair":
+                flyway.repair();
+                logger.println("Successfully repaired schema history table");
+                return new FlywayCommandResult(operation, true, null, migrations);
+            case "clean":
+                CleanResult cleanResult = flyway.clean();
+                logger.println("Successfully cleaned schema(s) " + cleanResult.schemasCleaned);
+                return new FlywayCommandResult(operation, true, null, migrations);
+            default:
+                String message = "command '" + command + "' is not supported in embedded mode";
+                logger.println("ERROR: " + message);
+                return new FlywayCommandResult(operation, false, message, migrations);
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package sp.sd.flywayrunner.builder;
+
+/**
+ * How {@link FlywayBuilder} runs Flyway on the build agent.
+ */
+public enum ExecutionMode {
+    /**
+     * Forks the command line tool of the selected Flyway installation.
+     */
+    CLI("Command line (forked process)"),
+    /**
+     * Runs Flyway through the bundled Java API inside the agent JVM.
+     */
+    EMBEDDED("Embedded (Flyway Java API in the agent JVM)"),
+    /**
+     * Runs Flyway through the Java API in a long-lived per-agent session which keeps the selected installation's
+     * JDBC drivers loaded between builds.
+     */
+    DAEMON("Warm daemon (per-agent session using the installation's drivers)");
+
+    private final String displayName;
+
+    ExecutionMode(String displayName) {
+        this.displayName = displayName;
+    }
+
+    public String getDisplayName() {
+        return displayName;
+    }
+}
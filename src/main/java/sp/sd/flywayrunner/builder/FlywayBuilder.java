@@ -1,44 +1,100 @@
 package sp.sd.flywayrunner.builder;
 
-import com.cloudbees.plugins.credentials.CredentialsMatchers;
-import com.cloudbees.plugins.credentials.CredentialsProvider;
 import com.cloudbees.plugins.credentials.common.StandardCredentials;
 import com.cloudbees.plugins.credentials.common.StandardUsernameCredentials;
-import com.cloudbees.plugins.credentials.common.StandardUsernameListBoxModel;
-import com.cloudbees.plugins.credentials.common.StandardUsernamePasswordCredentials;
-import com.cloudbees.plugins.credentials.domains.DomainRequirement;
 import com.google.common.base.Strings;
 import edu.umd.cs.findbugs.annotations.CheckForNull;
 import edu.umd.cs.findbugs.annotations.Nullable;
 import hudson.AbortException;
+import hudson.EnvVars;
 import hudson.Extension;
 import hudson.FilePath;
 import hudson.Launcher;
 import hudson.model.AbstractProject;
+import hudson.model.Computer;
 import hudson.model.Item;
+import hudson.model.Node;
 import hudson.model.PersistentDescriptor;
+import hudson.model.Result;
 import hudson.model.Run;
 import hudson.model.TaskListener;
-import hudson.security.ACL;
+import hudson.remoting.VirtualChannel;
+import hudson.slaves.WorkspaceList;
 import hudson.tasks.BuildStepDescriptor;
 import hudson.tasks.Builder;
 import hudson.util.ArgumentListBuilder;
 import hudson.util.ListBoxModel;
-import hudson.util.Secret;
+import hudson.util.QuotedStringTokenizer;
+import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import jenkins.tasks.SimpleBuildStep;
+import jenkins.util.SystemProperties;
+import org.apache.commons.io.output.TeeOutputStream;
 import org.jenkinsci.Symbol;
 import org.kohsuke.stapler.AncestorInPath;
 import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
 import sp.sd.flywayrunner.installation.FlywayInstallation;
+import sp.sd.flywayrunner.installation.InstallationCache;
+import sp.sd.flywayrunner.installation.JvmOptionsProperty;
+import sp.sd.flywayrunner.lint.SqlDialect;
+import sp.sd.flywayrunner.lint.SqlLint;
+import sp.sd.flywayrunner.lint.SqlLintAction;
+import sp.sd.flywayrunner.lint.SqlLintReport;
+import sp.sd.flywayrunner.lock.DatabaseLocks;
+import sp.sd.flywayrunner.metrics.FlywayTimings;
+import sp.sd.flywayrunner.results.FlywayCommandResult;
+import sp.sd.flywayrunner.results.FlywayJsonOutputParser;
+import sp.sd.flywayrunner.results.FlywayResultsAction;
+import sp.sd.flywayrunner.results.FlywayTextOutputParser;
+import sp.sd.flywayrunner.snapshot.DatabaseSnapshotter;
+import sp.sd.flywayrunner.snapshot.SnapshotKeys;
+import sp.sd.flywayrunner.snapshot.SnapshotStore;
+import sp.sd.flywayrunner.state.SchemaSnapshots;
+import sp.sd.flywayrunner.trace.Span;
 
 /**
  * Jenkins builder which runs flyway.
  */
 public class FlywayBuilder extends Builder implements SimpleBuildStep, Serializable {
 
+    /**
+     * Minutes after which an unused {@link ExecutionMode#DAEMON} session is shut down on its agent.
+     */
+    private static final long DAEMON_IDLE_TIMEOUT_MINUTES =
+            SystemProperties.getLong(FlywayBuilder.class.getName() + ".daemonIdleTimeoutMinutes", 30L);
+    /**
+     * Number of commands a {@link ExecutionMode#DAEMON} session runs at the same time, others wait for a slot.
+     */
+    private static final int DAEMON_MAX_CONCURRENT_COMMANDS =
+            SystemProperties.getInteger(FlywayBuilder.class.getName() + ".daemonMaxConcurrentCommands", 4);
+    /**
+     * Milliseconds between the progress lines of {@link LogMode#CONDENSED} consoles.
+     */
+    private static final long CONDENSED_PROGRESS_MILLIS =
+            SystemProperties.getLong(FlywayBuilder.class.getName() + ".condensedProgressMillis", 10000L);
+    /**
+     * Milliseconds the reachability check waits for the database to accept a connection.
+     */
+    private static final int REACHABILITY_TIMEOUT_MILLIS =
+            SystemProperties.getInteger(FlywayBuilder.class.getName() + ".reachabilityTimeoutMillis", 3000);
+    /**
+     * Environment variable whose value the {@code flyway} script adds to the java command.
+     */
+    static final String JAVA_ARGS = "JAVA_ARGS";
+
     /**
      * The Flyway action to execute.
      */
@@ -63,6 +119,96 @@ public class FlywayBuilder extends Builder implements SimpleBuildStep, Serializa
 
     private final @CheckForNull String credentialsId;
 
+    /**
+     * Whether flyway is forked as a command line process or embedded in the agent JVM.
+     */
+    private ExecutionMode executionMode;
+
+    /**
+     * Whether all of Flyway's output goes to the console or only a summary, with the rest archived.
+     */
+    private LogMode logMode;
+
+    /**
+     * Databases to run against instead of the single {@link #url}.
+     */
+    private List<FlywayTarget> targets;
+
+    /**
+     * Number of targets which run at the same time.
+     */
+    private int parallelism = 1;
+
+    /**
+     * Whether targets which have not started yet are skipped once one target fails.
+     */
+    private boolean failFast;
+
+    /**
+     * Whether the command line runs with JSON output which is parsed into {@link FlywayResultsAction}.
+     */
+    private boolean jsonOutput;
+
+    /**
+     * Whether a target is skipped when its migrations, URL and Flyway version match its last successful run.
+     */
+    private boolean skipIfUnchanged;
+
+    /**
+     * Whether the migrations are checked on the agent before Flyway is started.
+     */
+    private boolean preflight;
+
+    /**
+     * Whether the pre-flight check also compares the migrations with the schema history table.
+     */
+    private boolean preflightHistory;
+
+    /**
+     * Text, one per line, which stops the Flyway process as soon as it appears in its output.
+     */
+    private String fatalOutputPatterns;
+
+    /**
+     * Whether the step waits, in Jenkins, until no other Flyway step works on the same database.
+     */
+    private boolean lockDatabase;
+
+    /**
+     * Whether the agent checks that the database accepts connections before Flyway is started.
+     */
+    private boolean reachabilityCheck;
+
+    /**
+     * Whether the reachability check also opens and validates a JDBC connection with the step's credentials.
+     */
+    private boolean reachabilityCheckJdbc;
+
+    /**
+     * Commands run in order by a single Flyway invocation, in place of {@link #flywayCommand} when any are given.
+     */
+    private List<String> flywayCommands;
+
+    /**
+     * Whether the SQL scripts of the filesystem locations are checked for expensive statements before Flyway runs.
+     */
+    private boolean sqlLint;
+
+    /**
+     * Number of SQL lint findings from which the build is marked unstable, never if 0.
+     */
+    private int sqlLintUnstableThreshold;
+
+    /**
+     * Number of SQL lint findings from which the step fails without running Flyway, never if 0.
+     */
+    private int sqlLintFailureThreshold;
+
+    /**
+     * Whether empty databases are restored from, and saved to, snapshots keyed by the migrations they contain.
+     */
+    private boolean snapshots;
+
     @DataBoundConstructor
     public FlywayBuilder(
             String installationName,
@@ -95,39 +241,739 @@ public class FlywayBuilder extends Builder implements SimpleBuildStep, Serializa
     @Override
     public void perform(Run<?, ?> build, FilePath workspace, Launcher launcher, TaskListener listener)
             throws InterruptedException, IOException {
-        boolean result = false;
-        ArgumentListBuilder cliCommand = composeFlywayCommand(build, listener, launcher, workspace);
-        if (cliCommand != null) {
-            int exitStatus = launcher.launch().cmds(cliCommand).stdout(listener).join();
-            result = didErrorsOccur(exitStatus);
+        boolean result;
+        List<FlywayTarget> effectiveTargets = getEffectiveTargets();
+        try (Span step = Span.start(build, "Flyway " + getEffectiveCommand())) {
+            Computer computer = workspace.toComputer();
+            step.attribute("flyway.command", getEffectiveCommand())
+                    .attribute("flyway.installation", installationName)
+                    .attribute("flyway.executionMode", getExecutionMode())
+                    .attribute("jenkins.node", computer == null ? null : computer.getDisplayName());
+            if (sqlLint) {
+                boolean passed;
+                try (Span span = step.child("SQL lint")) {
+                    passed = lint(build, workspace, listener, effectiveTargets);
+                }
+                if (!passed) {
+                    throw new AbortException("Build step 'Invoke Flyway' failed due to SQL lint findings.");
+                }
+            }
+            if (effectiveTargets.size() == 1) {
+                result = traceTarget(build, workspace, launcher, listener, effectiveTargets.get(0), step);
+            } else {
+                EnvVars env = build.getEnvironment(listener);
+                List<String> names = new ArrayList<>();
+                for (FlywayTarget target : effectiveTargets) {
+                    names.add(target.getDisplayName(env.expand(target.getUrl())));
+                }
+                List<TargetResult> results = new TargetFanOut(getParallelism(), isFailFast())
+                        .run(effectiveTargets, names, listener, (target, targetListener) ->
+                                traceTarget(build, workspace, launcher, targetListener, target, step));
+                result = summarize(results, listener);
+            }
+            step.attribute("flyway.result", result ? "success" : "failure");
         }
         if (!result) {
             throw new AbortException("Build step 'Invoke Flyway' failed due to errors.");
         }
     }
 
-    private ArgumentListBuilder composeFlywayCommand(
-            Run<?, ?> build, TaskListener listener, Launcher launcher, FilePath workspace) {
+    /**
+     * Checks the scripts once for each dialect of the targets and applies the thresholds to the findings.  Versions
+     * which the recorded schema history of every target of the dialect lists as applied are not checked.
+     * @return false if the step fails.
+     */
+    private boolean lint(Run<?, ?> build, FilePath workspace, TaskListener listener, List<FlywayTarget> targets)
+            throws IOException, InterruptedException {
+        EnvVars env = build.getEnvironment(listener);
+        Map<SqlDialect, List<FlywayTarget>> dialects = new EnumMap<>(SqlDialect.class);
+        for (FlywayTarget target : targets) {
+            dialects.computeIfAbsent(SqlDialect.of(env.expand(target.getUrl())), key -> new ArrayList<>())
+                    .add(target);
+        }
+        int findings = 0;
+        for (Map.Entry<SqlDialect, List<FlywayTarget>> dialect : dialects.entrySet()) {
+            Set<String> applied = null;
+            for (FlywayTarget target : dialect.getValue()) {
+                String fingerprintKey = target.getDisplayName(Util.sanitizeUrl(env.expand(target.getUrl())));
+                Set<String> versions = SchemaSnapshots.appliedVersions(build.getParent(), fingerprintKey);
+                if (versions == null) {
+                    applied = Collections.emptySet();
+                    break;
+                }
+                if (applied == null) {
+                    applied = new HashSet<>(versions);
+                } else {
+                    applied.retainAll(versions);
+                }
+            }
+            SqlLintReport report = workspace.act(new SqlLint(
+                    scriptOptionsOf(env, dialect.getValue().get(0)),
+                    dialect.getKey(),
+                    applied == null ? Collections.emptySet() : applied));
+            report.printTo(listener.getLogger());
+            SqlLintAction.addTo(build, report);
+            findings += report.getFindingCount();
+        }
+        if (sqlLintFailureThreshold > 0 && findings >= sqlLintFailureThreshold) {
+            listener.error("Flyway SQL lint found " + findings + " expensive statements, at least "
+                    + sqlLintFailureThreshold + " fail the step; Flyway was not started");
+            return false;
+        }
+        int unstableThreshold = getSqlLintUnstableThreshold();
+        if (unstableThreshold > 0 && findings >= unstableThreshold) {
+            listener.getLogger()
+                    .println("Flyway SQL lint found " + findings + " expensive statements, marking the build unstable");
+            build.setResult(Result.UNSTABLE);
+        }
+        return true;
+    }
+
+    /**
+     * @return the configured targets, or a single target made of the step's url and credentials.
+     */
+    List<FlywayTarget> getEffectiveTargets() {
+        if (targets == null || targets.isEmpty()) {
+            return Collections.singletonList(new FlywayTarget(url));
+        }
+        return targets;
+    }
+
+    private static boolean summarize(List<TargetResult> results, TaskListener listener) {
+        int failures = 0;
+        listener.getLogger().println("Flyway target summary:");
+        for (TargetResult result : results) {
+            listener.getLogger().println("  " + result);
+            if (result.getStatus() != TargetResult.Status.SUCCESS) {
+                failures++;
+            }
+        }
+        if (failures > 0) {
+            listener.error("Flyway did not succeed for " + failures + " of " + results.size() + " targets");
+        }
+        return failures == 0;
+    }
+
+    /**
+     * Runs the step against a target in a span nested in the span of the step.
+     */
+    private boolean traceTarget(
+            Run<?, ?> build,
+            FilePath workspace,
+            Launcher launcher,
+            TaskListener listener,
+            FlywayTarget target,
+            Span step)
+            throws IOException, InterruptedException {
+        try (Span span = step.child("Target")) {
+            span.attribute("db.url", Util.sanitizeUrl(build.getEnvironment(listener).expand(target.getUrl())))
+                    .attribute("db.schemas", target.getSchemas());
+            boolean result = runTarget(build, workspace, launcher, listener, target);
+            span.attribute("flyway.result", result ? "success" : "failure");
+            return result;
+        }
+    }
+
+    private boolean runTarget(
+            Run<?, ?> build, FilePath workspace, Launcher launcher, TaskListener listener, FlywayTarget target)
+            throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        String expandedUrl;
+        try (Span span = Span.current().child("Environment")) {
+            expandedUrl = build.getEnvironment(listener).expand(target.getUrl());
+        }
+        String fingerprintKey = target.getDisplayName(Util.sanitizeUrl(expandedUrl));
+        try (Span span = Span.current().child("Credentials")) {
+            span.attribute("jenkins.credentials", credentialsIdOf(target));
+            DatabaseCredentials.resolve(build, credentialsIdOf(target));
+        }
+        String fingerprint = null;
+        if (skipIfUnchanged) {
+            try (Span span = Span.current().child("Fingerprint")) {
+                fingerprint = fingerprint(build, workspace, listener, target);
+            }
+            Integer lastBuild = fingerprint == null
+                    ? null
+                    : MigrationFingerprints.lastBuildWith(build.getParent(), fingerprintKey, fingerprint);
+            if (lastBuild != null) {
+                listener.getLogger()
+                        .println("Skipping Flyway for " + fingerprintKey
+                                + ": migrations, URL and Flyway version are unchanged since build #" + lastBuild);
+                return true;
+            }
+        }
+        if (reachabilityCheck) {
+            boolean reachable;
+            try (Span span = Span.current().child("Reachability check")) {
+                reachable = checkReachability(build, workspace, launcher, listener, target, fingerprintKey);
+            }
+            if (!reachable) {
+                return false;
+            }
+        }
+        // waiting for the database is not part of the step's duration
+        DatabaseLocks.Lease lease = null;
+        if (lockDatabase) {
+            try (Span span = Span.current().child("Database lock")) {
+                lease = DatabaseLocks.get().acquire(expandedUrl, build, listener);
+            }
+            start = System.nanoTime();
+        }
+        try {
+            EnvVars snapshotEnv = build.getEnvironment(listener);
+            DatabaseSnapshotter snapshotter = snapshots && runsMigrate(snapshotEnv, target)
+                    ? DatabaseSnapshotter.forUrl(snapshotEnv.expand(target.getUrl()))
+                    : null;
+            if (snapshots && snapshotter == null) {
+                listener.getLogger().println("No database snapshots for " + fingerprintKey);
+            }
+            String snapshotKey = null;
+            if (snapshotter != null) {
+                try (Span span = Span.current().child("Restore snapshot")) {
+                    snapshotKey = restoreSnapshot(build, workspace, launcher, listener, target, snapshotter);
+                }
+            }
+            if (preflight) {
+                EnvVars env = build.getEnvironment(listener);
+                PreflightReport report;
+                try (Span span = Span.current().child("Pre-flight check")) {
+                    report = workspace.act(new PreflightCheck(
+                            configurationOf(build, env, target),
+                            resolvedHome(env, listener, workspace),
+                            preflightHistory));
+                }
+                report.printTo(listener.getLogger());
+                if (report.isFailed()) {
+                    listener.error("Flyway pre-flight check failed for " + fingerprintKey + ", Flyway was not started");
+                    return false;
+                }
+            }
+            List<FlywayCommandResult> results = new ArrayList<>();
+            List<FlywayCommandResult> textResults = new ArrayList<>();
+            boolean result = false;
+            boolean forked = true;
+            CondensedLog condensedLog = getLogMode() == LogMode.CONDENSED
+                    ? CondensedLog.create(build, workspace, fingerprintKey, CONDENSED_PROGRESS_MILLIS)
+                    : null;
+            try {
+                if (getExecutionMode() != ExecutionMode.CLI) {
+                    String mode = getExecutionMode().name().toLowerCase(Locale.ROOT);
+                    try (Span span = Span.current().child("Flyway " + mode)) {
+                        result = runEmbedded(build, listener, launcher, workspace, target, condensedLog, results);
+                        forked = false;
+                    } catch (LinkageError e) {
+                        if (getInstallation() == null) {
+                            throw e;
+                        }
+                        listener.error(
+                                "Flyway could not be loaded in the agent JVM, falling back to the command line: " + e);
+                    }
+                }
+                if (forked) {
+                    ArgumentListBuilder cliCommand;
+                    String javaArgs = null;
+                    try (Span span = Span.current().child("Command line")) {
+                        cliCommand = composeFlywayCommand(build, listener, launcher, workspace, target, true);
+                        if (cliCommand != null) {
+                            javaArgs = javaArgsOf(build.getEnvironment(listener), listener, workspace);
+                        }
+                    }
+                    if (cliCommand != null) {
+                        try (Span span = Span.current().child("Flyway process")) {
+                            result = runCommandLine(
+                                    launcher,
+                                    listener,
+                                    workspace,
+                                    cliCommand,
+                                    javaArgs,
+                                    condensedLog,
+                                    results,
+                                    textResults);
+                        }
+                    }
+                }
+            } finally {
+                if (condensedLog != null) {
+                    condensedLog.archive(build, workspace, launcher, listener);
+                }
+            }
+            String name = target.getDisplayName(expandedUrl);
+            for (FlywayCommandResult commandResult : results) {
+                commandResult.setTarget(name);
+            }
+            FlywayResultsAction.addTo(build, results);
+            // without JSON output the command line only tells about its migrations in its text output
+            List<FlywayCommandResult> recorded = textResults.isEmpty() ? results : textResults;
+            FlywayTimings.record(
+                    build,
+                    fingerprintKey,
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start),
+                    recorded);
+            SchemaSnapshots.record(
+                    build,
+                    fingerprintKey,
+                    workspace,
+                    scriptOptionsOf(build.getEnvironment(listener), target),
+                    recorded);
+            if (result && snapshotKey != null) {
+                try (Span span = Span.current().child("Save snapshot")) {
+                    saveSnapshot(build, workspace, launcher, listener, target, snapshotter, snapshotKey);
+                }
+            }
+            if (result && fingerprint != null) {
+                MigrationFingerprints.record(build.getParent(), fingerprintKey, fingerprint, build.getNumber());
+            }
+            return result;
+        } finally {
+            if (lease != null) {
+                lease.close();
+            }
+        }
+    }
+
+    private boolean checkReachability(
+            Run<?, ?> build,
+            FilePath workspace,
+            Launcher launcher,
+            TaskListener listener,
+            FlywayTarget target,
+            String fingerprintKey)
+            throws IOException, InterruptedException {
+        VirtualChannel channel = launcher.getChannel();
+        if (channel == null) {
+            throw new AbortException("Agent is offline, cannot run Flyway.");
+        }
+        EnvVars env = build.getEnvironment(listener);
+        DatabaseCredentials credentials =
+                reachabilityCheckJdbc ? DatabaseCredentials.resolve(build, credentialsIdOf(target)) : null;
+        ReachabilityCheck.Result check = channel.call(new ReachabilityCheck(
+                env.expand(target.getUrl()),
+                credentials == null ? null : credentials.getUsername(),
+                credentials == null ? null : credentials.getPassword(),
+                reachabilityCheckJdbc ? resolvedHome(env, listener, workspace) : null,
+                REACHABILITY_TIMEOUT_MILLIS,
+                reachabilityCheckJdbc));
+        if (check.getMillis() != null) {
+            FlywayTimings.recordReachability(build, fingerprintKey, check.getMillis());
+        }
+        if (!check.isReachable()) {
+            listener.error(check.getMessage() + ", Flyway was not started for " + fingerprintKey);
+            return false;
+        }
+        listener.getLogger().println(check.getMessage());
+        return true;
+    }
+
+    private boolean runsMigrate(EnvVars env, FlywayTarget target) {
+        for (String command : EmbeddedFlywayCommand.commandsOf(tokensOf(env, target))) {
+            if (command.equalsIgnoreCase("migrate")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Restores the snapshot holding the most of the workspace's migrations into the target, if it is empty.
+     * @return the key to save the migrated database under, {@code null} if it is not saved.
+     */
+    private String restoreSnapshot(
+            Run<?, ?> build,
+            FilePath workspace,
+            Launcher launcher,
+            TaskListener listener,
+            FlywayTarget target,
+            DatabaseSnapshotter snapshotter)
+            throws IOException, InterruptedException {
+        VirtualChannel channel = launcher.getChannel();
+        if (channel == null) {
+            throw new AbortException("Agent is offline, cannot run Flyway.");
+        }
+        EnvVars env = build.getEnvironment(listener);
+        Map<String, String> scriptOptions = scriptOptionsOf(env, target);
+        List<WorkspaceMigrations.Migration> migrations = workspace.act(new WorkspaceMigrations(scriptOptions));
+        String configFiles = EmbeddedFlywayCommand.toConfiguration(
+                        null, null, null, null, EmbeddedFlywayCommand.optionsOf(tokensOf(env, target)))
+                .get("flyway.configFiles");
+        // snapshots are only shared within a job, whose callbacks and configuration are part of the identity
+        List<String> keys = SnapshotKeys.of(
+                String.join(
+                        "\n",
+                        build.getParent().getFullName(),
+                        snapshotter.getClass().getName(),
+                        Strings.nullToEmpty(env.expand(target.getSchemas())),
+                        Strings.nullToEmpty(env.expand(commandLineArgs)),
+                        workspace.act(new SnapshotIdentity(
+                                scriptOptions, configFiles, resolvedHome(env, listener, workspace)))),
+                migrations);
+        int contained = keys.size() - 1;
+        File found = null;
+        for (; contained > 0; contained--) {
+            found = SnapshotStore.get().find(keys.get(contained), snapshotter.getExtension());
+            if (found != null) {
+                break;
+            }
+        }
+        FilePath local = null;
+        if (found != null) {
+            FilePath temp = WorkspaceList.tempDir(workspace);
+            temp.mkdirs();
+            local = temp.createTempFile("flyway-snapshot", snapshotter.getExtension());
+            new FilePath(found).copyTo(local);
+        }
+        long start = System.currentTimeMillis();
+        DatabaseSnapshotCall.Outcome outcome;
+        try {
+            outcome = channel.call(snapshotCall(build, env, listener, workspace, target, snapshotter, local, false));
+        } finally {
+            if (local != null) {
+                local.delete();
+            }
+        }
+        String name = target.getDisplayName(Util.sanitizeUrl(env.expand(target.getUrl())));
+        switch (outcome) {
+            case NOT_EMPTY:
+                listener.getLogger()
+                        .println("Not using database snapshots for " + name + ": it is not an empty database");
+                return null;
+            case RESTORED:
+                listener.getLogger()
+                        .println("Restored the snapshot of " + contained + " of " + (keys.size() - 1)
+                                + " migrations into " + name + " in " + (System.currentTimeMillis() - start)
+                                + " ms");
+                break;
+            default:
+                listener.getLogger().println("No database snapshot of these migrations for " + name + " yet");
+                break;
+        }
+        return contained == keys.size() - 1 ? null : keys.get(keys.size() - 1);
+    }
+
+    private void saveSnapshot(
+            Run<?, ?> build,
+            FilePath workspace,
+            Launcher launcher,
+            TaskListener listener,
+            FlywayTarget target,
+            DatabaseSnapshotter snapshotter,
+            String key)
+            throws IOException, InterruptedException {
+        VirtualChannel channel = launcher.getChannel();
+        if (channel == null) {
+            return;
+        }
+        EnvVars env = build.getEnvironment(listener);
+        FilePath temp = WorkspaceList.tempDir(workspace);
+        temp.mkdirs();
+        FilePath local = temp.createTempFile("flyway-snapshot", snapshotter.getExtension());
+        try {
+            channel.call(snapshotCall(build, env, listener, workspace, target, snapshotter, local, true));
+            SnapshotStore.get().put(key, snapshotter.getExtension(), local);
+            listener.getLogger().println("Saved a database snapshot of the migrated database");
+        } catch (IOException e) {
+            // the migration succeeded, the next build replays the migrations again
+            listener.getLogger().println("Could not save a database snapshot: " + e.getMessage());
+        } finally {
+            local.delete();
+        }
+    }
+
+    private DatabaseSnapshotCall snapshotCall(
+            Run<?, ?> build,
+            EnvVars env,
+            TaskListener listener,
+            FilePath workspace,
+            FlywayTarget target,
+            DatabaseSnapshotter snapshotter,
+            FilePath file,
+            boolean save)
+            throws IOException, InterruptedException {
+        DatabaseCredentials credentials = DatabaseCredentials.resolve(build, credentialsIdOf(target));
+        return new DatabaseSnapshotCall(
+                snapshotter,
+                env.expand(target.getUrl()),
+                credentials == null ? null : credentials.getUsername(),
+                credentials == null ? null : credentials.getPassword(),
+                resolvedHome(env, listener, workspace),
+                file == null ? null : file.getRemote(),
+                save);
+    }
+
+    private boolean runCommandLine(
+            Launcher launcher,
+            TaskListener listener,
+            FilePath workspace,
+            ArgumentListBuilder cliCommand,
+            @CheckForNull String javaArgs,
+            @CheckForNull CondensedLog condensedLog,
+            List<FlywayCommandResult> results,
+            List<FlywayCommandResult> textResults)
+            throws IOException, InterruptedException {
+        if (jsonOutput) {
+            cliCommand.add(Util.OPTION_HYPHENS + CliOption.OUTPUT_TYPE.getCliOption() + "=json");
+        }
+        long started = System.nanoTime();
+        VirtualChannel channel = launcher.getChannel();
+        // the output stays on the agent unless the launcher is decorated, for a container say, and has to start Flyway
+        if (condensedLog != null
+                && channel != null
+                && (launcher instanceof Launcher.LocalLauncher || launcher instanceof Launcher.RemoteLauncher)) {
+            CondensedCommandLine.Outcome outcome = channel.call(new CondensedCommandLine(
+                    listener,
+                    cliCommand,
+                    javaArgs,
+                    getFatalOutputPatternList(),
+                    jsonOutput,
+                    getEffectiveCommand(),
+                    condensedLog));
+            FlywayOutputMonitor.recordPhases(Span.current(), started, outcome.getPhases());
+            results.addAll(outcome.getResults());
+            textResults.addAll(outcome.getTextResults());
+            return didErrorsOccur(outcome.getExitStatus());
+        }
+        FlywayOutputMonitor monitor = new FlywayOutputMonitor(getFatalOutputPatternList());
+        OutputStream console = condensedLog == null
+                ? listener.getLogger()
+                : condensedLog.open(listener.getLogger(), workspace);
+        OutputStream out = new TeeOutputStream(console, monitor);
+        FlywayJsonOutputParser parser = null;
+        FlywayTextOutputParser textParser = null;
+        if (jsonOutput) {
+            parser = new FlywayJsonOutputParser();
+            out = new TeeOutputStream(out, parser);
+        } else {
+            textParser = new FlywayTextOutputParser();
+            out = new TeeOutputStream(out, textParser);
+        }
+        int exitStatus;
+        try {
+            Launcher.ProcStarter starter = launcher.launch().cmds(cliCommand).stdout(out);
+            if (javaArgs != null) {
+                starter.envs(JAVA_ARGS + "=" + javaArgs);
+            }
+            exitStatus = monitor.join(starter.start(), listener);
+        } finally {
+            // the build log itself stays open
+            monitor.close();
+            if (condensedLog != null) {
+                console.close();
+            }
+            if (parser != null) {
+                parser.close();
+            }
+            if (textParser != null) {
+                textParser.close();
+            }
+        }
+        FlywayOutputMonitor.recordPhases(Span.current(), started, monitor.phases(started, System.nanoTime()));
+        if (parser != null) {
+            results.addAll(parser.getResults());
+        }
+        if (textParser != null) {
+            textResults.addAll(textParser.getResults());
+        }
+        boolean result = didErrorsOccur(exitStatus);
+        if (!result) {
+            monitor.describeFailure(getEffectiveCommand(), results, listener);
+        }
+        return result;
+    }
+
+    /**
+     * @return the fingerprint of what the step would do against the target, or {@code null} if it cannot be computed.
+     */
+    private String fingerprint(Run<?, ?> build, FilePath workspace, TaskListener listener, FlywayTarget target)
+            throws IOException, InterruptedException {
+        EnvVars env = build.getEnvironment(listener);
+        String identity = String.join(
+                "\n",
+                env.expand(target.getUrl()),
+                Strings.nullToEmpty(env.expand(target.getSchemas())),
+                Strings.nullToEmpty(credentialsIdOf(target)),
+                Strings.nullToEmpty(env.expand(commandLineArgs)),
+                Strings.nullToEmpty(env.expand(getEffectiveCommand())),
+                getExecutionMode().name(),
+                Strings.nullToEmpty(installationName));
+        return workspace.act(new LocationsFingerprint(
+                listener,
+                env.expand(locations),
+                identity,
+                resolvedHome(env, listener, workspace),
+                getExecutionMode() != ExecutionMode.CLI));
+    }
+
+    String credentialsIdOf(FlywayTarget target) {
+        return target.getCredentialsId() == null ? credentialsId : target.getCredentialsId();
+    }
+
+    private boolean runEmbedded(
+            Run<?, ?> build,
+            TaskListener listener,
+            Launcher launcher,
+            FilePath workspace,
+            FlywayTarget target,
+            @CheckForNull CondensedLog condensedLog,
+            List<FlywayCommandResult> results)
+            throws IOException, InterruptedException {
+        VirtualChannel channel = launcher.getChannel();
+        if (channel == null) {
+            throw new AbortException("Agent is offline, cannot run Flyway.");
+        }
+        EnvVars env = build.getEnvironment(listener);
+        Map<String, String> configuration = configurationOf(build, env, target);
+        List<String> commands = EmbeddedFlywayCommand.commandsOf(tokensOf(env, target));
+        if (getExecutionMode() == ExecutionMode.DAEMON) {
+            FlywayInstallation installation = getInstallation();
+            if (installation == null) {
+                listener.fatalError("Flyway installation was not found.");
+                return false;
+            }
+            InstallationCache.Resolved resolved = InstallationCache.resolve(installation, env, listener, workspace);
+            if (resolved == null) {
+                throw new AbortException("Agent is offline, cannot run Flyway.");
+            }
+            FlywayInstallation buildTool = resolved.getInstallation();
+            listener.getLogger().println("Running flyway " + commands + " in daemon of " + buildTool.getHome());
+            results.addAll(channel.call(new DaemonFlywayCommand(
+                            listener,
+                            commands,
+                            configuration,
+                            buildTool.getName(),
+                            buildTool.getHome(),
+                            TimeUnit.MINUTES.toMillis(DAEMON_IDLE_TIMEOUT_MINUTES),
+                            DAEMON_MAX_CONCURRENT_COMMANDS)
+                    .condensed(condensedLog)));
+            return EmbeddedFlywayCommand.succeeded(results, commands.size());
+        }
+        listener.getLogger().println("Running flyway " + commands + " embedded");
+        results.addAll(
+                channel.call(new EmbeddedFlywayCommand(listener, commands, configuration).condensed(condensedLog)));
+        return EmbeddedFlywayCommand.succeeded(results, commands.size());
+    }
+
+    /**
+     * @return the schemas option of the target, the command line arguments and the command, split into tokens.
+     */
+    private List<String> tokensOf(EnvVars env, FlywayTarget target) {
+        List<String> tokens = new ArrayList<>();
+        if (!Strings.isNullOrEmpty(target.getSchemas())) {
+            tokens.add(Util.OPTION_HYPHENS + CliOption.SCHEMAS.getCliOption() + "=" + env.expand(target.getSchemas()));
+        }
+        if (!Strings.isNullOrEmpty(commandLineArgs)) {
+            tokens.addAll(Arrays.asList(QuotedStringTokenizer.tokenize(env.expand(commandLineArgs))));
+        }
+        String command = Strings.nullToEmpty(env.expand(getEffectiveCommand()));
+        tokens.addAll(Arrays.asList(QuotedStringTokenizer.tokenize(command)));
+        return tokens;
+    }
+
+    /**
+     * @return the Flyway configuration properties of the step against the target.
+     */
+    private Map<String, String> configurationOf(Run<?, ?> build, EnvVars env, FlywayTarget target)
+            throws AbortException {
+        DatabaseCredentials credentials = DatabaseCredentials.resolve(build, credentialsIdOf(target));
+        return EmbeddedFlywayCommand.toConfiguration(
+                env.expand(target.getUrl()),
+                credentials == null ? null : credentials.getUsername(),
+                credentials == null ? null : credentials.getPassword(),
+                env.expand(locations),
+                EmbeddedFlywayCommand.optionsOf(tokensOf(env, target)));
+    }
+
+    /**
+     * @return the locations and naming options of a target, without its credentials, to list its scripts later.
+     */
+    Map<String, String> scriptOptionsOf(EnvVars env, FlywayTarget target) {
+        Map<String, String> configuration = EmbeddedFlywayCommand.toConfiguration(
+                null, null, null, env.expand(locations), EmbeddedFlywayCommand.optionsOf(tokensOf(env, target)));
+        return new WorkspaceMigrations(configuration).getConfiguration();
+    }
+
+    /**
+     * @return the home of the installation on the node of the workspace, {@code null} if there is none.
+     */
+    private String resolvedHome(EnvVars env, TaskListener listener, FilePath workspace)
+            throws IOException, InterruptedException {
+        FlywayInstallation installation = getInstallation();
+        if (installation == null) {
+            return null;
+        }
+        InstallationCache.Resolved resolved = InstallationCache.resolve(installation, env, listener, workspace);
+        return resolved == null ? null : resolved.getInstallation().getHome();
+    }
+
+    /**
+     * @return the JVM options of the command line on the node of the workspace, see {@link JvmOptionsProperty};
+     *     {@code null} if the installation has none.
+     */
+    @CheckForNull
+    String javaArgsOf(EnvVars env, TaskListener listener, FilePath workspace) throws IOException, InterruptedException {
+        FlywayInstallation installation = getInstallation();
+        JvmOptionsProperty jvmOptions =
+                installation == null ? null : installation.getProperties().get(JvmOptionsProperty.class);
+        if (jvmOptions == null) {
+            return null;
+        }
+        Computer computer = workspace.toComputer();
+        Node node = computer == null ? null : computer.getNode();
+        String javaArgs = jvmOptions.javaArgs(
+                resolvedHome(env, listener, workspace), env.get("JAVA_HOME"), node == null ? null : node.getRootPath());
+        if (javaArgs.isEmpty()) {
+            return null;
+        }
+        listener.getLogger().println("Flyway JVM options: " + javaArgs);
+        return javaArgs;
+    }
+
+    /**
+     * @param includeCredentials whether user and password are passed as options; otherwise the caller passes them
+     *     through the {@code FLYWAY_USER} and {@code FLYWAY_PASSWORD} environment variables.
+     * @return the command line, {@code null} if the installation was not found.
+     * @throws AbortException if the credentials of the target cannot be resolved.
+     */
+    ArgumentListBuilder composeFlywayCommand(
+            Run<?, ?> build,
+            TaskListener listener,
+            Launcher launcher,
+            FilePath workspace,
+            FlywayTarget target,
+            boolean includeCredentials)
+            throws AbortException {
         ArgumentListBuilder cliCommand = new ArgumentListBuilder();
-        Item project = build.getParent();
+        DatabaseCredentials credentials =
+                includeCredentials ? DatabaseCredentials.resolve(build, credentialsIdOf(target)) : null;
         try {
             FlywayInstallation installation = getInstallation();
             if (installation != null) {
 
-                FlywayInstallation buildTool = sp.sd.flywayrunner.builder.Util.getInstallation(
-                        installation, build.getEnvironment(listener), listener, workspace);
+                InstallationCache.Resolved buildTool =
+                        InstallationCache.resolve(installation, build.getEnvironment(listener), listener, workspace);
+                if (buildTool == null) {
+                    throw new AbortException("Agent is offline, cannot run Flyway.");
+                }
                 cliCommand.add(buildTool.getExecutable(launcher));
 
-                sp.sd.flywayrunner.builder.Util.addOptionIfPresent(
-                        cliCommand, CliOption.USERNAME, getUsername(project));
+                if (credentials != null) {
+                    sp.sd.flywayrunner.builder.Util.addOptionIfPresent(
+                            cliCommand, CliOption.USERNAME, credentials.getUsername());
 
-                cliCommand.addMasked(sp.sd.flywayrunner.builder.Util.OPTION_HYPHENS + CliOption.PASSWORD.getCliOption()
-                        + "=" + getCredentialsPassword(project));
+                    if (credentials.getPassword() != null) {
+                        cliCommand.addMasked(sp.sd.flywayrunner.builder.Util.OPTION_HYPHENS
+                                + CliOption.PASSWORD.getCliOption()
+                                + "=" + credentials.getPassword());
+                    }
+                }
 
                 sp.sd.flywayrunner.builder.Util.addOptionIfPresent(
                         cliCommand,
                         CliOption.URL,
-                        build.getEnvironment(listener).expand(url));
+                        build.getEnvironment(listener).expand(target.getUrl()));
+
+                sp.sd.flywayrunner.builder.Util.addOptionIfPresent(
+                        cliCommand,
+                        CliOption.SCHEMAS,
+                        build.getEnvironment(listener).expand(target.getSchemas()));
 
                 sp.sd.flywayrunner.builder.Util.addOptionIfPresent(
                         cliCommand,
@@ -138,11 +984,13 @@ public class FlywayBuilder extends Builder implements SimpleBuildStep, Serializa
                     cliCommand.addTokenized(build.getEnvironment(listener).expand(commandLineArgs));
                 }
 
-                cliCommand.addTokenized(build.getEnvironment(listener).expand(flywayCommand));
+                cliCommand.addTokenized(build.getEnvironment(listener).expand(getEffectiveCommand()));
             } else {
                 listener.fatalError("Flyway installation was not found.");
                 return null;
             }
+        } catch (AbortException e) {
+            throw e;
         } catch (Exception e) {
             e.printStackTrace(listener.getLogger());
         }
@@ -165,6 +1013,32 @@ public class FlywayBuilder extends Builder implements SimpleBuildStep, Serializa
         return flywayCommand;
     }
 
+    public List<String> getFlywayCommands() {
+        return flywayCommands == null ? Collections.emptyList() : flywayCommands;
+    }
+
+    @DataBoundSetter
+    public void setFlywayCommands(List<String> flywayCommands) {
+        List<String> commands = new ArrayList<>();
+        if (flywayCommands != null) {
+            for (String command : flywayCommands) {
+                if (!Strings.isNullOrEmpty(command) && !command.trim().isEmpty()) {
+                    commands.add(command.trim());
+                }
+            }
+        }
+        this.flywayCommands = commands.isEmpty() ? null : commands;
+    }
+
+    /**
+     * @return the commands given by {@link #getFlywayCommands()} separated by spaces, otherwise
+     *     {@link #getFlywayCommand()}.  Flyway runs them in order in one process or session, sharing its connection,
+     *     and stops at the first which fails.
+     */
+    public String getEffectiveCommand() {
+        return flywayCommands == null ? flywayCommand : String.join(" ", flywayCommands);
+    }
+
     public String getInstallationName() {
         return installationName;
     }
@@ -181,47 +1055,212 @@ public class FlywayBuilder extends Builder implements SimpleBuildStep, Serializa
         return credentialsId;
     }
 
-    public StandardUsernameCredentials getCredentials(Item project) {
-        StandardUsernameCredentials credentials = null;
-        try {
+    public ExecutionMode getExecutionMode() {
+        return executionMode == null ? ExecutionMode.CLI : executionMode;
+    }
 
-            credentials = credentialsId == null ? null : lookupSystemCredentials(credentialsId, project);
-            if (credentials != null) {
-                return credentials;
-            }
-        } catch (Throwable t) {
+    @DataBoundSetter
+    public void setExecutionMode(ExecutionMode executionMode) {
+        this.executionMode = executionMode;
+    }
+
+    public LogMode getLogMode() {
+        return logMode == null ? LogMode.FULL : logMode;
+    }
 
+    @DataBoundSetter
+    public void setLogMode(LogMode logMode) {
+        this.logMode = logMode;
+    }
+
+    public List<FlywayTarget> getTargets() {
+        return targets == null ? Collections.emptyList() : targets;
+    }
+
+    @DataBoundSetter
+    public void setTargets(List<FlywayTarget> targets) {
+        this.targets = targets == null || targets.isEmpty() ? null : new ArrayList<>(targets);
+    }
+
+    public int getParallelism() {
+        return Math.max(1, parallelism);
+    }
+
+    @DataBoundSetter
+    public void setParallelism(int parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    public boolean isJsonOutput() {
+        return jsonOutput;
+    }
+
+    @DataBoundSetter
+    public void setJsonOutput(boolean jsonOutput) {
+        this.jsonOutput = jsonOutput;
+    }
+
+    public boolean isSkipIfUnchanged() {
+        return skipIfUnchanged;
+    }
+
+    @DataBoundSetter
+    public void setSkipIfUnchanged(boolean skipIfUnchanged) {
+        this.skipIfUnchanged = skipIfUnchanged;
+    }
+
+    public boolean isPreflight() {
+        return preflight;
+    }
+
+    @DataBoundSetter
+    public void setPreflight(boolean preflight) {
+        this.preflight = preflight;
+    }
+
+    public boolean isPreflightHistory() {
+        return preflightHistory;
+    }
+
+    @DataBoundSetter
+    public void setPreflightHistory(boolean preflightHistory) {
+        this.preflightHistory = preflightHistory;
+    }
+
+    public String getFatalOutputPatterns() {
+        return fatalOutputPatterns;
+    }
+
+    @DataBoundSetter
+    public void setFatalOutputPatterns(String fatalOutputPatterns) {
+        this.fatalOutputPatterns = hudson.Util.fixEmptyAndTrim(fatalOutputPatterns);
+    }
+
+    List<String> getFatalOutputPatternList() {
+        List<String> patterns = new ArrayList<>();
+        if (fatalOutputPatterns != null) {
+            for (String pattern : fatalOutputPatterns.split("\\r?\\n")) {
+                if (!pattern.trim().isEmpty()) {
+                    patterns.add(pattern.trim());
+                }
+            }
         }
+        return patterns;
+    }
+
+    public boolean isSqlLint() {
+        return sqlLint;
+    }
+
+    @DataBoundSetter
+    public void setSqlLint(boolean sqlLint) {
+        this.sqlLint = sqlLint;
+    }
+
+    public int getSqlLintUnstableThreshold() {
+        return Math.max(0, sqlLintUnstableThreshold);
+    }
+
+    @DataBoundSetter
+    public void setSqlLintUnstableThreshold(int sqlLintUnstableThreshold) {
+        this.sqlLintUnstableThreshold = sqlLintUnstableThreshold;
+    }
+
+    public int getSqlLintFailureThreshold() {
+        return Math.max(0, sqlLintFailureThreshold);
+    }
+
+    @DataBoundSetter
+    public void setSqlLintFailureThreshold(int sqlLintFailureThreshold) {
+        this.sqlLintFailureThreshold = sqlLintFailureThreshold;
+    }
+
+    public boolean isSnapshots() {
+        return snapshots;
+    }
+
+    @DataBoundSetter
+    public void setSnapshots(boolean snapshots) {
+        this.snapshots = snapshots;
+    }
+
+    public boolean isLockDatabase() {
+        return lockDatabase;
+    }
+
+    @DataBoundSetter
+    public void setLockDatabase(boolean lockDatabase) {
+        this.lockDatabase = lockDatabase;
+    }
+
+    public boolean isReachabilityCheck() {
+        return reachabilityCheck;
+    }
 
-        return credentials;
+    @DataBoundSetter
+    public void setReachabilityCheck(boolean reachabilityCheck) {
+        this.reachabilityCheck = reachabilityCheck;
     }
 
+    public boolean isReachabilityCheckJdbc() {
+        return reachabilityCheckJdbc;
+    }
+
+    @DataBoundSetter
+    public void setReachabilityCheckJdbc(boolean reachabilityCheckJdbc) {
+        this.reachabilityCheckJdbc = reachabilityCheckJdbc;
+    }
+
+    public boolean isFailFast() {
+        return failFast;
+    }
+
+    @DataBoundSetter
+    public void setFailFast(boolean failFast) {
+        this.failFast = failFast;
+    }
+
+    /**
+     * @deprecated credentials are resolved by id per build; use the step's {@link #getCredentialsId()}.
+     */
+    @Deprecated
+    public StandardUsernameCredentials getCredentials(Item project) {
+        return credentialsId == null ? null : lookupSystemCredentials(credentialsId, project);
+    }
+
+    /**
+     * @deprecated credentials are resolved by id per build; use the step's {@link #getCredentialsId()}.
+     */
+    @Deprecated
     public StandardUsernameCredentials lookupSystemCredentials(String credentialsId, Item project) {
-        return CredentialsMatchers.firstOrNull(
-                CredentialsProvider.lookupCredentialsInItem(
-                        StandardUsernameCredentials.class,
-                        project,
-                        ACL.SYSTEM2,
-                        Collections.<DomainRequirement>emptyList()),
-                CredentialsMatchers.withId(credentialsId));
+        return DatabaseCredentials.find(project, credentialsId, StandardUsernameCredentials.class);
     }
 
+    /**
+     * @deprecated credentials are resolved by id per build; use the step's {@link #getCredentialsId()}.
+     */
+    @Deprecated
     public String getUsername(Item project) {
-        String username = null;
-        if (!Strings.isNullOrEmpty(credentialsId)) {
-            username = this.getCredentials(project).getUsername();
-        }
-        return username;
+        DatabaseCredentials credentials = credentialsOf(project);
+        return credentials == null ? null : credentials.getUsername();
     }
 
+    /**
+     * @deprecated credentials are resolved by id per build; use the step's {@link #getCredentialsId()}.
+     */
+    @Deprecated
     public String getCredentialsPassword(Item project) {
-        String password = null;
-        if (!Strings.isNullOrEmpty(credentialsId)) {
-            password = Secret.toString(StandardUsernamePasswordCredentials.class
-                    .cast(this.getCredentials(project))
-                    .getPassword());
+        DatabaseCredentials credentials = credentialsOf(project);
+        return credentials == null ? null : credentials.getPassword();
+    }
+
+    @CheckForNull
+    private DatabaseCredentials credentialsOf(Item project) {
+        try {
+            return DatabaseCredentials.lookup(project, credentialsId);
+        } catch (AbortException e) {
+            return null;
         }
-        return password;
     }
 
     @Extension
@@ -249,12 +1288,7 @@ public class FlywayBuilder extends Builder implements SimpleBuildStep, Serializa
         }
 
         public ListBoxModel doFillCredentialsIdItems(@AncestorInPath Item owner) {
-            if (owner == null || !owner.hasPermission(Item.CONFIGURE)) {
-                return new ListBoxModel();
-            }
-            return new StandardUsernameListBoxModel()
-                    .includeEmptyValue()
-                    .includeAs(ACL.SYSTEM2, owner, StandardUsernamePasswordCredentials.class);
+            return DatabaseCredentials.listBoxModel(owner);
         }
 
         public ListBoxModel doFillInstallationItems() {
@@ -0,0 +1,249 @@
+package sp.sd.flywayrunner.builder;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.flywaydb.core.Flyway;
+
+/**
+ * Long-lived Flyway sessions kept inside the agent JVM, one per installation.  A session holds a class loader over
+ * the installation's JDBC drivers so that repeated builds on the same agent reuse loaded, JIT-compiled Flyway and
+ * driver classes instead of starting a new JVM for every command.
+ * <p>
+ * Only the drivers come from the installation: the Flyway classes are the ones bundled with the plugin, whose version
+ * may differ from the installation's {@code flyway-core}, see {@link #installedVersion}.
+ * <p>
+ * This class only lives on the agent side; all state is static and therefore shared by every build running there.
+ */
+final class FlywayDaemon {
+    private static final Logger LOG = Logger.getLogger(FlywayDaemon.class.getName());
+    private static final String DRIVERS_DIRECTORY = "drivers";
+    private static final String LIB_DIRECTORY = "lib";
+    private static final Pattern FLYWAY_CORE_JAR = Pattern.compile("flyway-core-(.+)\\.jar");
+    private static final String VERSION_RESOURCE = "org/flywaydb/core/internal/version.txt";
+
+    private static final Map<String, Session> SESSIONS = new ConcurrentHashMap<>();
+    private static final ScheduledExecutorService EVICTOR = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "Flyway daemon idle eviction");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    static {
+        EVICTOR.scheduleWithFixedDelay(FlywayDaemon::evictIdle, 1, 1, TimeUnit.MINUTES);
+    }
+
+    private FlywayDaemon() {}
+
+    /**
+     * Returns the warm session of an installation, starting a new one when none exists yet or when the
+     * installation's home has changed since the session was started.
+     */
+    static Session session(String installationName, String home, long idleTimeoutMillis, int maxConcurrentCommands) {
+        Session session = SESSIONS.compute(installationName, (name, existing) -> {
+            if (existing != null
+                    && existing.home.equals(home)
+                    && existing.maxConcurrentCommands == maxConcurrentCommands) {
+                return existing;
+            }
+            if (existing != null) {
+                LOG.log(Level.FINE, "Restarting Flyway daemon for {0}, home changed to {1}", new Object[] {name, home});
+                existing.retire();
+            }
+            return new Session(home, maxConcurrentCommands);
+        });
+        session.idleTimeoutMillis = idleTimeoutMillis;
+        session.touch();
+        return session;
+    }
+
+    private static void evictIdle() {
+        long now = System.currentTimeMillis();
+        SESSIONS.entrySet().removeIf(entry -> {
+            Session session = entry.getValue();
+            if (session.isIdle(now)) {
+                LOG.log(Level.FINE, "Evicting idle Flyway daemon for {0}", entry.getKey());
+                session.retire();
+                return true;
+            }
+            return false;
+        });
+    }
+
+    /**
+     * @return the JDBC driver jars in the {@code drivers} directory of an installation.
+     */
+    static URL[] driverJars(String home) throws MalformedURLException {
+        List<URL> urls = new ArrayList<>();
+        File[] jars = new File(baseOf(home), DRIVERS_DIRECTORY).listFiles((dir, name) -> name.endsWith(".jar"));
+        if (jars != null) {
+            for (File jar : jars) {
+                urls.add(jar.toURI().toURL());
+            }
+        }
+        return urls.toArray(new URL[0]);
+    }
+
+    /**
+     * @return the version of the {@code flyway-core} jar found below the {@code lib} directory of an installation, or
+     *     null if there is none.
+     */
+    @CheckForNull
+    static String installedVersion(String home) {
+        return coreVersionIn(new File(baseOf(home), LIB_DIRECTORY));
+    }
+
+    private static String coreVersionIn(File directory) {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return null;
+        }
+        for (File file : files) {
+            Matcher jar = FLYWAY_CORE_JAR.matcher(file.getName());
+            if (file.isFile() && jar.matches()) {
+                return jar.group(1);
+            }
+            String version = file.isDirectory() ? coreVersionIn(file) : null;
+            if (version != null) {
+                return version;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the version of the Flyway classes bundled with the plugin, which the daemon runs, or null if it is not
+     *     known.
+     */
+    @CheckForNull
+    static String bundledVersion() {
+        try (InputStream in = Flyway.class.getClassLoader().getResourceAsStream(VERSION_RESOURCE)) {
+            if (in != null) {
+                return new String(in.readAllBytes(), StandardCharsets.UTF_8).trim();
+            }
+        } catch (IOException e) {
+            LOG.log(Level.FINE, "Failed to read the bundled Flyway version", e);
+        }
+        return Flyway.class.getPackage().getImplementationVersion();
+    }
+
+    private static File baseOf(String home) {
+        File base = new File(home);
+        return base.isFile() ? base.getParentFile() : base;
+    }
+
+    static final class Session {
+        private final String home;
+        private final int maxConcurrentCommands;
+        private final Semaphore permits;
+        private final AtomicLong commandsServed = new AtomicLong();
+        private volatile long lastUsed;
+        private volatile long idleTimeoutMillis;
+        private volatile URLClassLoader classLoader;
+        private int running;
+        private boolean retired;
+
+        private Session(String home, int maxConcurrentCommands) {
+            this.home = home;
+            this.maxConcurrentCommands = maxConcurrentCommands;
+            this.permits = new Semaphore(maxConcurrentCommands, true);
+        }
+
+        /**
+         * Blocks until one of the session's command slots is free.
+         * @return false if the session was retired meanwhile, in which case no slot is taken and a new session has
+         *     to be looked up.
+         */
+        boolean acquire() throws InterruptedException {
+            permits.acquire();
+            synchronized (this) {
+                if (retired) {
+                    permits.release();
+                    return false;
+                }
+                running++;
+            }
+            touch();
+            return true;
+        }
+
+        void release() {
+            commandsServed.incrementAndGet();
+            touch();
+            boolean close;
+            synchronized (this) {
+                running--;
+                close = retired && running == 0;
+            }
+            permits.release();
+            if (close) {
+                close();
+            }
+        }
+
+        long getCommandsServed() {
+            return commandsServed.get();
+        }
+
+        /**
+         * @return the class loader of the session, which must be {@link #acquire acquired}.
+         */
+        synchronized ClassLoader getClassLoader(ClassLoader parent) throws IOException {
+            if (running == 0) {
+                throw new IllegalStateException("The Flyway daemon session of " + home + " is not acquired");
+            }
+            if (classLoader == null) {
+                classLoader = new URLClassLoader(driverJars(home), parent);
+            }
+            return classLoader;
+        }
+
+        private void touch() {
+            lastUsed = System.currentTimeMillis();
+        }
+
+        private synchronized boolean isIdle(long now) {
+            return running == 0 && now - lastUsed > idleTimeoutMillis;
+        }
+
+        private void retire() {
+            boolean close;
+            synchronized (this) {
+                retired = true;
+                close = running == 0;
+            }
+            if (close) {
+                close();
+            }
+        }
+
+        private synchronized void close() {
+            if (classLoader != null) {
+                try {
+                    classLoader.close();
+                } catch (IOException e) {
+                    LOG.log(Level.FINE, "Failed to close Flyway daemon class loader", e);
+                }
+                classLoader = null;
+            }
+        }
+    }
+}
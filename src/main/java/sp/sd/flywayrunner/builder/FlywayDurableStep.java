@@ -0,0 +1,170 @@
+package sp.sd.flywayrunner.builder;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import hudson.EnvVars;
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.model.Item;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.util.ListBoxModel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import org.jenkinsci.plugins.variant.OptionalExtension;
+import org.jenkinsci.plugins.workflow.steps.Step;
+import org.jenkinsci.plugins.workflow.steps.StepContext;
+import org.jenkinsci.plugins.workflow.steps.StepDescriptor;
+import org.jenkinsci.plugins.workflow.steps.StepExecution;
+import org.kohsuke.stapler.AncestorInPath;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+import sp.sd.flywayrunner.installation.FlywayInstallation;
+
+/**
+ * Pipeline step running the Flyway command line as a durable task: the process runs detached on the agent, its
+ * output is copied back as it is written and no controller thread waits for it.  The step reattaches to the process
+ * when the controller restarts, which suits long migrations.
+ */
+public class FlywayDurableStep extends Step {
+
+    private final String installationName;
+    private final String flywayCommand;
+    private final String url;
+    private final String locations;
+    private final String commandLineArgs;
+    private final @CheckForNull String credentialsId;
+    private boolean jsonOutput;
+    private String fatalOutputPatterns;
+    private List<String> flywayCommands;
+    private boolean lockDatabase;
+
+    @DataBoundConstructor
+    public FlywayDurableStep(
+            String installationName,
+            String flywayCommand,
+            String url,
+            String locations,
+            String commandLineArgs,
+            String credentialsId) {
+        this.installationName = installationName;
+        this.flywayCommand = flywayCommand;
+        this.url = url;
+        this.locations = locations;
+        this.commandLineArgs = commandLineArgs;
+        this.credentialsId = credentialsId;
+    }
+
+    public String getInstallationName() {
+        return installationName;
+    }
+
+    public String getFlywayCommand() {
+        return flywayCommand;
+    }
+
+    public List<String> getFlywayCommands() {
+        return flywayCommands == null ? Collections.emptyList() : flywayCommands;
+    }
+
+    /**
+     * Commands run in order by the same Flyway process, in place of the {@code flywayCommand}.
+     */
+    @DataBoundSetter
+    public void setFlywayCommands(List<String> flywayCommands) {
+        this.flywayCommands =
+                flywayCommands == null || flywayCommands.isEmpty() ? null : new ArrayList<>(flywayCommands);
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public String getLocations() {
+        return locations;
+    }
+
+    public String getCommandLineArgs() {
+        return commandLineArgs;
+    }
+
+    public @CheckForNull String getCredentialsId() {
+        return credentialsId;
+    }
+
+    public boolean isJsonOutput() {
+        return jsonOutput;
+    }
+
+    @DataBoundSetter
+    public void setJsonOutput(boolean jsonOutput) {
+        this.jsonOutput = jsonOutput;
+    }
+
+    public String getFatalOutputPatterns() {
+        return fatalOutputPatterns;
+    }
+
+    @DataBoundSetter
+    public void setFatalOutputPatterns(String fatalOutputPatterns) {
+        this.fatalOutputPatterns = hudson.Util.fixEmptyAndTrim(fatalOutputPatterns);
+    }
+
+    public boolean isLockDatabase() {
+        return lockDatabase;
+    }
+
+    /**
+     * Waits for other Flyway steps which lock the same database, without holding a thread, before Flyway is launched.
+     */
+    @DataBoundSetter
+    public void setLockDatabase(boolean lockDatabase) {
+        this.lockDatabase = lockDatabase;
+    }
+
+    /**
+     * @return a builder with the same settings, which composes the command line.
+     */
+    FlywayBuilder toBuilder() {
+        FlywayBuilder builder =
+                new FlywayBuilder(installationName, flywayCommand, url, locations, commandLineArgs, credentialsId);
+        builder.setJsonOutput(jsonOutput);
+        builder.setFatalOutputPatterns(fatalOutputPatterns);
+        builder.setFlywayCommands(flywayCommands);
+        builder.setLockDatabase(lockDatabase);
+        return builder;
+    }
+
+    @Override
+    public StepExecution start(StepContext context) {
+        return new FlywayDurableStepExecution(context, toBuilder());
+    }
+
+    @OptionalExtension(requirePlugins = "durable-task")
+    public static final class DescriptorImpl extends StepDescriptor {
+
+        @Override
+        public String getFunctionName() {
+            return "flywayDurable";
+        }
+
+        @Override
+        public String getDisplayName() {
+            return "Invoke Flyway as a durable task";
+        }
+
+        @Override
+        public Set<? extends Class<?>> getRequiredContext() {
+            return Set.of(Run.class, FilePath.class, Launcher.class, TaskListener.class, EnvVars.class);
+        }
+
+        public FlywayInstallation[] getInstallations() {
+            return FlywayInstallation.allInstallations();
+        }
+
+        public ListBoxModel doFillCredentialsIdItems(@AncestorInPath Item owner) {
+            return DatabaseCredentials.listBoxModel(owner);
+        }
+    }
+}
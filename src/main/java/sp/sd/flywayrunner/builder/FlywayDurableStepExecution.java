@@ -0,0 +1,355 @@
+package sp.sd.flywayrunner.builder;
+
+import hudson.AbortException;
+import hudson.EnvVars;
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.model.Computer;
+import hudson.model.Node;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.util.ArgumentListBuilder;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import jenkins.model.Jenkins;
+import jenkins.util.SystemProperties;
+import jenkins.util.Timer;
+import org.apache.commons.io.output.TeeOutputStream;
+import org.jenkinsci.plugins.durabletask.BourneShellScript;
+import org.jenkinsci.plugins.durabletask.Controller;
+import org.jenkinsci.plugins.durabletask.DurableTask;
+import org.jenkinsci.plugins.durabletask.WindowsBatchScript;
+import org.jenkinsci.plugins.workflow.steps.AbstractStepExecutionImpl;
+import org.jenkinsci.plugins.workflow.steps.StepContext;
+import sp.sd.flywayrunner.lock.DatabaseLocks;
+import sp.sd.flywayrunner.metrics.FlywayTimings;
+import sp.sd.flywayrunner.results.FlywayCommandResult;
+import sp.sd.flywayrunner.results.FlywayJsonOutputParser;
+import sp.sd.flywayrunner.results.FlywayResultsAction;
+import sp.sd.flywayrunner.results.FlywayTextOutputParser;
+import sp.sd.flywayrunner.state.SchemaSnapshots;
+
+/**
+ * Launches the Flyway command line through a {@link DurableTask} and polls it from a timer, the way durable-task
+ * steps do.  Only the {@link Controller} and the location of the workspace are persisted with the pipeline, so
+ * after a controller restart polling resumes against the process which kept running on the agent.  Results parsed
+ * from JSON output before a restart are lost, the rest of the output is still parsed.
+ */
+class FlywayDurableStepExecution extends AbstractStepExecutionImpl {
+    private static final long serialVersionUID = 1L;
+    private static final Logger LOG = Logger.getLogger(FlywayDurableStepExecution.class.getName());
+    private static final long MIN_RECURRENCE_PERIOD = 250;
+    private static final long MAX_RECURRENCE_PERIOD = 15000;
+    private static final float RECURRENCE_PERIOD_BACKOFF = 1.2f;
+    private static final String ENV_USER = "FLYWAY_USER";
+    private static final String ENV_PASSWORD = "FLYWAY_PASSWORD";
+    /**
+     * How long the agent running Flyway may stay unreachable before the step fails.
+     */
+    private static final long UNREACHABLE_TIMEOUT_MILLIS = SystemProperties.getLong(
+            FlywayDurableStepExecution.class.getName() + ".unreachableTimeoutMillis", TimeUnit.MINUTES.toMillis(5));
+
+    private final transient FlywayBuilder builder;
+    private final String flywayCommand;
+    private final boolean jsonOutput;
+    private final List<String> fatalOutputPatterns;
+    private HashMap<String, String> scriptOptions;
+    private Controller controller;
+    private String node;
+    private String remote;
+    private String target;
+    private long startedMillis;
+    private boolean done;
+
+    private transient long recurrencePeriod;
+    private transient long unreachableSince;
+    private transient FlywayOutputMonitor monitor;
+    private transient FlywayJsonOutputParser parser;
+    private transient FlywayTextOutputParser textParser;
+    private transient boolean stopping;
+    private transient DatabaseLocks.Lease lease;
+
+    FlywayDurableStepExecution(StepContext context, FlywayBuilder builder) {
+        super(context);
+        this.builder = builder;
+        this.flywayCommand = builder.getEffectiveCommand();
+        this.jsonOutput = builder.isJsonOutput();
+        this.fatalOutputPatterns = new ArrayList<>(builder.getFatalOutputPatternList());
+    }
+
+    @Override
+    public boolean start() throws Exception {
+        Run<?, ?> run = getContext().get(Run.class);
+        FilePath workspace = getContext().get(FilePath.class);
+        Launcher launcher = getContext().get(Launcher.class);
+        TaskListener listener = getContext().get(TaskListener.class);
+        EnvVars env = new EnvVars(getContext().get(EnvVars.class));
+        FlywayTarget flywayTarget = builder.getEffectiveTargets().get(0);
+        ArgumentListBuilder cliCommand =
+                builder.composeFlywayCommand(run, listener, launcher, workspace, flywayTarget, false);
+        if (cliCommand == null) {
+            throw new AbortException("Flyway installation was not found.");
+        }
+        if (jsonOutput) {
+            cliCommand.add(Util.OPTION_HYPHENS + CliOption.OUTPUT_TYPE.getCliOption() + "=json");
+        }
+        // credentials go through the environment so they do not appear in the script written to the agent
+        DatabaseCredentials credentials = DatabaseCredentials.resolve(run, builder.credentialsIdOf(flywayTarget));
+        if (credentials != null) {
+            env.put(ENV_USER, hudson.Util.fixNull(credentials.getUsername()));
+            env.put(ENV_PASSWORD, hudson.Util.fixNull(credentials.getPassword()));
+        }
+        String javaArgs = builder.javaArgsOf(env, listener, workspace);
+        if (javaArgs != null) {
+            env.put(FlywayBuilder.JAVA_ARGS, javaArgs);
+        }
+        DurableTask task = launcher.isUnix()
+                ? new BourneShellScript(toShellScript(cliCommand))
+                : new WindowsBatchScript(cliCommand.toWindowsCommand().toString());
+        String expandedUrl = env.expand(flywayTarget.getUrl());
+        target = flywayTarget.getDisplayName(Util.sanitizeUrl(expandedUrl));
+        scriptOptions = new HashMap<>(builder.scriptOptionsOf(env, flywayTarget));
+        if (builder.isLockDatabase()) {
+            // launch waits for the lease to be set, as it may be called back before request returns
+            synchronized (this) {
+                lease = DatabaseLocks.get().request(expandedUrl, run, listener, () -> {
+                    try {
+                        launch(task, cliCommand, env, workspace, launcher, listener);
+                    } catch (IOException | InterruptedException | RuntimeException e) {
+                        fail(e);
+                    }
+                });
+            }
+            return false;
+        }
+        launch(task, cliCommand, env, workspace, launcher, listener);
+        return false;
+    }
+
+    private synchronized void launch(
+            DurableTask task,
+            ArgumentListBuilder cliCommand,
+            EnvVars env,
+            FilePath workspace,
+            Launcher launcher,
+            TaskListener listener)
+            throws IOException, InterruptedException {
+        if (done) {
+            return;
+        }
+        listener.getLogger().println("Launching Flyway as a durable task: " + cliCommand);
+        Computer computer = workspace.toComputer();
+        node = computer == null ? "" : computer.getName();
+        remote = workspace.getRemote();
+        startedMillis = System.currentTimeMillis();
+        controller = task.launch(env, workspace, launcher, listener);
+        getContext().saveState();
+        schedule(MIN_RECURRENCE_PERIOD);
+    }
+
+    private synchronized void fail(Throwable cause) {
+        if (done) {
+            return;
+        }
+        done = true;
+        releaseDatabase();
+        getContext().onFailure(cause);
+    }
+
+    private void releaseDatabase() {
+        if (lease != null) {
+            lease.close();
+            lease = null;
+        }
+    }
+
+    private static String toShellScript(ArgumentListBuilder cliCommand) {
+        StringBuilder script = new StringBuilder();
+        for (String argument : cliCommand.toList()) {
+            if (script.length() > 0) {
+                script.append(' ');
+            }
+            script.append('\'').append(argument.replace("'", "'\\''")).append('\'');
+        }
+        return script.toString();
+    }
+
+    @Override
+    public void onResume() {
+        if (controller == null) {
+            // database locks live in controller memory, so the place in line was lost with the restart
+            fail(new AbortException("Jenkins restarted before Flyway was launched"));
+            return;
+        }
+        schedule(MIN_RECURRENCE_PERIOD);
+    }
+
+    @Override
+    public String getStatus() {
+        if (done || node == null) {
+            return done ? "completed" : lease != null ? "waiting for the database" : "starting";
+        }
+        return "waiting for Flyway on " + (node.isEmpty() ? "the built-in node" : node);
+    }
+
+    private void schedule(long delay) {
+        recurrencePeriod = delay;
+        Timer.get().schedule(this::check, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private Node getNode() {
+        Jenkins jenkins = Jenkins.get();
+        return node.isEmpty() ? jenkins : jenkins.getNode(node);
+    }
+
+    /**
+     * @return the workspace, {@code null} before Flyway was launched or while its agent is offline.
+     */
+    private FilePath getWorkspace() {
+        if (node == null) {
+            return null;
+        }
+        Node n = getNode();
+        return n == null ? null : n.createPath(remote);
+    }
+
+    private synchronized void check() {
+        if (done) {
+            return;
+        }
+        TaskListener listener;
+        try {
+            listener = getContext().get(TaskListener.class);
+        } catch (IOException | InterruptedException e) {
+            LOG.log(Level.WARNING, "Could not get the listener of " + getContext(), e);
+            retryLater("its listener is not available: " + e);
+            return;
+        }
+        FilePath workspace = getWorkspace();
+        if (workspace == null) {
+            retryLater("the agent " + node + " is offline");
+            return;
+        }
+        try {
+            OutputStream output = output(listener);
+            boolean wrote = controller.writeLog(workspace, output);
+            unreachableSince = 0;
+            Launcher launcher = workspace.createLauncher(listener);
+            if (!stopping && monitor.getFatalPattern() != null) {
+                stopping = true;
+                listener.error("Flyway output matched '" + monitor.getFatalPattern() + "', stopping Flyway");
+                controller.stop(workspace, launcher);
+            }
+            Integer exitStatus = controller.exitStatus(workspace, launcher, listener);
+            if (exitStatus == null) {
+                long backoff = (long) (recurrencePeriod * RECURRENCE_PERIOD_BACKOFF);
+                schedule(wrote ? MIN_RECURRENCE_PERIOD : Math.min(backoff, MAX_RECURRENCE_PERIOD));
+                return;
+            }
+            controller.writeLog(workspace, output);
+            controller.cleanup(workspace);
+            finish(exitStatus, listener);
+        } catch (IOException | InterruptedException e) {
+            // the agent may be reconnecting, try again later
+            listener.getLogger().println("Could not check on Flyway, retrying: " + e);
+            retryLater(e.toString());
+        } catch (RuntimeException e) {
+            fail(e);
+        }
+    }
+
+    /**
+     * Checks on Flyway again later, unless the agent has been unreachable for too long, in which case the step fails.
+     */
+    private void retryLater(String reason) {
+        long now = System.currentTimeMillis();
+        if (unreachableSince == 0) {
+            unreachableSince = now;
+        } else if (now - unreachableSince > UNREACHABLE_TIMEOUT_MILLIS) {
+            fail(new AbortException("Could not check on Flyway for "
+                    + hudson.Util.getTimeSpanString(now - unreachableSince) + ", giving up: " + reason));
+            return;
+        }
+        schedule(MAX_RECURRENCE_PERIOD);
+    }
+
+    private OutputStream output(TaskListener listener) {
+        if (monitor == null) {
+            monitor = new FlywayOutputMonitor(fatalOutputPatterns);
+            if (jsonOutput) {
+                parser = new FlywayJsonOutputParser();
+            } else {
+                textParser = new FlywayTextOutputParser();
+            }
+        }
+        OutputStream output = new TeeOutputStream(listener.getLogger(), monitor);
+        return new TeeOutputStream(output, parser == null ? textParser : parser);
+    }
+
+    private void finish(int exitStatus, TaskListener listener) throws IOException, InterruptedException {
+        done = true;
+        releaseDatabase();
+        monitor.close();
+        List<FlywayCommandResult> results = new ArrayList<>();
+        if (parser != null) {
+            parser.close();
+            results.addAll(parser.getResults());
+        }
+        List<FlywayCommandResult> textResults = new ArrayList<>();
+        if (textParser != null) {
+            textParser.close();
+            textResults.addAll(textParser.getResults());
+        }
+        // without JSON output the command line only tells about its migrations in its text output
+        List<FlywayCommandResult> recorded = textResults.isEmpty() ? results : textResults;
+        if (exitStatus != 0) {
+            monitor.describeFailure(flywayCommand, results, listener);
+        }
+        Run<?, ?> run = getContext().get(Run.class);
+        for (FlywayCommandResult result : results) {
+            result.setTarget(target);
+        }
+        FlywayResultsAction.addTo(run, results);
+        FlywayTimings.record(run, target, System.currentTimeMillis() - startedMillis, recorded);
+        FilePath workspace = getWorkspace();
+        if (workspace != null) {
+            SchemaSnapshots.record(run, target, workspace, scriptOptions, recorded);
+        }
+        if (exitStatus != 0) {
+            getContext().onFailure(new AbortException("Flyway exited with code " + exitStatus));
+            return;
+        }
+        int applied = 0;
+        for (FlywayCommandResult result : results) {
+            if ("migrate".equals(result.getOperation())) {
+                applied += result.getMigrations().size();
+            }
+        }
+        ArrayList<Object> resultMaps = new ArrayList<>();
+        for (FlywayCommandResult result : results) {
+            resultMaps.add(result.toMap());
+        }
+        Map<String, Object> value = new HashMap<>();
+        value.put("exitStatus", exitStatus);
+        value.put("appliedMigrations", applied);
+        value.put("results", resultMaps);
+        getContext().onSuccess(value);
+    }
+
+    @Override
+    public void stop(Throwable cause) throws Exception {
+        FilePath workspace = getWorkspace();
+        if (workspace != null && controller != null) {
+            TaskListener listener = getContext().get(TaskListener.class);
+            controller.stop(workspace, workspace.createLauncher(listener));
+        }
+        fail(cause);
+    }
+}
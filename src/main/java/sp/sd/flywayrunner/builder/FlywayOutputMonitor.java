@@ -0,0 +1,277 @@
+package sp.sd.flywayrunner.builder;
+
+import com.google.common.base.Strings;
+import hudson.Proc;
+import hudson.console.LineTransformationOutputStream;
+import hudson.model.TaskListener;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import sp.sd.flywayrunner.results.FlywayCommandResult;
+import sp.sd.flywayrunner.trace.Span;
+
+/**
+ * Watches Flyway console output as it streams and recognizes its error report and lock waits.  Lines are matched as
+ * bytes; only the few lines which are kept, such as the SQL state and the failing statement, are decoded.  Lines
+ * containing one of the fatal patterns are signalled to {@link #awaitFatal} so the process can be killed without
+ * waiting for Flyway's own retries.
+ */
+class FlywayOutputMonitor extends LineTransformationOutputStream {
+    private static final byte[] ERROR = bytes("ERROR:");
+    private static final byte[] SQL_STATE = bytes("SQL State  :");
+    private static final byte[] ERROR_CODE = bytes("Error Code :");
+    private static final byte[] STATEMENT = bytes("Statement  :");
+    private static final byte[] DATABASE = bytes("Database:");
+    /**
+     * Milliseconds between checks whether a Flyway process with fatal output patterns is still running.
+     */
+    private static final long FATAL_OUTPUT_POLL_MILLIS = 250;
+    private static final byte[][] LOCK_WAITS = {bytes("Waiting for lock"), bytes("Lock wait timeout")};
+
+    private final List<byte[]> fatalPatterns = new ArrayList<>();
+    private final CountDownLatch fatal = new CountDownLatch(1);
+    private final AtomicInteger lockWaits = new AtomicInteger();
+    private volatile String fatalPattern;
+    private volatile String errorMessage;
+    private volatile String sqlState;
+    private volatile String errorCode;
+    private volatile String statement;
+    private volatile long firstOutputNanos;
+    private volatile long connectedNanos;
+
+    /**
+     * @param fatalPatterns text which, when found in a line, means Flyway will not succeed.
+     */
+    FlywayOutputMonitor(List<String> fatalPatterns) {
+        for (String pattern : fatalPatterns) {
+            if (!pattern.isEmpty()) {
+                this.fatalPatterns.add(bytes(pattern));
+            }
+        }
+    }
+
+    /**
+     * Recognizes the error report in text which was not streamed, such as the message of a Flyway exception or
+     * of a JSON error.
+     */
+    static FlywayOutputMonitor scan(String text) {
+        FlywayOutputMonitor monitor = new FlywayOutputMonitor(new ArrayList<>());
+        if (text != null) {
+            try {
+                monitor.write(bytes(text));
+                monitor.close();
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        return monitor;
+    }
+
+    @Override
+    protected void eol(byte[] b, int len) {
+        if (firstOutputNanos == 0) {
+            firstOutputNanos = System.nanoTime();
+        }
+        int start = 0;
+        while (start < len && (b[start] == ' ' || b[start] == '\t')) {
+            start++;
+        }
+        if (errorMessage == null && startsWith(b, start, len, ERROR)) {
+            errorMessage = text(b, start + ERROR.length, len);
+        } else if (sqlState == null && startsWith(b, start, len, SQL_STATE)) {
+            sqlState = text(b, start + SQL_STATE.length, len);
+        } else if (errorCode == null && startsWith(b, start, len, ERROR_CODE)) {
+            errorCode = text(b, start + ERROR_CODE.length, len);
+        } else if (statement == null && startsWith(b, start, len, STATEMENT)) {
+            statement = text(b, start + STATEMENT.length, len);
+        } else if (connectedNanos == 0 && startsWith(b, start, len, DATABASE)) {
+            connectedNanos = System.nanoTime();
+        }
+        for (byte[] lockWait : LOCK_WAITS) {
+            if (indexOf(b, start, len, lockWait) >= 0) {
+                lockWaits.incrementAndGet();
+                break;
+            }
+        }
+        if (fatalPattern == null) {
+            for (byte[] pattern : fatalPatterns) {
+                if (indexOf(b, start, len, pattern) >= 0) {
+                    fatalPattern = new String(pattern, StandardCharsets.UTF_8);
+                    fatal.countDown();
+                    break;
+                }
+            }
+        }
+    }
+
+    boolean hasFatalPatterns() {
+        return !fatalPatterns.isEmpty();
+    }
+
+    /**
+     * @return true once a line matched a fatal pattern, false if none did within the timeout.
+     */
+    boolean awaitFatal(long timeout, TimeUnit unit) throws InterruptedException {
+        return fatal.await(timeout, unit);
+    }
+
+    /**
+     * Waits for a Flyway process whose output goes to this monitor, and kills it once a line matched a fatal
+     * pattern.  The process is killed from here rather than from the output pump, which kill() may wait for.  It is
+     * also killed when the wait is interrupted, as it is when the build is aborted.
+     * @return the exit status of the process.
+     */
+    int join(Proc proc, TaskListener listener) throws IOException, InterruptedException {
+        try {
+            while (hasFatalPatterns() && proc.isAlive()) {
+                if (awaitFatal(FATAL_OUTPUT_POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                    listener.error("Flyway output matched '" + fatalPattern + "', stopping Flyway");
+                    proc.kill();
+                    break;
+                }
+            }
+            return proc.join();
+        } catch (InterruptedException e) {
+            proc.kill();
+            throw e;
+        }
+    }
+
+    String getFatalPattern() {
+        return fatalPattern;
+    }
+
+    String getErrorMessage() {
+        return errorMessage;
+    }
+
+    String getSqlState() {
+        return sqlState;
+    }
+
+    String getErrorCode() {
+        return errorCode;
+    }
+
+    String getStatement() {
+        return statement;
+    }
+
+    int getLockWaits() {
+        return lockWaits.get();
+    }
+
+    /**
+     * @param startNanos when the process was started, in {@link System#nanoTime()}.
+     * @param endNanos when the process ended, in {@link System#nanoTime()}.
+     * @return the time from the start of the process to its first output, from then to the line giving the database
+     *     Flyway connected to and from then to the end of the process, in nanoseconds and in that order.  Phases which
+     *     could not be recognized in the output are left out.
+     */
+    LinkedHashMap<String, Long> phases(long startNanos, long endNanos) {
+        LinkedHashMap<String, Long> phases = new LinkedHashMap<>();
+        if (firstOutputNanos != 0) {
+            phases.put("JVM start", firstOutputNanos - startNanos);
+            if (connectedNanos != 0) {
+                phases.put("Connect", connectedNanos - firstOutputNanos);
+                phases.put("Commands", endNanos - connectedNanos);
+            }
+        }
+        return phases;
+    }
+
+    /**
+     * Records consecutive phases, such as those of {@link #phases}, as children of the span.
+     * @param startNanos when the first phase started, in {@link System#nanoTime()}.
+     */
+    static void recordPhases(Span span, long startNanos, Map<String, Long> phases) {
+        long phaseStart = startNanos;
+        for (Map.Entry<String, Long> phase : phases.entrySet()) {
+            span.record(phase.getKey(), phaseStart, phaseStart + phase.getValue());
+            phaseStart += phase.getValue();
+        }
+    }
+
+    /**
+     * Records the SQL state and failing statement, if any were recognized, on a result.
+     */
+    void applyTo(FlywayCommandResult result) {
+        if (sqlState != null) {
+            result.setSqlState(sqlState);
+        }
+        if (errorCode != null) {
+            result.setErrorCode(errorCode);
+        }
+        if (statement != null) {
+            result.setFailedStatement(statement);
+        }
+    }
+
+    /**
+     * Attaches the SQL state and failing statement recognized in the output to the failed command, which is added
+     * if the output was not parsed into results.
+     */
+    void describeFailure(String command, List<FlywayCommandResult> results, TaskListener listener) {
+        FlywayCommandResult failed = null;
+        for (FlywayCommandResult commandResult : results) {
+            if (!commandResult.isSuccess()) {
+                failed = commandResult;
+            }
+        }
+        if (failed == null) {
+            String message = fatalPattern != null
+                    ? "Stopped after the output matched '" + fatalPattern + "'"
+                    : errorMessage;
+            failed = new FlywayCommandResult(command, false, message, Collections.emptyList());
+            results.add(failed);
+        }
+        applyTo(failed);
+        if (failed.getSqlState() == null) {
+            FlywayOutputMonitor.scan(failed.getErrorMessage()).applyTo(failed);
+        }
+        if (failed.getSqlState() != null) {
+            listener.getLogger()
+                    .println("Flyway failed with SQL state " + failed.getSqlState() + ": "
+                            + Strings.nullToEmpty(failed.getFailedStatement()));
+        }
+        if (getLockWaits() > 0) {
+            listener.getLogger().println("Flyway waited for a lock " + getLockWaits() + " time(s)");
+        }
+    }
+
+    private static boolean startsWith(byte[] b, int start, int len, byte[] prefix) {
+        if (len - start < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (b[start + i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int indexOf(byte[] b, int start, int len, byte[] pattern) {
+        for (int i = start; i <= len - pattern.length; i++) {
+            if (startsWith(b, i, len, pattern)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static String text(byte[] b, int from, int len) {
+        return new String(b, from, len - from, StandardCharsets.UTF_8).trim();
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,83 @@
+package sp.sd.flywayrunner.builder;
+
+import com.google.common.base.Strings;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import hudson.Extension;
+import hudson.model.AbstractDescribableImpl;
+import hudson.model.Descriptor;
+import hudson.model.Item;
+import hudson.util.ListBoxModel;
+import java.io.Serializable;
+import org.jenkinsci.Symbol;
+import org.kohsuke.stapler.AncestorInPath;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+
+/**
+ * One database which a {@link FlywayBuilder} step migrates.  Several targets of the same step share its
+ * locations and command but may use their own schemas and credentials.
+ */
+public class FlywayTarget extends AbstractDescribableImpl<FlywayTarget> implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * JDBC database connection URL.
+     */
+    private final String url;
+    /**
+     * Comma-separated list of schemas managed by Flyway, uses Flyway's default when empty.
+     */
+    private String schemas;
+
+    private @CheckForNull String credentialsId;
+
+    @DataBoundConstructor
+    public FlywayTarget(String url) {
+        this.url = url;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public String getSchemas() {
+        return schemas;
+    }
+
+    @DataBoundSetter
+    public void setSchemas(String schemas) {
+        this.schemas = Strings.emptyToNull(schemas);
+    }
+
+    /**
+     * @return the credentials of this target, the step's credentials are used when {@code null}.
+     */
+    public @CheckForNull String getCredentialsId() {
+        return credentialsId;
+    }
+
+    @DataBoundSetter
+    public void setCredentialsId(String credentialsId) {
+        this.credentialsId = Strings.emptyToNull(credentialsId);
+    }
+
+    /**
+     * Name of the target used to prefix its console output and in summaries.
+     */
+    String getDisplayName(String expandedUrl) {
+        return schemas == null ? expandedUrl : expandedUrl + " (" + schemas + ")";
+    }
+
+    @Extension
+    @Symbol("target")
+    public static final class DescriptorImpl extends Descriptor<FlywayTarget> {
+        @Override
+        public String getDisplayName() {
+            return "Flyway target";
+        }
+
+        public ListBoxModel doFillCredentialsIdItems(@AncestorInPath Item owner) {
+            return DatabaseCredentials.listBoxModel(owner);
+        }
+    }
+}
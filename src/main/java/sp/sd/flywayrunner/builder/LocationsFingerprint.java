@@ -0,0 +1,184 @@
+package sp.sd.flywayrunner.builder;
+
+import hudson.Util;
+import hudson.model.TaskListener;
+import hudson.remoting.VirtualChannel;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import jenkins.MasterToSlaveFileCallable;
+
+/**
+ * Computes, on the agent, a SHA-256 over the migration files under the {@code filesystem:} locations of a step, the
+ * Flyway version which will run them and an identity of the target.  Files are hashed in parallel, and a file whose
+ * size and modification time did not change since it was last hashed on this agent is not read again.  Relative
+ * locations are resolved against the workspace.
+ * Returns {@code null}, after logging why, when a location cannot be fingerprinted, for example a
+ * {@code classpath:} location.
+ */
+class LocationsFingerprint extends MasterToSlaveFileCallable<String> {
+    private static final long serialVersionUID = 1L;
+    private static final String FILESYSTEM_PREFIX = "filesystem:";
+    private static final int MAX_CACHED_DIGESTS = 100_000;
+
+    /**
+     * Content digests of files on this agent by path, valid while their size and modification time match.
+     */
+    private static final Map<String, CachedDigest> DIGESTS = new ConcurrentHashMap<>();
+
+    private final TaskListener listener;
+    private final List<String> locations;
+    private final String identity;
+    private final String installationHome;
+    private final boolean embedded;
+
+    /**
+     * @param locations expanded, comma-separated Flyway locations.
+     * @param identity everything else which decides what the step does, such as URL, command and arguments.
+     * @param installationHome home of the Flyway installation which runs the step, {@code null} if none.
+     * @param embedded whether the Flyway library of the agent JVM runs the step.
+     */
+    LocationsFingerprint(
+            TaskListener listener, String locations, String identity, String installationHome, boolean embedded) {
+        this.listener = listener;
+        this.locations = new ArrayList<>();
+        for (String location : Util.fixNull(locations).split(",")) {
+            if (!location.trim().isEmpty()) {
+                this.locations.add(location.trim());
+            }
+        }
+        this.identity = identity;
+        this.installationHome = installationHome;
+        this.embedded = embedded;
+    }
+
+    private static final class CachedDigest {
+        private final long size;
+        private final long modified;
+        private final String sha256;
+
+        private CachedDigest(long size, long modified, String sha256) {
+            this.size = size;
+            this.modified = modified;
+            this.sha256 = sha256;
+        }
+    }
+
+    @Override
+    public String invoke(File workspace, VirtualChannel channel) throws IOException {
+        if (locations.isEmpty()) {
+            listener.getLogger().println("No migration locations to fingerprint, running Flyway");
+            return null;
+        }
+        List<Path> files = new ArrayList<>();
+        for (String location : locations) {
+            if (!location.startsWith(FILESYSTEM_PREFIX)) {
+                listener.getLogger().println("Cannot fingerprint location " + location + ", running Flyway");
+                return null;
+            }
+            Path directory = workspace.toPath().resolve(location.substring(FILESYSTEM_PREFIX.length()));
+            if (!Files.isDirectory(directory)) {
+                listener.getLogger().println("Location " + location + " is not a directory, running Flyway");
+                return null;
+            }
+            try (Stream<Path> walk = Files.walk(directory)) {
+                files.addAll(walk.filter(Files::isRegularFile).collect(Collectors.toList()));
+            }
+        }
+        List<String> lines;
+        try {
+            lines = files.parallelStream()
+                    .map(file -> file.toAbsolutePath().normalize())
+                    .distinct()
+                    .map(file -> file + "\t" + digestOf(file))
+                    .sorted()
+                    .collect(Collectors.toList());
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        MessageDigest digest = sha256();
+        update(digest, identity);
+        update(digest, flywayVersion());
+        for (String line : lines) {
+            update(digest, line);
+        }
+        return Util.toHexString(digest.digest());
+    }
+
+    /**
+     * @return the names of the Flyway jars of the installation and the version of the embedded library.
+     */
+    private String flywayVersion() throws IOException {
+        StringBuilder version = new StringBuilder();
+        if (installationHome != null) {
+            File home = new File(installationHome);
+            // installations may point at the executable rather than the directory
+            Path lib = new File(home.isFile() ? home.getParentFile() : home, "lib").toPath();
+            if (Files.isDirectory(lib)) {
+                try (Stream<Path> walk = Files.walk(lib)) {
+                    walk.map(path -> path.getFileName().toString())
+                            .filter(name -> name.startsWith("flyway-") && name.endsWith(".jar"))
+                            .sorted()
+                            .forEach(name -> version.append(name).append(' '));
+                }
+            }
+        }
+        if (embedded) {
+            version.append(org.flywaydb.core.Flyway.class.getPackage().getImplementationVersion());
+        }
+        return version.toString();
+    }
+
+    static String digestOf(Path file) {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            long size = attributes.size();
+            long modified = attributes.lastModifiedTime().toMillis();
+            String key = file.toString();
+            CachedDigest cached = DIGESTS.get(key);
+            if (cached != null && cached.size == size && cached.modified == modified) {
+                return cached.sha256;
+            }
+            MessageDigest digest = sha256();
+            try (InputStream in = new DigestInputStream(Files.newInputStream(file), digest)) {
+                in.transferTo(OutputStream.nullOutputStream());
+            }
+            String sha256 = Util.toHexString(digest.digest());
+            if (DIGESTS.size() >= MAX_CACHED_DIGESTS) {
+                DIGESTS.clear();
+            }
+            DIGESTS.put(key, new CachedDigest(size, modified, sha256));
+            return sha256;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void update(MessageDigest digest, String value) {
+        digest.update(Util.fixNull(value).getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) '\n');
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package sp.sd.flywayrunner.builder;
+
+/**
+ * How much of Flyway's output {@link FlywayBuilder} writes to the build console.
+ */
+public enum LogMode {
+    /**
+     * Writes all of Flyway's output to the console.
+     */
+    FULL("Full output in the console"),
+    /**
+     * Writes progress, warnings and errors to the console and archives all of the output, gzipped, as an artifact
+     * written by the agent.
+     */
+    CONDENSED("Condensed console, full output archived as a gzipped artifact");
+
+    private final String displayName;
+
+    LogMode(String displayName) {
+        this.displayName = displayName;
+    }
+
+    public String getDisplayName() {
+        return displayName;
+    }
+}
@@ -0,0 +1,61 @@
+package sp.sd.flywayrunner.builder;
+
+import hudson.model.Job;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+
+/**
+ * Fingerprints of the last successful Flyway run per target, kept in {@code flyway-fingerprints.properties} in the
+ * directory of the job.
+ */
+final class MigrationFingerprints {
+    static final String FILE_NAME = "flyway-fingerprints.properties";
+
+    private MigrationFingerprints() {}
+
+    /**
+     * @return the number of the build which last succeeded with this fingerprint, or {@code null}.
+     */
+    static synchronized Integer lastBuildWith(Job<?, ?> job, String target, String fingerprint) throws IOException {
+        String value = load(job).getProperty(target);
+        if (value == null) {
+            return null;
+        }
+        int separator = value.indexOf(' ');
+        if (separator < 0 || !value.substring(0, separator).equals(fingerprint)) {
+            return null;
+        }
+        try {
+            return Integer.valueOf(value.substring(separator + 1));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    static synchronized void record(Job<?, ?> job, String target, String fingerprint, int build) throws IOException {
+        Properties fingerprints = load(job);
+        fingerprints.setProperty(target, fingerprint + " " + build);
+        File file = new File(job.getRootDir(), FILE_NAME);
+        File temp = new File(job.getRootDir(), FILE_NAME + ".tmp");
+        try (OutputStream out = Files.newOutputStream(temp.toPath())) {
+            fingerprints.store(out, "Flyway: target to fingerprint and build of the last successful run");
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static Properties load(Job<?, ?> job) throws IOException {
+        Properties fingerprints = new Properties();
+        File file = new File(job.getRootDir(), FILE_NAME);
+        if (file.isFile()) {
+            try (InputStream in = Files.newInputStream(file.toPath())) {
+                fingerprints.load(in);
+            }
+        }
+        return fingerprints;
+    }
+}
@@ -0,0 +1,255 @@
+package sp.sd.flywayrunner.builder;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * A SQL migration found in a {@code filesystem:} location, named the way Flyway names them:
+ * {@code V1_2__Description.sql} for versioned and {@code R__Description.sql} for repeatable migrations.
+ */
+final class MigrationScript {
+    private static final byte[] UTF8_BOM = {(byte) 0xEF, (byte) 0xBB, (byte) 0xBF};
+
+    /**
+     * The file name conventions and script encoding of a step, defaulting to those of Flyway.
+     */
+    static final class Naming {
+        private final String versionedPrefix;
+        private final String repeatablePrefix;
+        private final String separator;
+        private final List<String> suffixes;
+        private final Charset encoding;
+
+        /**
+         * @throws IllegalArgumentException if the encoding is not supported.
+         */
+        Naming(String versionedPrefix, String repeatablePrefix, String separator, String suffixes, String encoding) {
+            this.versionedPrefix = versionedPrefix == null ? "V" : versionedPrefix;
+            this.repeatablePrefix = repeatablePrefix == null ? "R" : repeatablePrefix;
+            this.separator = separator == null ? "__" : separator;
+            this.suffixes = new ArrayList<>();
+            for (String suffix : (suffixes == null ? ".sql" : suffixes).split(",")) {
+                if (!suffix.trim().isEmpty()) {
+                    this.suffixes.add(suffix.trim());
+                }
+            }
+            this.encoding = encoding == null || encoding.trim().isEmpty()
+                    ? StandardCharsets.UTF_8
+                    : Charset.forName(encoding.trim());
+        }
+    }
+
+    private final Path path;
+    private final String version;
+    private final List<BigInteger> versionParts;
+    private final String description;
+    private final int checksum;
+
+    private MigrationScript(
+            Path path, String version, List<BigInteger> versionParts, String description, int checksum) {
+        this.path = path;
+        this.version = version;
+        this.versionParts = versionParts;
+        this.description = description;
+        this.checksum = checksum;
+    }
+
+    /**
+     * @return the migration, or {@code null} if the file is not named like one.
+     * @throws IllegalArgumentException if the file is named like a versioned migration but its version is invalid.
+     */
+    static MigrationScript parse(Path path, Naming naming) throws IOException {
+        String base = baseNameOf(path.getFileName().toString(), naming);
+        if (base == null) {
+            return null;
+        }
+        if (base.startsWith(naming.repeatablePrefix + naming.separator)) {
+            String description = base.substring(naming.repeatablePrefix.length() + naming.separator.length());
+            return new MigrationScript(
+                    path, null, null, description.replace('_', ' '), checksumOf(path, naming.encoding));
+        }
+        int separator = base.indexOf(naming.separator);
+        if (!base.startsWith(naming.versionedPrefix) || separator <= naming.versionedPrefix.length()) {
+            return null;
+        }
+        String version = base.substring(naming.versionedPrefix.length(), separator);
+        String description = base.substring(separator + naming.separator.length());
+        return new MigrationScript(
+                path, version, parseVersion(version), description.replace('_', ' '), checksumOf(path, naming.encoding));
+    }
+
+    /**
+     * @return the version in the name of a versioned migration, {@code null} for repeatable migrations and other
+     *     files.
+     */
+    static String versionOf(String name, Naming naming) {
+        String base = baseNameOf(name, naming);
+        if (base == null || base.startsWith(naming.repeatablePrefix + naming.separator)) {
+            return null;
+        }
+        int separator = base.indexOf(naming.separator);
+        if (!base.startsWith(naming.versionedPrefix) || separator <= naming.versionedPrefix.length()) {
+            return null;
+        }
+        return base.substring(naming.versionedPrefix.length(), separator);
+    }
+
+    /**
+     * @return whether the file is named like a versioned or repeatable migration.
+     */
+    static boolean isMigration(String name, Naming naming) {
+        String base = baseNameOf(name, naming);
+        return base != null
+                && (base.startsWith(naming.repeatablePrefix + naming.separator) || versionOf(name, naming) != null);
+    }
+
+    /**
+     * @return the name without its migration suffix, {@code null} if it has none.
+     */
+    private static String baseNameOf(String name, Naming naming) {
+        for (String suffix : naming.suffixes) {
+            if (name.endsWith(suffix)) {
+                return name.substring(0, name.length() - suffix.length());
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Splits a version into its numeric parts the way Flyway does: {@code _} and {@code .} separate parts and trailing
+     * zero parts are ignored, so {@code 1_2}, {@code 1.2} and {@code 1.2.0} are the same version.
+     * @throws IllegalArgumentException if a part is not a number.
+     */
+    static List<BigInteger> parseVersion(String version) {
+        List<BigInteger> parts = new ArrayList<>();
+        for (String part : version.replace('_', '.').split("\\.", -1)) {
+            try {
+                parts.add(new BigInteger(part));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid version " + version, e);
+            }
+        }
+        while (parts.size() > 1 && parts.get(parts.size() - 1).signum() == 0) {
+            parts.remove(parts.size() - 1);
+        }
+        return Collections.unmodifiableList(parts);
+    }
+
+    static int compareVersions(List<BigInteger> left, List<BigInteger> right) {
+        for (int i = 0; i < Math.max(left.size(), right.size()); i++) {
+            BigInteger l = i < left.size() ? left.get(i) : BigInteger.ZERO;
+            BigInteger r = i < right.size() ? right.get(i) : BigInteger.ZERO;
+            int comparison = l.compareTo(r);
+            if (comparison != 0) {
+                return comparison;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Computes the checksum Flyway records for a script: a CRC32 over the UTF-8 bytes of its lines without their
+     * terminators, ignoring a leading byte order mark.  For a UTF-8 script that is the CRC32 of every byte other than
+     * carriage returns and line feeds, so the file is mapped into memory and fed to the CRC32 between line
+     * terminators, without decoding it.  Scripts in other encodings are decoded and their lines encoded again.
+     */
+    static int checksumOf(Path file, Charset encoding) throws IOException {
+        if (!StandardCharsets.UTF_8.equals(encoding)) {
+            return checksumOfDecoded(file, encoding);
+        }
+        CRC32 crc = new CRC32();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > 0) {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                int limit = buffer.limit();
+                int start = hasBom(buffer) ? UTF8_BOM.length : 0;
+                for (int i = start; i < limit; i++) {
+                    byte b = buffer.get(i);
+                    if (b == '\n' || b == '\r') {
+                        update(crc, buffer, start, i);
+                        start = i + 1;
+                    }
+                }
+                update(crc, buffer, start, limit);
+            }
+        }
+        return (int) crc.getValue();
+    }
+
+    private static int checksumOfDecoded(Path file, Charset encoding) throws IOException {
+        CRC32 crc = new CRC32();
+        try (BufferedReader reader = Files.newBufferedReader(file, encoding)) {
+            String line = reader.readLine();
+            if (line != null && line.startsWith("\uFEFF")) {
+                line = line.substring(1);
+            }
+            while (line != null) {
+                crc.update(line.getBytes(StandardCharsets.UTF_8));
+                line = reader.readLine();
+            }
+        }
+        return (int) crc.getValue();
+    }
+
+    private static boolean hasBom(ByteBuffer buffer) {
+        if (buffer.limit() < UTF8_BOM.length) {
+            return false;
+        }
+        for (int i = 0; i < UTF8_BOM.length; i++) {
+            if (buffer.get(i) != UTF8_BOM[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void update(CRC32 crc, ByteBuffer buffer, int from, int to) {
+        if (to > from) {
+            ByteBuffer range = buffer.duplicate();
+            range.position(from).limit(to);
+            crc.update(range);
+        }
+    }
+
+    Path getPath() {
+        return path;
+    }
+
+    String getFileName() {
+        return path.getFileName().toString();
+    }
+
+    boolean isRepeatable() {
+        return version == null;
+    }
+
+    String getVersion() {
+        return version;
+    }
+
+    List<BigInteger> getVersionParts() {
+        return versionParts;
+    }
+
+    String getDescription() {
+        return description;
+    }
+
+    int getChecksum() {
+        return checksum;
+    }
+}
@@ -0,0 +1,312 @@
+package sp.sd.flywayrunner.builder;
+
+import hudson.Util;
+import hudson.remoting.VirtualChannel;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigInteger;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.ServiceLoader;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import jenkins.MasterToSlaveFileCallable;
+
+/**
+ * Checks the migrations of a step on the agent before Flyway is started: scripts under the {@code filesystem:}
+ * locations are scanned in parallel, their checksums computed like Flyway does, and duplicate versions, duplicate
+ * repeatable migrations and version gaps reported.  Optionally the scripts are compared with the schema history
+ * table over JDBC, reporting applied migrations which were edited or are missing and pending migrations which are
+ * out of order.
+ */
+class PreflightCheck extends MasterToSlaveFileCallable<PreflightReport> {
+    private static final long serialVersionUID = 1L;
+    private static final String PREFIX = "flyway.";
+    private static final int MAX_REPORTED_GAPS = 10;
+
+    private final Map<String, String> configuration;
+    private final String installationHome;
+    private final boolean checkHistory;
+
+    /**
+     * @param configuration Flyway configuration properties of the step, as given to {@link EmbeddedFlywayCommand}.
+     * @param installationHome home of the installation whose drivers connect to the database, {@code null} if none.
+     * @param checkHistory whether the scripts are compared with the schema history table.
+     */
+    PreflightCheck(Map<String, String> configuration, String installationHome, boolean checkHistory) {
+        this.configuration = new HashMap<>(configuration);
+        this.installationHome = installationHome;
+        this.checkHistory = checkHistory;
+    }
+
+    private String option(String name) {
+        return Util.fixEmptyAndTrim(configuration.get(PREFIX + name));
+    }
+
+    @Override
+    public PreflightReport invoke(File workspace, VirtualChannel channel) throws IOException {
+        PreflightReport report = new PreflightReport();
+        List<String> warnings = new ArrayList<>();
+        List<Path> files =
+                WorkspaceMigrations.filesIn(workspace, option(CliOption.LOCATIONS.getCliOption()), warnings);
+        for (String warning : warnings) {
+            report.warning(warning);
+        }
+        MigrationScript.Naming naming = new MigrationScript.Naming(
+                option("sqlMigrationPrefix"),
+                option("repeatableSqlMigrationPrefix"),
+                option("sqlMigrationSeparator"),
+                option("sqlMigrationSuffixes"),
+                option("encoding"));
+        List<Object> parsed;
+        try {
+            parsed = files.parallelStream()
+                    .map(file -> parse(file, naming))
+                    .filter(Objects::nonNull)
+                    .collect(Collectors.toList());
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        List<MigrationScript> scripts = new ArrayList<>();
+        for (Object result : parsed) {
+            if (result instanceof MigrationScript) {
+                scripts.add((MigrationScript) result);
+            } else {
+                report.error((String) result);
+            }
+        }
+        scripts.sort((a, b) -> a.isRepeatable() || b.isRepeatable()
+                ? Boolean.compare(a.isRepeatable(), b.isRepeatable())
+                : MigrationScript.compareVersions(a.getVersionParts(), b.getVersionParts()));
+        report.setScripts(scripts.size());
+        checkDuplicates(scripts, report);
+        checkGaps(scripts, report);
+        if (checkHistory) {
+            checkHistory(scripts, report);
+        }
+        return report;
+    }
+
+    /**
+     * @return the script, {@code null} if the file is not a migration, or a message if its name is invalid.
+     */
+    private static Object parse(Path file, MigrationScript.Naming naming) {
+        try {
+            return MigrationScript.parse(file, naming);
+        } catch (IllegalArgumentException e) {
+            return file.getFileName() + ": " + e.getMessage();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void checkDuplicates(List<MigrationScript> scripts, PreflightReport report) {
+        Map<List<BigInteger>, List<String>> versions = new HashMap<>();
+        Map<String, List<String>> repeatables = new HashMap<>();
+        for (MigrationScript script : scripts) {
+            if (script.isRepeatable()) {
+                repeatables
+                        .computeIfAbsent(script.getDescription(), key -> new ArrayList<>())
+                        .add(script.getPath().toString());
+            } else {
+                versions.computeIfAbsent(script.getVersionParts(), key -> new ArrayList<>())
+                        .add(script.getPath().toString());
+            }
+        }
+        for (MigrationScript script : scripts) {
+            List<String> paths = script.isRepeatable()
+                    ? repeatables.remove(script.getDescription())
+                    : versions.remove(script.getVersionParts());
+            if (paths != null && paths.size() > 1) {
+                report.error((script.isRepeatable()
+                                ? "Duplicate repeatable migration " + script.getDescription()
+                                : "Duplicate version " + script.getVersion())
+                        + ": " + String.join(", ", paths));
+            }
+        }
+    }
+
+    /**
+     * Reports missing versions in the sequence when every version is a plain number.
+     */
+    private static void checkGaps(List<MigrationScript> scripts, PreflightReport report) {
+        for (MigrationScript script : scripts) {
+            if (!script.isRepeatable() && script.getVersionParts().size() != 1) {
+                return;
+            }
+        }
+        BigInteger previous = null;
+        int gaps = 0;
+        for (MigrationScript script : scripts) {
+            if (script.isRepeatable()) {
+                continue;
+            }
+            BigInteger current = script.getVersionParts().get(0);
+            if (previous != null && current.subtract(previous).compareTo(BigInteger.ONE) > 0) {
+                if (gaps++ == MAX_REPORTED_GAPS) {
+                    return;
+                }
+                BigInteger first = previous.add(BigInteger.ONE);
+                BigInteger last = current.subtract(BigInteger.ONE);
+                String missing =
+                        first.equals(last) ? "Version " + first + " is" : "Versions " + first + " to " + last + " are";
+                report.warning(missing + " missing before " + script.getFileName());
+            }
+            previous = current;
+        }
+    }
+
+    private static final class AppliedMigration {
+        private final String version;
+        private final List<BigInteger> versionParts;
+        private final String script;
+        private final String type;
+        private final Integer checksum;
+        private final boolean success;
+
+        private AppliedMigration(String version, String script, String type, Integer checksum, boolean success) {
+            this.version = version;
+            this.versionParts = version == null ? null : MigrationScript.parseVersion(version);
+            this.script = script;
+            this.type = type;
+            this.checksum = checksum;
+            this.success = success;
+        }
+    }
+
+    private void checkHistory(List<MigrationScript> scripts, PreflightReport report) {
+        List<AppliedMigration> applied;
+        try {
+            applied = readHistory();
+        } catch (SQLException | IOException | RuntimeException e) {
+            report.warning("Schema history was not checked: " + e.getMessage());
+            return;
+        }
+        report.setAppliedMigrations(applied.size());
+        String ignored = Util.fixNull(option("ignoreMigrationPatterns"));
+        boolean ignoreMissing = ignored.contains(":missing");
+        boolean outOfOrder = Boolean.parseBoolean(option("outOfOrder"));
+        Map<List<BigInteger>, MigrationScript> byVersion = new HashMap<>();
+        for (MigrationScript script : scripts) {
+            if (!script.isRepeatable()) {
+                byVersion.put(script.getVersionParts(), script);
+            }
+        }
+        List<BigInteger> highest = null;
+        Map<List<BigInteger>, AppliedMigration> appliedVersions = new HashMap<>();
+        for (AppliedMigration migration : applied) {
+            if (migration.versionParts == null) {
+                continue;
+            }
+            appliedVersions.put(migration.versionParts, migration);
+            if (highest == null || MigrationScript.compareVersions(migration.versionParts, highest) > 0) {
+                highest = migration.versionParts;
+            }
+            if (!migration.success) {
+                report.error("Migration " + migration.version + " (" + migration.script
+                        + ") failed previously, the schema history needs a repair");
+                continue;
+            }
+            if (!"SQL".equals(migration.type)) {
+                continue;
+            }
+            MigrationScript script = byVersion.get(migration.versionParts);
+            if (script == null) {
+                if (!ignoreMissing) {
+                    report.error("Applied migration " + migration.version + " (" + migration.script
+                            + ") is missing from the locations");
+                }
+            } else if (migration.checksum != null && migration.checksum != script.getChecksum()) {
+                report.error("Applied migration " + migration.version + " was edited: checksum " + migration.checksum
+                        + " in the schema history but " + script.getChecksum() + " for " + script.getPath());
+            }
+        }
+        if (highest == null || outOfOrder) {
+            return;
+        }
+        for (MigrationScript script : byVersion.values()) {
+            if (!appliedVersions.containsKey(script.getVersionParts())
+                    && MigrationScript.compareVersions(script.getVersionParts(), highest) < 0) {
+                report.error("Pending migration " + script.getFileName()
+                        + " is older than the latest applied version, enable outOfOrder to apply it");
+            }
+        }
+    }
+
+    private List<AppliedMigration> readHistory() throws SQLException, IOException {
+        String url = option(CliOption.URL.getCliOption());
+        if (url == null) {
+            throw new IllegalArgumentException("no database URL");
+        }
+        String table = option("table") == null ? "flyway_schema_history" : option("table");
+        String schema = option("defaultSchema");
+        if (schema == null && option(CliOption.SCHEMAS.getCliOption()) != null) {
+            schema = option(CliOption.SCHEMAS.getCliOption()).split(",")[0].trim();
+        }
+        List<AppliedMigration> applied = new ArrayList<>();
+        try (URLClassLoader drivers = new URLClassLoader(
+                        installationHome == null ? new URL[0] : FlywayDaemon.driverJars(installationHome),
+                        PreflightCheck.class.getClassLoader());
+                Connection connection = connect(
+                        url,
+                        option(CliOption.USERNAME.getCliOption()),
+                        option(CliOption.PASSWORD.getCliOption()),
+                        drivers);
+                Statement statement = connection.createStatement()) {
+            String quote = connection.getMetaData().getIdentifierQuoteString().trim();
+            String qualified = (schema == null ? "" : quote + schema + quote + ".") + quote + table + quote;
+            String columns = Stream.of("version", "script", "type", "checksum", "success")
+                    .map(column -> quote + column + quote)
+                    .collect(Collectors.joining(", "));
+            try (ResultSet rows = statement.executeQuery("SELECT " + columns + " FROM " + qualified)) {
+                while (rows.next()) {
+                    String version = rows.getString(1);
+                    String script = rows.getString(2);
+                    String type = rows.getString(3);
+                    int checksum = rows.getInt(4);
+                    boolean checksumNull = rows.wasNull();
+                    boolean success = rows.getBoolean(5);
+                    applied.add(new AppliedMigration(version, script, type, checksumNull ? null : checksum, success));
+                }
+            }
+        }
+        return applied;
+    }
+
+    /**
+     * Connects with the first driver of the class loader accepting the url, then with those known to
+     * {@link DriverManager}.
+     */
+    static Connection connect(String url, String user, String password, ClassLoader drivers) throws SQLException {
+        Properties properties = new Properties();
+        if (user != null) {
+            properties.setProperty("user", user);
+        }
+        if (password != null) {
+            properties.setProperty("password", password);
+        }
+        for (Driver driver : ServiceLoader.load(Driver.class, drivers)) {
+            if (driver.acceptsURL(url)) {
+                Connection connection = driver.connect(url, properties);
+                if (connection != null) {
+                    return connection;
+                }
+            }
+        }
+        return DriverManager.getConnection(url, properties);
+    }
+}
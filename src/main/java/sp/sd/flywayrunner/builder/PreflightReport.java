@@ -0,0 +1,59 @@
+package sp.sd.flywayrunner.builder;
+
+import java.io.PrintStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Findings of a {@link PreflightCheck}.  Errors are problems Flyway would refuse to migrate with, warnings are worth
+ * a look but do not stop the step.
+ */
+class PreflightReport implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final List<String> errors = new ArrayList<>();
+    private final List<String> warnings = new ArrayList<>();
+    private int scripts;
+    private int appliedMigrations = -1;
+
+    void error(String message) {
+        errors.add(message);
+    }
+
+    void warning(String message) {
+        warnings.add(message);
+    }
+
+    void setScripts(int scripts) {
+        this.scripts = scripts;
+    }
+
+    void setAppliedMigrations(int appliedMigrations) {
+        this.appliedMigrations = appliedMigrations;
+    }
+
+    List<String> getErrors() {
+        return errors;
+    }
+
+    List<String> getWarnings() {
+        return warnings;
+    }
+
+    boolean isFailed() {
+        return !errors.isEmpty();
+    }
+
+    void printTo(PrintStream logger) {
+        logger.println("Flyway pre-flight check: " + scripts + " migration scripts"
+                + (appliedMigrations < 0 ? "" : ", " + appliedMigrations + " applied migrations") + ", "
+                + errors.size() + " errors, " + warnings.size() + " warnings");
+        for (String error : errors) {
+            logger.println("  ERROR: " + error);
+        }
+        for (String warning : warnings) {
+            logger.println("  WARNING: " + warning);
+        }
+    }
+}
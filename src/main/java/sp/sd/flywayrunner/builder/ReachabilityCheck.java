@@ -0,0 +1,256 @@
+package sp.sd.flywayrunner.builder;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import jenkins.security.MasterToSlaveCallable;
+
+/**
+ * Checks from the agent that the database of a step accepts connections before Flyway is started, so an unreachable
+ * database fails the step within the timeout rather than after Flyway's own connect retries.  The host and port are
+ * taken from the JDBC url for the common network drivers and a socket is opened to them; optionally a JDBC connection
+ * is opened with the step's credentials and validated.
+ */
+class ReachabilityCheck extends MasterToSlaveCallable<ReachabilityCheck.Result, IOException> {
+    private static final long serialVersionUID = 1L;
+    private static final Pattern ORACLE_HOST =
+            Pattern.compile("\\(\\s*HOST\\s*=\\s*([^)\\s]+)", Pattern.CASE_INSENSITIVE);
+    private static final Pattern ORACLE_PORT = Pattern.compile("\\(\\s*PORT\\s*=\\s*(\\d+)", Pattern.CASE_INSENSITIVE);
+    private static final Pattern INSTANCE_NAME =
+            Pattern.compile("[;?&]\\s*instance(?:Name)?\\s*=", Pattern.CASE_INSENSITIVE);
+    private static final Map<String, Integer> DEFAULT_PORTS = new HashMap<>();
+
+    static {
+        DEFAULT_PORTS.put("postgresql", 5432);
+        DEFAULT_PORTS.put("pgsql", 5432);
+        DEFAULT_PORTS.put("redshift", 5439);
+        DEFAULT_PORTS.put("mysql", 3306);
+        DEFAULT_PORTS.put("mariadb", 3306);
+        DEFAULT_PORTS.put("singlestore", 3306);
+        DEFAULT_PORTS.put("sqlserver", 1433);
+        DEFAULT_PORTS.put("jtds", 1433);
+        DEFAULT_PORTS.put("oracle", 1521);
+        DEFAULT_PORTS.put("db2", 50000);
+        DEFAULT_PORTS.put("derby", 1527);
+        DEFAULT_PORTS.put("firebirdsql", 3050);
+        DEFAULT_PORTS.put("firebird", 3050);
+        DEFAULT_PORTS.put("h2", 9092);
+        DEFAULT_PORTS.put("hsqldb", 9001);
+        DEFAULT_PORTS.put("sap", 30015);
+        DEFAULT_PORTS.put("clickhouse", 8123);
+        DEFAULT_PORTS.put("snowflake", 443);
+    }
+
+    private final String url;
+    private final String user;
+    private final String password;
+    private final String installationHome;
+    private final int timeoutMillis;
+    private final boolean validate;
+
+    /**
+     * @param url expanded JDBC url of the database.
+     * @param installationHome home of the installation whose drivers validate the connection, {@code null} if none.
+     * @param validate whether a JDBC connection is opened and validated after the socket connected.
+     */
+    ReachabilityCheck(
+            String url, String user, String password, String installationHome, int timeoutMillis, boolean validate) {
+        this.url = url;
+        this.user = user;
+        this.password = password;
+        this.installationHome = installationHome;
+        this.timeoutMillis = timeoutMillis;
+        this.validate = validate;
+    }
+
+    /**
+     * Outcome of the check.
+     */
+    static final class Result implements Serializable {
+        private static final long serialVersionUID = 1L;
+        private final boolean reachable;
+        private final Long millis;
+        private final String message;
+
+        Result(boolean reachable, Long millis, String message) {
+            this.reachable = reachable;
+            this.millis = millis;
+            this.message = message;
+        }
+
+        boolean isReachable() {
+            return reachable;
+        }
+
+        /**
+         * @return how long reaching the database took, {@code null} if it was not checked.
+         */
+        Long getMillis() {
+            return millis;
+        }
+
+        String getMessage() {
+            return message;
+        }
+    }
+
+    @Override
+    public Result call() {
+        String database = Util.sanitizeUrl(url);
+        InetSocketAddress address = addressOf(url);
+        if (address == null) {
+            return new Result(
+                    true, null, "Reachability of " + database + " was not checked, its host and port are not known");
+        }
+        String endpoint = address.getHostString() + ":" + address.getPort();
+        long start = System.nanoTime();
+        InetSocketAddress resolved = new InetSocketAddress(address.getHostString(), address.getPort());
+        if (resolved.isUnresolved()) {
+            return new Result(false, null, "Cannot resolve the host of " + database);
+        }
+        try (Socket socket = new Socket()) {
+            socket.connect(resolved, timeoutMillis);
+        } catch (SocketTimeoutException e) {
+            return new Result(false, null, "No answer from " + endpoint + " within " + timeoutMillis + " ms");
+        } catch (IOException e) {
+            return new Result(false, null, "Cannot connect to " + endpoint + ": " + e.getMessage());
+        }
+        long socketMillis = elapsedMillis(start);
+        if (!validate) {
+            return new Result(true, socketMillis, "Database " + endpoint + " is reachable in " + socketMillis + " ms");
+        }
+        try (URLClassLoader drivers = new URLClassLoader(
+                        installationHome == null ? new URL[0] : FlywayDaemon.driverJars(installationHome),
+                        ReachabilityCheck.class.getClassLoader());
+                Connection connection = PreflightCheck.connect(url, user, password, drivers)) {
+            int timeoutSeconds = (int) Math.max(1, TimeUnit.MILLISECONDS.toSeconds(timeoutMillis));
+            if (!connection.isValid(timeoutSeconds)) {
+                return new Result(false, null, "The JDBC connection to " + database + " is not valid");
+            }
+        } catch (SQLException e) {
+            return new Result(
+                    false,
+                    null,
+                    "Cannot open a JDBC connection to " + database + " (SQL state " + e.getSQLState() + "): "
+                            + e.getMessage());
+        } catch (IOException e) {
+            return new Result(false, null, "Cannot load the JDBC drivers: " + e);
+        }
+        long millis = elapsedMillis(start);
+        return new Result(
+                true,
+                millis,
+                "Database " + endpoint + " is reachable in " + socketMillis + " ms, JDBC connection valid in "
+                        + millis + " ms");
+    }
+
+    private static long elapsedMillis(long startNanos) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * @return the unresolved host and port of a JDBC url, {@code null} for embedded databases, unknown urls and SQL
+     *     Server named instances without a port, whose port the SQL Server Browser service gives out.
+     */
+    static InetSocketAddress addressOf(String url) {
+        if (url == null || !url.regionMatches(true, 0, "jdbc:", 0, 5)) {
+            return null;
+        }
+        String rest = url.substring(5).trim();
+        int colon = rest.indexOf(':');
+        if (colon <= 0) {
+            return null;
+        }
+        Integer defaultPort = DEFAULT_PORTS.get(rest.substring(0, colon).toLowerCase(Locale.ENGLISH));
+        int at = rest.indexOf('@');
+        if (rest.regionMatches(true, 0, "oracle:", 0, 7) && at > 0) {
+            return oracleAddressOf(rest.substring(at + 1));
+        }
+        int authority = rest.indexOf("//");
+        if (authority < 0) {
+            return null;
+        }
+        String hosts = rest.substring(authority + 2);
+        for (int i = 0; i < hosts.length(); i++) {
+            char c = hosts.charAt(i);
+            if (c == '/' || c == '?' || c == ';' || c == ',') {
+                hosts = hosts.substring(0, i);
+                break;
+            }
+        }
+        if (hosts.indexOf('@') >= 0) {
+            hosts = hosts.substring(hosts.lastIndexOf('@') + 1);
+        }
+        return hostAndPort(hosts, defaultPort, INSTANCE_NAME.matcher(rest).find());
+    }
+
+    private static InetSocketAddress oracleAddressOf(String descriptor) {
+        if (descriptor.startsWith("(")) {
+            Matcher host = ORACLE_HOST.matcher(descriptor);
+            Matcher port = ORACLE_PORT.matcher(descriptor);
+            if (!host.find()) {
+                return null;
+            }
+            return InetSocketAddress.createUnresolved(
+                    host.group(1), port.find() ? Integer.parseInt(port.group(1)) : DEFAULT_PORTS.get("oracle"));
+        }
+        String address = descriptor.startsWith("//") ? descriptor.substring(2) : descriptor;
+        // host:port:sid or host:port/service
+        int end = address.indexOf('/');
+        if (end >= 0) {
+            address = address.substring(0, end);
+        }
+        int first = address.indexOf(':');
+        int second = first < 0 ? -1 : address.indexOf(':', first + 1);
+        if (second >= 0) {
+            address = address.substring(0, second);
+        }
+        return hostAndPort(address, DEFAULT_PORTS.get("oracle"), false);
+    }
+
+    private static InetSocketAddress hostAndPort(String address, Integer defaultPort, boolean namedInstance) {
+        String host = address;
+        String port = null;
+        if (address.startsWith("[")) {
+            int close = address.indexOf(']');
+            if (close < 0) {
+                return null;
+            }
+            host = address.substring(1, close);
+            if (address.startsWith(":", close + 1)) {
+                port = address.substring(close + 2);
+            }
+        } else if (address.indexOf(':') >= 0) {
+            host = address.substring(0, address.indexOf(':'));
+            port = address.substring(address.indexOf(':') + 1);
+        }
+        // SQL Server names its instance after a backslash
+        if (host.indexOf('\\') >= 0) {
+            host = host.substring(0, host.indexOf('\\'));
+            namedInstance = true;
+        }
+        if (host.isEmpty()) {
+            return null;
+        }
+        if (port == null || port.isEmpty()) {
+            return defaultPort == null || namedInstance ? null : InetSocketAddress.createUnresolved(host, defaultPort);
+        }
+        try {
+            return InetSocketAddress.createUnresolved(host, Integer.parseInt(port));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
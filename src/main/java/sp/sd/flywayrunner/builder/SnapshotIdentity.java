@@ -0,0 +1,91 @@
+package sp.sd.flywayrunner.builder;
+
+import hudson.Util;
+import hudson.remoting.VirtualChannel;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import jenkins.MasterToSlaveFileCallable;
+
+/**
+ * Computes, on the agent, a digest of what decides the content of a migrated database besides its migrations: the
+ * other files under the {@code filesystem:} locations of a step, such as callbacks, and the Flyway configuration
+ * files the command line reads.  Files named like migrations are left out, {@code SnapshotKeys} chains them into the
+ * keys so that a snapshot of fewer migrations is still found.
+ */
+class SnapshotIdentity extends MasterToSlaveFileCallable<String> {
+    private static final long serialVersionUID = 1L;
+    private static final String PREFIX = "flyway.";
+    private static final String[] CONFIG_FILES = {"flyway.conf", "flyway.toml"};
+
+    private final Map<String, String> scriptOptions;
+    private final String configFiles;
+    private final String installationHome;
+
+    /**
+     * @param scriptOptions locations and naming options of the step, see {@link WorkspaceMigrations#OPTIONS}.
+     * @param configFiles comma-separated value of the {@code configFiles} option, {@code null} if not given.
+     * @param installationHome home of the Flyway installation which runs the step, {@code null} if none.
+     */
+    SnapshotIdentity(Map<String, String> scriptOptions, String configFiles, String installationHome) {
+        this.scriptOptions = new HashMap<>(scriptOptions);
+        this.configFiles = configFiles;
+        this.installationHome = installationHome;
+    }
+
+    @Override
+    public String invoke(File workspace, VirtualChannel channel) throws IOException {
+        MigrationScript.Naming naming = WorkspaceMigrations.namingOf(scriptOptions);
+        Path root = workspace.toPath();
+        List<Path> files = new ArrayList<>();
+        for (Path file : WorkspaceMigrations.filesIn(workspace, scriptOptions.get(PREFIX + "locations"), null)) {
+            if (!MigrationScript.isMigration(file.getFileName().toString(), naming)) {
+                files.add(file);
+            }
+        }
+        List<Path> configurations = new ArrayList<>();
+        for (String name : CONFIG_FILES) {
+            if (installationHome != null) {
+                File home = new File(installationHome);
+                configurations.add(new File(home.isFile() ? home.getParentFile() : home, "conf/" + name).toPath());
+            }
+            configurations.add(new File(System.getProperty("user.home"), name).toPath());
+            configurations.add(root.resolve(name));
+        }
+        for (String file : Util.fixNull(configFiles).split(",")) {
+            if (!file.trim().isEmpty()) {
+                configurations.add(root.resolve(file.trim()));
+            }
+        }
+        List<String> lines;
+        try {
+            lines = files.parallelStream()
+                    .map(file -> relative(root, file) + "\t" + LocationsFingerprint.digestOf(file))
+                    .sorted()
+                    .collect(Collectors.toList());
+            for (Path file : configurations) {
+                lines.add("config " + relative(root, file) + "\t"
+                        + (Files.isRegularFile(file) ? LocationsFingerprint.digestOf(file) : "-"));
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return Util.getDigestOf(String.join("\n", lines));
+    }
+
+    /**
+     * @return the path relative to the workspace if it is in there, so that other workspaces share snapshots.
+     */
+    private static String relative(Path root, Path file) {
+        Path normalized = file.toAbsolutePath().normalize();
+        Path workspace = root.toAbsolutePath().normalize();
+        return normalized.startsWith(workspace) ? workspace.relativize(normalized).toString() : normalized.toString();
+    }
+}
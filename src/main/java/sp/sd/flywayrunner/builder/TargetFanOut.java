@@ -0,0 +1,127 @@
+package sp.sd.flywayrunner.builder;
+
+import hudson.console.LineTransformationOutputStream;
+import hudson.model.TaskListener;
+import hudson.util.StreamTaskListener;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs a Flyway step against several targets concurrently, with a bounded number of targets in flight.  Output of
+ * each target goes to the build log line by line, prefixed with the target's name.
+ */
+class TargetFanOut {
+
+    /**
+     * Work done for a single target.
+     */
+    interface TargetTask {
+        /**
+         * @return true if Flyway succeeded for the target.
+         */
+        boolean run(FlywayTarget target, TaskListener listener) throws IOException, InterruptedException;
+    }
+
+    private final int parallelism;
+    private final boolean failFast;
+
+    TargetFanOut(int parallelism, boolean failFast) {
+        this.parallelism = Math.max(1, parallelism);
+        this.failFast = failFast;
+    }
+
+    /**
+     * @param names display name of each target, in the same order as the targets.
+     * @return the result of every target in the order they were given.
+     */
+    List<TargetResult> run(List<FlywayTarget> targets, List<String> names, TaskListener listener, TargetTask task)
+            throws InterruptedException {
+        AtomicInteger threadNumber = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(parallelism, targets.size()), r -> {
+            Thread thread = new Thread(r, "Flyway target " + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        AtomicBoolean failed = new AtomicBoolean();
+        PrintStream logger = listener.getLogger();
+        List<Future<TargetResult>> futures = new ArrayList<>();
+        try {
+            for (int i = 0; i < targets.size(); i++) {
+                FlywayTarget target = targets.get(i);
+                String name = names.get(i);
+                futures.add(executor.submit(() -> {
+                    if (failFast && failed.get()) {
+                        return new TargetResult(name, TargetResult.Status.SKIPPED, 0);
+                    }
+                    long start = System.nanoTime();
+                    boolean success;
+                    try (StreamTaskListener targetListener = new StreamTaskListener(
+                            new PrefixingOutputStream(logger, "[" + name + "] "), StandardCharsets.UTF_8)) {
+                        success = task.run(target, targetListener);
+                    } catch (IOException | RuntimeException e) {
+                        listener.error("[" + name + "] " + e);
+                        success = false;
+                    }
+                    if (!success) {
+                        failed.set(true);
+                    }
+                    long duration = (System.nanoTime() - start) / 1_000_000;
+                    return new TargetResult(
+                            name, success ? TargetResult.Status.SUCCESS : TargetResult.Status.FAILURE, duration);
+                }));
+            }
+            List<TargetResult> results = new ArrayList<>();
+            for (Future<TargetResult> future : futures) {
+                try {
+                    results.add(future.get());
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof InterruptedException) {
+                        throw (InterruptedException) e.getCause();
+                    }
+                    throw new IllegalStateException(e.getCause());
+                }
+            }
+            return results;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Writes complete lines to a shared stream, each preceded by a prefix.  Lines of concurrently running targets
+     * never interleave within a line.
+     */
+    static class PrefixingOutputStream extends LineTransformationOutputStream {
+        private final PrintStream out;
+        private final byte[] prefix;
+
+        PrefixingOutputStream(PrintStream out, String prefix) {
+            this.out = out;
+            this.prefix = prefix.getBytes(StandardCharsets.UTF_8);
+        }
+
+        @Override
+        protected void eol(byte[] b, int len) throws IOException {
+            synchronized (out) {
+                out.write(prefix);
+                out.write(b, 0, len);
+                out.flush();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            super.close();
+            out.flush();
+        }
+    }
+}
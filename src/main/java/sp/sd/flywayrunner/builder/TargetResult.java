@@ -0,0 +1,46 @@
+package sp.sd.flywayrunner.builder;
+
+import java.io.Serializable;
+
+/**
+ * Outcome of running a Flyway step against one {@link FlywayTarget}.
+ */
+public class TargetResult implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    public enum Status {
+        SUCCESS,
+        FAILURE,
+        /**
+         * Not started because an earlier target failed and the step fails fast.
+         */
+        SKIPPED
+    }
+
+    private final String target;
+    private final Status status;
+    private final long durationMillis;
+
+    TargetResult(String target, Status status, long durationMillis) {
+        this.target = target;
+        this.status = status;
+        this.durationMillis = durationMillis;
+    }
+
+    public String getTarget() {
+        return target;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public long getDurationMillis() {
+        return durationMillis;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%-8s %s (%d ms)", status, target, durationMillis);
+    }
+}
@@ -1,9 +1,6 @@
 package sp.sd.flywayrunner.builder;
 
-import com.google.common.base.Charsets;
 import com.google.common.base.Strings;
-import com.google.common.io.Files;
-import com.google.common.io.LineProcessor;
 import edu.umd.cs.findbugs.annotations.Nullable;
 import hudson.EnvVars;
 import hudson.FilePath;
@@ -14,39 +11,88 @@ import hudson.model.TaskListener;
 import hudson.slaves.NodeSpecific;
 import hudson.tools.ToolInstallation;
 import hudson.util.ArgumentListBuilder;
-import java.io.File;
 import java.io.IOException;
+import java.util.Locale;
+import java.util.regex.Pattern;
 
 public class Util {
 
-    private static final String ERROR_STRING = "Errors:";
     static final String OPTION_HYPHENS = "-";
+    /**
+     * Names of JDBC url properties which carry credentials, in lower case.
+     */
+    private static final Pattern CREDENTIAL_PROPERTY =
+            Pattern.compile("user|username|user id|uid|.*password.*|.*passwd.*|pwd|.*secret.*|.*token.*");
 
     private Util() {}
 
     /**
-     * Simple routine to check for the string "Errors:" in a file.
-     * @param logFile file to scan.
-     * @return true if {@link #ERROR_STRING} appears in file.
-     * @throws IOException
+     * Removes what may carry secrets from a JDBC url: user info before the host, Oracle's {@code user/password@}
+     * included, and the user, password, secret and token properties after the first {@code ?} or {@code ;}.  Other
+     * properties, such as the database or schema of SQL Server and PostgreSQL urls, are kept, so urls of different
+     * databases stay different.
+     * @param url JDBC url to sanitize.
+     * @return the url without user info and credential properties.
      */
-    protected static boolean doesErrorExist(File logFile) throws IOException {
-        return Files.readLines(logFile, Charsets.UTF_8, new LineProcessor<Boolean>() {
-            boolean containsError;
-
-            public boolean processLine(String line) throws IOException {
-                boolean continueProcessing = true;
-                if (line != null && line.contains(ERROR_STRING)) {
-                    containsError = true;
-                    continueProcessing = false;
-                }
-                return continueProcessing;
+    public static String sanitizeUrl(String url) {
+        if (url == null) {
+            return null;
+        }
+        String result = url;
+        String properties = "";
+        int propertiesStart = indexOfAny(result, '?', ';');
+        if (propertiesStart >= 0) {
+            properties = withoutCredentials(result.substring(propertiesStart));
+            result = result.substring(0, propertiesStart);
+        }
+        int authority = result.indexOf("//");
+        int at = result.indexOf('@');
+        if (at >= 0 && (authority < 0 || at < authority)) {
+            // Oracle style: jdbc:oracle:thin:user/password@host:port/service, @//host... or @(DESCRIPTION=...)
+            int slash = result.indexOf('/');
+            int userInfo = result.lastIndexOf(':', slash >= 0 && slash < at ? slash : at);
+            result = result.substring(0, userInfo + 1) + result.substring(at);
+        } else if (authority >= 0) {
+            int userInfo = result.indexOf('@', authority + 2);
+            if (userInfo > authority) {
+                result = result.substring(0, authority + 2) + result.substring(userInfo + 1);
             }
+        }
+        return result + properties;
+    }
 
-            public Boolean getResult() {
-                return containsError;
+    /**
+     * @param properties the properties of a url, from the {@code ?} or {@code ;} which starts them.
+     * @return the properties without those carrying credentials, starting with the same character unless none are
+     *     left.
+     */
+    private static String withoutCredentials(String properties) {
+        StringBuilder result = new StringBuilder();
+        int start = 0;
+        while (start < properties.length()) {
+            char separator = properties.charAt(start);
+            int end = start + 1;
+            while (end < properties.length() && "?;&".indexOf(properties.charAt(end)) < 0) {
+                end++;
             }
-        });
+            String property = properties.substring(start + 1, end);
+            int equals = property.indexOf('=');
+            String name = (equals < 0 ? property : property.substring(0, equals)).trim().toLowerCase(Locale.ENGLISH);
+            if (!property.isEmpty() && !CREDENTIAL_PROPERTY.matcher(name).matches()) {
+                result.append(result.length() == 0 ? properties.charAt(0) : separator).append(property);
+            }
+            start = end;
+        }
+        return result.toString();
+    }
+
+    private static int indexOfAny(String value, char first, char second) {
+        int a = value.indexOf(first);
+        int b = value.indexOf(second);
+        if (a < 0) {
+            return b;
+        }
+        return b < 0 ? a : Math.min(a, b);
     }
 
     static void addOptionIfPresent(ArgumentListBuilder cmdExecArgs, CliOption cliOption, String value) {
@@ -0,0 +1,206 @@
+package sp.sd.flywayrunner.builder;
+
+import hudson.Util;
+import hudson.remoting.VirtualChannel;
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import jenkins.MasterToSlaveFileCallable;
+
+/**
+ * Lists the SQL migrations under the {@code filesystem:} locations of a step, relative to a workspace and ordered by
+ * version, so they can be compared with a schema history recorded earlier without running Flyway.
+ */
+public final class WorkspaceMigrations extends MasterToSlaveFileCallable<ArrayList<WorkspaceMigrations.Migration>> {
+    private static final long serialVersionUID = 1L;
+    private static final String FILESYSTEM_PREFIX = "filesystem:";
+    private static final String PREFIX = "flyway.";
+
+    /**
+     * Configuration properties which locate, name and encode the migrations, and nothing else of the step's
+     * configuration.
+     */
+    public static final List<String> OPTIONS = Collections.unmodifiableList(Arrays.asList(
+            PREFIX + CliOption.LOCATIONS.getCliOption(),
+            PREFIX + "sqlMigrationPrefix",
+            PREFIX + "repeatableSqlMigrationPrefix",
+            PREFIX + "sqlMigrationSeparator",
+            PREFIX + "sqlMigrationSuffixes",
+            PREFIX + "encoding"));
+
+    private final Map<String, String> configuration;
+
+    /**
+     * @param configuration Flyway configuration properties of the step, of which only {@link #OPTIONS} are used.
+     */
+    public WorkspaceMigrations(Map<String, String> configuration) {
+        this.configuration = new HashMap<>();
+        for (String option : OPTIONS) {
+            if (configuration.get(option) != null) {
+                this.configuration.put(option, configuration.get(option));
+            }
+        }
+    }
+
+    /**
+     * @return the options which are used.
+     */
+    public Map<String, String> getConfiguration() {
+        return new HashMap<>(configuration);
+    }
+
+    /**
+     * A migration script found in the workspace.
+     */
+    public static final class Migration implements Serializable {
+        private static final long serialVersionUID = 1L;
+        private final String version;
+        private final String description;
+        private final String fileName;
+        private final int checksum;
+
+        Migration(String version, String description, String fileName, int checksum) {
+            this.version = version;
+            this.description = description;
+            this.fileName = fileName;
+            this.checksum = checksum;
+        }
+
+        /**
+         * @return the version as normalized by {@link #normalizeVersion}, {@code null} for repeatable migrations.
+         */
+        public String getVersion() {
+            return version;
+        }
+
+        public String getDescription() {
+            return description;
+        }
+
+        public String getFileName() {
+            return fileName;
+        }
+
+        public boolean isRepeatable() {
+            return version == null;
+        }
+
+        /**
+         * @return the checksum Flyway records for the script.
+         */
+        public int getChecksum() {
+            return checksum;
+        }
+    }
+
+    static MigrationScript.Naming namingOf(Map<String, String> configuration) {
+        return new MigrationScript.Naming(
+                configuration.get(PREFIX + "sqlMigrationPrefix"),
+                configuration.get(PREFIX + "repeatableSqlMigrationPrefix"),
+                configuration.get(PREFIX + "sqlMigrationSeparator"),
+                configuration.get(PREFIX + "sqlMigrationSuffixes"),
+                configuration.get(PREFIX + "encoding"));
+    }
+
+    /**
+     * @param scriptOptions locations and naming options of the step, see {@link #OPTIONS}.
+     * @return the version of a versioned migration as normalized by {@link #normalizeVersion}, {@code null} for
+     *     other files.
+     */
+    public static String versionOf(Path file, Map<String, String> scriptOptions) {
+        try {
+            String version = MigrationScript.versionOf(file.getFileName().toString(), namingOf(scriptOptions));
+            return version == null ? null : normalizeVersion(version);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public ArrayList<Migration> invoke(File workspace, VirtualChannel channel) throws IOException {
+        MigrationScript.Naming naming = namingOf(configuration);
+        List<MigrationScript> scripts = new ArrayList<>();
+        for (Path file : filesIn(workspace, configuration.get(PREFIX + CliOption.LOCATIONS.getCliOption()), null)) {
+            MigrationScript script;
+            try {
+                script = MigrationScript.parse(file, naming);
+            } catch (IllegalArgumentException e) {
+                continue;
+            }
+            if (script != null) {
+                scripts.add(script);
+            }
+        }
+        scripts.sort((a, b) -> a.isRepeatable() || b.isRepeatable()
+                ? Boolean.compare(a.isRepeatable(), b.isRepeatable())
+                : MigrationScript.compareVersions(a.getVersionParts(), b.getVersionParts()));
+        ArrayList<Migration> migrations = new ArrayList<>();
+        for (MigrationScript script : scripts) {
+            migrations.add(new Migration(
+                    script.isRepeatable() ? null : normalizeVersion(script.getVersion()),
+                    script.getDescription(),
+                    script.getFileName(),
+                    script.getChecksum()));
+        }
+        return migrations;
+    }
+
+    /**
+     * @param locations comma separated Flyway locations, of which only {@code filesystem:} ones are listed.
+     * @param warnings receives locations which were not listed, may be {@code null}.
+     * @return the regular files under the locations.
+     */
+    public static List<Path> filesIn(File workspace, String locations, List<String> warnings) throws IOException {
+        List<Path> files = new ArrayList<>();
+        for (String location : Util.fixNull(locations).split(",")) {
+            location = location.trim();
+            if (location.isEmpty()) {
+                continue;
+            }
+            if (!location.startsWith(FILESYSTEM_PREFIX)) {
+                if (warnings != null) {
+                    warnings.add("Location " + location + " was not checked, only filesystem: locations are");
+                }
+                continue;
+            }
+            Path directory = workspace.toPath().resolve(location.substring(FILESYSTEM_PREFIX.length()));
+            if (!Files.isDirectory(directory)) {
+                if (warnings != null) {
+                    warnings.add("Location " + location + " does not exist");
+                }
+                continue;
+            }
+            try (Stream<Path> walk = Files.walk(directory)) {
+                files.addAll(walk.filter(Files::isRegularFile).collect(Collectors.toList()));
+            }
+        }
+        return files;
+    }
+
+    /**
+     * @return the version with {@code .} separating its parts and without trailing zero parts, so versions which
+     *     Flyway considers equal are equal strings; the trimmed version if it is not numeric.
+     */
+    public static String normalizeVersion(String version) {
+        try {
+            List<String> parts = new ArrayList<>();
+            for (BigInteger part : MigrationScript.parseVersion(version.trim())) {
+                parts.add(part.toString());
+            }
+            return String.join(".", parts);
+        } catch (IllegalArgumentException e) {
+            return version.trim();
+        }
+    }
+}
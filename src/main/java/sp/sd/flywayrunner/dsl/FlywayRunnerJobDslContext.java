@@ -1,20 +1,49 @@
 package sp.sd.flywayrunner.dsl;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
 import javaposse.jobdsl.dsl.Context;
+import sp.sd.flywayrunner.builder.ExecutionMode;
+import sp.sd.flywayrunner.builder.FlywayTarget;
+import sp.sd.flywayrunner.builder.LogMode;
 
 public class FlywayRunnerJobDslContext implements Context {
 
     String flywayCommand;
+    List<String> flywayCommands = new ArrayList<>();
     String installationName;
     String url;
     String commandLineArgs;
     String locations;
     String credentialsId;
+    ExecutionMode executionMode;
+    LogMode logMode;
+    List<FlywayTarget> targets = new ArrayList<>();
+    int parallelism = 1;
+    boolean failFast;
+    boolean jsonOutput;
+    boolean skipIfUnchanged;
+    boolean preflight;
+    boolean preflightHistory;
+    String fatalOutputPatterns;
+    boolean lockDatabase;
+    boolean reachabilityCheck;
+    boolean reachabilityCheckJdbc;
+    boolean sqlLint;
+    int sqlLintUnstableThreshold;
+    int sqlLintFailureThreshold;
+    boolean snapshots;
 
     void command(String flywayCommand) {
         this.flywayCommand = flywayCommand;
     }
 
+    void commands(String... flywayCommands) {
+        this.flywayCommands = new ArrayList<>(Arrays.asList(flywayCommands));
+    }
+
     void name(String installationName) {
         this.installationName = installationName;
     }
@@ -34,4 +63,79 @@ public class FlywayRunnerJobDslContext implements Context {
     void credentialsId(String credentialsId) {
         this.credentialsId = credentialsId;
     }
+
+    void executionMode(String executionMode) {
+        this.executionMode = ExecutionMode.valueOf(executionMode.toUpperCase(Locale.ENGLISH));
+    }
+
+    void logMode(String logMode) {
+        this.logMode = LogMode.valueOf(logMode.toUpperCase(Locale.ENGLISH));
+    }
+
+    void target(String url) {
+        target(url, null, null);
+    }
+
+    void target(String url, String schemas, String credentialsId) {
+        FlywayTarget target = new FlywayTarget(url);
+        target.setSchemas(schemas);
+        target.setCredentialsId(credentialsId);
+        targets.add(target);
+    }
+
+    void parallelism(int parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    void failFast(boolean failFast) {
+        this.failFast = failFast;
+    }
+
+    void jsonOutput(boolean jsonOutput) {
+        this.jsonOutput = jsonOutput;
+    }
+
+    void skipIfUnchanged(boolean skipIfUnchanged) {
+        this.skipIfUnchanged = skipIfUnchanged;
+    }
+
+    void preflight(boolean preflight) {
+        preflight(preflight, false);
+    }
+
+    void preflight(boolean preflight, boolean preflightHistory) {
+        this.preflight = preflight;
+        this.preflightHistory = preflightHistory;
+    }
+
+    void fatalOutputPatterns(String fatalOutputPatterns) {
+        this.fatalOutputPatterns = fatalOutputPatterns;
+    }
+
+    void lockDatabase(boolean lockDatabase) {
+        this.lockDatabase = lockDatabase;
+    }
+
+    void reachabilityCheck(boolean reachabilityCheck) {
+        reachabilityCheck(reachabilityCheck, false);
+    }
+
+    void reachabilityCheck(boolean reachabilityCheck, boolean reachabilityCheckJdbc) {
+        this.reachabilityCheck = reachabilityCheck;
+        this.reachabilityCheckJdbc = reachabilityCheckJdbc;
+    }
+
+    void sqlLint(boolean sqlLint) {
+        this.sqlLint = sqlLint;
+    }
+
+    void sqlLint(boolean sqlLint, int unstableThreshold, int failureThreshold) {
+        this.sqlLint = sqlLint;
+        this.sqlLintUnstableThreshold = unstableThreshold;
+        this.sqlLintFailureThreshold = failureThreshold;
+    }
+
+    void snapshots(boolean snapshots) {
+        this.snapshots = snapshots;
+    }
 }
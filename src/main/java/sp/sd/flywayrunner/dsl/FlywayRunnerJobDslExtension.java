@@ -16,9 +16,24 @@ import sp.sd.flywayrunner.builder.FlywayBuilder;
           flywayRunner {
             name('flyway')
             command('migrate')
+            commands('validate', 'migrate', 'info')
             url('jdbc:mysql://mysqlserver:3306/mydb')
             locations('filesystem:$WORKSPACE/dbscripts')
             credentialsId('44620c50-1589-4617-a677-7563985e46e1')
+            executionMode('embedded')
+            logMode('condensed')
+            target('jdbc:mysql://mysqlserver:3306/tenant1')
+            target('jdbc:mysql://mysqlserver:3306/tenant2', 'app', 'tenant2-credentials')
+            parallelism(8)
+            failFast(false)
+            jsonOutput(true)
+            skipIfUnchanged(true)
+            preflight(true, true)
+            fatalOutputPatterns('Waiting for lock')
+            lockDatabase(true)
+            reachabilityCheck(true, false)
+            sqlLint(true, 1, 10)
+            snapshots(true)
           }
         }
     }
@@ -31,12 +46,31 @@ public class FlywayRunnerJobDslExtension extends ContextExtensionPoint {
     public Object flywayRunner(Runnable closure) {
         FlywayRunnerJobDslContext context = new FlywayRunnerJobDslContext();
         executeInContext(closure, context);
-        return new FlywayBuilder(
+        FlywayBuilder builder = new FlywayBuilder(
                 context.installationName,
                 context.flywayCommand,
                 context.url,
                 context.locations,
                 context.commandLineArgs,
                 context.credentialsId);
+        builder.setFlywayCommands(context.flywayCommands);
+        builder.setExecutionMode(context.executionMode);
+        builder.setLogMode(context.logMode);
+        builder.setTargets(context.targets);
+        builder.setParallelism(context.parallelism);
+        builder.setFailFast(context.failFast);
+        builder.setJsonOutput(context.jsonOutput);
+        builder.setSkipIfUnchanged(context.skipIfUnchanged);
+        builder.setPreflight(context.preflight);
+        builder.setPreflightHistory(context.preflightHistory);
+        builder.setFatalOutputPatterns(context.fatalOutputPatterns);
+        builder.setLockDatabase(context.lockDatabase);
+        builder.setReachabilityCheck(context.reachabilityCheck);
+        builder.setReachabilityCheckJdbc(context.reachabilityCheckJdbc);
+        builder.setSqlLint(context.sqlLint);
+        builder.setSqlLintUnstableThreshold(context.sqlLintUnstableThreshold);
+        builder.setSqlLintFailureThreshold(context.sqlLintFailureThreshold);
+        builder.setSnapshots(context.snapshots);
+        return builder;
     }
 }
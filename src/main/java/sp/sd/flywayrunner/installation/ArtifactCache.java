@@ -0,0 +1,218 @@
+package sp.sd.flywayrunner.installation;
+
+import hudson.ProxyConfiguration;
+import hudson.Util;
+import hudson.model.TaskListener;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import jenkins.model.Jenkins;
+import jenkins.util.SystemProperties;
+
+/**
+ * Content-addressed cache of downloaded Flyway distributions and JDBC drivers on the controller (or in a directory
+ * shared by controllers).  Artifacts are stored under their SHA-256 and looked up by the URL they came from, so each
+ * URL is downloaded at most once and agents are filled from the cache over the remoting channel.  The least recently
+ * used artifacts are evicted once the cache grows beyond its maximum size.
+ */
+public class ArtifactCache {
+    private static final Logger LOG = Logger.getLogger(ArtifactCache.class.getName());
+    private static final String INDEX_FILE = "index.properties";
+    private static final String BLOBS_DIRECTORY = "blobs";
+
+    /**
+     * Directory holding the cache, defaults to {@code caches/flyway-runner} in the Jenkins home.
+     */
+    private static final String DIRECTORY = SystemProperties.getString(ArtifactCache.class.getName() + ".directory");
+    /**
+     * Size in megabytes above which least recently used artifacts are evicted.
+     */
+    private static final long MAX_SIZE_MEGABYTES =
+            SystemProperties.getLong(ArtifactCache.class.getName() + ".maxSizeMegabytes", 1024L);
+
+    private static volatile ArtifactCache instance;
+
+    private final File root;
+    private final long maxSizeBytes;
+    private final Map<String, CompletableFuture<File>> inFlight = new ConcurrentHashMap<>();
+
+    ArtifactCache(File root, long maxSizeBytes) {
+        this.root = root;
+        this.maxSizeBytes = maxSizeBytes;
+    }
+
+    public static ArtifactCache get() {
+        ArtifactCache result = instance;
+        if (result == null) {
+            synchronized (ArtifactCache.class) {
+                result = instance;
+                if (result == null) {
+                    File root = DIRECTORY == null
+                            ? new File(Jenkins.get().getRootDir(), "caches/flyway-runner")
+                            : new File(DIRECTORY);
+                    result = new ArtifactCache(root, MAX_SIZE_MEGABYTES * 1024 * 1024);
+                    instance = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the cached copy of an artifact, downloading it first if it is not cached yet.  Concurrent requests
+     * for the same URL wait for a single download.
+     * @return the artifact file, named after its SHA-256.
+     */
+    public File fetch(URL url, TaskListener log) throws IOException, InterruptedException {
+        String key = url.toExternalForm();
+        File cached = lookup(key);
+        if (cached != null) {
+            return cached;
+        }
+        CompletableFuture<File> download = new CompletableFuture<>();
+        CompletableFuture<File> existing = inFlight.putIfAbsent(key, download);
+        if (existing != null) {
+            log.getLogger().println("Waiting for download of " + key + " into the controller cache");
+            try {
+                return existing.get();
+            } catch (ExecutionException e) {
+                throw new IOException("Download of " + key + " failed", e.getCause());
+            }
+        }
+        try {
+            cached = lookup(key);
+            if (cached == null) {
+                log.getLogger().println("Downloading " + key + " into the controller cache");
+                cached = download(url);
+                record(key, cached.getName());
+                evict(cached);
+            }
+            download.complete(cached);
+            return cached;
+        } catch (IOException | RuntimeException e) {
+            download.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key);
+        }
+    }
+
+    private File lookup(String key) throws IOException {
+        String sha256 = loadIndex().getProperty(key);
+        if (sha256 == null) {
+            return null;
+        }
+        File blob = new File(new File(root, BLOBS_DIRECTORY), sha256);
+        if (!blob.isFile()) {
+            return null;
+        }
+        // the modification time orders blobs for eviction
+        if (!blob.setLastModified(System.currentTimeMillis())) {
+            LOG.log(Level.FINE, "Could not touch {0}", blob);
+        }
+        return blob;
+    }
+
+    private File download(URL url) throws IOException {
+        File blobs = new File(root, BLOBS_DIRECTORY);
+        Files.createDirectories(blobs.toPath());
+        File temp = File.createTempFile("download", ".tmp", blobs);
+        try {
+            MessageDigest digest = sha256();
+            try (InputStream in = new DigestInputStream(open(url), digest);
+                    OutputStream out = new FileOutputStream(temp)) {
+                in.transferTo(out);
+            }
+            File blob = new File(blobs, Util.toHexString(digest.digest()));
+            Files.move(temp.toPath(), blob.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            return blob;
+        } finally {
+            Files.deleteIfExists(temp.toPath());
+        }
+    }
+
+    static InputStream open(URL url) throws IOException {
+        if ("file".equals(url.getProtocol())) {
+            return url.openStream();
+        }
+        return ProxyConfiguration.open(url).getInputStream();
+    }
+
+    private synchronized Properties loadIndex() throws IOException {
+        Properties index = new Properties();
+        File file = new File(root, INDEX_FILE);
+        if (file.isFile()) {
+            try (InputStream in = new FileInputStream(file)) {
+                index.load(in);
+            }
+        }
+        return index;
+    }
+
+    private synchronized void record(String key, String sha256) throws IOException {
+        Properties index = loadIndex();
+        index.setProperty(key, sha256);
+        File temp = new File(root, INDEX_FILE + ".tmp");
+        try (OutputStream out = new FileOutputStream(temp)) {
+            index.store(out, "Flyway artifact cache: download URL to SHA-256");
+        }
+        Files.move(temp.toPath(), new File(root, INDEX_FILE).toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Deletes least recently used blobs until the cache fits its maximum size, always keeping the given one.
+     */
+    private synchronized void evict(File keep) {
+        File[] blobs = new File(root, BLOBS_DIRECTORY).listFiles(File::isFile);
+        if (blobs == null) {
+            return;
+        }
+        long size = 0;
+        for (File blob : blobs) {
+            size += blob.length();
+        }
+        List<File> candidates = new ArrayList<>(Arrays.asList(blobs));
+        candidates.sort(Comparator.comparingLong(File::lastModified));
+        for (File blob : candidates) {
+            if (size <= maxSizeBytes) {
+                break;
+            }
+            if (blob.equals(keep) || blob.getName().endsWith(".tmp")) {
+                continue;
+            }
+            long length = blob.length();
+            if (blob.delete()) {
+                LOG.log(Level.FINE, "Evicted {0} from the Flyway artifact cache", blob);
+                size -= length;
+            }
+        }
+    }
+
+    static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package sp.sd.flywayrunner.installation;
+
+import hudson.Util;
+import hudson.remoting.VirtualChannel;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import jenkins.MasterToSlaveFileCallable;
+
+/**
+ * Chooses the class data sharing options of a Flyway installation on the node, in the directory of archives it is
+ * called on.  The archive is named after the home of the installation, the Java runtime which runs it and the jars
+ * of its {@code lib} and {@code drivers} directories, so updating the installation or Java, or adding a driver,
+ * records a new archive.  One run records the archive when the JVM exits, later runs map it.
+ * {@code -XX:+IgnoreUnrecognizedVMOptions} lets JVMs older than Java 13, which cannot record archives, run without
+ * them.  The scripts split {@code JAVA_ARGS} on whitespace, so archives are not used when their path has any.
+ */
+class ClassDataSharing extends MasterToSlaveFileCallable<String> {
+    private static final long serialVersionUID = 1L;
+    /**
+     * A run recording the archive which has not finished after this long is assumed to have been killed.
+     */
+    private static final long STALE_LOCK_MILLIS = TimeUnit.HOURS.toMillis(1);
+    static final String SUFFIX = ".jsa";
+    private static final Pattern WHITESPACE = Pattern.compile("\\s");
+
+    private final String home;
+    private final String javaHome;
+
+    /**
+     * @param javaHome {@code JAVA_HOME} of the build, {@code null} if not set.
+     */
+    ClassDataSharing(String home, String javaHome) {
+        this.home = home;
+        this.javaHome = javaHome;
+    }
+
+    @Override
+    public String invoke(File directory, VirtualChannel channel) throws IOException {
+        File installation = new File(home);
+        if (installation.isFile()) {
+            installation = installation.getParentFile();
+        }
+        if (installation == null || !installation.isDirectory()) {
+            return "";
+        }
+        String runtime = runtimeOf(installation);
+        if (runtime == null) {
+            return "";
+        }
+        String prefix = Util.getDigestOf(installation.getAbsolutePath()).substring(0, 12) + "-";
+        File archive =
+                new File(directory, prefix + Util.getDigestOf(runtime + "\n" + contentOf(installation)) + SUFFIX);
+        if (WHITESPACE.matcher(archive.getAbsolutePath()).find()) {
+            return "";
+        }
+        if (archive.isFile()) {
+            return "-XX:+IgnoreUnrecognizedVMOptions -XX:SharedArchiveFile=" + archive.getAbsolutePath()
+                    + " -Xshare:auto";
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            return "";
+        }
+        File lock = new File(directory, archive.getName() + ".lock");
+        if (lock.exists() && System.currentTimeMillis() - lock.lastModified() > STALE_LOCK_MILLIS) {
+            lock.delete();
+        }
+        if (!lock.createNewFile()) {
+            // another run is recording the archive
+            return "";
+        }
+        File[] outdated = directory.listFiles((dir, name) -> name.startsWith(prefix)
+                && (name.endsWith(SUFFIX) || name.endsWith(SUFFIX + ".lock"))
+                && !name.startsWith(archive.getName()));
+        if (outdated != null) {
+            for (File file : outdated) {
+                file.delete();
+            }
+        }
+        return "-XX:+IgnoreUnrecognizedVMOptions -XX:ArchiveClassesAtExit=" + archive.getAbsolutePath();
+    }
+
+    /**
+     * @return the path, size and modification time of the module image of the Java runtime the {@code flyway} script
+     *     picks: the one bundled with the installation, else that of {@code JAVA_HOME}, else that of the
+     *     {@code java} on the path; {@code null} if it is not found.
+     */
+    String runtimeOf(File installation) {
+        File runtime = new File(installation, "jre");
+        if (!runtime.isDirectory()) {
+            runtime = javaHome == null ? javaOnPath() : new File(javaHome);
+        }
+        File modules = runtime == null ? null : new File(runtime, "lib" + File.separator + "modules");
+        if (modules == null || !modules.isFile()) {
+            return null;
+        }
+        return modules.getAbsolutePath() + ":" + modules.length() + ":" + modules.lastModified();
+    }
+
+    private static File javaOnPath() {
+        String path = System.getenv("PATH");
+        if (path == null) {
+            return null;
+        }
+        for (String directory : path.split(Pattern.quote(File.pathSeparator))) {
+            for (String name : new String[] {"java", "java.exe"}) {
+                File java = new File(directory, name);
+                if (java.isFile()) {
+                    try {
+                        Path bin = java.toPath().toRealPath().getParent();
+                        return bin == null || bin.getParent() == null ? null : bin.getParent().toFile();
+                    } catch (IOException e) {
+                        return null;
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the names, sizes and modification times of the jars loaded by the command line.
+     */
+    static String contentOf(File installation) {
+        List<String> jars = new ArrayList<>();
+        for (String directory : new String[] {"lib", "drivers"}) {
+            collect(new File(installation, directory), jars);
+        }
+        jars.sort(null);
+        return String.join("\n", jars);
+    }
+
+    private static void collect(File directory, List<String> jars) {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (file.isDirectory()) {
+                collect(file, jars);
+            } else if (file.getName().endsWith(".jar")) {
+                jars.add(file.getPath() + ":" + file.length() + ":" + file.lastModified());
+            }
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package sp.sd.flywayrunner.installation;
+
+import hudson.FilePath;
+import hudson.Util;
+import hudson.model.Node;
+import hudson.model.TaskListener;
+import hudson.remoting.VirtualChannel;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import jenkins.MasterToSlaveFileCallable;
+import jenkins.util.SystemProperties;
+
+/**
+ * Downloads the JDBC drivers of an installation into its {@code drivers} directory.  Drivers download in parallel,
+ * their SHA-256 is computed while they stream to the node and they only replace the final file once verified.
+ * A marker next to each driver records the verified checksum, so drivers already present are skipped without
+ * reading them again.
+ */
+class DriverProvisioner {
+    static final String DRIVERS_DIRECTORY = "drivers";
+    private static final String MARKER_PREFIX = ".";
+    private static final String MARKER_SUFFIX = ".sha256";
+
+    /**
+     * Number of drivers downloaded at the same time.
+     */
+    private static final int PARALLEL_DOWNLOADS =
+            SystemProperties.getInteger(DriverProvisioner.class.getName() + ".parallelDownloads", 4);
+
+    private final boolean cacheOnController;
+
+    DriverProvisioner(boolean cacheOnController) {
+        this.cacheOnController = cacheOnController;
+    }
+
+    void provision(FilePath installationRoot, List<FlywayDriver> drivers, Node node, TaskListener log)
+            throws IOException, InterruptedException {
+        if (drivers.isEmpty()) {
+            return;
+        }
+        FilePath directory = installationRoot.child(DRIVERS_DIRECTORY);
+        directory.mkdirs();
+        AtomicInteger threadNumber = new AtomicInteger();
+        ExecutorService executor =
+                Executors.newFixedThreadPool(Math.min(Math.max(1, PARALLEL_DOWNLOADS), drivers.size()), r -> {
+                    Thread thread = new Thread(r, "Flyway driver download " + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        try {
+            List<Future<Void>> downloads = new ArrayList<>();
+            for (FlywayDriver driver : drivers) {
+                downloads.add(executor.submit(() -> {
+                    provision(directory, driver, node, log);
+                    return null;
+                }));
+            }
+            for (Future<Void> download : downloads) {
+                try {
+                    download.get();
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof IOException) {
+                        throw (IOException) cause;
+                    }
+                    if (cause instanceof InterruptedException) {
+                        throw (InterruptedException) cause;
+                    }
+                    throw new IOException(cause);
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void provision(FilePath directory, FlywayDriver driver, Node node, TaskListener log)
+            throws IOException, InterruptedException {
+        String fileName = driver.getFileName();
+        FilePath target = directory.child(fileName);
+        FilePath marker = directory.child(MARKER_PREFIX + fileName + MARKER_SUFFIX);
+        if (isVerified(target, marker, driver)) {
+            return;
+        }
+        log.getLogger().println("Downloading " + driver.getUrl() + " to " + target + " on " + node.getDisplayName());
+        FilePath temp = directory.child(MARKER_PREFIX + fileName + ".tmp");
+        MessageDigest digest = ArtifactCache.sha256();
+        try (InputStream in = new DigestInputStream(open(new URL(driver.getUrl()), log), digest)) {
+            temp.copyFrom(in);
+        }
+        String actual = Util.toHexString(digest.digest());
+        if (driver.getSha256() != null && !driver.getSha256().equals(actual)) {
+            temp.delete();
+            throw new IOException("Checksum mismatch for " + driver.getUrl() + ": expected " + driver.getSha256()
+                    + " but was " + actual);
+        }
+        temp.act(new ReplaceFile(target.getRemote()));
+        marker.write(actual, StandardCharsets.UTF_8.name());
+    }
+
+    /**
+     * Moves a verified download over the driver in one step, so builds never see a partly replaced jar.
+     */
+    private static final class ReplaceFile extends MasterToSlaveFileCallable<Void> {
+        private static final long serialVersionUID = 1L;
+
+        private final String target;
+
+        ReplaceFile(String target) {
+            this.target = target;
+        }
+
+        @Override
+        public Void invoke(File f, VirtualChannel channel) throws IOException {
+            Files.move(
+                    f.toPath(),
+                    Paths.get(target),
+                    StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+            return null;
+        }
+    }
+
+    private static boolean isVerified(FilePath target, FilePath marker, FlywayDriver driver)
+            throws IOException, InterruptedException {
+        if (!target.exists()) {
+            return false;
+        }
+        if (driver.getSha256() == null) {
+            return true;
+        }
+        return marker.exists() && driver.getSha256().equals(marker.readToString().trim());
+    }
+
+    private InputStream open(URL url, TaskListener log) throws IOException, InterruptedException {
+        if (cacheOnController) {
+            return new FileInputStream(ArtifactCache.get().fetch(url, log));
+        }
+        return ArtifactCache.open(url);
+    }
+}
@@ -0,0 +1,77 @@
+package sp.sd.flywayrunner.installation;
+
+import com.google.common.base.Strings;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import hudson.Extension;
+import hudson.Util;
+import hudson.model.AbstractDescribableImpl;
+import hudson.model.Descriptor;
+import hudson.util.FormValidation;
+import java.io.Serializable;
+import java.util.Locale;
+import java.util.regex.Pattern;
+import org.jenkinsci.Symbol;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+import org.kohsuke.stapler.QueryParameter;
+
+/**
+ * JDBC driver which {@link FlywayInstaller} downloads into the {@code drivers} directory of an installation.
+ */
+public class FlywayDriver extends AbstractDescribableImpl<FlywayDriver> implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private static final Pattern SHA256 = Pattern.compile("[0-9a-f]{64}");
+
+    private final String url;
+    /**
+     * Expected SHA-256 of the driver in hex, the download is not verified when empty.
+     */
+    private String sha256;
+
+    @DataBoundConstructor
+    public FlywayDriver(String url) {
+        this.url = Util.fixNull(url).trim();
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public @CheckForNull String getSha256() {
+        return sha256;
+    }
+
+    @DataBoundSetter
+    public void setSha256(String sha256) {
+        this.sha256 = Strings.isNullOrEmpty(sha256) ? null : sha256.trim().toLowerCase(Locale.ENGLISH);
+    }
+
+    /**
+     * @return name of the file in the drivers directory, the last path segment of the url.
+     */
+    public String getFileName() {
+        String path = url;
+        int query = path.indexOf('?');
+        if (query >= 0) {
+            path = path.substring(0, query);
+        }
+        return path.substring(path.lastIndexOf('/') + 1);
+    }
+
+    @Extension
+    @Symbol("driver")
+    public static final class DescriptorImpl extends Descriptor<FlywayDriver> {
+        @Override
+        public String getDisplayName() {
+            return "Database driver";
+        }
+
+        public FormValidation doCheckSha256(@QueryParameter String value) {
+            if (Strings.isNullOrEmpty(value)
+                    || SHA256.matcher(value.trim().toLowerCase(Locale.ENGLISH)).matches()) {
+                return FormValidation.ok();
+            }
+            return FormValidation.error("Expected 64 hexadecimal characters");
+        }
+    }
+}
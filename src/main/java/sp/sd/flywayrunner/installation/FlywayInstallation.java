@@ -113,8 +113,15 @@ public class FlywayInstallation extends ToolInstallation
         public boolean configure(StaplerRequest2 req, JSONObject json) throws FormException {
             super.configure(req, json);
             save();
+            InstallationCache.invalidateAll();
             return true;
         }
+
+        @Override
+        public void setInstallations(FlywayInstallation... installations) {
+            super.setInstallations(installations);
+            InstallationCache.invalidateAll();
+        }
     }
 
     private static String launderHome(String home) {
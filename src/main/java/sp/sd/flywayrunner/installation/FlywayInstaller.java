@@ -6,16 +6,33 @@ import hudson.Extension;
 import hudson.FilePath;
 import hudson.model.Node;
 import hudson.model.TaskListener;
+import hudson.slaves.NodeSpecific;
 import hudson.tools.DownloadFromUrlInstaller;
 import hudson.tools.ToolInstallation;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.logging.Logger;
 import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+import sp.sd.flywayrunner.trace.Span;
 
 public class FlywayInstaller extends DownloadFromUrlInstaller {
     private static final Logger LOG = Logger.getLogger(FlywayInstaller.class.getName());
     private String databaseDriverUrl;
+    /**
+     * Whether agents are filled from the controller's {@link ArtifactCache} instead of downloading themselves.
+     */
+    private boolean cacheOnController;
+    /**
+     * JDBC drivers to download into the installation's drivers directory.
+     */
+    private List<FlywayDriver> drivers;
 
     @DataBoundConstructor
     public FlywayInstaller(String id, String databaseDriverUrl) {
@@ -35,6 +52,37 @@ public class FlywayInstaller extends DownloadFromUrlInstaller {
         this.databaseDriverUrl = databaseDriverUrl;
     }
 
+    public List<FlywayDriver> getDrivers() {
+        return drivers == null ? Collections.emptyList() : drivers;
+    }
+
+    @DataBoundSetter
+    public void setDrivers(List<FlywayDriver> drivers) {
+        this.drivers = drivers == null || drivers.isEmpty() ? null : new ArrayList<>(drivers);
+    }
+
+    /**
+     * @return the configured drivers followed by those of the legacy, comma-separated {@link #databaseDriverUrl}.
+     */
+    List<FlywayDriver> getEffectiveDrivers() {
+        List<FlywayDriver> result = new ArrayList<>(getDrivers());
+        if (!Strings.isNullOrEmpty(databaseDriverUrl)) {
+            for (String url : Splitter.on(",").trimResults().omitEmptyStrings().split(databaseDriverUrl)) {
+                result.add(new FlywayDriver(url));
+            }
+        }
+        return result;
+    }
+
+    public boolean isCacheOnController() {
+        return cacheOnController;
+    }
+
+    @DataBoundSetter
+    public void setCacheOnController(boolean cacheOnController) {
+        this.cacheOnController = cacheOnController;
+    }
+
     @Extension
     public static final class FlywayInstallerDescriptorImpl
             extends DownloadFromUrlInstaller.DescriptorImpl<FlywayInstaller> {
@@ -53,23 +101,64 @@ public class FlywayInstaller extends DownloadFromUrlInstaller {
     @Override
     public FilePath performInstallation(ToolInstallation tool, Node node, TaskListener log)
             throws IOException, InterruptedException {
-        FilePath installationRoot = super.performInstallation(tool, node, log);
+        try (Span span = Span.current().child("Install Flyway")) {
+            span.attribute("flyway.installation", tool.getName())
+                    .attribute("flyway.version", id)
+                    .attribute("jenkins.node", node.getDisplayName());
+            FilePath installationRoot = cacheOnController
+                    ? installFromControllerCache(tool, node, log)
+                    : super.performInstallation(tool, node, log);
 
-        if (!Strings.isNullOrEmpty(databaseDriverUrl)) {
-            // hidden feature: database driver urls can be comma delimited list
-            Iterable<String> urls = Splitter.on(",").trimResults().split(databaseDriverUrl);
-            for (String url : urls) {
-                String filename = url.substring(databaseDriverUrl.lastIndexOf("/") + 1);
-                FilePath child = installationRoot.child("drivers/" + filename);
-                if (!child.exists()) {
-                    log.getLogger()
-                            .println("Downloading " + databaseDriverUrl + " to " + child + " on "
-                                    + node.getDisplayName());
-                    URL downloadUrl = new URL(databaseDriverUrl);
-                    child.copyFrom(downloadUrl);
-                }
+            try (Span drivers = span.child("Provision drivers")) {
+                new DriverProvisioner(cacheOnController).provision(installationRoot, getEffectiveDrivers(), node, log);
+            }
+            return installationRoot;
+        }
+    }
+
+    /**
+     * Same as {@link DownloadFromUrlInstaller#performInstallation} except that the archive is taken from the
+     * controller's {@link ArtifactCache} and streamed to the node over the remoting channel.
+     */
+    private FilePath installFromControllerCache(ToolInstallation tool, Node node, TaskListener log)
+            throws IOException, InterruptedException {
+        FilePath expected = preferredLocation(tool, node);
+        Installable inst = getInstallable();
+        if (inst == null) {
+            log.getLogger().println("Invalid tool ID " + id);
+            return expected;
+        }
+        if (inst instanceof NodeSpecific) {
+            inst = (Installable) ((NodeSpecific<?>) inst).forNode(node, log);
+        }
+        if (isUpToDate(expected, inst)) {
+            return expected;
+        }
+        File archive = ArtifactCache.get().fetch(new URL(inst.url), log);
+        log.getLogger().println("Unpacking " + inst.url + " from the controller cache to " + expected + " on "
+                + node.getDisplayName());
+        if (expected.exists()) {
+            expected.deleteContents();
+        } else {
+            expected.mkdirs();
+        }
+        try (InputStream in = new FileInputStream(archive)) {
+            if (inst.url.endsWith(".zip")) {
+                expected.unzipFrom(in);
+            } else {
+                expected.untarFrom(in, FilePath.TarCompression.GZIP);
             }
         }
-        return installationRoot;
+        FilePath base = findPullUpDirectory(expected);
+        if (base != null && base != expected) {
+            base.moveAllChildrenTo(expected);
+        }
+        FilePath executable = expected.child("flyway");
+        if (executable.exists()) {
+            executable.chmod(0755);
+        }
+        // leave a record for the next up-to-date check
+        expected.child(".installedFrom").write(inst.url, "UTF-8");
+        return expected;
     }
 }
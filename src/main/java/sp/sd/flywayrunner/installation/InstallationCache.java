@@ -0,0 +1,121 @@
+package sp.sd.flywayrunner.installation;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import hudson.EnvVars;
+import hudson.Extension;
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.model.Computer;
+import hudson.model.Node;
+import hudson.model.TaskListener;
+import hudson.slaves.ComputerListener;
+import hudson.slaves.OfflineCause;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import sp.sd.flywayrunner.trace.Span;
+
+/**
+ * Remembers Flyway installations already translated for a node, together with the path of their executable, so
+ * that builds after the first one skip {@link FlywayInstallation#forNode} and the remote lookup of the executable.
+ * Entries are keyed by node, installation name and expanded home, and are dropped when the tool configuration
+ * changes or the agent reconnects.
+ */
+public final class InstallationCache {
+    private static final Logger LOG = Logger.getLogger(InstallationCache.class.getName());
+    private static final Map<String, Resolved> ENTRIES = new ConcurrentHashMap<>();
+
+    private InstallationCache() {}
+
+    /**
+     * Installation translated for a node and environment.
+     */
+    public static final class Resolved {
+        private final FlywayInstallation installation;
+        private volatile String executable;
+
+        Resolved(FlywayInstallation installation) {
+            this.installation = installation;
+        }
+
+        public FlywayInstallation getInstallation() {
+            return installation;
+        }
+
+        /**
+         * @return path of the executable on the node, looked up remotely only until it has been found once.
+         */
+        public String getExecutable(Launcher launcher) throws IOException, InterruptedException {
+            String result = executable;
+            if (result == null) {
+                result = installation.getExecutable(launcher);
+                executable = result;
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Equivalent of translating the installation with {@code forNode} and {@code forEnvironment}, served from the
+     * cache when the same installation was already resolved for the workspace's node.
+     * @return null if the workspace's node is not available.
+     */
+    public static @CheckForNull Resolved resolve(
+            FlywayInstallation installation, EnvVars env, TaskListener listener, FilePath workspace)
+            throws IOException, InterruptedException {
+        Computer computer = workspace.toComputer();
+        if (computer == null) {
+            return null;
+        }
+        Node node = computer.getNode();
+        if (node == null) {
+            return null;
+        }
+        String key = key(computer.getName(), installation.getName(), env.expand(installation.getHome()));
+        Resolved resolved = ENTRIES.get(key);
+        if (resolved == null) {
+            try (Span span = Span.current().child("Resolve installation")) {
+                span.attribute("flyway.installation", installation.getName())
+                        .attribute("jenkins.node", computer.getDisplayName());
+                InstallationWarmUp.await(computer.getName(), installation.getName(), listener);
+                resolved = new Resolved(installation.forNode(node, listener).forEnvironment(env));
+            }
+            ENTRIES.put(key, resolved);
+        }
+        return resolved;
+    }
+
+    static void invalidateAll() {
+        LOG.log(Level.FINE, "Flyway installations changed, clearing {0} cached installations", ENTRIES.size());
+        ENTRIES.clear();
+    }
+
+    static void invalidate(String nodeName) {
+        String prefix = nodeName + '\0';
+        ENTRIES.keySet().removeIf(key -> key.startsWith(prefix));
+    }
+
+    private static String key(String nodeName, String installationName, String home) {
+        return nodeName + '\0' + installationName + '\0' + home;
+    }
+
+    @Extension
+    public static class ComputerListenerImpl extends ComputerListener {
+        @Override
+        public void onOnline(Computer c, TaskListener listener) {
+            invalidate(c.getName());
+        }
+
+        @Override
+        public void onOffline(Computer c, OfflineCause cause) {
+            invalidate(c.getName());
+        }
+
+        @Override
+        public void onConfigurationChange() {
+            invalidateAll();
+        }
+    }
+}
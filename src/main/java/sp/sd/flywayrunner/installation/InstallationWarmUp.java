@@ -0,0 +1,77 @@
+package sp.sd.flywayrunner.installation;
+
+import hudson.Extension;
+import hudson.model.Computer;
+import hudson.model.Node;
+import hudson.model.TaskListener;
+import hudson.slaves.ComputerListener;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Installs the Flyway installations which have a {@link WarmUpProperty} on agents as they connect, in the background
+ * on the remoting thread pool.  A build needing an installation which is still being installed on its node waits
+ * for that installation, see {@link #await}, instead of starting a second one.
+ */
+@Extension
+public class InstallationWarmUp extends ComputerListener {
+    private static final Logger LOG = Logger.getLogger(InstallationWarmUp.class.getName());
+    private static final Map<String, Future<?>> IN_FLIGHT = new ConcurrentHashMap<>();
+
+    @Override
+    public void onOnline(Computer c, TaskListener listener) {
+        Node node = c.getNode();
+        if (node == null) {
+            return;
+        }
+        for (FlywayInstallation installation : FlywayInstallation.allInstallations()) {
+            WarmUpProperty warmUp = installation.getProperties().get(WarmUpProperty.class);
+            if (warmUp == null || !warmUp.appliesTo(node)) {
+                continue;
+            }
+            String key = key(c.getName(), installation.getName());
+            IN_FLIGHT.computeIfAbsent(key, k -> Computer.threadPoolForRemoting.submit(() -> {
+                try {
+                    long start = System.currentTimeMillis();
+                    installation.forNode(node, listener);
+                    listener.getLogger()
+                            .println("Installed Flyway " + installation.getName() + " in "
+                                    + (System.currentTimeMillis() - start) + " ms");
+                } catch (IOException | RuntimeException e) {
+                    LOG.log(Level.WARNING, "Failed to install Flyway " + installation.getName() + " on " + c, e);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    IN_FLIGHT.remove(k);
+                }
+            }));
+        }
+    }
+
+    /**
+     * Waits until the installation has been installed on the node, if it is being installed.
+     */
+    static void await(String computerName, String installationName, TaskListener listener)
+            throws InterruptedException {
+        Future<?> warmUp = IN_FLIGHT.get(key(computerName, installationName));
+        if (warmUp == null || warmUp.isDone()) {
+            return;
+        }
+        listener.getLogger().println("Waiting for Flyway " + installationName + " to finish installing on the agent");
+        try {
+            warmUp.get();
+        } catch (ExecutionException e) {
+            // the build installs it again and reports the failure
+            LOG.log(Level.FINE, "Flyway installation failed", e);
+        }
+    }
+
+    private static String key(String computerName, String installationName) {
+        return computerName + '\0' + installationName;
+    }
+}
@@ -0,0 +1,99 @@
+package sp.sd.flywayrunner.installation;
+
+import hudson.Extension;
+import hudson.FilePath;
+import hudson.Util;
+import hudson.tools.ToolInstallation;
+import hudson.tools.ToolProperty;
+import hudson.tools.ToolPropertyDescriptor;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import org.jenkinsci.Symbol;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+
+/**
+ * JVM options of the Flyway command line, passed through the {@code JAVA_ARGS} environment variable which the
+ * {@code flyway} and {@code flyway.cmd} scripts add to the java command.  With class data sharing the first run on
+ * a node records the classes Flyway loads into an archive, which later runs map instead of loading them again.
+ */
+public class JvmOptionsProperty extends ToolProperty<FlywayInstallation> {
+    static final String CDS_DIRECTORY = "flyway-cds";
+
+    private JvmPreset preset = JvmPreset.NONE;
+    private String options;
+    private boolean classDataSharing;
+
+    @DataBoundConstructor
+    public JvmOptionsProperty() {}
+
+    public JvmPreset getPreset() {
+        return preset;
+    }
+
+    @DataBoundSetter
+    public void setPreset(JvmPreset preset) {
+        this.preset = preset == null ? JvmPreset.NONE : preset;
+    }
+
+    public String getOptions() {
+        return options;
+    }
+
+    @DataBoundSetter
+    public void setOptions(String options) {
+        this.options = Util.fixEmptyAndTrim(options);
+    }
+
+    public boolean isClassDataSharing() {
+        return classDataSharing;
+    }
+
+    @DataBoundSetter
+    public void setClassDataSharing(boolean classDataSharing) {
+        this.classDataSharing = classDataSharing;
+    }
+
+    /**
+     * @param home home of the installation on the node.
+     * @param javaHome {@code JAVA_HOME} of the build, {@code null} if not set.
+     * @param nodeRoot root directory of the node, under which class data sharing archives are kept.
+     * @return the value of {@code JAVA_ARGS}, empty if there are no options.
+     */
+    public String javaArgs(String home, String javaHome, FilePath nodeRoot) throws IOException, InterruptedException {
+        List<String> args = new ArrayList<>();
+        if (!preset.getOptions().isEmpty()) {
+            args.add(preset.getOptions());
+        }
+        if (options != null) {
+            args.add(options);
+        }
+        if (classDataSharing && home != null && nodeRoot != null) {
+            String sharing = nodeRoot.child("caches").child(CDS_DIRECTORY).act(new ClassDataSharing(home, javaHome));
+            if (!sharing.isEmpty()) {
+                args.add(sharing);
+            }
+        }
+        return String.join(" ", args);
+    }
+
+    @Override
+    public Class<FlywayInstallation> type() {
+        return FlywayInstallation.class;
+    }
+
+    @Extension
+    @Symbol("jvmOptions")
+    public static class DescriptorImpl extends ToolPropertyDescriptor {
+        @Override
+        public String getDisplayName() {
+            return "JVM options of the command line";
+        }
+
+        @Override
+        public boolean isApplicable(Class<? extends ToolInstallation> toolType) {
+            return toolType == FlywayInstallation.class;
+        }
+    }
+}
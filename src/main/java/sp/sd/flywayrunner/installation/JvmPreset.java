@@ -0,0 +1,41 @@
+package sp.sd.flywayrunner.installation;
+
+/**
+ * Heap, GC and compiler settings for the JVM of the Flyway command line, passed before the options of
+ * {@link JvmOptionsProperty}.
+ */
+public enum JvmPreset {
+    /**
+     * The defaults of the JVM.
+     */
+    NONE("JVM defaults", ""),
+    /**
+     * Quick start for short commands such as {@code info} and {@code validate}: only the client compiler, the serial
+     * collector and a small heap.
+     */
+    SHORT_LIVED(
+            "Short-lived runs (client compiler, serial GC, up to 256 MB heap)",
+            "-XX:TieredStopAtLevel=1 -XX:+UseSerialGC -Xms32m -Xmx256m -Xss512k"),
+    /**
+     * Short-lived runs on agents with little memory or few CPUs.
+     */
+    CONSTRAINED(
+            "Constrained agents (one compiler thread, serial GC, up to 128 MB heap)",
+            "-XX:TieredStopAtLevel=1 -XX:CICompilerCount=1 -XX:+UseSerialGC -Xms16m -Xmx128m -Xss256k");
+
+    private final String displayName;
+    private final String options;
+
+    JvmPreset(String displayName, String options) {
+        this.displayName = displayName;
+        this.options = options;
+    }
+
+    public String getDisplayName() {
+        return displayName;
+    }
+
+    public String getOptions() {
+        return options;
+    }
+}
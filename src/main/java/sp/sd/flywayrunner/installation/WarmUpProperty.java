@@ -0,0 +1,63 @@
+package sp.sd.flywayrunner.installation;
+
+import hudson.Extension;
+import hudson.Util;
+import hudson.model.Label;
+import hudson.model.Node;
+import hudson.tools.ToolInstallation;
+import hudson.tools.ToolProperty;
+import hudson.tools.ToolPropertyDescriptor;
+import jenkins.model.Jenkins;
+import org.jenkinsci.Symbol;
+import org.kohsuke.stapler.DataBoundConstructor;
+
+/**
+ * Installs a Flyway installation, with its drivers, on agents matching a label as soon as they connect, rather than
+ * during the first build which uses it.  See {@link InstallationWarmUp}.
+ */
+public class WarmUpProperty extends ToolProperty<FlywayInstallation> {
+
+    private final String label;
+
+    /**
+     * @param label expression selecting the agents, all agents if empty.
+     */
+    @DataBoundConstructor
+    public WarmUpProperty(String label) {
+        this.label = Util.fixEmptyAndTrim(label);
+    }
+
+    public String getLabel() {
+        return label;
+    }
+
+    /**
+     * @return whether the installation is installed on the node when it connects.
+     */
+    boolean appliesTo(Node node) {
+        if (label == null) {
+            return true;
+        }
+        Label expression = Jenkins.get().getLabel(label);
+        return expression != null && expression.contains(node);
+    }
+
+    @Override
+    public Class<FlywayInstallation> type() {
+        return FlywayInstallation.class;
+    }
+
+    @Extension
+    @Symbol("warmUp")
+    public static class DescriptorImpl extends ToolPropertyDescriptor {
+        @Override
+        public String getDisplayName() {
+            return "Install on agents when they connect";
+        }
+
+        @Override
+        public boolean isApplicable(Class<? extends ToolInstallation> toolType) {
+            return toolType == FlywayInstallation.class;
+        }
+    }
+}
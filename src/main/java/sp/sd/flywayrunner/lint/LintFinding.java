@@ -0,0 +1,73 @@
+package sp.sd.flywayrunner.lint;
+
+import java.io.Serializable;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+/**
+ * A statement of a migration script matched by a {@link LintRule}.
+ */
+@ExportedBean(defaultVisibility = 2)
+public class LintFinding implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private static final int MAX_STATEMENT_LENGTH = 200;
+
+    private final String file;
+    private final int line;
+    private final LintRule rule;
+    private final SqlDialect dialect;
+    private final String message;
+    private final String statement;
+
+    LintFinding(String file, int line, LintRule rule, SqlDialect dialect, String message, String statement) {
+        this.file = file;
+        this.line = line;
+        this.rule = rule;
+        this.dialect = dialect;
+        this.message = message;
+        this.statement = statement.length() > MAX_STATEMENT_LENGTH
+                ? statement.substring(0, MAX_STATEMENT_LENGTH) + "..."
+                : statement;
+    }
+
+    /**
+     * @return the path of the script relative to the workspace.
+     */
+    @Exported
+    public String getFile() {
+        return file;
+    }
+
+    @Exported
+    public int getLine() {
+        return line;
+    }
+
+    @Exported
+    public LintRule getRule() {
+        return rule;
+    }
+
+    @Exported
+    public SqlDialect getDialect() {
+        return dialect;
+    }
+
+    @Exported
+    public String getMessage() {
+        return message;
+    }
+
+    /**
+     * @return the start of the statement as the rules saw it.
+     */
+    @Exported
+    public String getStatement() {
+        return statement;
+    }
+
+    @Override
+    public String toString() {
+        return file + ":" + line + ": " + message;
+    }
+}
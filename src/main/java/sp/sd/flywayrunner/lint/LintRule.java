@@ -0,0 +1,176 @@
+package sp.sd.flywayrunner.lint;
+
+import java.util.regex.Pattern;
+
+/**
+ * Expensive patterns looked for in the statements of migration scripts.  Rules look at the text produced by
+ * {@link SqlStatementReader}: upper case, single spaced, without comments and with empty string literals.
+ */
+public enum LintRule {
+    /**
+     * Index creation which blocks writes to the table until the index is built.
+     */
+    BLOCKING_INDEX("Index built without an online option") {
+        @Override
+        String check(SqlStatementReader.Statement statement, SqlDialect dialect) {
+            String text = statement.getText();
+            if (!CREATE_INDEX.matcher(text).find()) {
+                return null;
+            }
+            switch (dialect) {
+                case POSTGRESQL:
+                    return text.contains(" CONCURRENTLY ")
+                            ? null
+                            : "CREATE INDEX without CONCURRENTLY blocks writes to the table while the index is built";
+                case SQLSERVER:
+                    return ONLINE_ON.matcher(text).find()
+                            ? null
+                            : "CREATE INDEX without WITH (ONLINE = ON) locks the table while the index is built";
+                case ORACLE:
+                    return text.contains(" ONLINE")
+                            ? null
+                            : "CREATE INDEX without ONLINE blocks writes to the table while the index is built";
+                default:
+                    return null;
+            }
+        }
+    },
+    /**
+     * Column changes which copy every row of the table.
+     */
+    TABLE_REWRITE("Column change which rewrites the table") {
+        @Override
+        String check(SqlStatementReader.Statement statement, SqlDialect dialect) {
+            String text = statement.getText();
+            if (!text.startsWith("ALTER TABLE ")) {
+                return null;
+            }
+            switch (dialect) {
+                case POSTGRESQL:
+                    return POSTGRESQL_TYPE_CHANGE.matcher(text).find()
+                            ? "Changing the type of a column rewrites the table and its indexes under an exclusive lock"
+                            : null;
+                case MYSQL:
+                    return MYSQL_COLUMN_CHANGE.matcher(text).find() && !MYSQL_ONLINE_ALGORITHM.matcher(text).find()
+                            ? "MODIFY or CHANGE COLUMN copies the table unless ALGORITHM=INPLACE or INSTANT applies"
+                            : null;
+                case SQLSERVER:
+                    return text.contains(" ALTER COLUMN ") && !ONLINE_ON.matcher(text).find()
+                            ? "ALTER COLUMN without WITH (ONLINE = ON) may update every row under a schema lock"
+                            : null;
+                case ORACLE:
+                    return ORACLE_MOVE.matcher(text).find() && !text.contains(" ONLINE")
+                            ? "ALTER TABLE MOVE without ONLINE copies the table and blocks writes to it"
+                            : null;
+                default:
+                    return null;
+            }
+        }
+    },
+    /**
+     * Changes to every row of a table in a single statement.
+     */
+    UNBOUNDED_DML("UPDATE or DELETE without WHERE") {
+        @Override
+        String check(SqlStatementReader.Statement statement, SqlDialect dialect) {
+            String text = statement.getText();
+            if (statement.isTruncated() || text.contains(" WHERE ") || text.contains(" WHERE(")) {
+                return null;
+            }
+            if (text.startsWith("UPDATE ")) {
+                return "UPDATE without WHERE changes every row in one transaction; batch it or restrict it";
+            }
+            if (text.startsWith("DELETE ")) {
+                return "DELETE without WHERE removes every row in one transaction; batch it or use TRUNCATE";
+            }
+            return null;
+        }
+    },
+    /**
+     * DDL which holds a lock on the table for longer than a metadata change.
+     */
+    LOCKING_DDL("DDL which locks the table") {
+        @Override
+        String check(SqlStatementReader.Statement statement, SqlDialect dialect) {
+            String text = statement.getText();
+            if (LOCK_TABLE.matcher(text).find()) {
+                return "LOCK TABLE blocks other sessions until the migration commits";
+            }
+            switch (dialect) {
+                case POSTGRESQL:
+                    if (text.startsWith("ALTER TABLE ")) {
+                        if (POSTGRESQL_VALIDATED_CONSTRAINT.matcher(text).find() && !text.contains(" NOT VALID")) {
+                            return "Adding a foreign key or check constraint without NOT VALID scans the table under "
+                                    + "a lock; validate it in a later migration";
+                        }
+                        if (POSTGRESQL_INDEXED_CONSTRAINT.matcher(text).find() && !text.contains(" USING INDEX")) {
+                            return "Adding a primary key or unique constraint builds its index under an exclusive "
+                                    + "lock; create the index CONCURRENTLY and add the constraint USING INDEX";
+                        }
+                        if (text.contains(" SET NOT NULL")) {
+                            return "SET NOT NULL scans the table under an exclusive lock";
+                        }
+                    }
+                    if (text.startsWith("VACUUM FULL") || text.startsWith("CLUSTER")) {
+                        return "VACUUM FULL and CLUSTER rewrite the table under an exclusive lock";
+                    }
+                    if ((text.startsWith("REINDEX ") || text.startsWith("REFRESH MATERIALIZED VIEW "))
+                            && !text.contains(" CONCURRENTLY")) {
+                        return "Without CONCURRENTLY, " + text.substring(0, text.indexOf(' ')) + " blocks readers "
+                                + "or writers until it finishes";
+                    }
+                    return null;
+                case MYSQL:
+                    if (MYSQL_LOCKING_OPTION.matcher(text).find()) {
+                        return "ALGORITHM=COPY or LOCK=SHARED/EXCLUSIVE blocks writes to the table";
+                    }
+                    if (text.startsWith("OPTIMIZE TABLE ")) {
+                        return "OPTIMIZE TABLE rebuilds the table";
+                    }
+                    return null;
+                case SQLSERVER:
+                case ORACLE:
+                    if (text.startsWith("ALTER INDEX ")
+                            && text.contains(" REBUILD")
+                            && !(dialect == SqlDialect.SQLSERVER
+                                    ? ONLINE_ON.matcher(text).find()
+                                    : text.contains(" ONLINE"))) {
+                        return "Rebuilding an index offline blocks writes to the table";
+                    }
+                    return null;
+                default:
+                    return null;
+            }
+        }
+    };
+
+    private static final Pattern CREATE_INDEX =
+            Pattern.compile("^CREATE (UNIQUE )?((NON)?CLUSTERED |BITMAP )?INDEX ");
+    private static final Pattern ONLINE_ON = Pattern.compile("ONLINE ?= ?ON");
+    private static final Pattern POSTGRESQL_TYPE_CHANGE = Pattern.compile(" ALTER (COLUMN )?\\S+ (SET DATA )?TYPE ");
+    private static final Pattern MYSQL_COLUMN_CHANGE = Pattern.compile("( |,)(MODIFY|CHANGE) ");
+    private static final Pattern MYSQL_ONLINE_ALGORITHM = Pattern.compile("ALGORITHM ?= ?(INPLACE|INSTANT)");
+    private static final Pattern MYSQL_LOCKING_OPTION =
+            Pattern.compile("ALGORITHM ?= ?COPY|LOCK ?= ?(SHARED|EXCLUSIVE)");
+    private static final Pattern ORACLE_MOVE = Pattern.compile(" MOVE( |$)");
+    private static final Pattern LOCK_TABLE = Pattern.compile("^LOCK TABLES? ");
+    private static final Pattern POSTGRESQL_VALIDATED_CONSTRAINT =
+            Pattern.compile(" ADD (CONSTRAINT \\S+ )?(FOREIGN KEY|CHECK)");
+    private static final Pattern POSTGRESQL_INDEXED_CONSTRAINT =
+            Pattern.compile(" ADD (CONSTRAINT \\S+ )?(PRIMARY KEY|UNIQUE)");
+
+    private final String displayName;
+
+    LintRule(String displayName) {
+        this.displayName = displayName;
+    }
+
+    public String getDisplayName() {
+        return displayName;
+    }
+
+    /**
+     * @return why the statement is expensive, {@code null} if the rule does not apply to it.
+     */
+    abstract String check(SqlStatementReader.Statement statement, SqlDialect dialect);
+}
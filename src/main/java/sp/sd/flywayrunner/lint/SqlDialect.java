@@ -0,0 +1,45 @@
+package sp.sd.flywayrunner.lint;
+
+import java.util.Locale;
+
+/**
+ * The SQL dialect of a target, inferred from its JDBC URL, which decides how scripts are split into statements and
+ * which {@link LintRule}s apply.
+ */
+public enum SqlDialect {
+    POSTGRESQL("PostgreSQL"),
+    MYSQL("MySQL"),
+    SQLSERVER("SQL Server"),
+    ORACLE("Oracle"),
+    /**
+     * Any other database, checked only with the rules which do not depend on the dialect.
+     */
+    GENERIC("Other");
+
+    private final String displayName;
+
+    SqlDialect(String displayName) {
+        this.displayName = displayName;
+    }
+
+    public String getDisplayName() {
+        return displayName;
+    }
+
+    public static SqlDialect of(String url) {
+        String lower = url == null ? "" : url.trim().toLowerCase(Locale.ENGLISH);
+        if (lower.startsWith("jdbc:postgresql:") || lower.startsWith("jdbc:pgsql:")) {
+            return POSTGRESQL;
+        }
+        if (lower.startsWith("jdbc:mysql:") || lower.startsWith("jdbc:mariadb:")) {
+            return MYSQL;
+        }
+        if (lower.startsWith("jdbc:sqlserver:") || lower.startsWith("jdbc:jtds:sqlserver:")) {
+            return SQLSERVER;
+        }
+        if (lower.startsWith("jdbc:oracle:")) {
+            return ORACLE;
+        }
+        return GENERIC;
+    }
+}
@@ -0,0 +1,127 @@
+package sp.sd.flywayrunner.lint;
+
+import hudson.remoting.VirtualChannel;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import jenkins.MasterToSlaveFileCallable;
+import sp.sd.flywayrunner.builder.WorkspaceMigrations;
+
+/**
+ * Checks the SQL scripts under the {@code filesystem:} locations of a step on the agent for statements which are
+ * expensive on a large table.  Scripts are read in parallel and each one as a stream of statements, see
+ * {@link SqlStatementReader}, so their size does not matter.  Versioned migrations which were already applied are
+ * skipped: they cannot be changed anymore and will not run again.
+ */
+public class SqlLint extends MasterToSlaveFileCallable<SqlLintReport> {
+    private static final long serialVersionUID = 1L;
+    private static final String PREFIX = "flyway.";
+
+    private final Map<String, String> scriptOptions;
+    private final SqlDialect dialect;
+    private final Set<String> appliedVersions;
+
+    /**
+     * @param scriptOptions locations and naming options of the step, see {@link WorkspaceMigrations#OPTIONS}.
+     */
+    public SqlLint(Map<String, String> scriptOptions, SqlDialect dialect) {
+        this(scriptOptions, dialect, Collections.emptySet());
+    }
+
+    /**
+     * @param appliedVersions versions, normalized by {@link WorkspaceMigrations#normalizeVersion}, whose scripts are
+     *     not checked.
+     */
+    public SqlLint(Map<String, String> scriptOptions, SqlDialect dialect, Set<String> appliedVersions) {
+        this.scriptOptions = new HashMap<>(scriptOptions);
+        this.dialect = dialect;
+        this.appliedVersions = new HashSet<>(appliedVersions);
+    }
+
+    private static final class Result {
+        private final List<LintFinding> findings = new ArrayList<>();
+        private long statements;
+    }
+
+    @Override
+    public SqlLintReport invoke(File workspace, VirtualChannel channel) throws IOException {
+        SqlLintReport report = new SqlLintReport(dialect);
+        List<String> warnings = new ArrayList<>();
+        List<String> suffixes = new ArrayList<>();
+        String configuredSuffixes = scriptOptions.get(PREFIX + "sqlMigrationSuffixes");
+        for (String suffix : (configuredSuffixes == null ? ".sql" : configuredSuffixes).split(",")) {
+            if (!suffix.trim().isEmpty()) {
+                suffixes.add(suffix.trim());
+            }
+        }
+        List<Path> scripts = WorkspaceMigrations.filesIn(workspace, scriptOptions.get(PREFIX + "locations"), warnings)
+                .stream()
+                .filter(file -> suffixes.stream()
+                        .anyMatch(suffix -> file.getFileName().toString().endsWith(suffix)))
+                .collect(Collectors.toList());
+        int applied = scripts.size();
+        if (!appliedVersions.isEmpty()) {
+            scripts.removeIf(file -> appliedVersions.contains(WorkspaceMigrations.versionOf(file, scriptOptions)));
+        }
+        report.skipped(applied - scripts.size());
+        for (String warning : warnings) {
+            report.warning(warning);
+        }
+        Path root = workspace.toPath();
+        List<Result> results;
+        try {
+            results = scripts.parallelStream()
+                    .map(script -> check(root.relativize(script).toString(), script))
+                    .collect(Collectors.toList());
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        List<LintFinding> findings = new ArrayList<>();
+        long statements = 0;
+        for (Result result : results) {
+            findings.addAll(result.findings);
+            statements += result.statements;
+        }
+        findings.sort(Comparator.comparing(LintFinding::getFile).thenComparingInt(LintFinding::getLine));
+        findings.forEach(report::add);
+        report.counted(scripts.size(), statements);
+        return report;
+    }
+
+    private Result check(String name, Path script) {
+        Result result = new Result();
+        // malformed input is replaced rather than failing the whole check
+        try (SqlStatementReader reader = new SqlStatementReader(
+                new BufferedReader(new InputStreamReader(Files.newInputStream(script), StandardCharsets.UTF_8)),
+                dialect)) {
+            SqlStatementReader.Statement statement;
+            while ((statement = reader.next()) != null) {
+                result.statements++;
+                for (LintRule rule : LintRule.values()) {
+                    String message = rule.check(statement, dialect);
+                    if (message != null) {
+                        result.findings.add(new LintFinding(
+                                name, statement.getLine(), rule, dialect, message, statement.getText()));
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return result;
+    }
+}
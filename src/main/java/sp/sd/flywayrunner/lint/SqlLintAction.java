@@ -0,0 +1,103 @@
+package sp.sd.flywayrunner.lint;
+
+import hudson.model.Api;
+import hudson.model.Run;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import jenkins.model.RunAction2;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+/**
+ * Findings of the SQL lint of the Flyway steps of a build, shown on the build page and exposed through the REST API
+ * at {@code flyway-lint/api/json}.
+ */
+@ExportedBean
+public class SqlLintAction implements RunAction2 {
+
+    private transient Run<?, ?> run;
+
+    private final List<LintFinding> findings = new ArrayList<>();
+    private int findingCount;
+    private int scripts;
+    private long statements;
+
+    /**
+     * Adds a report to the build's action, creating the action with the first report.
+     */
+    public static void addTo(Run<?, ?> run, SqlLintReport report) {
+        SqlLintAction action;
+        synchronized (run) {
+            action = run.getAction(SqlLintAction.class);
+            if (action == null) {
+                action = new SqlLintAction();
+                run.addAction(action);
+            }
+        }
+        action.add(report);
+    }
+
+    private synchronized void add(SqlLintReport report) {
+        findings.addAll(report.getFindings());
+        findingCount += report.getFindingCount();
+        scripts += report.getScripts();
+        statements += report.getStatements();
+    }
+
+    @Exported
+    public synchronized List<LintFinding> getFindings() {
+        return Collections.unmodifiableList(new ArrayList<>(findings));
+    }
+
+    /**
+     * @return the number of findings, including those which were not kept.
+     */
+    @Exported
+    public synchronized int getFindingCount() {
+        return findingCount;
+    }
+
+    @Exported
+    public synchronized int getScripts() {
+        return scripts;
+    }
+
+    @Exported
+    public synchronized long getStatements() {
+        return statements;
+    }
+
+    public Run<?, ?> getRun() {
+        return run;
+    }
+
+    @Override
+    public void onAttached(Run<?, ?> r) {
+        this.run = r;
+    }
+
+    @Override
+    public void onLoad(Run<?, ?> r) {
+        this.run = r;
+    }
+
+    public Api getApi() {
+        return new Api(this);
+    }
+
+    @Override
+    public String getIconFileName() {
+        return "document.png";
+    }
+
+    @Override
+    public String getDisplayName() {
+        return "Flyway SQL Lint";
+    }
+
+    @Override
+    public String getUrlName() {
+        return "flyway-lint";
+    }
+}
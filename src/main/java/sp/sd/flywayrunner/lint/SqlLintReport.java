@@ -0,0 +1,97 @@
+package sp.sd.flywayrunner.lint;
+
+import java.io.PrintStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Findings of a {@link SqlLint} of the scripts of a step for one dialect.
+ */
+public class SqlLintReport implements Serializable {
+    private static final long serialVersionUID = 1L;
+    /**
+     * Findings kept beyond this number are only counted, so huge legacy scripts do not bloat the build record.
+     */
+    static final int MAX_FINDINGS = 1000;
+
+    private final SqlDialect dialect;
+    private final List<LintFinding> findings = new ArrayList<>();
+    private final List<String> warnings = new ArrayList<>();
+    private int findingCount;
+    private int scripts;
+    private long statements;
+    private int appliedScripts;
+
+    SqlLintReport(SqlDialect dialect) {
+        this.dialect = dialect;
+    }
+
+    void add(LintFinding finding) {
+        findingCount++;
+        if (findings.size() < MAX_FINDINGS) {
+            findings.add(finding);
+        }
+    }
+
+    void warning(String message) {
+        warnings.add(message);
+    }
+
+    void counted(int scripts, long statements) {
+        this.scripts = scripts;
+        this.statements = statements;
+    }
+
+    void skipped(int appliedScripts) {
+        this.appliedScripts = appliedScripts;
+    }
+
+    public SqlDialect getDialect() {
+        return dialect;
+    }
+
+    /**
+     * @return the first {@link #MAX_FINDINGS} findings, by file and line.
+     */
+    public List<LintFinding> getFindings() {
+        return findings;
+    }
+
+    /**
+     * @return the number of findings, including those which were not kept.
+     */
+    public int getFindingCount() {
+        return findingCount;
+    }
+
+    public int getScripts() {
+        return scripts;
+    }
+
+    public long getStatements() {
+        return statements;
+    }
+
+    /**
+     * @return the number of scripts not checked as they were applied to every target already.
+     */
+    public int getAppliedScripts() {
+        return appliedScripts;
+    }
+
+    public void printTo(PrintStream logger) {
+        logger.println("Flyway SQL lint (" + dialect.getDisplayName() + "): " + scripts + " scripts, " + statements
+                + " statements, " + findingCount + " findings"
+                + (appliedScripts > 0 ? ", " + appliedScripts + " applied scripts skipped" : ""));
+        for (String warning : warnings) {
+            logger.println("  WARNING: " + warning);
+        }
+        for (LintFinding finding : findings) {
+            logger.println("  " + finding.getRule() + " " + finding);
+        }
+        if (findingCount > findings.size()) {
+            logger.println("  ... and " + (findingCount - findings.size()) + " more");
+        }
+    }
+}
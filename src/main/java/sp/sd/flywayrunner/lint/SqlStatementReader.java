@@ -0,0 +1,331 @@
+package sp.sd.flywayrunner.lint;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.regex.Pattern;
+
+/**
+ * Splits a SQL script into statements as it is read, so scripts of any size are checked with little memory.
+ * Comments are dropped, string literals are replaced by {@code ''}, whitespace is collapsed and the rest is upper
+ * cased, which is all {@link LintRule}s look at.  Only the first {@link #MAX_STATEMENT_LENGTH} characters of a
+ * statement are kept, the rest is skipped up to its delimiter.
+ * <p>
+ * Statements end with {@code ;}, with {@code GO} on its own line for SQL Server and with {@code /} on its own line
+ * for Oracle, which is also the only end of PL/SQL blocks.  MySQL {@code DELIMITER} commands and PostgreSQL dollar
+ * quoted bodies are understood.
+ */
+final class SqlStatementReader implements Closeable {
+    static final int MAX_STATEMENT_LENGTH = 8192;
+    private static final Pattern PLSQL_BLOCK = Pattern.compile(
+            "^(BEGIN|DECLARE|CREATE (OR REPLACE )?(EDITIONABLE |NONEDITIONABLE )?"
+                    + "(PROCEDURE|FUNCTION|PACKAGE|TRIGGER|TYPE BODY)) ?.*");
+    private static final String MYSQL_DELIMITER = "DELIMITER ";
+
+    /**
+     * A statement of the script.
+     */
+    static final class Statement {
+        private final int line;
+        private final String text;
+        private final boolean truncated;
+
+        Statement(int line, String text, boolean truncated) {
+            this.line = line;
+            this.text = text;
+            this.truncated = truncated;
+        }
+
+        /**
+         * @return the line the statement starts on, from 1.
+         */
+        int getLine() {
+            return line;
+        }
+
+        String getText() {
+            return text;
+        }
+
+        /**
+         * @return whether the statement was longer than {@link #MAX_STATEMENT_LENGTH} and only its start is known.
+         */
+        boolean isTruncated() {
+            return truncated;
+        }
+    }
+
+    private final Reader reader;
+    private final SqlDialect dialect;
+    private int line = 1;
+    private int pushedBack = -1;
+    private String delimiter = ";";
+
+    private final StringBuilder text = new StringBuilder();
+    /**
+     * The last characters of the statement, in which a delimiter other than {@code ;} is looked for.
+     */
+    private final StringBuilder recent = new StringBuilder();
+    /**
+     * What the current line of the statement holds outside comments and literals, up to a few characters.
+     */
+    private final StringBuilder currentLine = new StringBuilder();
+    private int currentLineStart;
+    private int statementLine;
+    private boolean truncated;
+    private boolean space;
+
+    SqlStatementReader(Reader reader, SqlDialect dialect) {
+        this.reader = reader;
+        this.dialect = dialect;
+    }
+
+    /**
+     * @return the next statement, {@code null} at the end of the script.
+     */
+    Statement next() throws IOException {
+        int c;
+        while ((c = read()) != -1) {
+            if (c == '\n') {
+                if (endOfLine()) {
+                    return emit();
+                }
+                continue;
+            }
+            if (Character.isWhitespace(c)) {
+                space = true;
+                continue;
+            }
+            if (c == '-' && peek() == '-' || c == '#' && dialect == SqlDialect.MYSQL) {
+                skipLineComment();
+                space = true;
+            } else if (c == '/' && peek() == '*') {
+                read();
+                skipBlockComment();
+                space = true;
+            } else if (c == '\'') {
+                skipString();
+                append('\'');
+                append('\'');
+            } else if (c == '"' || c == '`' && dialect == SqlDialect.MYSQL) {
+                quotedIdentifier(c, c);
+            } else if (c == '[' && dialect == SqlDialect.SQLSERVER) {
+                quotedIdentifier(c, ']');
+            } else if (c == '$' && dialect == SqlDialect.POSTGRESQL) {
+                dollar();
+            } else if (delimiter.equals(";") && c == ';') {
+                if (dialect == SqlDialect.ORACLE && PLSQL_BLOCK.matcher(text).matches()) {
+                    append(';');
+                } else if (text.length() > 0) {
+                    return emit();
+                }
+            } else {
+                append(c);
+                if (!delimiter.equals(";") && endsWith(recent, delimiter)) {
+                    if (!truncated) {
+                        text.setLength(Math.max(0, text.length() - delimiter.length()));
+                    }
+                    if (text.length() > 0) {
+                        return emit();
+                    }
+                    reset();
+                }
+            }
+        }
+        if (text.length() > 0) {
+            return emit();
+        }
+        return null;
+    }
+
+    /**
+     * Handles the line delimiters of SQL Server and Oracle and the {@code DELIMITER} command of MySQL.
+     * @return whether the line ended the statement.
+     */
+    private boolean endOfLine() {
+        line++;
+        String lineText = currentLine.toString().trim();
+        currentLine.setLength(0);
+        space = true;
+        if (dialect == SqlDialect.SQLSERVER && lineText.equals("GO") || dialect == SqlDialect.ORACLE
+                && lineText.equals("/")) {
+            text.setLength(Math.min(text.length(), currentLineStart));
+            if (text.length() > 0) {
+                return true;
+            }
+            reset();
+            return false;
+        }
+        if (dialect == SqlDialect.MYSQL && text.indexOf(MYSQL_DELIMITER) == 0) {
+            String newDelimiter = text.substring(MYSQL_DELIMITER.length()).trim();
+            if (!newDelimiter.isEmpty() && newDelimiter.indexOf(' ') < 0) {
+                delimiter = newDelimiter;
+            }
+            reset();
+            return false;
+        }
+        currentLineStart = text.length();
+        return false;
+    }
+
+    private Statement emit() {
+        Statement statement = new Statement(statementLine, text.toString().trim(), truncated);
+        reset();
+        return statement;
+    }
+
+    private void reset() {
+        text.setLength(0);
+        recent.setLength(0);
+        currentLine.setLength(0);
+        currentLineStart = 0;
+        truncated = false;
+        space = false;
+    }
+
+    private void append(int c) {
+        if (text.length() == 0) {
+            statementLine = line;
+        } else if (space) {
+            appendText(' ');
+        }
+        space = false;
+        char upper = Character.toUpperCase((char) c);
+        appendText(upper);
+        recent.append(upper);
+        if (recent.length() > 32) {
+            recent.delete(0, recent.length() - 16);
+        }
+        if (currentLine.length() < 8) {
+            currentLine.append(upper);
+        }
+    }
+
+    private void appendText(char c) {
+        if (text.length() < MAX_STATEMENT_LENGTH) {
+            text.append(c);
+        } else {
+            truncated = true;
+        }
+    }
+
+    private void skipLineComment() throws IOException {
+        int c;
+        while ((c = read()) != -1) {
+            if (c == '\n') {
+                pushedBack = c;
+                return;
+            }
+        }
+    }
+
+    private void skipBlockComment() throws IOException {
+        int previous = 0;
+        int c;
+        while ((c = read()) != -1) {
+            if (c == '\n') {
+                line++;
+            } else if (previous == '*' && c == '/') {
+                return;
+            }
+            previous = c;
+        }
+    }
+
+    /**
+     * Skips a string literal; a doubled quote is a quote, as is a backslash escaped one for MySQL.
+     */
+    private void skipString() throws IOException {
+        int c;
+        while ((c = read()) != -1) {
+            if (c == '\n') {
+                line++;
+            } else if (c == '\\' && dialect == SqlDialect.MYSQL) {
+                if (read() == '\n') {
+                    line++;
+                }
+            } else if (c == '\'') {
+                if (peek() != '\'') {
+                    return;
+                }
+                read();
+            }
+        }
+    }
+
+    private void quotedIdentifier(int open, int close) throws IOException {
+        append(open);
+        int c;
+        while ((c = read()) != -1) {
+            if (c == '\n') {
+                line++;
+            }
+            append(c);
+            if (c == close) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Skips a PostgreSQL dollar quoted string such as {@code $body$ ... $body$}, or keeps a {@code $} which does not
+     * start one.
+     */
+    private void dollar() throws IOException {
+        StringBuilder tag = new StringBuilder("$");
+        int c;
+        while ((c = read()) != -1 && (Character.isLetterOrDigit(c) || c == '_') && !(tag.length() == 1
+                && Character.isDigit(c))) {
+            tag.append((char) c);
+        }
+        if (c != '$') {
+            for (int i = 0; i < tag.length(); i++) {
+                append(tag.charAt(i));
+            }
+            pushedBack = c;
+            return;
+        }
+        String end = tag.append('$').toString();
+        StringBuilder tail = new StringBuilder();
+        while ((c = read()) != -1) {
+            if (c == '\n') {
+                line++;
+            }
+            tail.append((char) c);
+            if (tail.length() > end.length()) {
+                tail.deleteCharAt(0);
+            }
+            if (c == '$' && tail.toString().equals(end)) {
+                break;
+            }
+        }
+        append('\'');
+        append('\'');
+    }
+
+    private static boolean endsWith(StringBuilder builder, String suffix) {
+        int offset = builder.length() - suffix.length();
+        return offset >= 0 && builder.indexOf(suffix, offset) == offset;
+    }
+
+    private int read() throws IOException {
+        if (pushedBack != -1) {
+            int c = pushedBack;
+            pushedBack = -1;
+            return c;
+        }
+        return reader.read();
+    }
+
+    private int peek() throws IOException {
+        if (pushedBack == -1) {
+            pushedBack = reader.read();
+        }
+        return pushedBack;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+}
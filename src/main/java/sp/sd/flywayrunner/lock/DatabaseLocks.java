@@ -0,0 +1,458 @@
+package sp.sd.flywayrunner.lock;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Extension;
+import hudson.model.ManagementLink;
+import hudson.model.Queue;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.model.listeners.RunListener;
+import hudson.model.queue.CauseOfBlockage;
+import hudson.model.queue.QueueListener;
+import hudson.security.Permission;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import jenkins.model.Jenkins;
+import jenkins.util.Timer;
+import sp.sd.flywayrunner.builder.Util;
+
+/**
+ * Lets one Flyway step at a time work on a database, so that steps of other builds wait in Jenkins, in the order they
+ * asked, instead of each holding a connection while polling Flyway's schema history lock.  Databases are identified
+ * by their JDBC url without credentials and properties.
+ * <p>
+ * Freestyle builds are held in the queue, before they take an executor, until the databases of their steps are free;
+ * the build then holds them until it completes.  Pipeline steps {@link #request} the database and are called back
+ * when it is theirs, so no thread waits for it.  Steps which only know their database once they run, such as those
+ * whose url comes from the environment of the build, {@link #acquire} it and wait in their thread.  The page under
+ * Manage Jenkins lists which build holds each database and who waits.
+ */
+@Extension
+public class DatabaseLocks extends ManagementLink {
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Map<String, Lane> lanes = new TreeMap<>();
+
+    public static DatabaseLocks get() {
+        return ManagementLink.all().get(DatabaseLocks.class);
+    }
+
+    /**
+     * A build, or a queued item, holding or waiting for a database.
+     */
+    public static final class Holder {
+        private final String name;
+        private final String url;
+        private final long queueId;
+        private final Runnable granted;
+        private long since;
+
+        Holder(String name, String url) {
+            this(name, url, Run.QUEUE_ID_UNKNOWN, null);
+        }
+
+        private Holder(String name, String url, long queueId, Runnable granted) {
+            this.name = name;
+            this.url = url;
+            this.queueId = queueId;
+            this.granted = granted;
+            this.since = System.currentTimeMillis();
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return the url of the build or queue item relative to the root url of Jenkins.
+         */
+        public String getUrl() {
+            return url;
+        }
+
+        /**
+         * @return milliseconds since the build started waiting, or since it acquired the database.
+         */
+        public long getDurationMillis() {
+            return System.currentTimeMillis() - since;
+        }
+
+        public String getDuration() {
+            return hudson.Util.getTimeSpanString(getDurationMillis());
+        }
+
+        private boolean isQueued() {
+            return queueId != Run.QUEUE_ID_UNKNOWN;
+        }
+    }
+
+    /**
+     * The build holding a database and those waiting for it, oldest first.
+     */
+    public static final class Lane {
+        private final String database;
+        private final Condition released;
+        private Holder holder;
+        private final Deque<Holder> waiting = new ArrayDeque<>();
+
+        Lane(String database, Condition released) {
+            this.database = database;
+            this.released = released;
+        }
+
+        public String getDatabase() {
+            return database;
+        }
+
+        public Holder getHolder() {
+            return holder;
+        }
+
+        public List<Holder> getWaiting() {
+            return new ArrayList<>(waiting);
+        }
+    }
+
+    /**
+     * Releases the database when closed, or gives up waiting for it.
+     */
+    public interface Lease extends AutoCloseable {
+        @Override
+        void close();
+    }
+
+    /**
+     * @return the key identifying the database of a JDBC url, without its properties.
+     */
+    public static String keyOf(String url) {
+        String key = Util.sanitizeUrl(url.trim()).split("[?;]", 2)[0];
+        while (key.endsWith("/")) {
+            key = key.substring(0, key.length() - 1);
+        }
+        return key.toLowerCase(Locale.ENGLISH);
+    }
+
+    private Lane laneOf(String database) {
+        return lanes.computeIfAbsent(database, key -> new Lane(key, lock.newCondition()));
+    }
+
+    /**
+     * Blocks until the build is first in line for the database and nobody holds it.  Returns at once if the database
+     * was reserved for the build while it was queued; it is then released when the build completes.
+     * @param url expanded JDBC url of the database.
+     */
+    public Lease acquire(String url, Run<?, ?> run, TaskListener listener) throws InterruptedException {
+        String database = keyOf(url);
+        lock.lock();
+        try {
+            Lane lane = lanes.get(database);
+            if (lane != null
+                    && lane.holder != null
+                    && lane.holder.isQueued()
+                    && lane.holder.queueId == run.getQueueId()) {
+                return () -> {};
+            }
+        } finally {
+            lock.unlock();
+        }
+        return acquire(database, new Holder(run.getFullDisplayName(), run.getUrl()), listener);
+    }
+
+    Lease acquire(String database, Holder holder, TaskListener listener) throws InterruptedException {
+        lock.lock();
+        try {
+            Lane lane = enqueue(database, holder, listener);
+            try {
+                while (lane.holder != holder) {
+                    lane.released.await();
+                }
+            } catch (InterruptedException e) {
+                leave(lane, holder);
+                throw e;
+            }
+        } finally {
+            lock.unlock();
+        }
+        logAcquired(database, holder, listener);
+        return () -> release(database, holder);
+    }
+
+    /**
+     * Puts the build in line for the database without waiting for it.
+     * @param url expanded JDBC url of the database.
+     * @param granted called, from a timer thread, once the database is the build's; it may be called before this
+     *     method returns.
+     * @return the lease to close once the database is no longer needed, or to give up waiting.
+     */
+    public Lease request(String url, Run<?, ?> run, TaskListener listener, Runnable granted) {
+        return request(keyOf(url), run.getFullDisplayName(), run.getUrl(), listener, granted);
+    }
+
+    Lease request(String database, String name, String url, TaskListener listener, Runnable granted) {
+        long asked = System.currentTimeMillis();
+        Holder holder = new Holder(name, url, Run.QUEUE_ID_UNKNOWN, () -> {
+            long waited = System.currentTimeMillis() - asked;
+            if (waited >= TimeUnit.SECONDS.toMillis(1)) {
+                listener.getLogger()
+                        .println("Acquired " + database + " after waiting " + hudson.Util.getTimeSpanString(waited));
+            }
+            granted.run();
+        });
+        lock.lock();
+        try {
+            enqueue(database, holder, listener);
+        } finally {
+            lock.unlock();
+        }
+        return () -> release(database, holder);
+    }
+
+    private Lane enqueue(String database, Holder holder, TaskListener listener) {
+        Lane lane = laneOf(database);
+        lane.waiting.add(holder);
+        if (lane.holder != null || lane.waiting.peek() != holder) {
+            listener.getLogger()
+                    .println("Waiting for " + database + ", held by "
+                            + (lane.holder == null ? "nobody" : lane.holder.getName()) + ", "
+                            + (lane.waiting.size() - 1) + " build(s) ahead");
+        }
+        grant(lane);
+        return lane;
+    }
+
+    private static void logAcquired(String database, Holder holder, TaskListener listener) {
+        long waited = holder.getDurationMillis();
+        holder.since = System.currentTimeMillis();
+        if (waited >= TimeUnit.SECONDS.toMillis(1)) {
+            listener.getLogger()
+                    .println("Acquired " + database + " after waiting " + hudson.Util.getTimeSpanString(waited));
+        }
+    }
+
+    /**
+     * Hands a free database to the first in line.  Queued items are not handed the database here, the queue is told
+     * to check them again instead, so that an item never holds some of its databases while it waits for others.
+     * Must be called with the lock held.
+     */
+    private void grant(Lane lane) {
+        if (lane.holder != null || lane.waiting.isEmpty()) {
+            return;
+        }
+        Holder next = lane.waiting.peek();
+        if (next.isQueued()) {
+            Jenkins jenkins = Jenkins.getInstanceOrNull();
+            if (jenkins != null) {
+                jenkins.getQueue().scheduleMaintenance();
+            }
+            return;
+        }
+        lane.waiting.poll();
+        lane.holder = next;
+        lane.released.signalAll();
+        if (next.granted != null) {
+            next.since = System.currentTimeMillis();
+            Timer.get().submit(next.granted);
+        }
+    }
+
+    /**
+     * Releases the database if the holder has it, otherwise takes the holder out of line.
+     */
+    private void release(String database, Holder holder) {
+        lock.lock();
+        try {
+            Lane lane = lanes.get(database);
+            if (lane != null) {
+                leave(lane, holder);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void leave(Lane lane, Holder holder) {
+        if (lane.holder == holder) {
+            lane.holder = null;
+        } else {
+            lane.waiting.remove(holder);
+        }
+        grant(lane);
+        removeIfIdle(lane);
+    }
+
+    private void removeIfIdle(Lane lane) {
+        if (lane.holder == null && lane.waiting.isEmpty()) {
+            lanes.remove(lane.database);
+        }
+    }
+
+    /**
+     * Reserves the databases for a queued item if all of them are free and nobody queued before it waits for them;
+     * otherwise puts the item in line for those it does not have yet.
+     * @param urls expanded JDBC urls of the databases the item's steps work on.
+     * @return why the item has to stay in the queue, {@code null} once the databases are reserved for it.
+     */
+    public CauseOfBlockage reserve(Collection<String> urls, Queue.Item item) {
+        Set<String> databases = new TreeSet<>();
+        for (String url : urls) {
+            databases.add(keyOf(url));
+        }
+        return reserve(databases, item.getId(), item.task.getFullDisplayName(), item.getUrl());
+    }
+
+    CauseOfBlockage reserve(Set<String> databases, long queueId, String name, String url) {
+        lock.lock();
+        try {
+            Lane blocking = null;
+            List<Lane> needed = new ArrayList<>();
+            for (String database : databases) {
+                Lane lane = laneOf(database);
+                if (lane.holder != null && lane.holder.queueId == queueId) {
+                    continue;
+                }
+                needed.add(lane);
+                Holder first = lane.waiting.peek();
+                if (blocking == null && (lane.holder != null || first != null && first.queueId != queueId)) {
+                    blocking = lane;
+                }
+            }
+            if (blocking != null) {
+                for (Lane lane : needed) {
+                    if (lane.waiting.stream().noneMatch(waiter -> waiter.queueId == queueId)) {
+                        lane.waiting.add(new Holder(name, url, queueId, null));
+                    }
+                }
+                return new WaitingForDatabase(blocking.database, blocking.holder);
+            }
+            for (Lane lane : needed) {
+                lane.waiting.removeIf(waiter -> waiter.queueId == queueId);
+                lane.holder = new Holder(name, url, queueId, null);
+            }
+            return null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Takes a queue item out of every line, and with {@code release} also gives up the databases reserved for it.
+     */
+    void leave(long queueId, boolean release) {
+        lock.lock();
+        try {
+            for (Lane lane : new ArrayList<>(lanes.values())) {
+                lane.waiting.removeIf(waiter -> waiter.queueId == queueId);
+                if (release && lane.holder != null && lane.holder.queueId == queueId) {
+                    lane.holder = null;
+                }
+                grant(lane);
+                removeIfIdle(lane);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Why a queued build waits.
+     */
+    static final class WaitingForDatabase extends CauseOfBlockage {
+        private final String database;
+        private final String holder;
+
+        WaitingForDatabase(String database, Holder holder) {
+            this.database = database;
+            this.holder = holder == null ? null : holder.getName();
+        }
+
+        @Override
+        public String getShortDescription() {
+            return "Waiting for the database " + database + (holder == null ? "" : ", held by " + holder);
+        }
+    }
+
+    /**
+     * Forgets queue items which leave the queue and gives up the databases of cancelled ones.
+     */
+    @Extension
+    public static final class QueueCleanup extends QueueListener {
+        @Override
+        public void onLeft(Queue.LeftItem item) {
+            get().leave(item.getId(), item.isCancelled());
+        }
+    }
+
+    /**
+     * Releases the databases reserved for a build once it completes.
+     */
+    @Extension
+    public static final class RunCleanup extends RunListener<Run<?, ?>> {
+        @Override
+        public void onCompleted(Run<?, ?> run, @NonNull TaskListener listener) {
+            if (run.getQueueId() != Run.QUEUE_ID_UNKNOWN) {
+                get().leave(run.getQueueId(), true);
+            }
+        }
+    }
+
+    /**
+     * @return databases which are held or waited for.
+     */
+    public List<Lane> getLanes() {
+        lock.lock();
+        try {
+            List<Lane> result = new ArrayList<>();
+            for (Lane lane : lanes.values()) {
+                Lane copy = new Lane(lane.database, null);
+                copy.holder = lane.holder;
+                copy.waiting.addAll(lane.waiting);
+                result.add(copy);
+            }
+            return Collections.unmodifiableList(result);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public String getIconFileName() {
+        return "lock.png";
+    }
+
+    @Override
+    public String getDisplayName() {
+        return "Flyway Database Locks";
+    }
+
+    @Override
+    public String getDescription() {
+        return "Builds holding and waiting for databases migrated with Flyway";
+    }
+
+    @Override
+    public String getUrlName() {
+        return "flyway-locks";
+    }
+
+    @Override
+    public Permission getRequiredPermission() {
+        return Jenkins.SYSTEM_READ;
+    }
+
+    @Override
+    public Category getCategory() {
+        return Category.STATUS;
+    }
+}
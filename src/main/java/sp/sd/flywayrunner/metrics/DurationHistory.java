@@ -0,0 +1,168 @@
+package sp.sd.flywayrunner.metrics;
+
+import hudson.model.Job;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import jenkins.util.SystemProperties;
+
+/**
+ * Durations of Flyway steps and migrations of a job, kept in one tab separated file in the job's directory rather
+ * than in every build.xml.  The file is compacted to its newest half once it exceeds {@link #MAX_SIZE_KILOBYTES}.
+ */
+public final class DurationHistory {
+    static final String FILE_NAME = "flyway-durations.tsv";
+
+    /**
+     * Size above which the oldest half of the history is dropped.
+     */
+    private static final long MAX_SIZE_KILOBYTES =
+            SystemProperties.getLong(DurationHistory.class.getName() + ".maxSizeKilobytes", 1024L);
+
+    private static final Map<String, Object> LOCKS = new ConcurrentHashMap<>();
+
+    private DurationHistory() {}
+
+    public enum Kind {
+        STEP,
+        MIGRATION,
+        /**
+         * Reachability check of the database before Flyway is started.
+         */
+        REACHABILITY
+    }
+
+    /**
+     * One recorded duration.
+     */
+    public static final class Entry {
+        private final int build;
+        private final Kind kind;
+        private final String target;
+        private final String migration;
+        private final long millis;
+
+        public Entry(int build, Kind kind, String target, String migration, long millis) {
+            this.build = build;
+            this.kind = kind;
+            this.target = clean(target);
+            this.migration = clean(migration);
+            this.millis = millis;
+        }
+
+        public int getBuild() {
+            return build;
+        }
+
+        public Kind getKind() {
+            return kind;
+        }
+
+        public String getTarget() {
+            return target;
+        }
+
+        /**
+         * @return version and description of the migration, empty for steps.
+         */
+        public String getMigration() {
+            return migration;
+        }
+
+        public long getMillis() {
+            return millis;
+        }
+
+        private String toLine() {
+            return build + "\t" + kind + "\t" + target + "\t" + migration + "\t" + millis;
+        }
+
+        private static Entry fromLine(String line) {
+            String[] fields = line.split("\t", -1);
+            if (fields.length != 5) {
+                return null;
+            }
+            try {
+                return new Entry(
+                        Integer.parseInt(fields[0]),
+                        Kind.valueOf(fields[1]),
+                        fields[2],
+                        fields[3],
+                        Long.parseLong(fields[4]));
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+        }
+
+        private static String clean(String value) {
+            return value == null ? "" : value.replace('\t', ' ').replace('\n', ' ').replace('\r', ' ');
+        }
+    }
+
+    static File fileOf(Job<?, ?> job) {
+        return new File(job.getRootDir(), FILE_NAME);
+    }
+
+    public static void append(Job<?, ?> job, List<Entry> entries) throws IOException {
+        if (entries.isEmpty()) {
+            return;
+        }
+        File file = fileOf(job);
+        synchronized (lockOf(file)) {
+            try (Writer writer = Files.newBufferedWriter(
+                    file.toPath(), StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+                for (Entry entry : entries) {
+                    writer.write(entry.toLine());
+                    writer.write('\n');
+                }
+            }
+            compactIfNeeded(file);
+        }
+    }
+
+    /**
+     * @return all entries of the job, oldest first.
+     */
+    public static List<Entry> read(Job<?, ?> job) throws IOException {
+        File file = fileOf(job);
+        List<Entry> entries = new ArrayList<>();
+        if (!file.isFile()) {
+            return entries;
+        }
+        synchronized (lockOf(file)) {
+            try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    Entry entry = Entry.fromLine(line);
+                    if (entry != null) {
+                        entries.add(entry);
+                    }
+                }
+            }
+        }
+        return entries;
+    }
+
+    private static void compactIfNeeded(File file) throws IOException {
+        if (file.length() <= MAX_SIZE_KILOBYTES * 1024) {
+            return;
+        }
+        List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+        File temp = new File(file.getParentFile(), FILE_NAME + ".tmp");
+        Files.write(temp.toPath(), lines.subList(lines.size() / 2, lines.size()), StandardCharsets.UTF_8);
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static Object lockOf(File file) {
+        return LOCKS.computeIfAbsent(file.getAbsolutePath(), key -> new Object());
+    }
+}
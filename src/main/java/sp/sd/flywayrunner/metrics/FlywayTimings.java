@@ -0,0 +1,95 @@
+package sp.sd.flywayrunner.metrics;
+
+import com.codahale.metrics.MetricRegistry;
+import hudson.model.Job;
+import hudson.model.Run;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import jenkins.metrics.api.Metrics;
+import jenkins.model.Jenkins;
+import sp.sd.flywayrunner.results.FlywayCommandResult;
+import sp.sd.flywayrunner.results.FlywayMigration;
+
+/**
+ * Records the duration of Flyway steps, of the migrations they applied and of database reachability checks, in the
+ * job's {@link DurationHistory} and, when the Metrics plugin is installed, as histograms per job and target.
+ */
+public final class FlywayTimings {
+    private static final Logger LOG = Logger.getLogger(FlywayTimings.class.getName());
+    private static final String MIGRATE = "migrate";
+
+    private FlywayTimings() {}
+
+    /**
+     * @param target sanitized name of the target the step ran against.
+     * @param stepMillis wall-clock duration of the step for this target.
+     * @param results structured results of the step, may be empty.
+     */
+    public static void record(Run<?, ?> run, String target, long stepMillis, List<FlywayCommandResult> results) {
+        List<DurationHistory.Entry> entries = new ArrayList<>();
+        entries.add(new DurationHistory.Entry(run.getNumber(), DurationHistory.Kind.STEP, target, null, stepMillis));
+        for (FlywayCommandResult result : results) {
+            if (!MIGRATE.equals(result.getOperation())) {
+                continue;
+            }
+            for (FlywayMigration migration : result.getMigrations()) {
+                if (migration.getExecutionTime() != null) {
+                    entries.add(new DurationHistory.Entry(
+                            run.getNumber(),
+                            DurationHistory.Kind.MIGRATION,
+                            target,
+                            nameOf(migration),
+                            migration.getExecutionTime()));
+                }
+            }
+        }
+        append(run, entries);
+    }
+
+    /**
+     * @param target sanitized name of the target which was checked.
+     * @param millis time it took to reach the database.
+     */
+    public static void recordReachability(Run<?, ?> run, String target, long millis) {
+        List<DurationHistory.Entry> entries = new ArrayList<>();
+        entries.add(
+                new DurationHistory.Entry(run.getNumber(), DurationHistory.Kind.REACHABILITY, target, null, millis));
+        append(run, entries);
+    }
+
+    private static void append(Run<?, ?> run, List<DurationHistory.Entry> entries) {
+        Job<?, ?> job = run.getParent();
+        try {
+            DurationHistory.append(job, entries);
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, "Failed to record Flyway durations of " + run, e);
+        }
+        Jenkins jenkins = Jenkins.getInstanceOrNull();
+        if (jenkins != null && jenkins.getPlugin("metrics") != null) {
+            MetricsBridge.update(job.getFullName(), entries);
+        }
+    }
+
+    static String nameOf(FlywayMigration migration) {
+        String version = migration.getVersion() == null ? "" : migration.getVersion();
+        return (version + " " + migration.getDescription()).trim();
+    }
+
+    /**
+     * Only loaded when the optional Metrics plugin is installed.
+     */
+    private static final class MetricsBridge {
+        static void update(String jobName, List<DurationHistory.Entry> entries) {
+            MetricRegistry registry = Metrics.metricRegistry();
+            for (DurationHistory.Entry entry : entries) {
+                String kind = entry.getKind().name().toLowerCase(Locale.ENGLISH);
+                registry.histogram(MetricRegistry.name("flyway", kind, "duration", jobName, entry.getTarget()))
+                        .update(entry.getMillis());
+            }
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package sp.sd.flywayrunner.metrics;
+
+import hudson.Extension;
+import hudson.model.Action;
+import hudson.model.Job;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import jenkins.model.TransientActionFactory;
+import jenkins.util.SystemProperties;
+
+/**
+ * Shows Flyway step and migration durations across the builds of a job and flags those which regressed: the latest
+ * duration exceeds the median of the earlier ones by {@link #REGRESSION_FACTOR} and by at least
+ * {@link #REGRESSION_MIN_MILLIS}.  Migrations are compared across targets, so a migration which is slow in production
+ * but was quick in staging is flagged; steps are compared per target.
+ */
+public class FlywayTrendAction implements Action {
+    private static final double REGRESSION_FACTOR = Double.parseDouble(
+            SystemProperties.getString(FlywayTrendAction.class.getName() + ".regressionFactor", "2.0"));
+    private static final long REGRESSION_MIN_MILLIS =
+            SystemProperties.getLong(FlywayTrendAction.class.getName() + ".regressionMinMillis", 1000L);
+    private static final int BASELINE_SIZE = 10;
+    private static final int RECENT_STEPS = 30;
+
+    private final Job<?, ?> job;
+
+    FlywayTrendAction(Job<?, ?> job) {
+        this.job = job;
+    }
+
+    public Job<?, ?> getJob() {
+        return job;
+    }
+
+    /**
+     * A duration compared to the median of earlier durations of the same step or migration.
+     */
+    public static final class Trend {
+        private final DurationHistory.Entry latest;
+        private final long baselineMillis;
+        private final int samples;
+
+        Trend(DurationHistory.Entry latest, long baselineMillis, int samples) {
+            this.latest = latest;
+            this.baselineMillis = baselineMillis;
+            this.samples = samples;
+        }
+
+        public DurationHistory.Entry getLatest() {
+            return latest;
+        }
+
+        public long getBaselineMillis() {
+            return baselineMillis;
+        }
+
+        public int getSamples() {
+            return samples;
+        }
+
+        public boolean isRegression() {
+            return samples > 0
+                    && latest.getMillis() > baselineMillis * REGRESSION_FACTOR
+                    && latest.getMillis() - baselineMillis >= REGRESSION_MIN_MILLIS;
+        }
+    }
+
+    /**
+     * @return the latest duration of every step target and migration, compared to its baseline.
+     */
+    public List<Trend> getTrends() throws IOException {
+        Map<String, List<DurationHistory.Entry>> groups = new LinkedHashMap<>();
+        for (DurationHistory.Entry entry : DurationHistory.read(job)) {
+            String key = entry.getKind() == DurationHistory.Kind.MIGRATION
+                    ? "M\t" + entry.getMigration()
+                    : entry.getKind() + "\t" + entry.getTarget();
+            groups.computeIfAbsent(key, k -> new ArrayList<>()).add(entry);
+        }
+        List<Trend> trends = new ArrayList<>();
+        for (List<DurationHistory.Entry> entries : groups.values()) {
+            DurationHistory.Entry latest = entries.get(entries.size() - 1);
+            List<DurationHistory.Entry> earlier =
+                    entries.subList(Math.max(0, entries.size() - 1 - BASELINE_SIZE), entries.size() - 1);
+            trends.add(new Trend(latest, median(earlier), earlier.size()));
+        }
+        return trends;
+    }
+
+    public List<Trend> getRegressions() throws IOException {
+        List<Trend> regressions = new ArrayList<>();
+        for (Trend trend : getTrends()) {
+            if (trend.isRegression()) {
+                regressions.add(trend);
+            }
+        }
+        return regressions;
+    }
+
+    /**
+     * @return the most recent step durations, newest first.
+     */
+    public List<DurationHistory.Entry> getRecentSteps() throws IOException {
+        List<DurationHistory.Entry> steps = new ArrayList<>();
+        for (DurationHistory.Entry entry : DurationHistory.read(job)) {
+            if (entry.getKind() == DurationHistory.Kind.STEP) {
+                steps.add(entry);
+            }
+        }
+        Collections.reverse(steps);
+        return steps.subList(0, Math.min(RECENT_STEPS, steps.size()));
+    }
+
+    private static long median(List<DurationHistory.Entry> entries) {
+        if (entries.isEmpty()) {
+            return 0;
+        }
+        List<Long> values = new ArrayList<>();
+        for (DurationHistory.Entry entry : entries) {
+            values.add(entry.getMillis());
+        }
+        Collections.sort(values);
+        return values.get(values.size() / 2);
+    }
+
+    @Override
+    public String getIconFileName() {
+        return "graph.png";
+    }
+
+    @Override
+    public String getDisplayName() {
+        return "Flyway Trend";
+    }
+
+    @Override
+    public String getUrlName() {
+        return "flyway-trend";
+    }
+
+    @Extension
+    @SuppressWarnings("rawtypes")
+    public static class Factory extends TransientActionFactory<Job> {
+        @Override
+        public Class<Job> type() {
+            return Job.class;
+        }
+
+        @Override
+        public Collection<? extends Action> createFor(Job target) {
+            if (!DurationHistory.fileOf(target).isFile()) {
+                return Collections.emptyList();
+            }
+            return Collections.singletonList(new FlywayTrendAction(target));
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package sp.sd.flywayrunner.results;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+/**
+ * Structured outcome of one Flyway command against one target.
+ */
+@ExportedBean(defaultVisibility = 2)
+public class FlywayCommandResult implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private String target;
+    private final String operation;
+    private final boolean success;
+    private final String errorMessage;
+    private final List<FlywayMigration> migrations;
+    private String sqlState;
+    private String errorCode;
+    private String failedStatement;
+
+    public FlywayCommandResult(
+            String operation, boolean success, String errorMessage, List<FlywayMigration> migrations) {
+        this.operation = operation;
+        this.success = success;
+        this.errorMessage = errorMessage;
+        this.migrations = new ArrayList<>(migrations);
+    }
+
+    /**
+     * @return the database the command ran against.
+     */
+    @Exported
+    public String getTarget() {
+        return target;
+    }
+
+    public void setTarget(String target) {
+        this.target = target;
+    }
+
+    /**
+     * @return migrate, info, validate, ...
+     */
+    @Exported
+    public String getOperation() {
+        return operation;
+    }
+
+    @Exported
+    public boolean isSuccess() {
+        return success;
+    }
+
+    @Exported
+    public String getErrorMessage() {
+        return errorMessage;
+    }
+
+    @Exported
+    public List<FlywayMigration> getMigrations() {
+        return Collections.unmodifiableList(migrations);
+    }
+
+    /**
+     * @return the SQL state of the error which failed the command, if known.
+     */
+    @Exported
+    public String getSqlState() {
+        return sqlState;
+    }
+
+    public void setSqlState(String sqlState) {
+        this.sqlState = sqlState;
+    }
+
+    /**
+     * @return the vendor error code of the error which failed the command, if known.
+     */
+    @Exported
+    public String getErrorCode() {
+        return errorCode;
+    }
+
+    public void setErrorCode(String errorCode) {
+        this.errorCode = errorCode;
+    }
+
+    /**
+     * @return the SQL statement which failed the command, if known.
+     */
+    @Exported
+    public String getFailedStatement() {
+        return failedStatement;
+    }
+
+    public void setFailedStatement(String failedStatement) {
+        this.failedStatement = failedStatement;
+    }
+
+    /**
+     * @return the result as plain maps and lists, which pipeline scripts can read without approval.
+     */
+    public HashMap<String, Object> toMap() {
+        HashMap<String, Object> map = new HashMap<>();
+        map.put("target", target);
+        map.put("operation", operation);
+        map.put("success", success);
+        map.put("errorMessage", errorMessage);
+        map.put("sqlState", sqlState);
+        map.put("errorCode", errorCode);
+        map.put("failedStatement", failedStatement);
+        ArrayList<Object> migrationMaps = new ArrayList<>();
+        for (FlywayMigration migration : migrations) {
+            migrationMaps.add(migration.toMap());
+        }
+        map.put("migrations", migrationMaps);
+        return map;
+    }
+}
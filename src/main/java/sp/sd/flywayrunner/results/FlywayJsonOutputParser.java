@@ -0,0 +1,259 @@
+package sp.sd.flywayrunner.results;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.async.ByteArrayFeeder;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Parses the output of Flyway's {@code -outputType=json} as it is written, without buffering the whole output.
+ * Text before the first JSON object is ignored, as is anything the parser cannot make sense of; it then resumes at
+ * the next object.  Both single command results and the {@code individualResults} of several commands are
+ * understood.
+ */
+public class FlywayJsonOutputParser extends OutputStream {
+    private static final Logger LOG = Logger.getLogger(FlywayJsonOutputParser.class.getName());
+    private static final JsonFactory FACTORY = new JsonFactory();
+    private static final String INDIVIDUAL_RESULTS = "individualResults";
+    private static final String MIGRATIONS = "migrations";
+    private static final String ERROR = "error";
+
+    private final List<FlywayCommandResult> results = new ArrayList<>();
+
+    private JsonParser parser;
+    private boolean started;
+    private final Deque<Frame> stack = new ArrayDeque<>();
+    private String field;
+    private boolean composite;
+    private CommandBuilder command;
+    private int commandDepth;
+    private MigrationBuilder migration;
+
+    private static final class Frame {
+        private final String name;
+        private final boolean array;
+
+        private Frame(String name, boolean array) {
+            this.name = name;
+            this.array = array;
+        }
+    }
+
+    /**
+     * @return the results of the commands completely parsed so far.
+     */
+    public synchronized List<FlywayCommandResult> getResults() {
+        return Collections.unmodifiableList(new ArrayList<>(results));
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public synchronized void write(byte[] b, int off, int len) throws IOException {
+        int start = off;
+        int end = off + len;
+        if (!started) {
+            while (start < end && b[start] != '{') {
+                start++;
+            }
+            if (start == end) {
+                return;
+            }
+            started = true;
+            parser = FACTORY.createNonBlockingByteArrayParser();
+        }
+        try {
+            ((ByteArrayFeeder) parser.getNonBlockingInputFeeder()).feedInput(b, start, end);
+            drain();
+        } catch (IOException e) {
+            LOG.log(Level.FINE, "Ignoring output which is not Flyway JSON", e);
+            reset();
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (parser != null) {
+            try {
+                ((ByteArrayFeeder) parser.getNonBlockingInputFeeder()).endOfInput();
+                drain();
+            } catch (IOException e) {
+                LOG.log(Level.FINE, "Ignoring incomplete Flyway JSON", e);
+            }
+            parser.close();
+        }
+    }
+
+    private void reset() throws IOException {
+        parser.close();
+        parser = null;
+        started = false;
+        stack.clear();
+        field = null;
+        composite = false;
+        command = null;
+        migration = null;
+    }
+
+    private void drain() throws IOException {
+        JsonToken token;
+        while ((token = parser.nextToken()) != null && token != JsonToken.NOT_AVAILABLE) {
+            switch (token) {
+                case FIELD_NAME:
+                    field = parser.currentName();
+                    break;
+                case START_OBJECT:
+                    startObject();
+                    break;
+                case START_ARRAY:
+                    stack.push(new Frame(field, true));
+                    if (INDIVIDUAL_RESULTS.equals(field) && stack.size() == 2) {
+                        composite = true;
+                    }
+                    break;
+                case END_OBJECT:
+                    endObject();
+                    stack.pop();
+                    break;
+                case END_ARRAY:
+                    stack.pop();
+                    break;
+                default:
+                    value(token);
+                    break;
+            }
+        }
+    }
+
+    private void startObject() {
+        Frame parent = stack.peek();
+        stack.push(new Frame(parent != null && parent.array ? parent.name : field, false));
+        int depth = stack.size();
+        if (depth == 1) {
+            command = new CommandBuilder();
+            commandDepth = depth;
+            composite = false;
+        } else if (parent.array && INDIVIDUAL_RESULTS.equals(parent.name) && depth == 3) {
+            command = new CommandBuilder();
+            commandDepth = depth;
+        } else if (command != null && parent.array && MIGRATIONS.equals(parent.name) && depth == commandDepth + 2) {
+            migration = new MigrationBuilder();
+        }
+    }
+
+    private void endObject() {
+        int depth = stack.size();
+        if (migration != null && depth == commandDepth + 2) {
+            command.migrations.add(migration.build());
+            migration = null;
+        } else if (command != null && depth == commandDepth) {
+            if (!(composite && depth == 1)) {
+                results.add(command.build());
+            }
+            command = null;
+        }
+    }
+
+    private void value(JsonToken token) throws IOException {
+        Frame top = stack.peek();
+        if (top == null || top.array) {
+            return;
+        }
+        int depth = stack.size();
+        String text = token == JsonToken.VALUE_NULL ? null : parser.getText();
+        if (migration != null && depth == commandDepth + 2) {
+            migration.set(field, text);
+        } else if (command != null && depth == commandDepth) {
+            command.set(field, text);
+        } else if (command != null && depth == commandDepth + 1 && ERROR.equals(top.name)) {
+            command.error(field, text);
+        }
+    }
+
+    private static final class CommandBuilder {
+        private String operation;
+        private Boolean success;
+        private String errorMessage;
+        private final List<FlywayMigration> migrations = new ArrayList<>();
+
+        void set(String name, String value) {
+            if ("operation".equals(name)) {
+                operation = value;
+            } else if ("success".equals(name) || "validationSuccessful".equals(name)) {
+                success = Boolean.valueOf(value);
+            }
+        }
+
+        void error(String name, String value) {
+            success = false;
+            if ("message".equals(name)) {
+                errorMessage = value;
+            }
+        }
+
+        FlywayCommandResult build() {
+            return new FlywayCommandResult(operation, success == null || success, errorMessage, migrations);
+        }
+    }
+
+    private static final class MigrationBuilder {
+        private String category;
+        private String version;
+        private String description;
+        private String type;
+        private String state;
+        private Integer executionTime;
+
+        void set(String name, String value) {
+            if (name == null) {
+                return;
+            }
+            switch (name) {
+                case "category":
+                    category = value;
+                    break;
+                case "version":
+                    version = value;
+                    break;
+                case "description":
+                    description = value;
+                    break;
+                case "type":
+                    type = value;
+                    break;
+                case "state":
+                    state = value;
+                    break;
+                case "executionTime":
+                    executionTime = parseInteger(value);
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        private static Integer parseInteger(String value) {
+            try {
+                return value == null ? null : Integer.valueOf(value);
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+
+        FlywayMigration build() {
+            return new FlywayMigration(category, version, description, type, state, executionTime);
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package sp.sd.flywayrunner.results;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+/**
+ * A migration reported by Flyway, either applied by the command or listed by {@code info}.
+ */
+@ExportedBean(defaultVisibility = 2)
+public class FlywayMigration implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final String category;
+    private final String version;
+    private final String description;
+    private final String type;
+    private final String state;
+    private final Integer executionTime;
+
+    public FlywayMigration(
+            String category, String version, String description, String type, String state, Integer executionTime) {
+        this.category = category;
+        this.version = version;
+        this.description = description;
+        this.type = type;
+        this.state = state;
+        this.executionTime = executionTime;
+    }
+
+    /**
+     * @return Versioned, Repeatable, ... or null if Flyway did not report it.
+     */
+    @Exported
+    public String getCategory() {
+        return category;
+    }
+
+    /**
+     * @return the version, empty for repeatable migrations.
+     */
+    @Exported
+    public String getVersion() {
+        return version;
+    }
+
+    @Exported
+    public String getDescription() {
+        return description;
+    }
+
+    @Exported
+    public String getType() {
+        return type;
+    }
+
+    /**
+     * @return the state reported by {@code info}, null for migrations applied by {@code migrate}.
+     */
+    @Exported
+    public String getState() {
+        return state;
+    }
+
+    /**
+     * @return execution time in milliseconds, null for migrations which have not been applied.
+     */
+    @Exported
+    public Integer getExecutionTime() {
+        return executionTime;
+    }
+
+    /**
+     * @see FlywayCommandResult#toMap
+     */
+    public HashMap<String, Object> toMap() {
+        HashMap<String, Object> map = new HashMap<>();
+        map.put("category", category);
+        map.put("version", version);
+        map.put("description", description);
+        map.put("type", type);
+        map.put("state", state);
+        map.put("executionTime", executionTime);
+        return map;
+    }
+}
@@ -0,0 +1,95 @@
+package sp.sd.flywayrunner.results;
+
+import hudson.model.Api;
+import hudson.model.Run;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import jenkins.model.RunAction2;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+/**
+ * Structured results of the Flyway commands run by a build, shown on the build page and exposed through the REST
+ * API at {@code flyway/api/json}.
+ */
+@ExportedBean
+public class FlywayResultsAction implements RunAction2 {
+
+    private transient Run<?, ?> run;
+
+    private final List<FlywayCommandResult> results = new ArrayList<>();
+
+    /**
+     * Adds results to the build's action, creating the action with the first results.
+     */
+    public static void addTo(Run<?, ?> run, List<FlywayCommandResult> results) {
+        if (results.isEmpty()) {
+            return;
+        }
+        FlywayResultsAction action;
+        synchronized (run) {
+            action = run.getAction(FlywayResultsAction.class);
+            if (action == null) {
+                action = new FlywayResultsAction();
+                run.addAction(action);
+            }
+        }
+        action.add(results);
+    }
+
+    private synchronized void add(List<FlywayCommandResult> newResults) {
+        results.addAll(newResults);
+    }
+
+    @Exported
+    public synchronized List<FlywayCommandResult> getResults() {
+        return Collections.unmodifiableList(new ArrayList<>(results));
+    }
+
+    /**
+     * @return number of migrations applied by the build's {@code migrate} commands.
+     */
+    public synchronized int getAppliedMigrationCount() {
+        int count = 0;
+        for (FlywayCommandResult result : results) {
+            if ("migrate".equals(result.getOperation())) {
+                count += result.getMigrations().size();
+            }
+        }
+        return count;
+    }
+
+    public Run<?, ?> getRun() {
+        return run;
+    }
+
+    @Override
+    public void onAttached(Run<?, ?> r) {
+        this.run = r;
+    }
+
+    @Override
+    public void onLoad(Run<?, ?> r) {
+        this.run = r;
+    }
+
+    public Api getApi() {
+        return new Api(this);
+    }
+
+    @Override
+    public String getIconFileName() {
+        return "clipboard.png";
+    }
+
+    @Override
+    public String getDisplayName() {
+        return "Flyway Results";
+    }
+
+    @Override
+    public String getUrlName() {
+        return "flyway";
+    }
+}
@@ -0,0 +1,142 @@
+package sp.sd.flywayrunner.results;
+
+import hudson.console.LineTransformationOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Recognizes what Flyway's default text output tells about the commands it ran, for the command line without
+ * {@code -outputType=json}: the migrations {@code migrate} applied, each timed from the line announcing it to the line
+ * announcing the next one or the result, and the table printed by {@code info}.  Migration times include Flyway's
+ * bookkeeping between migrations and, when the output arrives in batches, are only as precise as the batches.  A
+ * migration which did not complete is left out.  The {@code info} table has no execution times.
+ */
+public class FlywayTextOutputParser extends LineTransformationOutputStream {
+    private static final String MIGRATE = "migrate";
+    private static final String INFO = "info";
+    private static final Pattern MIGRATING_VERSION =
+            Pattern.compile("Migrating schema \"[^\"]*\" to version \"(\\S+?)(?: - (.*))?\"");
+    private static final Pattern MIGRATING_REPEATABLE =
+            Pattern.compile("Migrating schema \"[^\"]*\" with repeatable migration \"(.*)\"");
+    private static final String APPLIED = "Successfully applied ";
+    private static final String UP_TO_DATE = "No migration necessary";
+
+    private final List<FlywayCommandResult> results = new ArrayList<>();
+    private List<FlywayMigration> applied;
+    private String[] running;
+    private long runningSince;
+    private List<String> columns;
+    private List<FlywayMigration> listed;
+
+    /**
+     * @return the results of the commands recognized so far.
+     */
+    public synchronized List<FlywayCommandResult> getResults() {
+        return Collections.unmodifiableList(new ArrayList<>(results));
+    }
+
+    @Override
+    protected synchronized void eol(byte[] b, int len) {
+        String line = trimEOL(new String(b, 0, len, StandardCharsets.UTF_8)).trim();
+        if (line.startsWith("|")) {
+            tableRow(cells(line));
+            return;
+        }
+        if (line.startsWith("+")) {
+            return;
+        }
+        tableEnd();
+        long now = System.nanoTime();
+        Matcher versioned = MIGRATING_VERSION.matcher(line);
+        Matcher repeatable = MIGRATING_REPEATABLE.matcher(line);
+        if (versioned.lookingAt()) {
+            started(now, "Versioned", versioned.group(1), versioned.group(2));
+        } else if (repeatable.lookingAt()) {
+            started(now, "Repeatable", "", repeatable.group(1));
+        } else if (line.startsWith(APPLIED) || line.contains(UP_TO_DATE)) {
+            completed(now);
+            results.add(new FlywayCommandResult(
+                    MIGRATE, true, null, applied == null ? Collections.emptyList() : applied));
+            applied = null;
+        }
+    }
+
+    private static List<String> cells(String line) {
+        String inner = line.substring(1, line.endsWith("|") && line.length() > 1 ? line.length() - 1 : line.length());
+        List<String> cells = new ArrayList<>();
+        for (String cell : inner.split("\\|", -1)) {
+            cells.add(cell.trim());
+        }
+        return cells;
+    }
+
+    private void tableRow(List<String> cells) {
+        if (columns == null) {
+            if (cells.contains("Version") && cells.contains("Description") && cells.contains("State")) {
+                columns = cells;
+                listed = new ArrayList<>();
+            }
+        } else if (cells.size() == columns.size()) {
+            listed.add(new FlywayMigration(
+                    cell(cells, "Category"),
+                    cell(cells, "Version"),
+                    cell(cells, "Description"),
+                    cell(cells, "Type"),
+                    cell(cells, "State"),
+                    null));
+        }
+    }
+
+    private String cell(List<String> cells, String column) {
+        int index = columns.indexOf(column);
+        return index < 0 ? null : cells.get(index);
+    }
+
+    private void tableEnd() {
+        if (columns != null) {
+            results.add(new FlywayCommandResult(INFO, true, null, listed));
+            columns = null;
+            listed = null;
+        }
+    }
+
+    private void started(long now, String category, String version, String description) {
+        completed(now);
+        if (applied == null) {
+            applied = new ArrayList<>();
+        }
+        running = new String[] {category, version, description == null ? "" : description};
+        runningSince = now;
+    }
+
+    private void completed(long now) {
+        if (running != null) {
+            applied.add(new FlywayMigration(
+                    running[0],
+                    running[1],
+                    running[2],
+                    null,
+                    null,
+                    (int) TimeUnit.NANOSECONDS.toMillis(now - runningSince)));
+            running = null;
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        super.close();
+        tableEnd();
+        if (applied != null) {
+            // Flyway stopped before it reported the result, the migration it was running failed
+            results.add(new FlywayCommandResult(MIGRATE, false, null, applied));
+            applied = null;
+            running = null;
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package sp.sd.flywayrunner.snapshot;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import hudson.ExtensionList;
+import hudson.ExtensionPoint;
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * Dumps a migrated database into a file and restores it into an empty database of the same kind, so test databases
+ * created for each build start from the state of an earlier migration instead of replaying every migration.
+ * Implementations are sent to the agent which connects to the database, so they must not hold any state.
+ */
+public abstract class DatabaseSnapshotter implements ExtensionPoint, Serializable {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * @return whether databases with this JDBC URL can be dumped and restored.
+     */
+    public abstract boolean supports(String url);
+
+    /**
+     * @return the suffix of the snapshot files, such as {@code .sql.gz}.
+     */
+    public abstract String getExtension();
+
+    /**
+     * Writes the whole database, including the schema history table, into a file on the agent.
+     */
+    public abstract void save(Connection connection, File file) throws SQLException, IOException;
+
+    /**
+     * Loads a file written by {@link #save} into an empty database.
+     */
+    public abstract void restore(Connection connection, File file) throws SQLException, IOException;
+
+    /**
+     * @return the first snapshotter supporting the URL, {@code null} if there is none.
+     */
+    public static @CheckForNull DatabaseSnapshotter forUrl(String url) {
+        for (DatabaseSnapshotter snapshotter : ExtensionList.lookup(DatabaseSnapshotter.class)) {
+            if (snapshotter.supports(url)) {
+                return snapshotter;
+            }
+        }
+        return null;
+    }
+}
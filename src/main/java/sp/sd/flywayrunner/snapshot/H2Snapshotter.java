@@ -0,0 +1,43 @@
+package sp.sd.flywayrunner.snapshot;
+
+import hudson.Extension;
+import java.io.File;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Snapshots H2 databases with their {@code SCRIPT} and {@code RUNSCRIPT} commands, as gzipped SQL scripts.
+ */
+@Extension
+public class H2Snapshotter extends DatabaseSnapshotter {
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    public boolean supports(String url) {
+        return url != null && url.startsWith("jdbc:h2:");
+    }
+
+    @Override
+    public String getExtension() {
+        return ".sql.gz";
+    }
+
+    @Override
+    public void save(Connection connection, File file) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("SCRIPT NOPASSWORDS NOSETTINGS TO " + literal(file) + " COMPRESSION GZIP");
+        }
+    }
+
+    @Override
+    public void restore(Connection connection, File file) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("RUNSCRIPT FROM " + literal(file) + " COMPRESSION GZIP");
+        }
+    }
+
+    private static String literal(File file) {
+        return "'" + file.getAbsolutePath().replace("'", "''") + "'";
+    }
+}
@@ -0,0 +1,35 @@
+package sp.sd.flywayrunner.snapshot;
+
+import hudson.Util;
+import java.util.ArrayList;
+import java.util.List;
+import sp.sd.flywayrunner.builder.WorkspaceMigrations;
+
+/**
+ * Names snapshots after the versioned migrations they contain.  The key of the first {@code n} migrations chains the
+ * version and checksum of the {@code n}th migration to the key of the ones before it, so a snapshot taken before
+ * migrations were added is found again by the key of the same prefix.  Repeatable migrations are left out: Flyway
+ * applies them again after a restore when their checksum changed.
+ */
+public final class SnapshotKeys {
+    private SnapshotKeys() {}
+
+    /**
+     * @param identity what else decides the content of the database, such as the job, schemas, placeholders,
+     *     callbacks and configuration files.
+     * @param migrations migrations of the workspace, ordered by version.
+     * @return the key of no migration, then of each prefix of the versioned migrations.
+     */
+    public static List<String> of(String identity, List<WorkspaceMigrations.Migration> migrations) {
+        List<String> keys = new ArrayList<>();
+        String key = Util.getDigestOf(identity);
+        keys.add(key);
+        for (WorkspaceMigrations.Migration migration : migrations) {
+            if (!migration.isRepeatable()) {
+                key = Util.getDigestOf(key + "\n" + migration.getVersion() + ":" + migration.getChecksum());
+                keys.add(key);
+            }
+        }
+        return keys;
+    }
+}
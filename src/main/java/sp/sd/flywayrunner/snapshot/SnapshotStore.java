@@ -0,0 +1,122 @@
+package sp.sd.flywayrunner.snapshot;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import hudson.FilePath;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import jenkins.model.Jenkins;
+import jenkins.util.SystemProperties;
+
+/**
+ * Database snapshots on the controller, one file per key.  A key names the job, the migrations a snapshot contains
+ * and everything else which went into it, see {@link SnapshotKeys}.  The least recently used snapshots are evicted
+ * once the store grows beyond its maximum size.
+ */
+public class SnapshotStore {
+    private static final Logger LOG = Logger.getLogger(SnapshotStore.class.getName());
+
+    /**
+     * Directory holding the snapshots, defaults to {@code caches/flyway-snapshots} in the Jenkins home.
+     */
+    private static final String DIRECTORY = SystemProperties.getString(SnapshotStore.class.getName() + ".directory");
+    /**
+     * Size in megabytes above which least recently used snapshots are evicted.
+     */
+    private static final long MAX_SIZE_MEGABYTES =
+            SystemProperties.getLong(SnapshotStore.class.getName() + ".maxSizeMegabytes", 2048L);
+
+    private static volatile SnapshotStore instance;
+
+    private final File root;
+    private final long maxSizeBytes;
+
+    SnapshotStore(File root, long maxSizeBytes) {
+        this.root = root;
+        this.maxSizeBytes = maxSizeBytes;
+    }
+
+    public static SnapshotStore get() {
+        SnapshotStore result = instance;
+        if (result == null) {
+            synchronized (SnapshotStore.class) {
+                result = instance;
+                if (result == null) {
+                    File root = DIRECTORY == null
+                            ? new File(Jenkins.get().getRootDir(), "caches/flyway-snapshots")
+                            : new File(DIRECTORY);
+                    result = new SnapshotStore(root, MAX_SIZE_MEGABYTES * 1024 * 1024);
+                    instance = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the snapshot with the key, {@code null} if there is none.
+     */
+    public @CheckForNull File find(String key, String extension) {
+        File snapshot = new File(root, key + extension);
+        if (!snapshot.isFile()) {
+            return null;
+        }
+        // the modification time orders snapshots for eviction
+        if (!snapshot.setLastModified(System.currentTimeMillis())) {
+            LOG.log(Level.FINE, "Could not touch {0}", snapshot);
+        }
+        return snapshot;
+    }
+
+    /**
+     * Copies a snapshot written on an agent into the store.
+     */
+    public void put(String key, String extension, FilePath source) throws IOException, InterruptedException {
+        Files.createDirectories(root.toPath());
+        File snapshot = new File(root, key + extension);
+        File temp = File.createTempFile("snapshot", ".tmp", root);
+        try {
+            source.copyTo(new FilePath(temp));
+            Files.move(temp.toPath(), snapshot.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temp.toPath());
+        }
+        evict(snapshot);
+    }
+
+    /**
+     * Deletes least recently used snapshots until the store fits its maximum size, always keeping the given one.
+     */
+    private synchronized void evict(File keep) {
+        File[] snapshots = root.listFiles(File::isFile);
+        if (snapshots == null) {
+            return;
+        }
+        long size = 0;
+        for (File snapshot : snapshots) {
+            size += snapshot.length();
+        }
+        List<File> candidates = new ArrayList<>(Arrays.asList(snapshots));
+        candidates.sort(Comparator.comparingLong(File::lastModified));
+        for (File snapshot : candidates) {
+            if (size <= maxSizeBytes) {
+                break;
+            }
+            if (snapshot.equals(keep) || snapshot.getName().endsWith(".tmp")) {
+                continue;
+            }
+            long length = snapshot.length();
+            if (snapshot.delete()) {
+                LOG.log(Level.FINE, "Evicted {0} from the Flyway snapshot store", snapshot);
+                size -= length;
+            }
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package sp.sd.flywayrunner.state;
+
+import hudson.Extension;
+import hudson.model.Action;
+import hudson.model.Job;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+import jenkins.model.TransientActionFactory;
+
+/**
+ * Shows the schema history last recorded for each target of a job, and the migrations of the workspace which it does
+ * not contain yet.  Nothing is read until the page is requested.
+ */
+public class DatabaseStateAction implements Action {
+
+    private static final Pattern ID = Pattern.compile("[0-9a-f]+");
+
+    private final Job<?, ?> job;
+
+    DatabaseStateAction(Job<?, ?> job) {
+        this.job = job;
+    }
+
+    public Job<?, ?> getJob() {
+        return job;
+    }
+
+    public List<SchemaSnapshot.Header> getTargets() {
+        return SchemaSnapshots.list(job);
+    }
+
+    /**
+     * Serves {@code target/<id>/} from the snapshot of that target alone, without listing the others.
+     */
+    public TargetState getTarget(String id) throws IOException {
+        if (id == null || !ID.matcher(id).matches()) {
+            return null;
+        }
+        SchemaSnapshot snapshot = SchemaSnapshots.load(job, id);
+        return snapshot == null ? null : new TargetState(job, snapshot.getHeader());
+    }
+
+    @Override
+    public String getIconFileName() {
+        return "notepad.png";
+    }
+
+    @Override
+    public String getDisplayName() {
+        return "Flyway Database State";
+    }
+
+    @Override
+    public String getUrlName() {
+        return "flyway-state";
+    }
+
+    @Extension
+    @SuppressWarnings("rawtypes")
+    public static class Factory extends TransientActionFactory<Job> {
+        @Override
+        public Class<Job> type() {
+            return Job.class;
+        }
+
+        @Override
+        public Collection<? extends Action> createFor(Job target) {
+            if (!SchemaSnapshots.directoryOf(target).isDirectory()) {
+                return Collections.emptyList();
+            }
+            return Collections.singletonList(new DatabaseStateAction(target));
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package sp.sd.flywayrunner.state;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The schema history of a target as reported by the last {@code info}, and updated by later {@code migrate} commands.
+ */
+public final class SchemaSnapshot {
+    /**
+     * States of {@code info} for migrations which are recorded in the schema history table.
+     */
+    private static final Set<String> APPLIED_STATES = new HashSet<>(
+            Arrays.asList("Success", "Baseline", "Out of Order", "Future", "Outdated", "Superseded", "Missing"));
+
+    private final Header header;
+    private final Map<String, String> scriptOptions;
+    private final List<Row> rows;
+
+    SchemaSnapshot(Header header, Map<String, String> scriptOptions, List<Row> rows) {
+        this.header = header;
+        this.scriptOptions = Collections.unmodifiableMap(scriptOptions);
+        this.rows = Collections.unmodifiableList(rows);
+    }
+
+    /**
+     * What identifies a snapshot, read without its rows.
+     */
+    public static final class Header {
+        private final String id;
+        private final String target;
+        private final int build;
+        private final long timestamp;
+        private final int rowCount;
+        private final String node;
+        private final String workspace;
+
+        Header(String id, String target, int build, long timestamp, int rowCount, String node, String workspace) {
+            this.id = id;
+            this.target = target;
+            this.build = build;
+            this.timestamp = timestamp;
+            this.rowCount = rowCount;
+            this.node = node;
+            this.workspace = workspace;
+        }
+
+        /**
+         * @return the name of the snapshot in URLs.
+         */
+        public String getId() {
+            return id;
+        }
+
+        public String getTarget() {
+            return target;
+        }
+
+        /**
+         * @return the number of the build which recorded the snapshot.
+         */
+        public int getBuild() {
+            return build;
+        }
+
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        public Date getDate() {
+            return new Date(timestamp);
+        }
+
+        public int getRowCount() {
+            return rowCount;
+        }
+
+        /**
+         * @return the name of the node of the workspace, empty for the built-in node.
+         */
+        public String getNode() {
+            return node;
+        }
+
+        /**
+         * @return the path of the workspace on its node.
+         */
+        public String getWorkspace() {
+            return workspace;
+        }
+    }
+
+    /**
+     * A migration of the schema history.
+     */
+    public static final class Row {
+        private final String version;
+        private final String description;
+        private final String type;
+        private final String state;
+        private final Integer executionTime;
+
+        Row(String version, String description, String type, String state, Integer executionTime) {
+            this.version = version == null ? "" : version;
+            this.description = description == null ? "" : description;
+            // few distinct values, shared between the rows of large histories
+            this.type = type == null ? "" : type.intern();
+            this.state = state == null ? "" : state.intern();
+            this.executionTime = executionTime;
+        }
+
+        /**
+         * @return the version, empty for repeatable migrations.
+         */
+        public String getVersion() {
+            return version;
+        }
+
+        public String getDescription() {
+            return description;
+        }
+
+        public String getType() {
+            return type;
+        }
+
+        public String getState() {
+            return state;
+        }
+
+        public Integer getExecutionTime() {
+            return executionTime;
+        }
+
+        public boolean isRepeatable() {
+            return version.isEmpty();
+        }
+
+        /**
+         * @return whether the migration is recorded in the schema history table.
+         */
+        public boolean isApplied() {
+            return APPLIED_STATES.contains(state);
+        }
+
+        /**
+         * @return whether the migration comes from a SQL script, rather than a baseline or Java migration.
+         */
+        boolean isSqlScript() {
+            return type.startsWith("SQL") && !type.contains("BASELINE");
+        }
+    }
+
+    public Header getHeader() {
+        return header;
+    }
+
+    /**
+     * @return the locations and naming options of the step which recorded the snapshot.
+     */
+    public Map<String, String> getScriptOptions() {
+        return scriptOptions;
+    }
+
+    public List<Row> getRows() {
+        return rows;
+    }
+}
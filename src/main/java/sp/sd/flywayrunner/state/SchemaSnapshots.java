@@ -0,0 +1,329 @@
+package sp.sd.flywayrunner.state;
+
+import hudson.FilePath;
+import hudson.Util;
+import hudson.model.Computer;
+import hudson.model.Job;
+import hudson.model.Run;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.ref.SoftReference;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import sp.sd.flywayrunner.builder.WorkspaceMigrations;
+import sp.sd.flywayrunner.results.FlywayCommandResult;
+import sp.sd.flywayrunner.results.FlywayMigration;
+
+/**
+ * Keeps the latest {@link SchemaSnapshot} of every target of a job, one gzipped tab separated file per target in the
+ * {@code flyway-state} directory of the job.  The first line of a file holds its {@link SchemaSnapshot.Header} so
+ * targets are listed without reading their rows.  Loaded snapshots are cached as long as memory allows and their
+ * file is unchanged.
+ */
+public final class SchemaSnapshots {
+    private static final Logger LOG = Logger.getLogger(SchemaSnapshots.class.getName());
+    static final String DIRECTORY = "flyway-state";
+    private static final String SUFFIX = ".tsv.gz";
+    private static final String INFO = "info";
+    private static final String MIGRATE = "migrate";
+
+    private static final Map<String, Cached> CACHE = new ConcurrentHashMap<>();
+
+    private SchemaSnapshots() {}
+
+    private static final class Cached {
+        private final long lastModified;
+        private final SoftReference<SchemaSnapshot> snapshot;
+
+        Cached(long lastModified, SchemaSnapshot snapshot) {
+            this.lastModified = lastModified;
+            this.snapshot = new SoftReference<>(snapshot);
+        }
+    }
+
+    static File directoryOf(Job<?, ?> job) {
+        return new File(job.getRootDir(), DIRECTORY);
+    }
+
+    static File fileOf(Job<?, ?> job, String id) {
+        return new File(directoryOf(job), id + SUFFIX);
+    }
+
+    static String idOf(String target) {
+        return Util.getDigestOf(target);
+    }
+
+    /**
+     * Replaces the snapshot of a target with the history listed by an {@code info} command, or adds the migrations
+     * applied by {@code migrate} commands to it.  Nothing is recorded when neither ran.
+     * @param target sanitized name of the target.
+     * @param workspace workspace of the step, whose migrations are compared with the snapshot.
+     * @param scriptOptions locations and naming options of the step, see {@link WorkspaceMigrations#OPTIONS}.
+     */
+    public static void record(
+            Run<?, ?> run,
+            String target,
+            FilePath workspace,
+            Map<String, String> scriptOptions,
+            List<FlywayCommandResult> results) {
+        Job<?, ?> job = run.getParent();
+        try {
+            synchronized (SchemaSnapshots.class) {
+                List<SchemaSnapshot.Row> rows = null;
+                for (FlywayCommandResult result : results) {
+                    if (INFO.equals(result.getOperation()) && result.isSuccess()) {
+                        rows = new ArrayList<>();
+                        for (FlywayMigration migration : result.getMigrations()) {
+                            rows.add(new SchemaSnapshot.Row(
+                                    migration.getVersion(),
+                                    migration.getDescription(),
+                                    migration.getType(),
+                                    migration.getState(),
+                                    migration.getExecutionTime()));
+                        }
+                    } else if (MIGRATE.equals(result.getOperation()) && !result.getMigrations().isEmpty()) {
+                        if (rows == null) {
+                            SchemaSnapshot previous = load(job, idOf(target));
+                            rows = previous == null ? new ArrayList<>() : new ArrayList<>(previous.getRows());
+                        }
+                        for (FlywayMigration migration : result.getMigrations()) {
+                            merge(rows, migration);
+                        }
+                    }
+                }
+                if (rows == null) {
+                    return;
+                }
+                Computer computer = workspace.toComputer();
+                SchemaSnapshot.Header header = new SchemaSnapshot.Header(
+                        idOf(target),
+                        target,
+                        run.getNumber(),
+                        run.getTimeInMillis(),
+                        rows.size(),
+                        computer == null ? "" : computer.getName(),
+                        workspace.getRemote());
+                write(job, new SchemaSnapshot(header, new TreeMap<>(scriptOptions), rows));
+            }
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, "Failed to record the Flyway schema history of " + run, e);
+        }
+    }
+
+    /**
+     * Marks a migration applied by {@code migrate} as successful, adding it if the snapshot did not list it.
+     */
+    private static void merge(List<SchemaSnapshot.Row> rows, FlywayMigration migration) {
+        String version = Util.fixNull(migration.getVersion());
+        String key = version.isEmpty() ? null : WorkspaceMigrations.normalizeVersion(version);
+        SchemaSnapshot.Row applied = new SchemaSnapshot.Row(
+                version,
+                migration.getDescription(),
+                migration.getType(),
+                "Success",
+                migration.getExecutionTime());
+        for (int i = 0; i < rows.size(); i++) {
+            SchemaSnapshot.Row row = rows.get(i);
+            boolean same = key == null
+                    ? row.isRepeatable() && row.getDescription().equals(applied.getDescription())
+                    : !row.isRepeatable() && key.equals(WorkspaceMigrations.normalizeVersion(row.getVersion()));
+            if (same) {
+                rows.set(i, applied);
+                return;
+            }
+        }
+        rows.add(applied);
+    }
+
+    private static void write(Job<?, ?> job, SchemaSnapshot snapshot) throws IOException {
+        File directory = directoryOf(job);
+        Files.createDirectories(directory.toPath());
+        SchemaSnapshot.Header header = snapshot.getHeader();
+        File file = fileOf(job, header.getId());
+        File temp = new File(directory, header.getId() + SUFFIX + ".tmp");
+        try (Writer writer = new OutputStreamWriter(
+                new GZIPOutputStream(Files.newOutputStream(temp.toPath())), StandardCharsets.UTF_8)) {
+            writer.write(line(
+                    header.getTarget(),
+                    String.valueOf(header.getBuild()),
+                    String.valueOf(header.getTimestamp()),
+                    String.valueOf(header.getRowCount()),
+                    header.getNode(),
+                    header.getWorkspace()));
+            List<String> options = new ArrayList<>();
+            for (Map.Entry<String, String> option : snapshot.getScriptOptions().entrySet()) {
+                options.add(option.getKey() + "=" + option.getValue());
+            }
+            writer.write(line(options.toArray(new String[0])));
+            for (SchemaSnapshot.Row row : snapshot.getRows()) {
+                writer.write(line(
+                        row.getVersion(),
+                        row.getDescription(),
+                        row.getType(),
+                        row.getState(),
+                        row.getExecutionTime() == null ? "" : String.valueOf(row.getExecutionTime())));
+            }
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        CACHE.put(file.getAbsolutePath(), new Cached(file.lastModified(), snapshot));
+    }
+
+    private static String line(String... fields) {
+        StringBuilder line = new StringBuilder();
+        for (String field : fields) {
+            if (line.length() > 0) {
+                line.append('\t');
+            }
+            line.append(field.replace('\t', ' ').replace('\n', ' ').replace('\r', ' '));
+        }
+        return line.append('\n').toString();
+    }
+
+    /**
+     * @return the headers of the snapshots of a job, by target.
+     */
+    public static List<SchemaSnapshot.Header> list(Job<?, ?> job) {
+        File[] files = directoryOf(job).listFiles((dir, name) -> name.endsWith(SUFFIX));
+        if (files == null) {
+            return Collections.emptyList();
+        }
+        List<SchemaSnapshot.Header> headers = new ArrayList<>();
+        for (File file : files) {
+            String id = file.getName().substring(0, file.getName().length() - SUFFIX.length());
+            Cached cached = CACHE.get(file.getAbsolutePath());
+            SchemaSnapshot snapshot = cached == null || cached.lastModified != file.lastModified()
+                    ? null
+                    : cached.snapshot.get();
+            if (snapshot != null) {
+                headers.add(snapshot.getHeader());
+                continue;
+            }
+            try (BufferedReader reader = open(file)) {
+                SchemaSnapshot.Header header = header(id, reader.readLine());
+                if (header != null) {
+                    headers.add(header);
+                }
+            } catch (IOException e) {
+                LOG.log(Level.WARNING, "Failed to read the Flyway schema history in " + file, e);
+            }
+        }
+        headers.sort(Comparator.comparing(SchemaSnapshot.Header::getTarget));
+        return headers;
+    }
+
+    /**
+     * @param target sanitized name of the target.
+     * @return the versions of the migrations the last snapshot of the target lists as applied, normalized by
+     *     {@link WorkspaceMigrations#normalizeVersion}; {@code null} if there is no snapshot.
+     */
+    public static Set<String> appliedVersions(Job<?, ?> job, String target) throws IOException {
+        SchemaSnapshot snapshot = load(job, idOf(target));
+        if (snapshot == null) {
+            return null;
+        }
+        Set<String> versions = new HashSet<>();
+        for (SchemaSnapshot.Row row : snapshot.getRows()) {
+            if (row.isApplied() && !row.isRepeatable()) {
+                versions.add(WorkspaceMigrations.normalizeVersion(row.getVersion()));
+            }
+        }
+        return versions;
+    }
+
+    /**
+     * @return the snapshot, from memory if it was loaded since its file last changed; {@code null} if there is none.
+     */
+    public static SchemaSnapshot load(Job<?, ?> job, String id) throws IOException {
+        File file = fileOf(job, id);
+        if (!file.isFile()) {
+            return null;
+        }
+        Cached cached = CACHE.get(file.getAbsolutePath());
+        SchemaSnapshot snapshot = cached == null || cached.lastModified != file.lastModified()
+                ? null
+                : cached.snapshot.get();
+        if (snapshot != null) {
+            return snapshot;
+        }
+        long lastModified = file.lastModified();
+        try (BufferedReader reader = open(file)) {
+            SchemaSnapshot.Header header = header(id, reader.readLine());
+            if (header == null) {
+                return null;
+            }
+            Map<String, String> options = new TreeMap<>();
+            String optionLine = reader.readLine();
+            if (optionLine != null && !optionLine.isEmpty()) {
+                for (String option : optionLine.split("\t")) {
+                    int separator = option.indexOf('=');
+                    if (separator > 0) {
+                        options.put(option.substring(0, separator), option.substring(separator + 1));
+                    }
+                }
+            }
+            List<SchemaSnapshot.Row> rows = new ArrayList<>(header.getRowCount());
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\t", -1);
+                if (fields.length == 5) {
+                    rows.add(new SchemaSnapshot.Row(
+                            fields[0],
+                            fields[1],
+                            fields[2],
+                            fields[3],
+                            fields[4].isEmpty() ? null : Integer.valueOf(fields[4])));
+                }
+            }
+            snapshot = new SchemaSnapshot(header, options, rows);
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid Flyway schema history in " + file, e);
+        }
+        CACHE.put(file.getAbsolutePath(), new Cached(lastModified, snapshot));
+        return snapshot;
+    }
+
+    private static BufferedReader open(File file) throws IOException {
+        return new BufferedReader(new InputStreamReader(
+                new GZIPInputStream(Files.newInputStream(file.toPath())), StandardCharsets.UTF_8));
+    }
+
+    private static SchemaSnapshot.Header header(String id, String line) {
+        if (line == null) {
+            return null;
+        }
+        String[] fields = line.split("\t", -1);
+        if (fields.length != 6) {
+            return null;
+        }
+        try {
+            return new SchemaSnapshot.Header(
+                    id,
+                    fields[0],
+                    Integer.parseInt(fields[1]),
+                    Long.parseLong(fields[2]),
+                    Integer.parseInt(fields[3]),
+                    fields[4],
+                    fields[5]);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,254 @@
+package sp.sd.flywayrunner.state;
+
+import hudson.FilePath;
+import hudson.model.Item;
+import hudson.model.Job;
+import hudson.model.Node;
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import jenkins.model.Jenkins;
+import org.kohsuke.stapler.Stapler;
+import org.kohsuke.stapler.StaplerRequest2;
+import sp.sd.flywayrunner.builder.WorkspaceMigrations;
+
+/**
+ * The schema history recorded for one target, shown a page of rows at a time, and its difference with the
+ * migrations currently in the workspace of the build which recorded it.  The difference is computed once per
+ * recorded history and kept in memory, as long as memory allows, until the history is recorded again.
+ */
+public class TargetState {
+    static final int PAGE_SIZE = 500;
+
+    private static final Map<String, CachedDiff> DIFFS = new ConcurrentHashMap<>();
+
+    private final Job<?, ?> job;
+    private final SchemaSnapshot.Header header;
+    private SchemaSnapshot snapshot;
+    private Diff diff;
+
+    TargetState(Job<?, ?> job, SchemaSnapshot.Header header) {
+        this.job = job;
+        this.header = header;
+    }
+
+    private static final class CachedDiff {
+        private final long lastModified;
+        private final SoftReference<Diff> diff;
+
+        CachedDiff(long lastModified, Diff diff) {
+            this.lastModified = lastModified;
+            this.diff = new SoftReference<>(diff);
+        }
+    }
+
+    public Job<?, ?> getJob() {
+        return job;
+    }
+
+    public SchemaSnapshot.Header getHeader() {
+        return header;
+    }
+
+    public String getDisplayName() {
+        return "Flyway Database State of " + header.getTarget();
+    }
+
+    public synchronized SchemaSnapshot getSnapshot() throws IOException {
+        if (snapshot == null) {
+            snapshot = SchemaSnapshots.load(job, header.getId());
+            if (snapshot == null) {
+                throw new IOException("The schema history of " + header.getTarget() + " was removed");
+            }
+        }
+        return snapshot;
+    }
+
+    /**
+     * @return the number of migrations in each state, in the order states first appear.
+     */
+    public Map<String, Integer> getStateCounts() throws IOException {
+        Map<String, Integer> counts = new LinkedHashMap<>();
+        for (SchemaSnapshot.Row row : getSnapshot().getRows()) {
+            counts.merge(row.getState(), 1, Integer::sum);
+        }
+        return counts;
+    }
+
+    public int getPageCount() throws IOException {
+        return Math.max(1, (getSnapshot().getRows().size() + PAGE_SIZE - 1) / PAGE_SIZE);
+    }
+
+    /**
+     * @return the page requested by the {@code page} parameter, starting at 1.
+     */
+    public int getPage() throws IOException {
+        return pageOf("page", getPageCount());
+    }
+
+    private static int pageOf(String parameter, int pageCount) {
+        StaplerRequest2 request = Stapler.getCurrentRequest2();
+        int page = 1;
+        if (request != null && request.getParameter(parameter) != null) {
+            try {
+                page = Integer.parseInt(request.getParameter(parameter));
+            } catch (NumberFormatException e) {
+                page = 1;
+            }
+        }
+        return Math.min(Math.max(1, page), pageCount);
+    }
+
+    public List<SchemaSnapshot.Row> getRows() throws IOException {
+        return pageOf(getSnapshot().getRows(), (getPage() - 1) * PAGE_SIZE);
+    }
+
+    private static <T> List<T> pageOf(List<T> list, int from) {
+        int start = Math.min(Math.max(0, from), list.size());
+        return list.subList(start, Math.max(start, Math.min(from + PAGE_SIZE, list.size())));
+    }
+
+    public int getDiffPageCount() throws IOException, InterruptedException {
+        Diff current = getDiff();
+        int size = current.getPending().size() + current.getNotInWorkspace().size();
+        return Math.max(1, (size + PAGE_SIZE - 1) / PAGE_SIZE);
+    }
+
+    /**
+     * @return the page of differences requested by the {@code diffPage} parameter, starting at 1; pending
+     *     migrations come first, then those which are not in the workspace.
+     */
+    public int getDiffPage() throws IOException, InterruptedException {
+        return pageOf("diffPage", getDiffPageCount());
+    }
+
+    /**
+     * @return the pending migrations on the page of differences.
+     */
+    public List<WorkspaceMigrations.Migration> getPendingPage() throws IOException, InterruptedException {
+        return pageOf(getDiff().getPending(), (getDiffPage() - 1) * PAGE_SIZE);
+    }
+
+    /**
+     * @return the applied migrations missing from the workspace on the page of differences.
+     */
+    public List<SchemaSnapshot.Row> getNotInWorkspacePage() throws IOException, InterruptedException {
+        Diff current = getDiff();
+        return pageOf(current.getNotInWorkspace(), (getDiffPage() - 1) * PAGE_SIZE - current.getPending().size());
+    }
+
+    /**
+     * Migrations of the workspace which the recorded history does not contain, and applied SQL migrations which are
+     * no longer in the workspace.
+     */
+    public static final class Diff {
+        private final List<WorkspaceMigrations.Migration> pending;
+        private final List<SchemaSnapshot.Row> notInWorkspace;
+        private final String problem;
+
+        Diff(List<WorkspaceMigrations.Migration> pending, List<SchemaSnapshot.Row> notInWorkspace, String problem) {
+            this.pending = pending;
+            this.notInWorkspace = notInWorkspace;
+            this.problem = problem;
+        }
+
+        public List<WorkspaceMigrations.Migration> getPending() {
+            return pending;
+        }
+
+        public List<SchemaSnapshot.Row> getNotInWorkspace() {
+            return notInWorkspace;
+        }
+
+        /**
+         * @return why the workspace could not be compared, {@code null} if it was.
+         */
+        public String getProblem() {
+            return problem;
+        }
+    }
+
+    public synchronized Diff getDiff() throws IOException, InterruptedException {
+        if (diff != null) {
+            return diff;
+        }
+        if (!job.hasPermission(Item.WORKSPACE)) {
+            diff = problem("You are not allowed to see the workspace");
+            return diff;
+        }
+        File file = SchemaSnapshots.fileOf(job, header.getId());
+        long lastModified = file.lastModified();
+        CachedDiff cached = DIFFS.get(file.getAbsolutePath());
+        diff = cached == null || cached.lastModified != lastModified ? null : cached.diff.get();
+        if (diff == null) {
+            diff = computeDiff();
+            if (diff.getProblem() == null) {
+                DIFFS.put(file.getAbsolutePath(), new CachedDiff(lastModified, diff));
+            }
+        }
+        return diff;
+    }
+
+    private Diff computeDiff() throws IOException, InterruptedException {
+        Jenkins jenkins = Jenkins.get();
+        Node node = header.getNode().isEmpty() ? jenkins : jenkins.getNode(header.getNode());
+        FilePath workspace = node == null ? null : node.createPath(header.getWorkspace());
+        if (workspace == null || !workspace.exists()) {
+            return problem("The workspace of build #" + header.getBuild() + " is not available");
+        }
+        SchemaSnapshot current = getSnapshot();
+        List<WorkspaceMigrations.Migration> migrations =
+                workspace.act(new WorkspaceMigrations(current.getScriptOptions()));
+        Set<String> appliedVersions = new HashSet<>();
+        Set<String> appliedRepeatables = new HashSet<>();
+        for (SchemaSnapshot.Row row : current.getRows()) {
+            if (!row.isApplied()) {
+                continue;
+            }
+            if (row.isRepeatable()) {
+                appliedRepeatables.add(row.getDescription());
+            } else {
+                appliedVersions.add(WorkspaceMigrations.normalizeVersion(row.getVersion()));
+            }
+        }
+        List<WorkspaceMigrations.Migration> pending = new ArrayList<>();
+        Set<String> workspaceVersions = new HashSet<>();
+        Set<String> workspaceRepeatables = new HashSet<>();
+        for (WorkspaceMigrations.Migration migration : migrations) {
+            if (migration.isRepeatable()) {
+                workspaceRepeatables.add(migration.getDescription());
+                if (!appliedRepeatables.contains(migration.getDescription())) {
+                    pending.add(migration);
+                }
+            } else {
+                workspaceVersions.add(migration.getVersion());
+                if (!appliedVersions.contains(migration.getVersion())) {
+                    pending.add(migration);
+                }
+            }
+        }
+        List<SchemaSnapshot.Row> notInWorkspace = new ArrayList<>();
+        for (SchemaSnapshot.Row row : current.getRows()) {
+            if (row.isApplied()
+                    && row.isSqlScript()
+                    && !(row.isRepeatable()
+                            ? workspaceRepeatables.contains(row.getDescription())
+                            : workspaceVersions.contains(WorkspaceMigrations.normalizeVersion(row.getVersion())))) {
+                notInWorkspace.add(row);
+            }
+        }
+        return new Diff(pending, notInWorkspace, null);
+    }
+
+    private static Diff problem(String message) {
+        return new Diff(Collections.emptyList(), Collections.emptyList(), message);
+    }
+}
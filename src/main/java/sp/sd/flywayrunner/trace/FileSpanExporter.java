@@ -0,0 +1,89 @@
+package sp.sd.flywayrunner.trace;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import hudson.Extension;
+import hudson.model.Run;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import jenkins.model.Jenkins;
+import jenkins.util.SystemProperties;
+
+/**
+ * Appends every span to a local file, one JSON object per line with the field names of OpenTelemetry spans, so
+ * traces can be read or shipped by a log collector without a tracing backend.  Once the file exceeds
+ * {@link #MAX_SIZE_MEGABYTES} it is renamed with a {@code .1} suffix, replacing the previous one.
+ */
+@Extension
+public class FileSpanExporter extends SpanExporter {
+    private static final JsonFactory FACTORY = new JsonFactory();
+    private static final long NANOS_PER_MICRO = 1000L;
+
+    /**
+     * File the spans are written to, defaults to {@code logs/flyway-traces.jsonl} in the Jenkins home.
+     */
+    private static final String FILE = SystemProperties.getString(FileSpanExporter.class.getName() + ".file");
+
+    /**
+     * Size above which the file is rotated; 0 disables the exporter.
+     */
+    private static final long MAX_SIZE_MEGABYTES =
+            SystemProperties.getLong(FileSpanExporter.class.getName() + ".maxSizeMegabytes", 64L);
+
+    @Override
+    public void export(Run<?, ?> run, StepTrace trace) throws IOException {
+        if (MAX_SIZE_MEGABYTES <= 0) {
+            return;
+        }
+        File file = FILE == null ? new File(Jenkins.get().getRootDir(), "logs/flyway-traces.jsonl") : new File(FILE);
+        write(file, MAX_SIZE_MEGABYTES * 1024 * 1024, run, trace);
+    }
+
+    /**
+     * Appends the spans of a trace to a file, first rotating the file if it is larger than {@code maxBytes}.
+     */
+    static void write(File file, long maxBytes, Run<?, ?> run, StepTrace trace) throws IOException {
+        synchronized (FileSpanExporter.class) {
+            Files.createDirectories(file.getAbsoluteFile().getParentFile().toPath());
+            if (file.length() > maxBytes) {
+                Files.move(
+                        file.toPath(),
+                        new File(file.getPath() + ".1").toPath(),
+                        StandardCopyOption.REPLACE_EXISTING);
+            }
+            try (Writer writer = Files.newBufferedWriter(
+                    file.toPath(), StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+                long startNanos = trace.getStartMillis() * 1_000_000L;
+                for (SpanData span : trace.getSpans()) {
+                    JsonGenerator json = FACTORY.createGenerator(writer);
+                    json.writeStartObject();
+                    json.writeStringField("traceId", trace.getTraceId());
+                    json.writeStringField("spanId", span.getId());
+                    if (span.getParentId() != null) {
+                        json.writeStringField("parentSpanId", span.getParentId());
+                    }
+                    json.writeStringField("name", span.getName());
+                    long start = startNanos + span.getStartMicros() * NANOS_PER_MICRO;
+                    json.writeNumberField("startTimeUnixNano", start);
+                    json.writeNumberField("endTimeUnixNano", start + span.getDurationMicros() * NANOS_PER_MICRO);
+                    json.writeObjectFieldStart("attributes");
+                    json.writeStringField("jenkins.job", run.getParent().getFullName());
+                    json.writeNumberField("jenkins.build", run.getNumber());
+                    for (Map.Entry<String, String> attribute : span.getAttributes().entrySet()) {
+                        json.writeStringField(attribute.getKey(), attribute.getValue());
+                    }
+                    json.writeEndObject();
+                    json.writeEndObject();
+                    json.flush();
+                    writer.write('\n');
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package sp.sd.flywayrunner.trace;
+
+import hudson.model.Api;
+import hudson.model.Run;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import jenkins.model.RunAction2;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+/**
+ * Traces of the Flyway steps of a build, shown as a waterfall of their phases and exposed through the REST API at
+ * {@code flyway-trace/api/json}.
+ */
+@ExportedBean
+public class FlywayTraceAction implements RunAction2 {
+
+    private transient Run<?, ?> run;
+
+    private final List<StepTrace> traces = new ArrayList<>();
+
+    /**
+     * Adds a trace to the build's action, creating the action with the first trace.
+     */
+    public static void addTo(Run<?, ?> run, StepTrace trace) {
+        FlywayTraceAction action;
+        synchronized (run) {
+            action = run.getAction(FlywayTraceAction.class);
+            if (action == null) {
+                action = new FlywayTraceAction();
+                run.addAction(action);
+            }
+        }
+        action.add(trace);
+    }
+
+    private synchronized void add(StepTrace trace) {
+        traces.add(trace);
+    }
+
+    @Exported
+    public synchronized List<StepTrace> getTraces() {
+        return Collections.unmodifiableList(new ArrayList<>(traces));
+    }
+
+    public Run<?, ?> getRun() {
+        return run;
+    }
+
+    @Override
+    public void onAttached(Run<?, ?> r) {
+        this.run = r;
+    }
+
+    @Override
+    public void onLoad(Run<?, ?> r) {
+        this.run = r;
+    }
+
+    public Api getApi() {
+        return new Api(this);
+    }
+
+    @Override
+    public String getIconFileName() {
+        return "clock.png";
+    }
+
+    @Override
+    public String getDisplayName() {
+        return "Flyway Trace";
+    }
+
+    @Override
+    public String getUrlName() {
+        return "flyway-trace";
+    }
+}
@@ -0,0 +1,184 @@
+package sp.sd.flywayrunner.trace;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import hudson.model.Run;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A timed phase of a Flyway step.  Spans nest: a span opened with {@link #child} becomes the {@link #current} span
+ * of its thread until it is closed, so code deep in a step, such as a tool installer, opens its spans under the
+ * phase which called it without being handed the span.  When the root span of a step closes, the spans are recorded
+ * as a {@link StepTrace} on the build and given to every {@link SpanExporter}.
+ * <p>
+ * Outside a traced step {@link #current} is a span which records nothing.
+ */
+public final class Span implements AutoCloseable {
+    private static final ThreadLocal<Span> CURRENT = new ThreadLocal<>();
+    private static final Span NOOP = new Span(null, null, "", 0);
+
+    private final @CheckForNull Recorder recorder;
+    private final String id;
+    private final @CheckForNull String parentId;
+    private final int depth;
+    private final String name;
+    private final long startNanos;
+    private final Map<String, String> attributes = new LinkedHashMap<>();
+    private final @CheckForNull Span previous;
+    private final @CheckForNull Thread thread;
+    private boolean closed;
+
+    private Span(@CheckForNull Recorder recorder, @CheckForNull Span parent, String name, long startNanos) {
+        this.recorder = recorder;
+        this.id = recorder == null ? "" : newId(8);
+        this.parentId = parent == null ? null : parent.id;
+        this.depth = parent == null ? 0 : parent.depth + 1;
+        this.name = name;
+        this.startNanos = startNanos;
+        if (recorder == null) {
+            previous = null;
+            thread = null;
+        } else {
+            previous = CURRENT.get();
+            thread = Thread.currentThread();
+            CURRENT.set(this);
+        }
+    }
+
+    /**
+     * Starts the trace of a step of the build.
+     * @return its root span, which records the trace when closed.
+     */
+    public static Span start(Run<?, ?> run, String name) {
+        Recorder recorder = new Recorder(run, name);
+        return new Span(recorder, null, name, recorder.startNanos);
+    }
+
+    /**
+     * @return the innermost open span of this thread, one which records nothing if there is none.
+     */
+    public static Span current() {
+        Span span = CURRENT.get();
+        return span == null ? NOOP : span;
+    }
+
+    /**
+     * Opens a span nested in this one, which becomes the current span of this thread until it is closed.
+     */
+    public Span child(String name) {
+        return recorder == null ? NOOP : new Span(recorder, this, name, System.nanoTime());
+    }
+
+    /**
+     * Sets an attribute of the span; {@code null} values are left out.
+     */
+    public Span attribute(String key, @CheckForNull Object value) {
+        if (recorder != null && value != null) {
+            synchronized (attributes) {
+                attributes.put(key, String.valueOf(value));
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Records a phase nested in this span which was measured rather than opened, such as the start of a process
+     * recognized in its output.
+     * @param startNanos start of the phase, in {@link System#nanoTime()}.
+     * @param endNanos end of the phase, in {@link System#nanoTime()}.
+     */
+    public void record(String name, long startNanos, long endNanos) {
+        if (recorder != null && endNanos >= startNanos) {
+            recorder.add(new SpanData(
+                    newId(8),
+                    id,
+                    depth + 1,
+                    name,
+                    recorder.offsetMicros(startNanos),
+                    TimeUnit.NANOSECONDS.toMicros(endNanos - startNanos),
+                    new LinkedHashMap<>()));
+        }
+    }
+
+    @Override
+    public void close() {
+        if (recorder == null) {
+            return;
+        }
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        }
+        long endNanos = System.nanoTime();
+        if (thread == Thread.currentThread() && CURRENT.get() == this) {
+            if (previous == null) {
+                CURRENT.remove();
+            } else {
+                CURRENT.set(previous);
+            }
+        }
+        Map<String, String> copy;
+        synchronized (attributes) {
+            copy = new LinkedHashMap<>(attributes);
+        }
+        recorder.add(new SpanData(
+                id,
+                parentId,
+                depth,
+                name,
+                recorder.offsetMicros(startNanos),
+                TimeUnit.NANOSECONDS.toMicros(endNanos - startNanos),
+                copy));
+        if (parentId == null) {
+            recorder.finish();
+        }
+    }
+
+    static String newId(int bytes) {
+        StringBuilder id = new StringBuilder(bytes * 2);
+        for (int i = 0; i < bytes; i++) {
+            id.append(String.format("%02x", ThreadLocalRandom.current().nextInt(256)));
+        }
+        return id.toString();
+    }
+
+    /**
+     * Collects the spans of one step.
+     */
+    private static final class Recorder {
+        private final Run<?, ?> run;
+        private final String name;
+        private final String traceId = newId(16);
+        private final long startMillis = System.currentTimeMillis();
+        private final long startNanos = System.nanoTime();
+        private final List<SpanData> spans = new ArrayList<>();
+
+        Recorder(Run<?, ?> run, String name) {
+            this.run = run;
+            this.name = name;
+        }
+
+        long offsetMicros(long nanos) {
+            return TimeUnit.NANOSECONDS.toMicros(nanos - startNanos);
+        }
+
+        synchronized void add(SpanData span) {
+            spans.add(span);
+        }
+
+        void finish() {
+            StepTrace trace;
+            synchronized (this) {
+                trace = new StepTrace(traceId, name, startMillis, spans);
+            }
+            FlywayTraceAction.addTo(run, trace);
+            SpanExporter.exportAll(run, trace);
+        }
+    }
+}
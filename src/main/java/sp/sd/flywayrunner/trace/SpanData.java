@@ -0,0 +1,100 @@
+package sp.sd.flywayrunner.trace;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.Map;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+/**
+ * A finished {@link Span}, with its start relative to the start of its step.
+ */
+@ExportedBean(defaultVisibility = 2)
+public class SpanData implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final String id;
+    private final @CheckForNull String parentId;
+    private final int depth;
+    private final String name;
+    private final long startMicros;
+    private final long durationMicros;
+    private final Map<String, String> attributes;
+
+    SpanData(
+            String id,
+            @CheckForNull String parentId,
+            int depth,
+            String name,
+            long startMicros,
+            long durationMicros,
+            Map<String, String> attributes) {
+        this.id = id;
+        this.parentId = parentId;
+        this.depth = depth;
+        this.name = name;
+        this.startMicros = startMicros;
+        this.durationMicros = durationMicros;
+        this.attributes = attributes;
+    }
+
+    @Exported
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * @return the id of the enclosing span, {@code null} for the root span of the step.
+     */
+    @Exported
+    public @CheckForNull String getParentId() {
+        return parentId;
+    }
+
+    /**
+     * @return the number of spans enclosing this one.
+     */
+    @Exported
+    public int getDepth() {
+        return depth;
+    }
+
+    @Exported
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return microseconds from the start of the step to the start of this span.
+     */
+    @Exported
+    public long getStartMicros() {
+        return startMicros;
+    }
+
+    @Exported
+    public long getDurationMicros() {
+        return durationMicros;
+    }
+
+    @Exported
+    public Map<String, String> getAttributes() {
+        return Collections.unmodifiableMap(attributes);
+    }
+
+    public String getDurationText() {
+        return String.format("%.1f ms", durationMicros / 1000.0);
+    }
+
+    public String getAttributeText() {
+        StringBuilder text = new StringBuilder();
+        for (Map.Entry<String, String> attribute : attributes.entrySet()) {
+            if (text.length() > 0) {
+                text.append(", ");
+            }
+            text.append(attribute.getKey()).append('=').append(attribute.getValue());
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,31 @@
+package sp.sd.flywayrunner.trace;
+
+import hudson.ExtensionList;
+import hudson.ExtensionPoint;
+import hudson.model.Run;
+import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Receives the trace of every Flyway step once the step has finished, to send it to a tracing backend.  Exporters
+ * run on the thread of the step, so they should hand slow work to a queue of their own.
+ */
+public abstract class SpanExporter implements ExtensionPoint {
+    private static final Logger LOG = Logger.getLogger(SpanExporter.class.getName());
+
+    /**
+     * @param run build the step belongs to.
+     */
+    public abstract void export(Run<?, ?> run, StepTrace trace) throws IOException;
+
+    static void exportAll(Run<?, ?> run, StepTrace trace) {
+        for (SpanExporter exporter : ExtensionList.lookup(SpanExporter.class)) {
+            try {
+                exporter.export(run, trace);
+            } catch (IOException | RuntimeException e) {
+                LOG.log(Level.WARNING, "Failed to export the Flyway trace of " + run + " with " + exporter, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package sp.sd.flywayrunner.trace;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+/**
+ * The spans of one Flyway step, each followed by the spans it encloses in the order they started.
+ */
+@ExportedBean(defaultVisibility = 2)
+public class StepTrace implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final String traceId;
+    private final String name;
+    private final long startMillis;
+    private final List<SpanData> spans;
+
+    StepTrace(String traceId, String name, long startMillis, List<SpanData> spans) {
+        this.traceId = traceId;
+        this.name = name;
+        this.startMillis = startMillis;
+        this.spans = treeOrder(spans);
+    }
+
+    private static List<SpanData> treeOrder(List<SpanData> spans) {
+        Map<String, List<SpanData>> children = new HashMap<>();
+        List<SpanData> roots = new ArrayList<>();
+        for (SpanData span : spans) {
+            if (span.getParentId() == null) {
+                roots.add(span);
+            } else {
+                children.computeIfAbsent(span.getParentId(), id -> new ArrayList<>()).add(span);
+            }
+        }
+        List<SpanData> ordered = new ArrayList<>(spans.size());
+        for (SpanData root : roots) {
+            add(root, children, ordered);
+        }
+        return ordered;
+    }
+
+    private static void add(SpanData span, Map<String, List<SpanData>> children, List<SpanData> ordered) {
+        ordered.add(span);
+        List<SpanData> nested = children.getOrDefault(span.getId(), Collections.emptyList());
+        nested.sort(Comparator.comparingLong(SpanData::getStartMicros));
+        for (SpanData child : nested) {
+            add(child, children, ordered);
+        }
+    }
+
+    /**
+     * @return 32 hexadecimal digits identifying the step, as in W3C trace context.
+     */
+    @Exported
+    public String getTraceId() {
+        return traceId;
+    }
+
+    @Exported
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the start of the step in milliseconds since the epoch.
+     */
+    @Exported
+    public long getStartMillis() {
+        return startMillis;
+    }
+
+    @Exported
+    public List<SpanData> getSpans() {
+        return Collections.unmodifiableList(spans);
+    }
+
+    public long getDurationMicros() {
+        long end = 1;
+        for (SpanData span : spans) {
+            end = Math.max(end, span.getStartMicros() + span.getDurationMicros());
+        }
+        return end;
+    }
+
+    /**
+     * @return where the bar of the span starts in the waterfall, as a CSS percentage.
+     */
+    public String left(SpanData span) {
+        return percent(span.getStartMicros());
+    }
+
+    /**
+     * @return how long the bar of the span is in the waterfall, as a CSS percentage.
+     */
+    public String width(SpanData span) {
+        return percent(span.getDurationMicros());
+    }
+
+    private String percent(long micros) {
+        return String.format(Locale.ROOT, "%.3f%%", 100.0 * micros / getDurationMicros());
+    }
+}
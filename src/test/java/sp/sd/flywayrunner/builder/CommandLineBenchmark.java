@@ -0,0 +1,87 @@
+package sp.sd.flywayrunner.builder;
+
+import com.cloudbees.plugins.credentials.Credentials;
+import com.cloudbees.plugins.credentials.CredentialsScope;
+import com.cloudbees.plugins.credentials.SystemCredentialsProvider;
+import com.cloudbees.plugins.credentials.impl.UsernamePasswordCredentialsImpl;
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.model.FreeStyleBuild;
+import hudson.model.FreeStyleProject;
+import hudson.model.TaskListener;
+import hudson.util.ArgumentListBuilder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import jenkins.benchmark.jmh.JmhBenchmark;
+import jenkins.benchmark.jmh.JmhBenchmarkState;
+import jenkins.model.Jenkins;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import sp.sd.flywayrunner.installation.FlywayInstallation;
+
+/**
+ * Building the Flyway command line of a step and resolving its credentials in a Jenkins with many credentials.
+ */
+@JmhBenchmark
+public class CommandLineBenchmark {
+
+    public static class JenkinsState extends JmhBenchmarkState {
+        @Param({"10000"})
+        int credentials;
+
+        FlywayBuilder builder;
+        FlywayTarget target;
+        FreeStyleBuild build;
+        FilePath workspace;
+        Launcher launcher;
+        String credentialsId;
+
+        @Override
+        public void setup() throws Exception {
+            Jenkins jenkins = getJenkins();
+            Path home = Files.createTempDirectory("flyway-home");
+            Path executable = Files.createFile(home.resolve("flyway"));
+            jenkins.getDescriptorByType(FlywayInstallation.DescriptorImpl.class)
+                    .setInstallations(
+                            new FlywayInstallation("flyway", executable.toString(), Collections.emptyList()));
+            List<Credentials> store = SystemCredentialsProvider.getInstance().getCredentials();
+            for (int i = 0; i < credentials; i++) {
+                store.add(new UsernamePasswordCredentialsImpl(
+                        CredentialsScope.GLOBAL, "db-" + i, null, "user" + i, "password-" + i));
+            }
+            SystemCredentialsProvider.getInstance().save();
+            // the last credentials are the worst case of a scan
+            credentialsId = "db-" + (credentials - 1);
+            builder = new FlywayBuilder(
+                    "flyway",
+                    "migrate",
+                    "jdbc:h2:mem:${JOB_NAME}",
+                    "filesystem:db/migration",
+                    "-schemas=app -placeholders.build=${BUILD_NUMBER}",
+                    credentialsId);
+            target = builder.getEffectiveTargets().get(0);
+            FreeStyleProject project = jenkins.createProject(FreeStyleProject.class, "benchmark");
+            build = project.scheduleBuild2(0).get();
+            workspace = build.getWorkspace();
+            launcher = new Launcher.LocalLauncher(TaskListener.NULL);
+        }
+    }
+
+    @Benchmark
+    public ArgumentListBuilder composeFlywayCommand(JenkinsState state) throws Exception {
+        return state.builder.composeFlywayCommand(
+                state.build, TaskListener.NULL, state.launcher, state.workspace, state.target, true);
+    }
+
+    @Benchmark
+    public DatabaseCredentials lookupCredentials(JenkinsState state) throws Exception {
+        return DatabaseCredentials.lookup(state.build, state.credentialsId);
+    }
+
+    @Benchmark
+    public DatabaseCredentials resolveCachedCredentials(JenkinsState state) throws Exception {
+        return DatabaseCredentials.resolve(state.build, state.credentialsId);
+    }
+}
@@ -0,0 +1,216 @@
+package sp.sd.flywayrunner.builder;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import hudson.model.FreeStyleProject;
+import hudson.model.Job;
+import hudson.model.Label;
+import hudson.model.Result;
+import hudson.model.Run;
+import hudson.remoting.VirtualChannel;
+import hudson.slaves.DumbSlave;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import jenkins.model.ParameterizedJobMixIn;
+import jenkins.security.MasterToSlaveCallable;
+import org.apache.commons.lang3.SystemUtils;
+import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
+import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.api.io.TempDir;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.junit.jupiter.WithJenkins;
+import sp.sd.flywayrunner.installation.FlywayInstallation;
+import sp.sd.flywayrunner.metrics.DurationHistory;
+
+/**
+ * Runs many freestyle and pipeline Flyway builds at once on local agents against file based H2 databases, and
+ * reports throughput, step latency, controller threads and agent heap.  It only runs when asked for:
+ * <pre>
+ * mvn test -Dtest=ConcurrentBuildsLoadTest -Dflyway.loadTest=true -Dflyway.loadTest.builds=32
+ * </pre>
+ * Half of the builds are pipelines.  {@code flyway.loadTest.agents}, {@code flyway.loadTest.migrations},
+ * {@code flyway.loadTest.executionMode} and {@code flyway.loadTest.lockDatabase} change the rest of the load.
+ */
+@WithJenkins
+@EnabledIfSystemProperty(named = "flyway.loadTest", matches = "true")
+public class ConcurrentBuildsLoadTest {
+    private static final String PREFIX = "flyway.loadTest.";
+    private static final long SAMPLE_MILLIS = 100;
+
+    @Test
+    public void shouldRunConcurrentBuilds(JenkinsRule jenkinsRule, @TempDir Path temporaryFolder) throws Exception {
+        int builds = Integer.getInteger(PREFIX + "builds", 16);
+        int agents = Integer.getInteger(PREFIX + "agents", 4);
+        int migrations = Integer.getInteger(PREFIX + "migrations", 20);
+        ExecutionMode executionMode = ExecutionMode.valueOf(System.getProperty(PREFIX + "executionMode", "EMBEDDED"));
+        boolean lockDatabase = Boolean.getBoolean(PREFIX + "lockDatabase");
+
+        String flywayHome = System.getProperty("flyway.home");
+        jenkinsRule
+                .getInstance()
+                .getDescriptorByType(FlywayInstallation.DescriptorImpl.class)
+                .setInstallations(new FlywayInstallation(
+                        "flyway",
+                        flywayHome + (SystemUtils.IS_OS_WINDOWS ? "/flyway.cmd" : "/flyway"),
+                        JenkinsRule.NO_PROPERTIES));
+        List<DumbSlave> nodes = new ArrayList<>();
+        for (int i = 0; i < agents; i++) {
+            DumbSlave agent = new DumbSlave(
+                    "load-" + i,
+                    temporaryFolder.resolve("agent-" + i).toString(),
+                    jenkinsRule.createComputerLauncher(null));
+            agent.setNumExecutors((builds + agents - 1) / agents);
+            agent.setLabelString("load");
+            jenkinsRule.getInstance().addNode(agent);
+            nodes.add(agent);
+        }
+        for (DumbSlave agent : nodes) {
+            jenkinsRule.waitOnline(agent);
+        }
+        Path migrationDirectory = Files.createDirectory(temporaryFolder.resolve("migrations"));
+        for (int i = 1; i <= migrations; i++) {
+            Files.writeString(
+                    migrationDirectory.resolve("V" + i + "__step_" + i + ".sql"),
+                    "CREATE TABLE step_" + i + " (id INT PRIMARY KEY, name VARCHAR(100));\n"
+                            + "INSERT INTO step_" + i + " VALUES (1, 'first');\n",
+                    StandardCharsets.UTF_8);
+        }
+        String locations = "filesystem:" + migrationDirectory.toAbsolutePath();
+        String url = "jdbc:h2:" + temporaryFolder.resolve("databases").toAbsolutePath() + "/${JOB_NAME}";
+
+        List<Job<?, ?>> jobs = new ArrayList<>();
+        for (int i = 0; i < builds; i++) {
+            if (i % 2 == 0) {
+                FreeStyleProject project = jenkinsRule.createFreeStyleProject("freestyle-" + i);
+                FlywayBuilder builder = new FlywayBuilder("flyway", "migrate", url, locations, "", "");
+                builder.setExecutionMode(executionMode);
+                builder.setLockDatabase(lockDatabase);
+                project.getBuildersList().add(builder);
+                project.setAssignedLabel(Label.get("load"));
+                jobs.add(project);
+            } else {
+                WorkflowJob pipeline = jenkinsRule.createProject(WorkflowJob.class, "pipeline-" + i);
+                pipeline.setDefinition(new CpsFlowDefinition(
+                        "node('load') {\n"
+                                + "  flywayrunner(installationName: 'flyway', flywayCommand: 'migrate', url: '" + url
+                                + "', locations: '" + locations + "', commandLineArgs: '', executionMode: '"
+                                + executionMode + "', lockDatabase: " + lockDatabase + ")\n"
+                                + "}",
+                        true));
+                jobs.add(pipeline);
+            }
+        }
+
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        int threadsBefore = threads.getThreadCount();
+        threads.resetPeakThreadCount();
+        Map<String, Long> agentHeap = new ConcurrentHashMap<>();
+        AtomicInteger maxThreads = new AtomicInteger(threadsBefore);
+        ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor();
+        sampler.scheduleAtFixedRate(
+                () -> {
+                    maxThreads.accumulateAndGet(threads.getThreadCount(), Math::max);
+                    for (DumbSlave agent : nodes) {
+                        VirtualChannel channel = agent.getChannel();
+                        if (channel == null) {
+                            continue;
+                        }
+                        try {
+                            agentHeap.merge(agent.getNodeName(), channel.call(new UsedHeap()), Math::max);
+                        } catch (Exception e) {
+                            // the agent is busy or going away, the next sample counts
+                        }
+                    }
+                },
+                0,
+                SAMPLE_MILLIS,
+                TimeUnit.MILLISECONDS);
+
+        long start = System.nanoTime();
+        List<Future<? extends Run<?, ?>>> futures = new ArrayList<>();
+        try {
+            for (Job<?, ?> job : jobs) {
+                futures.add(((ParameterizedJobMixIn.ParameterizedJob<?, ?>) job).scheduleBuild2(0));
+            }
+            for (Future<? extends Run<?, ?>> future : futures) {
+                jenkinsRule.assertBuildStatus(Result.SUCCESS, future.get(10, TimeUnit.MINUTES));
+            }
+        } finally {
+            sampler.shutdownNow();
+        }
+        long wallMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        List<Long> stepMillis = new ArrayList<>();
+        for (Job<?, ?> job : jobs) {
+            for (DurationHistory.Entry entry : DurationHistory.read(job)) {
+                if (entry.getKind() == DurationHistory.Kind.STEP) {
+                    stepMillis.add(entry.getMillis());
+                }
+            }
+        }
+        assertThat(stepMillis.size(), is(builds));
+        Collections.sort(stepMillis);
+
+        StringBuilder report = new StringBuilder("Flyway load test: ")
+                .append(builds)
+                .append(" builds, ")
+                .append(agents)
+                .append(" agents, ")
+                .append(migrations)
+                .append(" migrations, ")
+                .append(executionMode)
+                .append(lockDatabase ? ", database locks" : "")
+                .append('\n');
+        report.append(String.format(
+                "  throughput        %.2f builds/s in %d ms%n", builds * 1000.0 / wallMillis, wallMillis));
+        report.append(String.format(
+                "  step latency      p50 %d ms, p99 %d ms, max %d ms%n",
+                percentile(stepMillis, 0.50),
+                percentile(stepMillis, 0.99),
+                stepMillis.get(stepMillis.size() - 1)));
+        report.append(String.format(
+                "  controller threads %d before, %d sampled max, %d peak%n",
+                threadsBefore,
+                maxThreads.get(),
+                threads.getPeakThreadCount()));
+        for (DumbSlave agent : nodes) {
+            Long heap = agentHeap.get(agent.getNodeName());
+            report.append(String.format(
+                    "  agent %-12s %s MB max used heap%n",
+                    agent.getNodeName(),
+                    heap == null ? "?" : String.valueOf(heap / (1024 * 1024))));
+        }
+        System.out.print(report);
+    }
+
+    private static long percentile(List<Long> sorted, double quantile) {
+        int index = (int) Math.ceil(quantile * sorted.size()) - 1;
+        return sorted.get(Math.max(0, Math.min(index, sorted.size() - 1)));
+    }
+
+    private static final class UsedHeap extends MasterToSlaveCallable<Long, RuntimeException> {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public Long call() {
+            Runtime runtime = Runtime.getRuntime();
+            return runtime.totalMemory() - runtime.freeMemory();
+        }
+    }
+}
@@ -1,16 +1,26 @@
 package sp.sd.flywayrunner.builder;
 
 import static org.hamcrest.CoreMatchers.allOf;
+import static org.hamcrest.CoreMatchers.hasItems;
 import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.core.StringContains.containsString;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assumptions.assumeFalse;
 
 import com.cloudbees.plugins.credentials.Credentials;
 import com.cloudbees.plugins.credentials.CredentialsProvider;
 import com.cloudbees.plugins.credentials.CredentialsScope;
 import com.cloudbees.plugins.credentials.domains.Domain;
 import com.cloudbees.plugins.credentials.impl.UsernamePasswordCredentialsImpl;
+import hudson.AbortException;
+import hudson.FilePath;
+import hudson.Launcher;
 import hudson.model.*;
+import hudson.util.Secret;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
@@ -19,11 +29,16 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.RandomStringUtils;
 import org.apache.commons.lang3.SystemUtils;
 import org.h2.jdbcx.JdbcDataSource;
+import org.jenkinsci.plugins.plaincredentials.impl.StringCredentialsImpl;
 import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
 import org.jenkinsci.plugins.workflow.job.WorkflowJob;
 import org.jenkinsci.plugins.workflow.job.WorkflowRun;
@@ -32,6 +47,15 @@ import org.junit.jupiter.api.io.TempDir;
 import org.jvnet.hudson.test.JenkinsRule;
 import org.jvnet.hudson.test.junit.jupiter.WithJenkins;
 import sp.sd.flywayrunner.installation.FlywayInstallation;
+import sp.sd.flywayrunner.metrics.FlywayTrendAction;
+import sp.sd.flywayrunner.results.FlywayCommandResult;
+import sp.sd.flywayrunner.results.FlywayResultsAction;
+import sp.sd.flywayrunner.state.DatabaseStateAction;
+import sp.sd.flywayrunner.state.SchemaSnapshot;
+import sp.sd.flywayrunner.state.TargetState;
+import sp.sd.flywayrunner.trace.FlywayTraceAction;
+import sp.sd.flywayrunner.trace.SpanData;
+import sp.sd.flywayrunner.trace.StepTrace;
 
 @WithJenkins
 public class FlywayBuilderIntegrationTest {
@@ -65,6 +89,254 @@ public class FlywayBuilderIntegrationTest {
 
         String buildLog = IOUtils.toString(build.getLogReader());
         assertThat(buildLog, containsString("Successfully applied 1 migration"));
+        // the migration is timed from the text output of the command line
+        assertThat(project.getAction(FlywayTrendAction.class).getTrends().size(), is(2));
+    }
+
+    @Test
+    public void shouldCondenseConsoleOutput(JenkinsRule jenkinsRule, @TempDir Path temporaryFolder) throws Exception {
+        setup(jenkinsRule, temporaryFolder);
+        supplyMigrationFromResource(SIMPLE_MIGRATION);
+        project.getBuildersList().get(FlywayBuilder.class).setLogMode(LogMode.CONDENSED);
+        FreeStyleBuild build = project.scheduleBuild2(0).get();
+
+        assertThat(build.getResult(), is(Result.SUCCESS));
+        String buildLog = IOUtils.toString(build.getLogReader());
+        assertThat(buildLog, containsString("Successfully applied 1 migration"));
+        assertThat(buildLog, not(containsString("Migrating schema")));
+        assertThat(build.getArtifacts().size(), is(1));
+        String artifact = build.getArtifacts().get(0).relativePath;
+        assertThat(buildLog, containsString("Full Flyway output archived as " + artifact));
+        try (InputStream in = new GZIPInputStream(build.getArtifactManager().root().child(artifact).open())) {
+            String fullLog = IOUtils.toString(in, StandardCharsets.UTF_8);
+            assertThat(fullLog, allOf(containsString("Migrating schema"), containsString("Successfully applied")));
+        }
+    }
+
+    @Test
+    public void shouldRunFreestyleJobEmbedded(JenkinsRule jenkinsRule, @TempDir Path temporaryFolder) throws Exception {
+        setup(jenkinsRule, temporaryFolder);
+        supplyMigrationFromResource(SIMPLE_MIGRATION);
+        FlywayBuilder builder = new FlywayBuilder(
+                "flyway",
+                "migrate",
+                "jdbc:h2:mem:embedded",
+                "filesystem:" + migrationFileDirectory.getAbsolutePath(),
+                "",
+                "");
+        builder.setExecutionMode(ExecutionMode.EMBEDDED);
+        FreeStyleProject freeStyleProject = jenkinsRule.createFreeStyleProject();
+        freeStyleProject.getBuildersList().add(builder);
+        FreeStyleBuild build = freeStyleProject.scheduleBuild2(0).get();
+
+        assertThat(build.getResult(), is(Result.SUCCESS));
+
+        String buildLog = IOUtils.toString(build.getLogReader());
+        assertThat(buildLog, containsString("Successfully applied 1 migration"));
+        assertThat(build.getAction(FlywayResultsAction.class).getAppliedMigrationCount(), is(1));
+        FlywayTrendAction trend = freeStyleProject.getAction(FlywayTrendAction.class);
+        assertThat(trend.getRecentSteps().size(), is(1));
+        assertThat(trend.getTrends().size(), is(2));
+        List<StepTrace> traces = build.getAction(FlywayTraceAction.class).getTraces();
+        assertThat(traces.size(), is(1));
+        List<String> spans = new ArrayList<>();
+        for (SpanData span : traces.get(0).getSpans()) {
+            spans.add(span.getName());
+        }
+        assertThat(spans, hasItems("Flyway migrate", "Target", "Environment", "Flyway embedded"));
+    }
+
+    @Test
+    public void shouldRunCommandsInOrderAndStopAtFailure(JenkinsRule jenkinsRule, @TempDir Path temporaryFolder)
+            throws Exception {
+        setup(jenkinsRule, temporaryFolder);
+        supplyMigrationFromResource(SIMPLE_MIGRATION);
+        FlywayBuilder builder = new FlywayBuilder(
+                "flyway",
+                null,
+                "jdbc:h2:mem:sequence",
+                "filesystem:" + migrationFileDirectory.getAbsolutePath(),
+                "",
+                "");
+        builder.setExecutionMode(ExecutionMode.EMBEDDED);
+        builder.setFlywayCommands(Arrays.asList("migrate", "unknown", "info"));
+        FreeStyleProject freeStyleProject = jenkinsRule.createFreeStyleProject();
+        freeStyleProject.getBuildersList().add(builder);
+        FreeStyleBuild build = freeStyleProject.scheduleBuild2(0).get();
+
+        assertThat(build.getResult(), is(Result.FAILURE));
+        assertThat(IOUtils.toString(build.getLogReader()), containsString("Not running [info] after unknown failed"));
+        List<FlywayCommandResult> results = build.getAction(FlywayResultsAction.class).getResults();
+        assertThat(results.size(), is(2));
+        assertThat(results.get(0).getOperation(), is("migrate"));
+        assertThat(results.get(0).isSuccess(), is(true));
+        assertThat(results.get(1).isSuccess(), is(false));
+    }
+
+    @Test
+    public void shouldSkipUnchangedMigrations(JenkinsRule jenkinsRule, @TempDir Path temporaryFolder)
+            throws Exception {
+        setup(jenkinsRule, temporaryFolder);
+        supplyMigrationFromResource(SIMPLE_MIGRATION);
+        FlywayBuilder builder = new FlywayBuilder(
+                "flyway",
+                "migrate",
+                "jdbc:h2:mem:unchanged",
+                "filesystem:" + migrationFileDirectory.getAbsolutePath(),
+                "",
+                "");
+        builder.setExecutionMode(ExecutionMode.EMBEDDED);
+        builder.setSkipIfUnchanged(true);
+        FreeStyleProject freeStyleProject = jenkinsRule.createFreeStyleProject();
+        freeStyleProject.getBuildersList().add(builder);
+
+        FreeStyleBuild first = jenkinsRule.buildAndAssertSuccess(freeStyleProject);
+        assertThat(IOUtils.toString(first.getLogReader()), containsString("Successfully applied 1 migration"));
+        FreeStyleBuild second = jenkinsRule.buildAndAssertSuccess(freeStyleProject);
+        assertThat(
+                IOUtils.toString(second.getLogReader()),
+                containsString("migrations, URL and Flyway version are unchanged since build #1"));
+
+        FileUtils.write(
+                new File(migrationFileDirectory, "V1_3__Second.sql"),
+                "CREATE TABLE second (id INT);",
+                StandardCharsets.UTF_8);
+        FreeStyleBuild third = jenkinsRule.buildAndAssertSuccess(freeStyleProject);
+        assertThat(IOUtils.toString(third.getLogReader()), containsString("Running flyway"));
+    }
+
+    @Test
+    public void shouldRestoreDatabaseSnapshots(JenkinsRule jenkinsRule, @TempDir Path temporaryFolder)
+            throws Exception {
+        setup(jenkinsRule, temporaryFolder);
+        supplyMigrationFromResource(SIMPLE_MIGRATION);
+        FlywayBuilder builder = new FlywayBuilder(
+                "flyway",
+                "migrate",
+                "jdbc:h2:" + temporaryFolder.toAbsolutePath() + "/snapshot-${BUILD_NUMBER}",
+                "filesystem:" + migrationFileDirectory.getAbsolutePath(),
+                "",
+                "");
+        builder.setExecutionMode(ExecutionMode.EMBEDDED);
+        builder.setSnapshots(true);
+        FreeStyleProject freeStyleProject = jenkinsRule.createFreeStyleProject();
+        freeStyleProject.getBuildersList().add(builder);
+
+        FreeStyleBuild first = jenkinsRule.buildAndAssertSuccess(freeStyleProject);
+        assertThat(IOUtils.toString(first.getLogReader()), containsString("Saved a database snapshot"));
+
+        FileUtils.write(
+                new File(migrationFileDirectory, "V1_3__Second.sql"),
+                "CREATE TABLE second (id INT);",
+                StandardCharsets.UTF_8);
+        FreeStyleBuild second = jenkinsRule.buildAndAssertSuccess(freeStyleProject);
+        String secondLog = IOUtils.toString(second.getLogReader());
+        assertThat(secondLog, containsString("Restored the snapshot of 1 of 2 migrations"));
+        assertThat(secondLog, containsString("Successfully applied 1 migration"));
+
+        // a changed callback changes what the migrated database contains
+        FileUtils.write(
+                new File(migrationFileDirectory, "afterMigrate.sql"),
+                "CREATE TABLE IF NOT EXISTS callback (id INT);",
+                StandardCharsets.UTF_8);
+        FreeStyleBuild third = jenkinsRule.buildAndAssertSuccess(freeStyleProject);
+        String thirdLog = IOUtils.toString(third.getLogReader());
+        assertThat(thirdLog, not(containsString("Restored the snapshot")));
+        assertThat(thirdLog, containsString("No database snapshot of these migrations"));
+    }
+
+    @Test
+    public void shouldRecordDatabaseState(JenkinsRule jenkinsRule, @TempDir Path temporaryFolder) throws Exception {
+        setup(jenkinsRule, temporaryFolder);
+        supplyMigrationFromResource(SIMPLE_MIGRATION);
+        FlywayBuilder builder = new FlywayBuilder(
+                "flyway",
+                "migrate",
+                "jdbc:h2:mem:state",
+                "filesystem:" + migrationFileDirectory.getAbsolutePath(),
+                "",
+                "");
+        builder.setExecutionMode(ExecutionMode.EMBEDDED);
+        FreeStyleProject freeStyleProject = jenkinsRule.createFreeStyleProject();
+        freeStyleProject.getBuildersList().add(builder);
+        jenkinsRule.buildAndAssertSuccess(freeStyleProject);
+        FileUtils.write(
+                new File(migrationFileDirectory, "V1_3__Second.sql"),
+                "CREATE TABLE second (id INT);",
+                StandardCharsets.UTF_8);
+
+        DatabaseStateAction state = freeStyleProject.getAction(DatabaseStateAction.class);
+        assertThat(state.getTargets().size(), is(1));
+        TargetState target = state.getTarget(state.getTargets().get(0).getId());
+        assertThat(target.getSnapshot().getRows().size(), is(1));
+        assertThat(target.getSnapshot().getRows().get(0).getState(), is("Success"));
+        assertThat(target.getDiff().getPending().size(), is(1));
+        assertThat(target.getDiff().getPending().get(0).getVersion(), is("1.3"));
+        // the workspace is only compared again once the history is recorded again
+        TargetState again = state.getTarget(state.getTargets().get(0).getId());
+        assertThat(again.getDiff(), sameInstance(target.getDiff()));
+        assertThat(again.getPendingPage().size(), is(1));
+        assertThat(again.getDiffPageCount(), is(1));
+        assertThat(state.getTarget("../../config"), is(nullValue()));
+    }
+
+    @Test
+    public void shouldRecordDatabaseStateFromCommandLineText(JenkinsRule jenkinsRule, @TempDir Path temporaryFolder)
+            throws Exception {
+        setup(jenkinsRule, temporaryFolder);
+        supplyMigrationFromResource(SIMPLE_MIGRATION);
+        FlywayBuilder builder = new FlywayBuilder(
+                "flyway",
+                "migrate",
+                "jdbc:h2:" + temporaryFolder.resolve("state").toAbsolutePath(),
+                "filesystem:" + migrationFileDirectory.getAbsolutePath(),
+                "",
+                "");
+        FreeStyleProject freeStyleProject = jenkinsRule.createFreeStyleProject();
+        freeStyleProject.getBuildersList().add(builder);
+        jenkinsRule.buildAndAssertSuccess(freeStyleProject);
+
+        DatabaseStateAction state = freeStyleProject.getAction(DatabaseStateAction.class);
+        assertThat(state.getTargets().size(), is(1));
+        String id = state.getTargets().get(0).getId();
+        assertThat(state.getTarget(id).getSnapshot().getRows().size(), is(1));
+        assertThat(state.getTarget(id).getSnapshot().getRows().get(0).getVersion(), is("1.2"));
+
+        FileUtils.write(
+                new File(migrationFileDirectory, "V1_3__Second.sql"),
+                "CREATE TABLE second (id INT);",
+                StandardCharsets.UTF_8);
+        builder.setFlywayCommands(Arrays.asList("info"));
+        jenkinsRule.buildAndAssertSuccess(freeStyleProject);
+
+        List<SchemaSnapshot.Row> rows = state.getTarget(id).getSnapshot().getRows();
+        assertThat(rows.size(), is(2));
+        assertThat(rows.get(0).getState(), is("Success"));
+        assertThat(rows.get(1).getVersion(), is("1.3"));
+        assertThat(rows.get(1).getState(), is("Pending"));
+    }
+
+    @Test
+    public void shouldMigrateAllTargets(JenkinsRule jenkinsRule, @TempDir Path temporaryFolder) throws Exception {
+        setup(jenkinsRule, temporaryFolder);
+        supplyMigrationFromResource(SIMPLE_MIGRATION);
+        FlywayBuilder builder = new FlywayBuilder(
+                "flyway", "migrate", "", "filesystem:" + migrationFileDirectory.getAbsolutePath(), "", "");
+        builder.setTargets(List.of(new FlywayTarget("jdbc:h2:mem:tenant1"), new FlywayTarget("jdbc:h2:mem:tenant2")));
+        builder.setParallelism(2);
+        FreeStyleProject freeStyleProject = jenkinsRule.createFreeStyleProject();
+        freeStyleProject.getBuildersList().add(builder);
+        FreeStyleBuild build = freeStyleProject.scheduleBuild2(0).get();
+
+        assertThat(build.getResult(), is(Result.SUCCESS));
+
+        String buildLog = IOUtils.toString(build.getLogReader());
+        assertThat(
+                buildLog,
+                allOf(
+                        containsString("[jdbc:h2:mem:tenant1] "),
+                        containsString("[jdbc:h2:mem:tenant2] "),
+                        containsString("Flyway target summary:")));
     }
 
     @Test
@@ -85,6 +357,26 @@ public class FlywayBuilderIntegrationTest {
                         containsString("flyway -user=foo ******** -url=jdbc:h2:mem:test")));
     }
 
+    @Test
+    public void shouldRunDurablePipelineStep(JenkinsRule jenkinsRule, @TempDir Path temporaryFolder) throws Exception {
+        setup(jenkinsRule, temporaryFolder);
+        String pipeline = IOUtils.toString(
+                FlywayBuilderIntegrationTest.class.getResourceAsStream("/pipelines/durable-pipeline.groovy"),
+                StandardCharsets.UTF_8);
+        createJenkinsPipelineCredentials(jenkinsRule);
+        WorkflowJob workflowJob = jenkinsRule.createProject(WorkflowJob.class);
+        workflowJob.setDefinition(new CpsFlowDefinition(pipeline, true));
+        WorkflowRun run = jenkinsRule.buildAndAssertSuccess(workflowJob);
+
+        assertThat(
+                run.getLog(),
+                allOf(
+                        containsString("Launching Flyway as a durable task"),
+                        containsString("Flyway applied 1 migration(s)"),
+                        containsString("Flyway migrate succeeded: true, version 1")));
+        assertThat(run.getLog(), not(containsString("-password")));
+    }
+
     @Test
     public void shouldFailWhenMigrationHasError(JenkinsRule jenkinsRule, @TempDir Path temporaryFolder)
             throws Exception {
@@ -95,6 +387,10 @@ public class FlywayBuilderIntegrationTest {
         assertThat(build.getResult(), is(Result.FAILURE));
         String buildLog = IOUtils.toString(build.getLogReader());
         assertThat(buildLog, containsString("Syntax error"));
+        FlywayCommandResult failed =
+                build.getAction(FlywayResultsAction.class).getResults().get(0);
+        assertThat(failed.isSuccess(), is(false));
+        assertThat(failed.getFailedStatement(), containsString("I am not a valid SQL statement"));
     }
 
     @Test
@@ -123,6 +419,100 @@ public class FlywayBuilderIntegrationTest {
         assertThat(build.getResult(), is(Result.SUCCESS));
     }
 
+    @Test
+    public void shouldUseSecretTextCredentialsAsPassword(JenkinsRule jenkinsRule, @TempDir Path temporaryFolder)
+            throws Exception {
+        setup(jenkinsRule, temporaryFolder);
+        String password = RandomStringUtils.insecure().nextAlphabetic(5);
+        String credentialsId = RandomStringUtils.insecure().nextAlphabetic(10);
+        CredentialsProvider.lookupStores(jenkinsRule.getInstance())
+                .iterator()
+                .next()
+                .addCredentials(
+                        Domain.global(),
+                        new StringCredentialsImpl(
+                                CredentialsScope.GLOBAL, credentialsId, "token", Secret.fromString(password)));
+
+        // the secret text only gives the password, so the user comes with the URL
+        String jdbcUrl = createDatabase(jenkinsRule, temporaryFolder, "sa", password) + ";USER=sa";
+
+        FreeStyleProject freeStyleProject = jenkinsRule.createFreeStyleProject();
+        FlywayBuilder builder = new FlywayBuilder(
+                "flyway",
+                "migrate",
+                jdbcUrl,
+                "filesystem:" + migrationFileDirectory.getAbsolutePath(),
+                "",
+                credentialsId);
+        freeStyleProject.getBuildersList().add(builder);
+
+        FreeStyleBuild build = jenkinsRule.buildAndAssertSuccess(freeStyleProject);
+        String buildLog = IOUtils.toString(build.getLogReader());
+        assertThat(buildLog, containsString("No migration necessary."));
+        assertThat(buildLog, not(containsString(password)));
+        assertThat(builder.getCredentialsPassword(freeStyleProject), is(password));
+        assertThat(builder.getUsername(freeStyleProject), is(nullValue()));
+    }
+
+    @Test
+    public void shouldAbortWhenCredentialsAreMissing(JenkinsRule jenkinsRule, @TempDir Path temporaryFolder)
+            throws Exception {
+        setup(jenkinsRule, temporaryFolder);
+        FreeStyleProject freeStyleProject = jenkinsRule.createFreeStyleProject();
+        FlywayBuilder builder = new FlywayBuilder(
+                "flyway",
+                "migrate",
+                "jdbc:h2:mem:test",
+                "filesystem:" + migrationFileDirectory.getAbsolutePath(),
+                "",
+                "no-such-credentials");
+        freeStyleProject.getBuildersList().add(builder);
+
+        FreeStyleBuild build = jenkinsRule.buildAndAssertStatus(Result.FAILURE, freeStyleProject);
+        String buildLog = IOUtils.toString(build.getLogReader());
+        assertThat(buildLog, containsString("Could not find the credentials no-such-credentials"));
+    }
+
+    @Test
+    public void shouldAbortWhenAgentIsGone(JenkinsRule jenkinsRule, @TempDir Path temporaryFolder) throws Exception {
+        setup(jenkinsRule, temporaryFolder);
+        FreeStyleBuild build = jenkinsRule.buildAndAssertSuccess(jenkinsRule.createFreeStyleProject());
+        Slave agent = jenkinsRule.createOnlineSlave();
+        FilePath workspace = agent.getWorkspaceFor(project);
+        Launcher launcher = agent.createLauncher(TaskListener.NULL);
+        jenkinsRule.getInstance().removeNode(agent);
+        FlywayBuilder builder = project.getBuildersList().get(FlywayBuilder.class);
+
+        AbortException aborted = assertThrows(
+                AbortException.class,
+                () -> builder.composeFlywayCommand(
+                        build, TaskListener.NULL, launcher, workspace, builder.getEffectiveTargets().get(0), false));
+        assertThat(aborted.getMessage(), is("Agent is offline, cannot run Flyway."));
+    }
+
+    @Test
+    public void shouldKillFlywayWhenBuildIsAborted(JenkinsRule jenkinsRule, @TempDir Path temporaryFolder)
+            throws Exception {
+        assumeFalse(SystemUtils.IS_OS_WINDOWS);
+        setup(jenkinsRule, temporaryFolder);
+        Path pidFile = temporaryFolder.resolve("flyway.pid");
+        Path flyway = Files.createDirectory(temporaryFolder.resolve("hanging")).resolve("flyway");
+        Files.writeString(flyway, "#!/bin/sh\necho $$ > '" + pidFile + "'\nexec sleep 600\n");
+        assertThat(flyway.toFile().setExecutable(true), is(true));
+        createFlywayJenkinsInstallation(jenkinsRule, flyway.getParent().toString());
+        project.getBuildersList().get(FlywayBuilder.class).setFatalOutputPatterns("Waiting for lock");
+        FreeStyleBuild build = project.scheduleBuild2(0).waitForStart();
+        while (!Files.exists(pidFile) || Files.readString(pidFile).trim().isEmpty()) {
+            Thread.sleep(100);
+        }
+        long pid = Long.parseLong(Files.readString(pidFile).trim());
+
+        build.getExecutor().interrupt();
+
+        jenkinsRule.assertBuildStatus(Result.ABORTED, jenkinsRule.waitForCompletion(build));
+        assertThat(ProcessHandle.of(pid).map(ProcessHandle::isAlive).orElse(false), is(false));
+    }
+
     private FreeStyleProject createFlywayJenkinsProject(JenkinsRule jenkinsRule, File migrationDir) throws IOException {
         FreeStyleProject freeStyleProject = jenkinsRule.createFreeStyleProject();
         FlywayBuilder flywayBuilder = new FlywayBuilder(
@@ -0,0 +1,43 @@
+package sp.sd.flywayrunner.builder;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class FlywayDaemonTest {
+
+    @Test
+    public void shouldNotAcquireRetiredSession(@TempDir Path home) throws Exception {
+        FlywayDaemon.Session retired = FlywayDaemon.session("retired", home.toString(), 60000, 1);
+        FlywayDaemon.Session replacement =
+                FlywayDaemon.session("retired", home.resolve("other").toString(), 60000, 1);
+
+        assertThat(replacement, not(sameInstance(retired)));
+        assertThat(retired.acquire(), is(false));
+        assertThrows(IllegalStateException.class, () -> retired.getClassLoader(getClass().getClassLoader()));
+        assertThat(replacement.acquire(), is(true));
+        replacement.getClassLoader(getClass().getClassLoader());
+        replacement.release();
+    }
+
+    @Test
+    public void shouldFindTheInstalledFlywayVersion(@TempDir Path home) throws Exception {
+        assertThat(FlywayDaemon.installedVersion(home.toString()), is(nullValue()));
+        Path lib = Files.createDirectories(home.resolve("lib").resolve("flyway"));
+        Files.createFile(lib.resolve("flyway-commandline-9.22.3.jar"));
+        Files.createFile(lib.resolve("flyway-core-9.22.3.jar"));
+
+        assertThat(FlywayDaemon.installedVersion(home.toString()), is("9.22.3"));
+        assertThat(FlywayDaemon.installedVersion(Files.createFile(home.resolve("flyway")).toString()), is("9.22.3"));
+        assertThat(FlywayDaemon.bundledVersion(), is(notNullValue()));
+    }
+}
@@ -0,0 +1,71 @@
+package sp.sd.flywayrunner.builder;
+
+import static org.junit.jupiter.api.Assumptions.assumeFalse;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.apache.commons.lang3.SystemUtils;
+import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
+import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.junit.jupiter.api.io.TempDir;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.junit.jupiter.JenkinsSessionExtension;
+import sp.sd.flywayrunner.installation.FlywayInstallation;
+
+public class FlywayDurableStepRestartTest {
+
+    @RegisterExtension
+    private final JenkinsSessionExtension sessions = new JenkinsSessionExtension();
+
+    @Test
+    public void shouldResumeFlywayAfterRestart(@TempDir Path temporaryFolder) throws Throwable {
+        assumeFalse(SystemUtils.IS_OS_WINDOWS);
+        // Flyway is held back until the controller has been restarted
+        Path release = temporaryFolder.resolve("release");
+        Path flyway = temporaryFolder.resolve("flyway");
+        Files.writeString(
+                flyway,
+                "#!/bin/sh\n"
+                        + "echo 'Waiting for release'\n"
+                        + "while [ ! -f '" + release + "' ]; do sleep 1; done\n"
+                        + "exec '" + System.getProperty("flyway.home") + "/flyway' \"$@\"\n");
+        flyway.toFile().setExecutable(true);
+        sessions.then(jenkinsRule -> {
+            createFlywayInstallation(jenkinsRule, flyway);
+            WorkflowJob workflowJob = jenkinsRule.createProject(WorkflowJob.class, "durable");
+            workflowJob.setDefinition(new CpsFlowDefinition(
+                    "node {\n"
+                            + "  writeFile(file: 'migrations/V1__init.sql', text: 'CREATE TABLE test (id INT);')\n"
+                            + "  def result = flywayDurable(flywayCommand: 'migrate', installationName: 'flyway',"
+                            + " locations: \"filesystem:${pwd()}/migrations\", url: 'jdbc:h2:mem:test',"
+                            + " commandLineArgs: '')\n"
+                            + "  echo(\"Flyway exited with ${result.exitStatus}\")\n"
+                            + "}",
+                    true));
+            WorkflowRun run = workflowJob.scheduleBuild2(0).waitForStart();
+            jenkinsRule.waitForMessage("Waiting for release", run);
+        });
+        sessions.then(jenkinsRule -> {
+            createFlywayInstallation(jenkinsRule, flyway);
+            WorkflowRun run = jenkinsRule
+                    .getInstance()
+                    .getItemByFullName("durable", WorkflowJob.class)
+                    .getBuildByNumber(1);
+            Files.createFile(release);
+
+            jenkinsRule.assertBuildStatusSuccess(jenkinsRule.waitForCompletion(run));
+            jenkinsRule.assertLogContains("Successfully applied 1 migration", run);
+            jenkinsRule.assertLogContains("Flyway exited with 0", run);
+        });
+    }
+
+    private static void createFlywayInstallation(JenkinsRule jenkinsRule, Path flyway) {
+        jenkinsRule
+                .getInstance()
+                .getDescriptorByType(FlywayInstallation.DescriptorImpl.class)
+                .setInstallations(new FlywayInstallation("flyway", flyway.toString(), JenkinsRule.NO_PROPERTIES));
+    }
+}
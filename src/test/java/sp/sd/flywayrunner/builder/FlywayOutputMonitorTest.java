@@ -0,0 +1,53 @@
+package sp.sd.flywayrunner.builder;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+public class FlywayOutputMonitorTest {
+
+    private static final String FAILED_MIGRATION = "Migrating schema \"PUBLIC\" to version \"1.2 - Broken\"\n"
+            + "ERROR: Migration V1_2__Broken.sql failed\n"
+            + "-----------------------------------\n"
+            + "SQL State  : 42001\n"
+            + "Error Code : 42001\n"
+            + "Message    : Syntax error in SQL statement\n"
+            + "Location   : /migrations/V1_2__Broken.sql\n"
+            + "Line       : 1\n"
+            + "Statement  : I am not a valid SQL statement\n";
+
+    @Test
+    public void shouldRecognizeErrorReportSplitAcrossWrites() throws Exception {
+        FlywayOutputMonitor monitor = new FlywayOutputMonitor(Collections.emptyList());
+        byte[] output = FAILED_MIGRATION.getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i < output.length; i += 7) {
+            monitor.write(output, i, Math.min(7, output.length - i));
+        }
+        monitor.close();
+
+        assertThat(monitor.getErrorMessage(), is("Migration V1_2__Broken.sql failed"));
+        assertThat(monitor.getSqlState(), is("42001"));
+        assertThat(monitor.getErrorCode(), is("42001"));
+        assertThat(monitor.getStatement(), is("I am not a valid SQL statement"));
+        assertThat(monitor.getFatalPattern(), nullValue());
+    }
+
+    @Test
+    public void shouldSignalFatalPatterns() throws Exception {
+        FlywayOutputMonitor monitor = new FlywayOutputMonitor(List.of("Waiting for lock"));
+        monitor.write("Database: jdbc:h2:mem:test\n".getBytes(StandardCharsets.UTF_8));
+        assertThat(monitor.awaitFatal(0, TimeUnit.MILLISECONDS), is(false));
+
+        monitor.write("Waiting for lock on schema history table\n".getBytes(StandardCharsets.UTF_8));
+
+        assertThat(monitor.awaitFatal(0, TimeUnit.MILLISECONDS), is(true));
+        assertThat(monitor.getFatalPattern(), is("Waiting for lock"));
+        assertThat(monitor.getLockWaits(), is(1));
+    }
+}
@@ -0,0 +1,86 @@
+package sp.sd.flywayrunner.builder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import jenkins.benchmark.jmh.JmhBenchmark;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import sp.sd.flywayrunner.results.FlywayCommandResult;
+import sp.sd.flywayrunner.results.FlywayJsonOutputParser;
+
+/**
+ * Watching the console output of a migration of many scripts and parsing its JSON output, written in the chunks a
+ * process stream delivers.
+ */
+@JmhBenchmark
+public class OutputParsingBenchmark {
+    private static final int MIGRATIONS = 10_000;
+    private static final int CHUNK = 8192;
+
+    @State(Scope.Benchmark)
+    public static class Output {
+        byte[] console;
+        byte[] json;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            StringBuilder text = new StringBuilder("Flyway OSS Edition by Redgate\nDatabase: jdbc:h2:mem:test\n");
+            StringBuilder migrations = new StringBuilder();
+            for (int i = 1; i <= MIGRATIONS; i++) {
+                text.append("Migrating schema \"PUBLIC\" to version \"")
+                        .append(i)
+                        .append(" - step ")
+                        .append(i)
+                        .append("\"\n");
+                if (i > 1) {
+                    migrations.append(',');
+                }
+                migrations
+                        .append("{\"category\":\"Versioned\",\"version\":\"")
+                        .append(i)
+                        .append("\",\"description\":\"step ")
+                        .append(i)
+                        .append("\",\"type\":\"SQL\",\"filepath\":\"/db/migration/V")
+                        .append(i)
+                        .append("__step.sql\",\"executionTime\":3}");
+            }
+            text.append("ERROR: Migration V")
+                    .append(MIGRATIONS + 1)
+                    .append("__broken.sql failed\n")
+                    .append("SQL State  : 42001\n")
+                    .append("Error Code : 42001\n")
+                    .append("Statement  : I am not a valid SQL statement\n");
+            console = text.toString().getBytes(StandardCharsets.UTF_8);
+            json = ("{\"migrations\":[" + migrations + "],\"migrationsExecuted\":" + MIGRATIONS
+                            + ",\"success\":true,\"warnings\":[],\"operation\":\"migrate\"}\n")
+                    .getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    @Benchmark
+    public String monitorConsole(Output output) throws IOException {
+        FlywayOutputMonitor monitor = new FlywayOutputMonitor(List.of("Waiting for lock", "Lock wait timeout"));
+        write(monitor, output.console);
+        monitor.close();
+        return monitor.getStatement();
+    }
+
+    @Benchmark
+    public List<FlywayCommandResult> parseJson(Output output) throws IOException {
+        FlywayJsonOutputParser parser = new FlywayJsonOutputParser();
+        write(parser, output.json);
+        parser.close();
+        return parser.getResults();
+    }
+
+    private static void write(OutputStream out, byte[] bytes) throws IOException {
+        for (int i = 0; i < bytes.length; i += CHUNK) {
+            out.write(bytes, i, Math.min(CHUNK, bytes.length - i));
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package sp.sd.flywayrunner.builder;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.hasItem;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.flywaydb.core.Flyway;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class PreflightCheckTest {
+
+    @Test
+    public void shouldMatchFlywayChecksums(@TempDir Path temporaryFolder) throws Exception {
+        Path migrations = Files.createDirectory(temporaryFolder.resolve("migrations"));
+        Files.writeString(migrations.resolve("V1__First.sql"), "CREATE TABLE first (id INT);\n");
+        Files.writeString(migrations.resolve("V2__Second.sql"), "\uFEFFCREATE TABLE second (\r\n  id INT\r\n);\r\n");
+        Files.writeString(migrations.resolve("R__View.sql"), "CREATE OR REPLACE VIEW v AS SELECT id FROM first;");
+        String url = "jdbc:h2:" + temporaryFolder.resolve("db").toAbsolutePath();
+        migrate(url, migrations);
+
+        PreflightReport report = new PreflightCheck(configuration(url), null, true)
+                .invoke(temporaryFolder.toFile(), null);
+
+        assertThat(report.getErrors().toString(), report.isFailed(), is(false));
+    }
+
+    @Test
+    public void shouldMatchFlywayChecksumsOfOtherEncodings(@TempDir Path temporaryFolder) throws Exception {
+        Path migrations = Files.createDirectory(temporaryFolder.resolve("migrations"));
+        Files.writeString(
+                migrations.resolve("V1__First.sql"),
+                "CREATE TABLE first (name VARCHAR(10) DEFAULT 'caf\u00e9');\n",
+                StandardCharsets.ISO_8859_1);
+        String url = "jdbc:h2:" + temporaryFolder.resolve("db").toAbsolutePath();
+        Flyway.configure()
+                .dataSource(url, "sa", "")
+                .locations("filesystem:" + migrations)
+                .encoding(StandardCharsets.ISO_8859_1)
+                .load()
+                .migrate();
+        Map<String, String> configuration = configuration(url);
+        configuration.put("flyway.encoding", "ISO-8859-1");
+
+        PreflightReport report = new PreflightCheck(configuration, null, true)
+                .invoke(temporaryFolder.toFile(), null);
+
+        assertThat(report.getErrors().toString(), report.isFailed(), is(false));
+    }
+
+    @Test
+    public void shouldReportEditedAndOutOfOrderMigrations(@TempDir Path temporaryFolder) throws Exception {
+        Path migrations = Files.createDirectory(temporaryFolder.resolve("migrations"));
+        Files.writeString(migrations.resolve("V1__First.sql"), "CREATE TABLE first (id INT);\n");
+        Files.writeString(migrations.resolve("V3__Third.sql"), "CREATE TABLE third (id INT);\n");
+        String url = "jdbc:h2:" + temporaryFolder.resolve("db").toAbsolutePath();
+        migrate(url, migrations);
+        Files.writeString(migrations.resolve("V1__First.sql"), "CREATE TABLE first (id BIGINT);\n");
+        Files.writeString(migrations.resolve("V2__Second.sql"), "CREATE TABLE second (id INT);\n");
+
+        PreflightReport report = new PreflightCheck(configuration(url), null, true)
+                .invoke(temporaryFolder.toFile(), null);
+
+        List<String> errors = report.getErrors();
+        assertThat(errors.size(), is(2));
+        assertThat(errors.get(0), containsString("Applied migration 1 was edited"));
+        assertThat(errors.get(1), containsString("Pending migration V2__Second.sql is older"));
+    }
+
+    @Test
+    public void shouldReportDuplicateVersionsAndGaps(@TempDir Path temporaryFolder) throws Exception {
+        Path migrations = Files.createDirectory(temporaryFolder.resolve("migrations"));
+        Files.writeString(migrations.resolve("V1_0__First.sql"), "SELECT 1;", StandardCharsets.UTF_8);
+        Files.writeString(migrations.resolve("V1__Again.sql"), "SELECT 1;", StandardCharsets.UTF_8);
+        Files.writeString(migrations.resolve("V4__Fourth.sql"), "SELECT 1;", StandardCharsets.UTF_8);
+        Files.writeString(migrations.resolve("README.md"), "not a migration", StandardCharsets.UTF_8);
+
+        PreflightReport report = new PreflightCheck(configuration(null), null, false)
+                .invoke(temporaryFolder.toFile(), null);
+
+        assertThat(report.getErrors().size(), is(1));
+        assertThat(report.getErrors().get(0), containsString("Duplicate version"));
+        assertThat(report.getWarnings(), hasItem("Versions 2 to 3 are missing before V4__Fourth.sql"));
+    }
+
+    private static void migrate(String url, Path migrations) {
+        Flyway.configure()
+                .dataSource(url, "sa", "")
+                .locations("filesystem:" + migrations)
+                .load()
+                .migrate();
+    }
+
+    private static Map<String, String> configuration(String url) {
+        Map<String, String> configuration = new HashMap<>();
+        if (url != null) {
+            configuration.put("flyway.url", url);
+            configuration.put("flyway.user", "sa");
+        }
+        configuration.put("flyway.locations", "filesystem:migrations");
+        return configuration;
+    }
+}
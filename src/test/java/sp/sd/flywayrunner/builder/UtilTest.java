@@ -0,0 +1,40 @@
+package sp.sd.flywayrunner.builder;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import org.junit.jupiter.api.Test;
+
+public class UtilTest {
+
+    @Test
+    public void shouldStripCredentialsFromUrls() {
+        assertThat(
+                Util.sanitizeUrl("jdbc:postgresql://sa:secret@db:5432/app?user=sa&password=secret&currentSchema=s1"),
+                is("jdbc:postgresql://db:5432/app?currentSchema=s1"));
+        assertThat(
+                Util.sanitizeUrl("jdbc:sqlserver://db:1433;user=sa;password=secret;databaseName=app"),
+                is("jdbc:sqlserver://db:1433;databaseName=app"));
+        assertThat(Util.sanitizeUrl("jdbc:oracle:thin:sa/secret@db:1521/app"), is("jdbc:oracle:thin:@db:1521/app"));
+        assertThat(
+                Util.sanitizeUrl("jdbc:oracle:thin:scott/tiger@//db:1521/svc"), is("jdbc:oracle:thin:@//db:1521/svc"));
+        assertThat(
+                Util.sanitizeUrl("jdbc:oracle:thin:scott/ti:ger@(DESCRIPTION="
+                        + "(ADDRESS=(PROTOCOL=TCP)(HOST=db)(PORT=1521))(CONNECT_DATA=(SERVICE_NAME=svc)))"),
+                is("jdbc:oracle:thin:@(DESCRIPTION=(ADDRESS=(PROTOCOL=TCP)(HOST=db)(PORT=1521))"
+                        + "(CONNECT_DATA=(SERVICE_NAME=svc)))"));
+        assertThat(Util.sanitizeUrl("jdbc:oracle:thin:@//db:1521/svc"), is("jdbc:oracle:thin:@//db:1521/svc"));
+        assertThat(Util.sanitizeUrl("jdbc:mysql://db/app?password=secret"), is("jdbc:mysql://db/app"));
+    }
+
+    @Test
+    public void shouldKeepDatabasesApart() {
+        assertThat(
+                Util.sanitizeUrl("jdbc:sqlserver://db:1433;databaseName=a"),
+                not(Util.sanitizeUrl("jdbc:sqlserver://db:1433;databaseName=b")));
+        assertThat(
+                Util.sanitizeUrl("jdbc:postgresql://db/app?currentSchema=a"),
+                not(Util.sanitizeUrl("jdbc:postgresql://db/app?currentSchema=b")));
+    }
+}
@@ -0,0 +1,70 @@
+package sp.sd.flywayrunner.builder;
+
+import hudson.Util;
+import hudson.model.TaskListener;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import jenkins.benchmark.jmh.JmhBenchmark;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Listing, checksumming and fingerprinting a location holding many migration scripts.
+ */
+@JmhBenchmark
+public class WorkspaceScanBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Workspace {
+        @Param({"10000"})
+        int migrations;
+
+        File root;
+        String locations;
+
+        @Setup(Level.Trial)
+        public void setup() throws IOException {
+            root = Files.createTempDirectory("flyway-benchmark").toFile();
+            Path directory = Files.createDirectories(root.toPath().resolve("db/migration"));
+            for (int i = 1; i <= migrations; i++) {
+                Files.writeString(
+                        directory.resolve("V" + i + "__step_" + i + ".sql"),
+                        "CREATE TABLE step_" + i + " (id INT PRIMARY KEY, name VARCHAR(100));\n"
+                                + "INSERT INTO step_" + i + " VALUES (1, 'first');\n",
+                        StandardCharsets.UTF_8);
+            }
+            locations = "filesystem:db/migration";
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            Util.deleteRecursive(root);
+        }
+    }
+
+    @Benchmark
+    public List<Path> listFiles(Workspace workspace) throws IOException {
+        return WorkspaceMigrations.filesIn(workspace.root, workspace.locations, null);
+    }
+
+    @Benchmark
+    public List<WorkspaceMigrations.Migration> parseMigrations(Workspace workspace) throws IOException {
+        return new WorkspaceMigrations(Map.of("flyway.locations", workspace.locations)).invoke(workspace.root, null);
+    }
+
+    @Benchmark
+    public String fingerprintLocations(Workspace workspace) throws IOException {
+        return new LocationsFingerprint(TaskListener.NULL, workspace.locations, "jdbc:h2:mem:test migrate", null, true)
+                .invoke(workspace.root, null);
+    }
+}
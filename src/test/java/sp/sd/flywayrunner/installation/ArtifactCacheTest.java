@@ -0,0 +1,44 @@
+package sp.sd.flywayrunner.installation;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import hudson.Util;
+import hudson.model.TaskListener;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class ArtifactCacheTest {
+
+    @Test
+    public void shouldDownloadEachUrlOnceAndStoreByDigest(@TempDir Path temporaryFolder) throws Exception {
+        Path upstream = Files.writeString(temporaryFolder.resolve("driver.jar"), "driver", StandardCharsets.UTF_8);
+        ArtifactCache cache = new ArtifactCache(temporaryFolder.resolve("cache").toFile(), 1024);
+
+        File first = cache.fetch(upstream.toUri().toURL(), TaskListener.NULL);
+        Files.delete(upstream);
+        File second = cache.fetch(upstream.toUri().toURL(), TaskListener.NULL);
+
+        assertThat(second, is(first));
+        byte[] digest = MessageDigest.getInstance("SHA-256").digest("driver".getBytes(StandardCharsets.UTF_8));
+        assertThat(first.getName(), is(Util.toHexString(digest)));
+    }
+
+    @Test
+    public void shouldEvictLeastRecentlyUsedArtifacts(@TempDir Path temporaryFolder) throws Exception {
+        Path older = Files.writeString(temporaryFolder.resolve("older.jar"), "older", StandardCharsets.UTF_8);
+        Path newer = Files.writeString(temporaryFolder.resolve("newer.jar"), "newer", StandardCharsets.UTF_8);
+        ArtifactCache cache = new ArtifactCache(temporaryFolder.resolve("cache").toFile(), 5);
+
+        File evicted = cache.fetch(older.toUri().toURL(), TaskListener.NULL);
+        File kept = cache.fetch(newer.toUri().toURL(), TaskListener.NULL);
+
+        assertThat(evicted.exists(), is(false));
+        assertThat(kept.exists(), is(true));
+    }
+}
@@ -0,0 +1,69 @@
+package sp.sd.flywayrunner.installation;
+
+import hudson.Util;
+import hudson.model.TaskListener;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.Random;
+import jenkins.benchmark.jmh.JmhBenchmark;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Streaming a driver sized artifact through the SHA-256 digest, as downloads into the artifact cache and driver
+ * provisioning do, and finding an artifact which is already cached.
+ */
+@JmhBenchmark
+public class ChecksumBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Artifact {
+        @Param({"33554432"})
+        int size;
+
+        Path directory;
+        URL url;
+        ArtifactCache cache;
+
+        @Setup(Level.Trial)
+        public void setup() throws Exception {
+            directory = Files.createTempDirectory("flyway-benchmark");
+            byte[] content = new byte[size];
+            new Random(42).nextBytes(content);
+            url = Files.write(directory.resolve("driver.jar"), content).toUri().toURL();
+            cache = new ArtifactCache(directory.resolve("cache").toFile(), Long.MAX_VALUE);
+            cache.fetch(url, TaskListener.NULL);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            Util.deleteRecursive(directory.toFile());
+        }
+    }
+
+    @Benchmark
+    public String streamThroughDigest(Artifact artifact) throws IOException {
+        MessageDigest digest = ArtifactCache.sha256();
+        try (InputStream in = new DigestInputStream(ArtifactCache.open(artifact.url), digest)) {
+            in.transferTo(OutputStream.nullOutputStream());
+        }
+        return Util.toHexString(digest.digest());
+    }
+
+    @Benchmark
+    public File fetchCached(Artifact artifact) throws Exception {
+        return artifact.cache.fetch(artifact.url, TaskListener.NULL);
+    }
+}
@@ -0,0 +1,80 @@
+package sp.sd.flywayrunner.installation;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class ClassDataSharingTest {
+
+    @Test
+    public void shouldRecordArchiveOnceThenMapIt(@TempDir Path temporaryFolder) throws Exception {
+        Path home = temporaryFolder.resolve("flyway");
+        Files.createDirectories(home.resolve("lib"));
+        Files.writeString(home.resolve("lib/flyway-core.jar"), "core", StandardCharsets.UTF_8);
+        File archives = temporaryFolder.resolve("cds").toFile();
+        ClassDataSharing sharing = new ClassDataSharing(home.toString(), System.getProperty("java.home"));
+
+        String first = sharing.invoke(archives, null);
+        assertThat(first, containsString("-XX:ArchiveClassesAtExit="));
+        // a second run while the first records the archive runs without one
+        assertThat(sharing.invoke(archives, null), is(""));
+
+        String archive = first.substring(first.indexOf('=') + 1);
+        Files.writeString(Path.of(archive), "archive", StandardCharsets.UTF_8);
+        assertThat(sharing.invoke(archives, null), containsString("-XX:SharedArchiveFile=" + archive));
+
+        // a new driver changes the classes to archive
+        Files.createDirectories(home.resolve("drivers"));
+        Files.writeString(home.resolve("drivers/postgresql.jar"), "driver", StandardCharsets.UTF_8);
+        String updated = sharing.invoke(archives, null);
+        assertThat(updated, containsString("-XX:ArchiveClassesAtExit="));
+        assertThat(updated, not(containsString(archive)));
+        assertThat(new File(archive).exists(), is(false));
+    }
+
+    @Test
+    public void shouldRecordNewArchiveForOtherRuntime(@TempDir Path temporaryFolder) throws Exception {
+        Path home = Files.createDirectories(temporaryFolder.resolve("flyway/lib"));
+        Path java = Files.createDirectories(temporaryFolder.resolve("java/lib"));
+        Files.writeString(java.resolve("modules"), "17", StandardCharsets.UTF_8);
+        File archives = temporaryFolder.resolve("cds").toFile();
+        ClassDataSharing sharing = new ClassDataSharing(home.getParent().toString(), java.getParent().toString());
+        String first = sharing.invoke(archives, null);
+        String archive = first.substring(first.indexOf('=') + 1);
+        Files.writeString(Path.of(archive), "archive", StandardCharsets.UTF_8);
+
+        Files.writeString(java.resolve("modules"), "21.0.1", StandardCharsets.UTF_8);
+
+        String updated = sharing.invoke(archives, null);
+        assertThat(updated, containsString("-XX:ArchiveClassesAtExit="));
+        assertThat(updated, not(containsString(archive)));
+    }
+
+    @Test
+    public void shouldNotUseArchivesInPathsWithSpaces(@TempDir Path temporaryFolder) throws Exception {
+        Path home = Files.createDirectories(temporaryFolder.resolve("flyway/lib"));
+        ClassDataSharing sharing =
+                new ClassDataSharing(home.getParent().toString(), System.getProperty("java.home"));
+
+        assertThat(sharing.invoke(temporaryFolder.resolve("agent root/cds").toFile(), null), is(""));
+    }
+
+    @Test
+    public void shouldCombinePresetAndOptions() throws Exception {
+        JvmOptionsProperty property = new JvmOptionsProperty();
+        property.setPreset(JvmPreset.SHORT_LIVED);
+        property.setOptions(" -Dfile.encoding=UTF-8 ");
+
+        assertThat(
+                property.javaArgs("/opt/flyway", null, null),
+                is(JvmPreset.SHORT_LIVED.getOptions() + " -Dfile.encoding=UTF-8"));
+    }
+}
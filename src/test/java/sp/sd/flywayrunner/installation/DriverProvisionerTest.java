@@ -0,0 +1,79 @@
+package sp.sd.flywayrunner.installation;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import hudson.FilePath;
+import hudson.Util;
+import hudson.util.StreamTaskListener;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.junit.jupiter.WithJenkins;
+
+@WithJenkins
+public class DriverProvisionerTest {
+
+    @Test
+    public void shouldFailInstallOnChecksumMismatch(JenkinsRule jenkinsRule, @TempDir Path temporaryFolder)
+            throws Exception {
+        Path jar = Files.writeString(temporaryFolder.resolve("driver.jar"), "driver", StandardCharsets.UTF_8);
+        FlywayDriver driver = new FlywayDriver(jar.toUri().toString());
+        driver.setSha256(sha256("something else"));
+        FilePath installation = new FilePath(temporaryFolder.resolve("flyway").toFile());
+
+        IOException failure = assertThrows(
+                IOException.class,
+                () -> new DriverProvisioner(false)
+                        .provision(
+                                installation,
+                                Collections.singletonList(driver),
+                                jenkinsRule.getInstance(),
+                                StreamTaskListener.fromStdout()));
+
+        assertThat(failure.getMessage(), containsString("Checksum mismatch"));
+        FilePath drivers = installation.child(DriverProvisioner.DRIVERS_DIRECTORY);
+        assertThat(drivers.child("driver.jar").exists(), is(false));
+        assertThat(drivers.list().size(), is(0));
+    }
+
+    @Test
+    public void shouldSkipVerifiedDriver(JenkinsRule jenkinsRule, @TempDir Path temporaryFolder) throws Exception {
+        Path jar = Files.writeString(temporaryFolder.resolve("driver.jar"), "driver", StandardCharsets.UTF_8);
+        FlywayDriver driver = new FlywayDriver(jar.toUri().toString());
+        driver.setSha256(sha256("driver"));
+        FilePath installation = new FilePath(temporaryFolder.resolve("flyway").toFile());
+        DriverProvisioner provisioner = new DriverProvisioner(false);
+        provisioner.provision(
+                installation,
+                Collections.singletonList(driver),
+                jenkinsRule.getInstance(),
+                StreamTaskListener.fromStdout());
+        // a download of the changed source would fail verification
+        Files.writeString(jar, "changed", StandardCharsets.UTF_8);
+
+        ByteArrayOutputStream log = new ByteArrayOutputStream();
+        provisioner.provision(
+                installation,
+                Collections.singletonList(driver),
+                jenkinsRule.getInstance(),
+                new StreamTaskListener(log, StandardCharsets.UTF_8));
+
+        assertThat(log.toString(StandardCharsets.UTF_8), not(containsString("Downloading")));
+        FilePath installed = installation.child(DriverProvisioner.DRIVERS_DIRECTORY).child("driver.jar");
+        assertThat(installed.readToString(), is("driver"));
+    }
+
+    private static String sha256(String content) {
+        return Util.toHexString(ArtifactCache.sha256().digest(content.getBytes(StandardCharsets.UTF_8)));
+    }
+}
@@ -0,0 +1,32 @@
+package sp.sd.flywayrunner.installation;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+public class FlywayInstallerTest {
+
+    @Test
+    public void shouldNameEachLegacyDriverAfterItsOwnUrl() {
+        FlywayInstaller installer = new FlywayInstaller(
+                "12.9.0", "https://repo.example/a/postgresql.jar, https://repo.example/b/mysql.jar?download=1");
+        FlywayDriver configured = new FlywayDriver("https://repo.example/c/h2.jar");
+        configured.setSha256("ABCDEF");
+        installer.setDrivers(List.of(configured));
+
+        List<FlywayDriver> drivers = installer.getEffectiveDrivers();
+
+        assertThat(drivers.size(), is(3));
+        assertThat(drivers.get(0).getSha256(), is("abcdef"));
+        assertThat(drivers.get(1).getFileName(), is("postgresql.jar"));
+        assertThat(drivers.get(2).getUrl(), is("https://repo.example/b/mysql.jar?download=1"));
+        assertThat(drivers.get(2).getFileName(), is("mysql.jar"));
+    }
+
+    @Test
+    public void shouldAcceptDriverWithoutUrl() {
+        assertThat(new FlywayDriver(null).getUrl(), is(""));
+    }
+}
@@ -0,0 +1,120 @@
+package sp.sd.flywayrunner.installation;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import hudson.EnvVars;
+import hudson.FilePath;
+import hudson.model.Label;
+import hudson.model.Node;
+import hudson.model.TaskListener;
+import hudson.slaves.DumbSlave;
+import hudson.tools.InstallSourceProperty;
+import hudson.tools.ToolInstallation;
+import hudson.tools.ToolInstaller;
+import hudson.tools.ToolInstallerDescriptor;
+import hudson.util.StreamTaskListener;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.TestExtension;
+import org.jvnet.hudson.test.junit.jupiter.WithJenkins;
+
+@WithJenkins
+public class InstallationWarmUpTest {
+
+    @Test
+    public void shouldInstallOnMatchingAgentsOnlyOnce(JenkinsRule jenkinsRule, @TempDir Path temporaryFolder)
+            throws Exception {
+        Path flyway = Files.writeString(temporaryFolder.resolve("flyway"), "#!/bin/sh\n", StandardCharsets.UTF_8);
+        FileInstaller installer = new FileInstaller(flyway.toUri().toString());
+        FlywayInstallation installation = new FlywayInstallation(
+                "flyway",
+                "",
+                Arrays.asList(
+                        new InstallSourceProperty(Collections.singletonList(installer)),
+                        new WarmUpProperty("warm")));
+        jenkinsRule
+                .getInstance()
+                .getDescriptorByType(FlywayInstallation.DescriptorImpl.class)
+                .setInstallations(installation);
+
+        DumbSlave warm = jenkinsRule.createOnlineSlave(Label.get("warm"));
+        DumbSlave cold = jenkinsRule.createOnlineSlave(Label.get("cold"));
+        while (installer.installs.get() == 0) {
+            Thread.sleep(100);
+        }
+        ByteArrayOutputStream log = new ByteArrayOutputStream();
+        TaskListener listener = new StreamTaskListener(log, StandardCharsets.UTF_8);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<InstallationCache.Resolved> resolved = executor.submit(
+                    () -> InstallationCache.resolve(installation, new EnvVars(), listener, warm.getRootPath()));
+            while (!log.toString(StandardCharsets.UTF_8).contains("Waiting for Flyway flyway")) {
+                Thread.sleep(100);
+            }
+            installer.release.countDown();
+
+            FilePath home = new FilePath(warm.getChannel(), resolved.get().getInstallation().getHome());
+            assertThat(home.child("flyway").readToString(), containsString("#!/bin/sh"));
+        } finally {
+            installer.release.countDown();
+            executor.shutdownNow();
+        }
+        assertThat(installer.installs.get(), is(1));
+        assertThat(installer.location(installation, cold).exists(), is(false));
+    }
+
+    /**
+     * Copies the executable from a file: url, counting the installations it did and holding them until released.
+     */
+    public static final class FileInstaller extends ToolInstaller {
+        private final String url;
+        final transient AtomicInteger installs = new AtomicInteger();
+        final transient CountDownLatch release = new CountDownLatch(1);
+
+        FileInstaller(String url) {
+            super(null);
+            this.url = url;
+        }
+
+        @Override
+        public FilePath performInstallation(ToolInstallation tool, Node node, TaskListener log)
+                throws IOException, InterruptedException {
+            FilePath home = preferredLocation(tool, node);
+            FilePath executable = home.child("flyway");
+            if (!executable.exists()) {
+                installs.incrementAndGet();
+                release.await();
+                executable.copyFrom(new URL(url));
+            }
+            return home;
+        }
+
+        FilePath location(ToolInstallation tool, Node node) {
+            return preferredLocation(tool, node);
+        }
+
+        @TestExtension
+        public static final class DescriptorImpl extends ToolInstallerDescriptor<FileInstaller> {
+            @Override
+            public boolean isApplicable(Class<? extends ToolInstallation> toolType) {
+                return toolType == FlywayInstallation.class;
+            }
+        }
+    }
+}
@@ -11,6 +11,7 @@ import io.jenkins.plugins.casc.misc.JenkinsConfiguredWithCodeRule;
 import io.jenkins.plugins.casc.misc.junit.jupiter.WithJenkinsConfiguredWithCode;
 import org.junit.jupiter.api.Test;
 import sp.sd.flywayrunner.installation.FlywayInstallation;
+import sp.sd.flywayrunner.installation.WarmUpProperty;
 
 public class ConfigurationAsCodeTest {
 
@@ -30,4 +31,15 @@ public class ConfigurationAsCodeTest {
         InstallSourceProperty flywayInstallSourceProperty = (InstallSourceProperty) flywayToolInstallers.get(0);
         assertEquals(1, flywayInstallSourceProperty.installers.size());
     }
+
+    @Test
+    @WithJenkinsConfiguredWithCode
+    @ConfiguredWithCode("configuration-as-code-warm-up.yml")
+    public void should_support_warm_up_property(JenkinsConfiguredWithCodeRule rule) throws Exception {
+        FlywayInstallation flywayInstallation = rule.jenkins.getDescriptorByType(
+                        FlywayInstallation.DescriptorImpl.class)
+                .getInstallations()[0];
+        WarmUpProperty warmUp = flywayInstallation.getProperties().get(WarmUpProperty.class);
+        assertEquals("linux && docker", warmUp.getLabel());
+    }
 }
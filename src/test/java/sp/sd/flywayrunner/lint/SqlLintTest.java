@@ -0,0 +1,108 @@
+package sp.sd.flywayrunner.lint;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class SqlLintTest {
+
+    @Test
+    public void shouldInferDialectFromUrl() {
+        assertThat(SqlDialect.of("jdbc:postgresql://db/app"), is(SqlDialect.POSTGRESQL));
+        assertThat(SqlDialect.of("jdbc:mariadb://db/app"), is(SqlDialect.MYSQL));
+        assertThat(SqlDialect.of("jdbc:sqlserver://db;databaseName=app"), is(SqlDialect.SQLSERVER));
+        assertThat(SqlDialect.of("jdbc:oracle:thin:@db:1521:app"), is(SqlDialect.ORACLE));
+        assertThat(SqlDialect.of("jdbc:h2:mem:app"), is(SqlDialect.GENERIC));
+    }
+
+    @Test
+    public void shouldSplitStatementsOutsideCommentsAndLiterals() throws Exception {
+        List<String> statements = statements(
+                SqlDialect.POSTGRESQL,
+                "-- a comment; with a semicolon\n"
+                        + "UPDATE t SET a = 'x;y''z' WHERE id = 1;\n"
+                        + "/* block; comment */ CREATE FUNCTION f() RETURNS int AS $body$ BEGIN RETURN 1; END $body$"
+                        + " LANGUAGE plpgsql;\n");
+        assertThat(statements.size(), is(2));
+        assertThat(statements.get(0), is("UPDATE T SET A = '' WHERE ID = 1"));
+        assertThat(statements.get(1), is("CREATE FUNCTION F() RETURNS INT AS '' LANGUAGE PLPGSQL"));
+    }
+
+    @Test
+    public void shouldUseDialectDelimiters() throws Exception {
+        assertThat(
+                statements(SqlDialect.MYSQL, "DELIMITER //\nCREATE PROCEDURE p() BEGIN SELECT 1; END//\nDELIMITER ;\n")
+                        .size(),
+                is(1));
+        assertThat(statements(SqlDialect.SQLSERVER, "SELECT 1\nGO\nSELECT 2\ngo\n").size(), is(2));
+        assertThat(
+                statements(SqlDialect.ORACLE, "BEGIN\n  UPDATE t SET a = 1;\nEND;\n/\nSELECT 1 FROM dual;\n")
+                        .size(),
+                is(2));
+    }
+
+    @Test
+    public void shouldReportExpensiveStatements(@TempDir Path workspace) throws Exception {
+        Path sql = Files.createDirectories(workspace.resolve("sql"));
+        Files.writeString(
+                sql.resolve("V1__Indexes.sql"),
+                "CREATE INDEX i ON t(a);\nCREATE INDEX CONCURRENTLY j ON t(b);\n",
+                StandardCharsets.UTF_8);
+        Files.writeString(
+                sql.resolve("V2__Data.sql"),
+                "UPDATE t SET a = 1;\nALTER TABLE t ALTER COLUMN a TYPE bigint;\nDELETE FROM t WHERE a = 2;\n",
+                StandardCharsets.UTF_8);
+        Files.writeString(sql.resolve("README.txt"), "UPDATE t SET a = 1;", StandardCharsets.UTF_8);
+
+        SqlLintReport report = new SqlLint(
+                        Collections.singletonMap("flyway.locations", "filesystem:sql"), SqlDialect.POSTGRESQL)
+                .invoke(workspace.toFile(), null);
+
+        assertThat(report.getScripts(), is(2));
+        assertThat(report.getStatements(), is(5L));
+        assertThat(report.getFindingCount(), is(3));
+        assertThat(report.getFindings().get(0).getRule(), is(LintRule.BLOCKING_INDEX));
+        assertThat(report.getFindings().get(1).getRule(), is(LintRule.UNBOUNDED_DML));
+        assertThat(report.getFindings().get(1).getLine(), is(1));
+        assertThat(report.getFindings().get(2).getRule(), is(LintRule.TABLE_REWRITE));
+        assertThat(report.getFindings().get(2).getLine(), is(2));
+    }
+
+    @Test
+    public void shouldSkipAppliedMigrations(@TempDir Path workspace) throws Exception {
+        Path sql = Files.createDirectories(workspace.resolve("sql"));
+        Files.writeString(sql.resolve("V1_0__Applied.sql"), "UPDATE t SET a = 1;\n", StandardCharsets.UTF_8);
+        Files.writeString(sql.resolve("V2__Pending.sql"), "DELETE FROM t;\n", StandardCharsets.UTF_8);
+        Files.writeString(sql.resolve("R__View.sql"), "UPDATE v SET a = 1;\n", StandardCharsets.UTF_8);
+
+        SqlLintReport report = new SqlLint(
+                        Collections.singletonMap("flyway.locations", "filesystem:sql"),
+                        SqlDialect.POSTGRESQL,
+                        Collections.singleton("1"))
+                .invoke(workspace.toFile(), null);
+
+        assertThat(report.getScripts(), is(2));
+        assertThat(report.getAppliedScripts(), is(1));
+        assertThat(report.getFindingCount(), is(2));
+    }
+
+    private static List<String> statements(SqlDialect dialect, String script) throws Exception {
+        List<String> statements = new ArrayList<>();
+        try (SqlStatementReader reader = new SqlStatementReader(new StringReader(script), dialect)) {
+            SqlStatementReader.Statement statement;
+            while ((statement = reader.next()) != null) {
+                statements.add(statement.getText());
+            }
+        }
+        return statements;
+    }
+}
@@ -0,0 +1,131 @@
+package sp.sd.flywayrunner.lock;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import hudson.model.TaskListener;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+public class DatabaseLocksTest {
+
+    @Test
+    public void shouldNormalizeUrls() {
+        assertThat(
+                DatabaseLocks.keyOf(" jdbc:postgresql://DB:5432/app/?user=sa&password=secret "),
+                is(DatabaseLocks.keyOf("jdbc:postgresql://db:5432/app")));
+    }
+
+    @Test
+    public void shouldHandDatabaseToWaitersInOrder() throws Exception {
+        DatabaseLocks locks = new DatabaseLocks();
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+        DatabaseLocks.Lease first =
+                locks.acquire("db", new DatabaseLocks.Holder("first", "job/a/1/"), TaskListener.NULL);
+        List<Thread> threads = new ArrayList<>();
+        for (String name : Arrays.asList("second", "third")) {
+            Thread thread = new Thread(() -> {
+                try (DatabaseLocks.Lease lease =
+                        locks.acquire("db", new DatabaseLocks.Holder(name, "job/a/"), TaskListener.NULL)) {
+                    order.add(name);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            thread.start();
+            threads.add(thread);
+            while (locks.getLanes().get(0).getWaiting().size() < threads.size()) {
+                Thread.sleep(10);
+            }
+        }
+
+        DatabaseLocks.Lane lane = locks.getLanes().get(0);
+        assertThat(lane.getHolder().getName(), is("first"));
+        assertThat(lane.getWaiting().get(0).getName(), is("second"));
+        assertThat(lane.getWaiting().get(1).getName(), is("third"));
+
+        first.close();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertThat(order, is(Arrays.asList("second", "third")));
+        assertThat(locks.getLanes().isEmpty(), is(true));
+    }
+
+    @Test
+    public void shouldHoldQueuedItemsUntilAllTheirDatabasesAreFree() throws Exception {
+        DatabaseLocks locks = new DatabaseLocks();
+        DatabaseLocks.Lease running =
+                locks.acquire("b", new DatabaseLocks.Holder("running", "job/a/1/"), TaskListener.NULL);
+
+        Set<String> both = new TreeSet<>(Arrays.asList("a", "b"));
+        assertThat(locks.reserve(both, 1, "first", "queue/item/1/"), is(notNullValue()));
+        // the second item only needs a, but the first was queued before it
+        assertThat(locks.reserve(Collections.singleton("a"), 2, "second", "queue/item/2/"), is(notNullValue()));
+        assertThat(locks.getLanes().get(0).getHolder(), is(nullValue()));
+
+        running.close();
+        assertThat(locks.reserve(both, 1, "first", "queue/item/1/"), is(nullValue()));
+        assertThat(locks.reserve(both, 1, "first", "queue/item/1/"), is(nullValue()));
+        assertThat(locks.reserve(Collections.singleton("a"), 2, "second", "queue/item/2/"), is(notNullValue()));
+
+        locks.leave(1, true);
+        assertThat(locks.reserve(Collections.singleton("a"), 2, "second", "queue/item/2/"), is(nullValue()));
+        locks.leave(2, true);
+        assertThat(locks.getLanes().isEmpty(), is(true));
+    }
+
+    @Test
+    public void shouldForgetCancelledQueueItems() {
+        DatabaseLocks locks = new DatabaseLocks();
+        locks.reserve(Collections.singleton("db"), 1, "first", "queue/item/1/");
+        locks.reserve(Collections.singleton("db"), 2, "second", "queue/item/2/");
+        locks.reserve(Collections.singleton("db"), 3, "third", "queue/item/3/");
+
+        locks.leave(2, true);
+        locks.leave(1, true);
+        assertThat(locks.reserve(Collections.singleton("db"), 3, "third", "queue/item/3/"), is(nullValue()));
+    }
+
+    @Test
+    public void shouldCallBackRequestsWithoutBlocking() throws Exception {
+        DatabaseLocks locks = new DatabaseLocks();
+        DatabaseLocks.Lease first =
+                locks.acquire("db", new DatabaseLocks.Holder("first", "job/a/1/"), TaskListener.NULL);
+        CountDownLatch granted = new CountDownLatch(1);
+        DatabaseLocks.Lease waiting = locks.request("db", "second", "job/a/2/", TaskListener.NULL, granted::countDown);
+        DatabaseLocks.Lease other = locks.request("other", "third", "job/b/1/", TaskListener.NULL, () -> {});
+        assertThat(locks.getLanes().get(0).getWaiting().get(0).getName(), is("second"));
+        assertThat(granted.getCount(), is(1L));
+
+        first.close();
+        assertThat(granted.await(10, TimeUnit.SECONDS), is(true));
+        assertThat(locks.getLanes().get(0).getHolder().getName(), is("second"));
+
+        waiting.close();
+        other.close();
+        assertThat(locks.getLanes().isEmpty(), is(true));
+    }
+
+    @Test
+    public void shouldGiveUpWaitingWhenLeaseIsClosed() throws Exception {
+        DatabaseLocks locks = new DatabaseLocks();
+        DatabaseLocks.Lease first =
+                locks.acquire("db", new DatabaseLocks.Holder("first", "job/a/1/"), TaskListener.NULL);
+        DatabaseLocks.Lease waiting = locks.request("db", "second", "job/a/2/", TaskListener.NULL, () -> {
+            throw new AssertionError("a cancelled request must not be granted");
+        });
+        waiting.close();
+        first.close();
+        assertThat(locks.getLanes().isEmpty(), is(true));
+    }
+}
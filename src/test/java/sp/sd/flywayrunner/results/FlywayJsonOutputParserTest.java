@@ -0,0 +1,56 @@
+package sp.sd.flywayrunner.results;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+public class FlywayJsonOutputParserTest {
+
+    private static final String MIGRATE = "{\"initialSchemaVersion\":null,\"targetSchemaVersion\":\"2\","
+            + "\"migrations\":[{\"category\":\"Versioned\",\"version\":\"1\",\"description\":\"init\","
+            + "\"type\":\"SQL\",\"filepath\":\"/tmp/V1__init.sql\",\"executionTime\":12},"
+            + "{\"category\":\"Versioned\",\"version\":\"2\",\"description\":\"add index\","
+            + "\"type\":\"SQL\",\"filepath\":\"/tmp/V2__add_index.sql\",\"executionTime\":40}],"
+            + "\"migrationsExecuted\":2,\"success\":true,\"warnings\":[],\"operation\":\"migrate\"}";
+
+    @Test
+    public void shouldParseMigrationsWrittenInSmallChunks() throws IOException {
+        FlywayJsonOutputParser parser = new FlywayJsonOutputParser();
+        byte[] bytes = ("Flyway banner\n" + MIGRATE + "\n").getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i < bytes.length; i += 7) {
+            parser.write(bytes, i, Math.min(7, bytes.length - i));
+        }
+        parser.close();
+
+        List<FlywayCommandResult> results = parser.getResults();
+        assertThat(results.size(), is(1));
+        assertThat(results.get(0).getOperation(), is("migrate"));
+        assertThat(results.get(0).isSuccess(), is(true));
+        assertThat(results.get(0).getMigrations().size(), is(2));
+        assertThat(results.get(0).getMigrations().get(1).getDescription(), is("add index"));
+        assertThat(results.get(0).getMigrations().get(1).getExecutionTime(), is(40));
+        assertThat(results.get(0).getMigrations().get(1).getState(), nullValue());
+    }
+
+    @Test
+    public void shouldParseIndividualResultsAndErrors() throws IOException {
+        FlywayJsonOutputParser parser = new FlywayJsonOutputParser();
+        String json = "{\"individualResults\":[" + MIGRATE + ",{\"operation\":\"info\",\"migrations\":"
+                + "[{\"version\":\"1\",\"description\":\"init\",\"type\":\"SQL\",\"state\":\"Success\"}]}]}"
+                + "{\"error\":{\"errorCode\":\"FAULT\",\"message\":\"Unable to connect\"}}";
+        parser.write(json.getBytes(StandardCharsets.UTF_8));
+        parser.close();
+
+        List<FlywayCommandResult> results = parser.getResults();
+        assertThat(results.size(), is(3));
+        assertThat(results.get(1).getOperation(), is("info"));
+        assertThat(results.get(1).getMigrations().get(0).getState(), is("Success"));
+        assertThat(results.get(2).isSuccess(), is(false));
+        assertThat(results.get(2).getErrorMessage(), is("Unable to connect"));
+    }
+}
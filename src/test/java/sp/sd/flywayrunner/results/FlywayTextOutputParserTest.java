@@ -0,0 +1,99 @@
+package sp.sd.flywayrunner.results;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+public class FlywayTextOutputParserTest {
+
+    @Test
+    public void shouldTimeMigrationsFromTheirLines() throws IOException, InterruptedException {
+        FlywayTextOutputParser parser = new FlywayTextOutputParser();
+        write(parser, "Flyway OSS Edition 10.20.1 by Redgate\n"
+                + "Database: jdbc:h2:mem:test (H2 2.2)\n"
+                + "Migrating schema \"PUBLIC\" to version \"1 - init\"\n");
+        Thread.sleep(50);
+        write(parser, "Migrating schema \"PUBLIC\" to version \"2.1 - add - index\"\n"
+                + "Migrating schema \"PUBLIC\" with repeatable migration \"views\"\n"
+                + "Successfully applied 3 migrations to schema \"PUBLIC\", now at version v2.1 "
+                + "(execution time 00:00.070s)\n");
+        parser.close();
+
+        List<FlywayCommandResult> results = parser.getResults();
+        assertThat(results.size(), is(1));
+        assertThat(results.get(0).getOperation(), is("migrate"));
+        assertThat(results.get(0).isSuccess(), is(true));
+        List<FlywayMigration> migrations = results.get(0).getMigrations();
+        assertThat(migrations.size(), is(3));
+        assertThat(migrations.get(0).getVersion(), is("1"));
+        assertThat(migrations.get(0).getDescription(), is("init"));
+        assertThat(migrations.get(0).getExecutionTime(), greaterThanOrEqualTo(50));
+        assertThat(migrations.get(1).getVersion(), is("2.1"));
+        assertThat(migrations.get(1).getDescription(), is("add - index"));
+        assertThat(migrations.get(2).getCategory(), is("Repeatable"));
+        assertThat(migrations.get(2).getVersion(), is(""));
+        assertThat(migrations.get(2).getDescription(), is("views"));
+    }
+
+    @Test
+    public void shouldLeaveOutTheMigrationWhichFailed() throws IOException {
+        FlywayTextOutputParser parser = new FlywayTextOutputParser();
+        write(parser, "Migrating schema \"PUBLIC\" to version \"1 - init\"\n"
+                + "Migrating schema \"PUBLIC\" to version \"2 - broken\"\n"
+                + "ERROR: Migration V2__broken.sql failed\n");
+        parser.close();
+
+        List<FlywayCommandResult> results = parser.getResults();
+        assertThat(results.size(), is(1));
+        assertThat(results.get(0).isSuccess(), is(false));
+        assertThat(results.get(0).getMigrations().size(), is(1));
+        assertThat(results.get(0).getMigrations().get(0).getVersion(), is("1"));
+    }
+
+    @Test
+    public void shouldRecognizeUpToDateSchemas() throws IOException {
+        FlywayTextOutputParser parser = new FlywayTextOutputParser();
+        write(parser, "Schema \"PUBLIC\" is up to date. No migration necessary.\n");
+        parser.close();
+
+        List<FlywayCommandResult> results = parser.getResults();
+        assertThat(results.size(), is(1));
+        assertThat(results.get(0).getMigrations().isEmpty(), is(true));
+    }
+
+    @Test
+    public void shouldParseTheInfoTable() throws IOException {
+        FlywayTextOutputParser parser = new FlywayTextOutputParser();
+        String border = "+-----------+---------+-------------+------+---------------------+---------+----------+\n";
+        write(parser, "Schema version: 1\n"
+                + border
+                + "| Category  | Version | Description | Type | Installed On        | State   | Undoable |\n"
+                + border
+                + "| Versioned | 1       | init        | SQL  | 2024-05-01 12:00:00 | Success | No       |\n"
+                + "| Versioned | 2       | add index   | SQL  |                     | Pending | No       |\n"
+                + "| Repeatable|         | views       | SQL  |                     | Pending |          |\n"
+                + border
+                + "\n");
+        parser.close();
+
+        List<FlywayCommandResult> results = parser.getResults();
+        assertThat(results.size(), is(1));
+        assertThat(results.get(0).getOperation(), is("info"));
+        List<FlywayMigration> migrations = results.get(0).getMigrations();
+        assertThat(migrations.size(), is(3));
+        assertThat(migrations.get(0).getState(), is("Success"));
+        assertThat(migrations.get(1).getDescription(), is("add index"));
+        assertThat(migrations.get(1).getState(), is("Pending"));
+        assertThat(migrations.get(2).getVersion(), is(""));
+        assertThat(migrations.get(2).getCategory(), is("Repeatable"));
+    }
+
+    private static void write(FlywayTextOutputParser parser, String text) throws IOException {
+        parser.write(text.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,173 @@
+package sp.sd.flywayrunner.trace;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import hudson.ExtensionList;
+import hudson.FilePath;
+import hudson.model.FreeStyleBuild;
+import hudson.model.Run;
+import hudson.tools.InstallSourceProperty;
+import hudson.util.StreamTaskListener;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.TestExtension;
+import org.jvnet.hudson.test.junit.jupiter.WithJenkins;
+import sp.sd.flywayrunner.installation.FlywayDriver;
+import sp.sd.flywayrunner.installation.FlywayInstallation;
+import sp.sd.flywayrunner.installation.FlywayInstaller;
+
+@WithJenkins
+public class SpanExporterTest {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    @Test
+    public void shouldWriteSpansAsJsonLines(JenkinsRule jenkinsRule) throws Exception {
+        FreeStyleBuild build = jenkinsRule.buildAndAssertSuccess(jenkinsRule.createFreeStyleProject("traced"));
+        try (Span root = Span.start(build, "Flyway migrate")) {
+            root.attribute("flyway.url", "jdbc:h2:mem:traced");
+            try (Span target = root.child("Target")) {
+                Thread.sleep(5);
+            }
+        }
+
+        File file = new File(jenkinsRule.getInstance().getRootDir(), "logs/flyway-traces.jsonl");
+        List<JsonNode> spans = readLines(file);
+        StepTrace trace = traceOf(build);
+        assertThat(spans.size(), is(2));
+        JsonNode root = spans.get(0);
+        JsonNode target = spans.get(1);
+        assertThat(root.get("traceId").asText(), is(trace.getTraceId()));
+        assertThat(root.get("traceId").asText().matches("[0-9a-f]{32}"), is(true));
+        assertThat(root.get("spanId").asText().matches("[0-9a-f]{16}"), is(true));
+        assertThat(root.has("parentSpanId"), is(false));
+        assertThat(root.get("name").asText(), is("Flyway migrate"));
+        assertThat(root.get("startTimeUnixNano").asLong(), is(trace.getStartMillis() * 1_000_000L));
+        assertThat(root.get("attributes").get("jenkins.job").asText(), is("traced"));
+        assertThat(root.get("attributes").get("jenkins.build").asInt(), is(1));
+        assertThat(root.get("attributes").get("flyway.url").asText(), is("jdbc:h2:mem:traced"));
+        assertThat(target.get("traceId").asText(), is(trace.getTraceId()));
+        assertThat(target.get("parentSpanId").asText(), is(root.get("spanId").asText()));
+        assertThat(target.get("name").asText(), is("Target"));
+        assertThat(
+                target.get("endTimeUnixNano").asLong() - target.get("startTimeUnixNano").asLong(),
+                greaterThanOrEqualTo(5_000_000L));
+    }
+
+    @Test
+    public void shouldRotateFileAboveMaxSize(JenkinsRule jenkinsRule, @TempDir Path temporaryFolder)
+            throws Exception {
+        FreeStyleBuild build = jenkinsRule.buildAndAssertSuccess(jenkinsRule.createFreeStyleProject());
+        try (Span root = Span.start(build, "Flyway migrate")) {
+            root.attribute("flyway.url", "jdbc:h2:mem:rotated");
+        }
+        StepTrace trace = traceOf(build);
+        File file = temporaryFolder.resolve("traces").resolve("flyway-traces.jsonl").toFile();
+
+        FileSpanExporter.write(file, 1024, build, trace);
+        FileSpanExporter.write(file, 1024, build, trace);
+        assertThat(readLines(file).size(), is(2));
+        assertThat(new File(file.getPath() + ".1").exists(), is(false));
+
+        FileSpanExporter.write(file, 1, build, trace);
+        assertThat(readLines(file).size(), is(1));
+        assertThat(readLines(new File(file.getPath() + ".1")).size(), is(2));
+
+        // the previous rotation is replaced
+        FileSpanExporter.write(file, 1, build, trace);
+        assertThat(readLines(file).size(), is(1));
+        assertThat(readLines(new File(file.getPath() + ".1")).size(), is(1));
+    }
+
+    @Test
+    public void shouldHandTracesToEveryExporter(JenkinsRule jenkinsRule) throws Exception {
+        FreeStyleBuild build = jenkinsRule.buildAndAssertSuccess(jenkinsRule.createFreeStyleProject());
+        try (Span root = Span.start(build, "Flyway migrate")) {
+            root.child("Target").close();
+        }
+
+        RecordingExporter exporter = ExtensionList.lookupSingleton(RecordingExporter.class);
+        assertThat(ExtensionList.lookupSingleton(FailingExporter.class).calls, is(1));
+        assertThat(exporter.traces.size(), is(1));
+        assertThat(exporter.traces.get(0), is(traceOf(build)));
+        assertThat(exporter.traces.get(0).getSpans().size(), is(2));
+    }
+
+    @Test
+    public void shouldTraceInstallation(JenkinsRule jenkinsRule, @TempDir Path temporaryFolder) throws Exception {
+        FreeStyleBuild build = jenkinsRule.buildAndAssertSuccess(jenkinsRule.createFreeStyleProject());
+        Path jar = Files.writeString(temporaryFolder.resolve("driver.jar"), "driver", StandardCharsets.UTF_8);
+        // an unknown version leaves the installation as it is, only the driver is provisioned
+        FlywayInstaller installer = new FlywayInstaller("0.0.0-unknown");
+        installer.setDrivers(Collections.singletonList(new FlywayDriver(jar.toUri().toString())));
+        FlywayInstallation tool = new FlywayInstallation(
+                "traced-flyway",
+                "",
+                Collections.singletonList(new InstallSourceProperty(Collections.singletonList(installer))));
+
+        FilePath installed;
+        try (Span root = Span.start(build, "Flyway migrate")) {
+            installed =
+                    installer.performInstallation(tool, jenkinsRule.getInstance(), StreamTaskListener.fromStdout());
+        }
+
+        assertThat(installed.child("drivers").child("driver.jar").exists(), is(true));
+        List<SpanData> spans = traceOf(build).getSpans();
+        assertThat(spans.size(), is(3));
+        SpanData install = spans.get(1);
+        assertThat(install.getName(), is("Install Flyway"));
+        assertThat(install.getParentId(), is(spans.get(0).getId()));
+        assertThat(install.getAttributes().get("flyway.installation"), is("traced-flyway"));
+        assertThat(install.getAttributes().get("flyway.version"), is("0.0.0-unknown"));
+        assertThat(install.getAttributes().get("jenkins.node"), is(jenkinsRule.getInstance().getDisplayName()));
+        assertThat(spans.get(2).getName(), is("Provision drivers"));
+        assertThat(spans.get(2).getParentId(), is(install.getId()));
+    }
+
+    private static StepTrace traceOf(Run<?, ?> run) {
+        List<StepTrace> traces = run.getAction(FlywayTraceAction.class).getTraces();
+        assertThat(traces.size(), is(1));
+        return traces.get(0);
+    }
+
+    private static List<JsonNode> readLines(File file) throws IOException {
+        List<JsonNode> lines = new ArrayList<>();
+        for (String line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)) {
+            lines.add(MAPPER.readTree(line));
+        }
+        return lines;
+    }
+
+    @TestExtension("shouldHandTracesToEveryExporter")
+    public static class RecordingExporter extends SpanExporter {
+        private final List<StepTrace> traces = new ArrayList<>();
+
+        @Override
+        public void export(Run<?, ?> run, StepTrace trace) {
+            traces.add(trace);
+        }
+    }
+
+    @TestExtension("shouldHandTracesToEveryExporter")
+    public static class FailingExporter extends SpanExporter {
+        private int calls;
+
+        @Override
+        public void export(Run<?, ?> run, StepTrace trace) throws IOException {
+            calls++;
+            throw new IOException("backend unavailable");
+        }
+    }
+}
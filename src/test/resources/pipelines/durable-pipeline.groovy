@@ -0,0 +1,31 @@
+pipeline {
+    agent {
+        label('test-agent')
+    }
+    stages {
+        stage('Checkout') {
+            steps {
+                sh('mkdir -p migrations')
+                writeFile(file: 'migrations/V1__init.sql', text: 'CREATE TABLE test (id INT);')
+            }
+        }
+        stage('Run Flyway') {
+            steps {
+                script {
+                    def result = flywayDurable(
+                        flywayCommand: 'migrate',
+                        installationName: 'flyway',
+                        locations: "filesystem:${env.WORKSPACE}/migrations",
+                        url: 'jdbc:h2:mem:test',
+                        credentialsId: 'pipeline-credentials',
+                        commandLineArgs: '',
+                        jsonOutput: true,
+                    )
+                    echo("Flyway applied ${result.appliedMigrations} migration(s)")
+                    def command = result.results[0]
+                    echo("Flyway ${command.operation} succeeded: ${command.success}, version ${command.migrations[0].version}")
+                }
+            }
+        }
+    }
+}